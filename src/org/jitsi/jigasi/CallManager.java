@@ -9,6 +9,7 @@ package org.jitsi.jigasi;
 import net.java.sip.communicator.service.protocol.*;
 import net.java.sip.communicator.service.protocol.media.*;
 import net.java.sip.communicator.util.*;
+import org.jitsi.jigasi.util.*;
 
 import java.util.*;
 import java.util.concurrent.*;
@@ -21,6 +22,11 @@ public class CallManager
 
     private final static Logger logger = Logger.getLogger(CallManager.class);
 
+    /**
+     * Logs call events off the calling threads.
+     */
+    private final static SessionLogger log = new SessionLogger(logger);
+
     private static final int POOL_SIZE = 5;
 
     private static ExecutorService threadPool
@@ -431,10 +437,7 @@ public class CallManager
 
     public synchronized static void hangupCall(Call call)
     {
-        if (logger.isDebugEnabled())
-        {
-            logger.debug("Hanging up :" + call, new Throwable());
-        }
+        log.debug("Hanging up: {}", call);
 
         threadPool.submit(
             new HangupCallThread(call));
@@ -444,10 +447,7 @@ public class CallManager
                                                int    reasonCode,
                                                String reason)
     {
-        if (logger.isDebugEnabled())
-        {
-            logger.debug("Hanging up :" + call, new Throwable());
-        }
+        log.debug("Hanging up: {}", call);
 
         HangupCallThread hangupCallThread = new HangupCallThread(call);
 
@@ -457,6 +457,30 @@ public class CallManager
         threadPool.submit(hangupCallThread);
     }
 
+    /**
+     * Hangs up given call on the calling thread.
+     *
+     * @param call the <tt>Call</tt> to be hung up.
+     * @param reasonCode the reason code or <tt>-1</tt> for normal clearing.
+     * @param reason the reason or <tt>null</tt>.
+     */
+    public static void hangupCallNow(Call   call,
+                                     int    reasonCode,
+                                     String reason)
+    {
+        log.debug("Hanging up now: {}", call);
+
+        HangupCallThread hangupCallThread = new HangupCallThread(call);
+
+        if (reasonCode != -1)
+        {
+            hangupCallThread.reasonCode = reasonCode;
+            hangupCallThread.reason = reason;
+        }
+
+        hangupCallThread.run();
+    }
+
     /**
      *
      * Hangs up a specific <tt>Call</tt> (i.e. all <tt>CallPeer</tt>s associated
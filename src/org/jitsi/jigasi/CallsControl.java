@@ -30,6 +30,15 @@ public interface CallsControl
      */
     public void callEnded(SipGateway gateway, String callResource);
 
+    /**
+     * Method must be called by call handler to notify this
+     * <tt>CallsControl</tt> that outgoing SIP call identified by
+     * <tt>callResource</tt> has been answered.
+     * @param gateway the <tt>SipGateway</tt> that handles the call.
+     * @param callResource the resource of the call that has been answered.
+     */
+    public void callAnswered(SipGateway gateway, String callResource);
+
     /**
      * Call resource currently has the form of e23gr547@callcontro.server.net.
      * This methods extract random call id part before '@' sign. In the example
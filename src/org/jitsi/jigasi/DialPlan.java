@@ -0,0 +1,373 @@
+/*
+ * Jitsi Videobridge, OpenSource video conferencing.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package org.jitsi.jigasi;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Immutable table of routes of outgoing calls compiled into a trie of
+ * digits, so that the route with the longest prefix matching a number is
+ * found in time proportional to the number of digits and without any
+ * allocation. The route normalizes the number and selects the trunk (the
+ * host part of the SIP address) through which it is called.
+ * <p>
+ * The table is loaded from a text file with one route per line:
+ * <pre>
+ * # prefix  strip  prepend  trunk
+ * 1         0      +        us.trunk.example.com
+ * 0044      2      +        eu.trunk.example.com
+ * *         0      -        -
+ * </pre>
+ * where <tt>strip</tt> is the number of leading digits removed from the
+ * number, <tt>prepend</tt> is put in front of the rest, <tt>-</tt> stands
+ * for nothing and the prefix <tt>*</tt> matches any number. Digits are
+ * matched ignoring leading <tt>+</tt> and separators (space, <tt>-</tt>,
+ * <tt>.</tt>, <tt>(</tt> and <tt>)</tt>). The leading <tt>+</tt> is kept
+ * by routes which neither strip nor prepend anything. Addresses which are
+ * not plain numbers (e.g. SIP URIs) are not routed.
+ */
+public class DialPlan
+{
+    /**
+     * Dial plan without any route.
+     */
+    public static final DialPlan EMPTY = new DialPlan(new Node());
+
+    /**
+     * The number of children of each node, one for every digit.
+     */
+    private static final int DIGITS = 10;
+
+    /**
+     * The indexes of children of the nodes, <tt>DIGITS</tt> per node, or
+     * <tt>0</tt> if there is no child (the root is never a child).
+     */
+    private final int[] children;
+
+    /**
+     * The routes of the nodes or <tt>null</tt>.
+     */
+    private final Route[] routes;
+
+    /**
+     * The route of outgoing calls matching a prefix.
+     */
+    public static class Route
+    {
+        /**
+         * The prefix of the route.
+         */
+        private final String prefix;
+
+        /**
+         * The number of leading digits removed from the number.
+         */
+        private final int strip;
+
+        /**
+         * Put in front of the number.
+         */
+        private final String prepend;
+
+        /**
+         * The host part of the SIP address or <tt>null</tt>.
+         */
+        private final String trunk;
+
+        /**
+         * Creates new <tt>Route</tt>.
+         *
+         * @param prefix the digits of the prefix, empty for any number.
+         * @param strip the number of leading digits removed from the number.
+         * @param prepend put in front of the number, may be <tt>null</tt>.
+         * @param trunk the host part of the SIP address or <tt>null</tt> to
+         *              keep the default of the SIP account.
+         */
+        public Route(String prefix, int strip, String prepend, String trunk)
+        {
+            this.prefix = prefix;
+            this.strip = strip;
+            this.prepend = prepend != null ? prepend : "";
+            this.trunk = trunk;
+        }
+
+        /**
+         * Returns the prefix of the route.
+         */
+        public String getPrefix()
+        {
+            return prefix;
+        }
+
+        /**
+         * Returns the trunk of the route or <tt>null</tt>.
+         */
+        public String getTrunk()
+        {
+            return trunk;
+        }
+
+        /**
+         * Normalizes given number and addresses it to the trunk. The leading
+         * <tt>+</tt> of the number is kept unless the route strips digits or
+         * prepends something.
+         *
+         * @param number the number matching the prefix of this route.
+         * @return the address to be called.
+         */
+        public String apply(String number)
+        {
+            StringBuilder address
+                = new StringBuilder(
+                        prepend.length() + number.length()
+                            + (trunk != null ? trunk.length() + 1 : 0));
+
+            if (strip == 0
+                && prepend.length() == 0
+                && number.length() > 0
+                && number.charAt(0) == '+')
+            {
+                address.append('+');
+            }
+            else
+            {
+                address.append(prepend);
+            }
+
+            int digits = 0;
+            for (int i = 0; i < number.length(); i++)
+            {
+                char c = number.charAt(i);
+
+                if (c >= '0' && c <= '9' && digits++ >= strip)
+                    address.append(c);
+            }
+
+            if (trunk != null)
+                address.append('@').append(trunk);
+
+            return address.toString();
+        }
+    }
+
+    /**
+     * Node of the trie being built.
+     */
+    private static class Node
+    {
+        final Node[] children = new Node[DIGITS];
+
+        Route route;
+    }
+
+    /**
+     * Compiles given routes into new dial plan.
+     *
+     * @param routes the routes, all with different prefixes.
+     * @return new dial plan.
+     * @throws IllegalArgumentException if a prefix is not made of digits or
+     *         is used by more than one route.
+     */
+    public static DialPlan compile(Collection<Route> routes)
+    {
+        Node root = new Node();
+
+        for (Route route : routes)
+        {
+            Node node = root;
+            String prefix = route.getPrefix();
+
+            for (int i = 0; i < prefix.length(); i++)
+            {
+                int digit = prefix.charAt(i) - '0';
+                if (digit < 0 || digit >= DIGITS)
+                {
+                    throw new IllegalArgumentException(
+                        "Not a digit in prefix " + prefix);
+                }
+
+                if (node.children[digit] == null)
+                    node.children[digit] = new Node();
+                node = node.children[digit];
+            }
+
+            if (node.route != null)
+            {
+                throw new IllegalArgumentException(
+                    "Duplicate prefix " + (prefix.length() > 0 ? prefix : "*"));
+            }
+            node.route = route;
+        }
+        return new DialPlan(root);
+    }
+
+    /**
+     * Loads the dial plan from given file.
+     *
+     * @param file the routing table.
+     * @return new dial plan.
+     * @throws IOException if the file can not be read.
+     * @throws IllegalArgumentException if the file is malformed.
+     */
+    public static DialPlan load(File file)
+        throws IOException
+    {
+        List<Route> routes = new ArrayList<Route>();
+
+        BufferedReader in = new BufferedReader(new FileReader(file));
+        try
+        {
+            String line;
+            int lineNumber = 0;
+
+            while ((line = in.readLine()) != null)
+            {
+                lineNumber++;
+                line = line.trim();
+
+                if (line.length() == 0 || line.startsWith("#"))
+                    continue;
+
+                String[] fields = line.split("\\s+");
+                if (fields.length != 4)
+                {
+                    throw new IllegalArgumentException(
+                        file + ":" + lineNumber + ": expected 4 fields");
+                }
+
+                try
+                {
+                    routes.add(
+                        new Route(
+                            "*".equals(fields[0]) ? "" : fields[0],
+                            Integer.parseInt(fields[1]),
+                            "-".equals(fields[2]) ? null : fields[2],
+                            "-".equals(fields[3]) ? null : fields[3]));
+                }
+                catch (NumberFormatException e)
+                {
+                    throw new IllegalArgumentException(
+                        file + ":" + lineNumber + ": invalid strip "
+                            + fields[1]);
+                }
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+
+        return compile(routes);
+    }
+
+    /**
+     * Flattens the trie into arrays.
+     */
+    private DialPlan(Node root)
+    {
+        List<Node> nodes = new ArrayList<Node>();
+        nodes.add(root);
+
+        // Breadth first, so that every child gets the index after its parent
+        for (int i = 0; i < nodes.size(); i++)
+        {
+            for (Node child : nodes.get(i).children)
+            {
+                if (child != null)
+                    nodes.add(child);
+            }
+        }
+
+        Map<Node, Integer> indexes = new IdentityHashMap<Node, Integer>();
+        for (int i = 0; i < nodes.size(); i++)
+        {
+            indexes.put(nodes.get(i), i);
+        }
+
+        this.children = new int[nodes.size() * DIGITS];
+        this.routes = new Route[nodes.size()];
+
+        for (int i = 0; i < nodes.size(); i++)
+        {
+            Node node = nodes.get(i);
+
+            routes[i] = node.route;
+            for (int digit = 0; digit < DIGITS; digit++)
+            {
+                Node child = node.children[digit];
+                if (child != null)
+                    children[i * DIGITS + digit] = indexes.get(child);
+            }
+        }
+    }
+
+    /**
+     * Finds the route with the longest prefix matching given number.
+     *
+     * @param number the number to be called.
+     * @return the route or <tt>null</tt> if no route matches or the address
+     *         is not a plain number.
+     */
+    public Route lookup(CharSequence number)
+    {
+        Route route = routes[0];
+        int node = 0;
+        boolean matching = true;
+
+        for (int i = 0, length = number.length(); i < length; i++)
+        {
+            char c = number.charAt(i);
+
+            if (c >= '0' && c <= '9')
+            {
+                if (!matching)
+                    continue;
+
+                node = children[node * DIGITS + (c - '0')];
+                if (node == 0)
+                {
+                    // Longer prefixes can not match, but the rest must
+                    // still be checked to be a number
+                    matching = false;
+                }
+                else if (routes[node] != null)
+                {
+                    route = routes[node];
+                }
+            }
+            else if (!(c == '+' && i == 0)
+                && c != ' ' && c != '-' && c != '.' && c != '(' && c != ')')
+            {
+                return null;
+            }
+        }
+        return route;
+    }
+
+    /**
+     * Routes given destination.
+     *
+     * @param destination the destination of the call.
+     * @return the address to be called, <tt>destination</tt> if no route
+     *         matches.
+     */
+    public String apply(String destination)
+    {
+        Route route = lookup(destination);
+
+        return route != null ? route.apply(destination) : destination;
+    }
+
+    /**
+     * Returns the number of nodes of the trie.
+     */
+    public int size()
+    {
+        return routes.length;
+    }
+}
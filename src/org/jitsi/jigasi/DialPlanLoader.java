@@ -0,0 +1,180 @@
+/*
+ * Jitsi Videobridge, OpenSource video conferencing.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package org.jitsi.jigasi;
+
+import net.java.sip.communicator.util.*;
+import org.jitsi.service.configuration.*;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Loads {@link DialPlan} from the routing table file and reloads it when the
+ * file changes. The new dial plan replaces the old one at once, calls being
+ * routed at that time use either of them. The old dial plan is kept if the
+ * file can not be loaded.
+ */
+public class DialPlanLoader
+{
+    /**
+     * The logger
+     */
+    private final static Logger logger = Logger.getLogger(DialPlanLoader.class);
+
+    /**
+     * The name of the property which holds the path of the routing table of
+     * outgoing calls. Destinations are not routed unless it is set.
+     */
+    public static final String P_NAME_DIAL_PLAN_FILE
+        = "org.jitsi.jigasi.DIAL_PLAN_FILE";
+
+    /**
+     * How often (in ms) the file is checked for changes.
+     */
+    private static final long CHECK_INTERVAL = 10000;
+
+    /**
+     * The routing table file.
+     */
+    private final File file;
+
+    /**
+     * The current dial plan.
+     */
+    private volatile DialPlan dialPlan = DialPlan.EMPTY;
+
+    /**
+     * The last modification time of the file loaded.
+     */
+    private long lastModified;
+
+    /**
+     * The size of the file loaded.
+     */
+    private long length;
+
+    /**
+     * The timer which checks the file or <tt>null</tt>.
+     */
+    private Timer timer;
+
+    /**
+     * Creates new <tt>DialPlanLoader</tt> if the routing table file is set
+     * in given configuration.
+     *
+     * @param config the <tt>ConfigurationService</tt>.
+     * @return new <tt>DialPlanLoader</tt> or <tt>null</tt> if routing is
+     *         disabled.
+     */
+    public static DialPlanLoader create(ConfigurationService config)
+    {
+        String path = config.getString(P_NAME_DIAL_PLAN_FILE);
+
+        if (path == null || path.trim().length() == 0)
+            return null;
+
+        return new DialPlanLoader(new File(path.trim()));
+    }
+
+    /**
+     * Creates new <tt>DialPlanLoader</tt>.
+     *
+     * @param file the routing table file.
+     */
+    public DialPlanLoader(File file)
+    {
+        this.file = file;
+    }
+
+    /**
+     * Returns current dial plan.
+     */
+    public DialPlan getDialPlan()
+    {
+        return dialPlan;
+    }
+
+    /**
+     * Loads the file and starts checking it for changes.
+     */
+    public synchronized void start()
+    {
+        if (timer != null)
+            return;
+
+        checkFile();
+
+        timer = new Timer("DialPlanLoader", true);
+        timer.schedule(new TimerTask()
+        {
+            @Override
+            public void run()
+            {
+                checkFile();
+            }
+        }, CHECK_INTERVAL, CHECK_INTERVAL);
+    }
+
+    /**
+     * Stops checking the file.
+     */
+    public synchronized void stop()
+    {
+        if (timer != null)
+        {
+            timer.cancel();
+            timer = null;
+        }
+    }
+
+    /**
+     * Loads the file if it has changed since it was loaded.
+     *
+     * @return <tt>true</tt> if new dial plan has been loaded.
+     */
+    synchronized boolean checkFile()
+    {
+        long lastModified = file.lastModified();
+        long length = file.length();
+
+        if (lastModified == this.lastModified && length == this.length)
+            return false;
+
+        // Not checked again until it changes, also if it fails to load
+        this.lastModified = lastModified;
+        this.length = length;
+
+        if (lastModified == 0)
+        {
+            logger.error("Dial plan file " + file + " not found");
+            return false;
+        }
+
+        try
+        {
+            long start = System.currentTimeMillis();
+
+            DialPlan dialPlan = DialPlan.load(file);
+
+            this.dialPlan = dialPlan;
+
+            logger.info(
+                "Dial plan of " + dialPlan.size() + " nodes compiled in "
+                    + (System.currentTimeMillis() - start) + " ms");
+            return true;
+        }
+        catch (IOException e)
+        {
+            logger.error("Failed to load dial plan " + file, e);
+        }
+        catch (IllegalArgumentException e)
+        {
+            logger.error("Invalid dial plan " + e.getMessage());
+        }
+        return false;
+    }
+}
@@ -0,0 +1,404 @@
+/*
+ * Jitsi Videobridge, OpenSource video conferencing.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package org.jitsi.jigasi;
+
+import net.java.sip.communicator.util.*;
+import org.jitsi.jigasi.stats.*;
+import org.jitsi.service.configuration.*;
+
+import java.util.*;
+
+/**
+ * Paces outgoing SIP calls of single SIP account to the calls per second
+ * limit of the carrier, so that bursts of dial requests are smoothed instead
+ * of being rejected by the carrier. Calls waiting for their turn are queued
+ * per room and the rooms take turns, so that a room dialing many
+ * destinations does not hold back the calls of other rooms. The time spent
+ * in the queue is recorded in the <tt>dial_queue_wait_time</tt> histogram
+ * (in ms). Calls hung up while queued are dropped when their turn comes.
+ */
+public class DialScheduler
+{
+    /**
+     * The logger
+     */
+    private final static Logger logger = Logger.getLogger(DialScheduler.class);
+
+    /**
+     * The name of the property which holds the maximum number of calls
+     * dialed per second, <tt>0</tt> dials every call at once.
+     */
+    public static final String P_NAME_DIAL_CPS = "org.jitsi.jigasi.DIAL_CPS";
+
+    /**
+     * The name of the property which holds the number of calls which can be
+     * dialed at once after a quiet period, the calls per second limit by
+     * default.
+     */
+    public static final String P_NAME_DIAL_BURST
+        = "org.jitsi.jigasi.DIAL_BURST";
+
+    /**
+     * The name of the property which holds the maximum number of calls
+     * waiting to be dialed.
+     */
+    public static final String P_NAME_DIAL_QUEUE_SIZE
+        = "org.jitsi.jigasi.DIAL_QUEUE_SIZE";
+
+    /**
+     * Default maximum number of calls waiting to be dialed.
+     */
+    public static final int DEFAULT_DIAL_QUEUE_SIZE = 1000;
+
+    /**
+     * The name of the counter of calls which had to wait to be dialed.
+     */
+    public static final String TOTAL_DIALS_QUEUED = "total_dials_queued";
+
+    /**
+     * The name of the counter of calls not dialed because the queue was
+     * full.
+     */
+    public static final String TOTAL_DIALS_REJECTED = "total_dials_rejected";
+
+    /**
+     * The name of the counter of calls hung up while waiting to be dialed.
+     */
+    public static final String TOTAL_DIALS_CANCELLED = "total_dials_cancelled";
+
+    /**
+     * The name of the histogram of the time (in ms) calls waited to be
+     * dialed.
+     */
+    public static final String DIAL_QUEUE_WAIT_TIME = "dial_queue_wait_time";
+
+    /**
+     * Buckets (in ms) of the histogram of queue wait time.
+     */
+    private static final long[] WAIT_TIME_BOUNDS
+        = { 10, 100, 500, 1000, 5000, 10000, 30000 };
+
+    /**
+     * The name of the thread.
+     */
+    private final String name;
+
+    /**
+     * The maximum number of calls dialed per second.
+     */
+    private final int cps;
+
+    /**
+     * The maximum number of tokens.
+     */
+    private final int burst;
+
+    /**
+     * The maximum number of queued calls.
+     */
+    private final int maxQueueSize;
+
+    /**
+     * Queued calls by their rooms, in the order in which the rooms take
+     * turns.
+     */
+    private final LinkedHashMap<String, Queue<Dial>> queues
+        = new LinkedHashMap<String, Queue<Dial>>();
+
+    /**
+     * The number of queued calls.
+     */
+    private int queueSize;
+
+    /**
+     * The number of calls which can be dialed right now.
+     */
+    private double tokens;
+
+    /**
+     * The time of the last refill of tokens.
+     */
+    private long lastRefill;
+
+    /**
+     * The thread which dials queued calls or <tt>null</tt>.
+     */
+    private Thread thread;
+
+    /**
+     * Whether this scheduler has been shut down.
+     */
+    private boolean shutdown;
+
+    /**
+     * The call which may be hung up while waiting for its turn. Such call is
+     * dropped from the queue without using up the calls per second limit.
+     */
+    public interface CancellableDial
+        extends Runnable
+    {
+        /**
+         * Returns <tt>true</tt> if the call is no longer to be dialed.
+         */
+        boolean isCancelled();
+    }
+
+    /**
+     * Creates new <tt>DialScheduler</tt> configured by given configuration.
+     *
+     * @param name the name of the SIP account.
+     * @param config the <tt>ConfigurationService</tt>.
+     */
+    public static DialScheduler create(String name,
+                                       ConfigurationService config)
+    {
+        int cps = config.getInt(P_NAME_DIAL_CPS, 0);
+
+        return new DialScheduler(
+            name,
+            cps,
+            config.getInt(P_NAME_DIAL_BURST, cps),
+            config.getInt(P_NAME_DIAL_QUEUE_SIZE, DEFAULT_DIAL_QUEUE_SIZE));
+    }
+
+    /**
+     * Creates new <tt>DialScheduler</tt>.
+     *
+     * @param name the name of the SIP account.
+     * @param cps the maximum number of calls dialed per second, <tt>0</tt>
+     *            to dial every call at once.
+     * @param burst the number of calls which can be dialed at once.
+     * @param maxQueueSize the maximum number of queued calls.
+     */
+    public DialScheduler(String name, int cps, int burst, int maxQueueSize)
+    {
+        this.name = name;
+        this.cps = cps;
+        this.burst = Math.max(1, burst);
+        this.maxQueueSize = maxQueueSize;
+
+        this.tokens = this.burst;
+        this.lastRefill = System.currentTimeMillis();
+    }
+
+    /**
+     * Dials the call once the calls per second limit and other rooms allow
+     * it. The call is dialed on the calling thread if there is no limit.
+     *
+     * @param room the name of the room of the call.
+     * @param dial dials the call.
+     * @return <tt>false</tt> if the call will not be dialed, because the
+     *         queue is full or the scheduler has been shut down.
+     */
+    public boolean schedule(String room, Runnable dial)
+    {
+        if (cps <= 0)
+        {
+            dial.run();
+            return true;
+        }
+
+        synchronized (queues)
+        {
+            if (shutdown || queueSize >= maxQueueSize)
+            {
+                Statistics.increment(TOTAL_DIALS_REJECTED);
+                return false;
+            }
+
+            Queue<Dial> queue = queues.get(room);
+            if (queue == null)
+            {
+                queue = new LinkedList<Dial>();
+                queues.put(room, queue);
+            }
+            queue.add(new Dial(dial));
+            queueSize++;
+
+            if (thread == null)
+            {
+                thread = new Thread("DialScheduler " + name)
+                {
+                    @Override
+                    public void run()
+                    {
+                        dialQueued();
+                    }
+                };
+                thread.setDaemon(true);
+                thread.start();
+            }
+
+            queues.notifyAll();
+        }
+
+        Statistics.increment(TOTAL_DIALS_QUEUED);
+        return true;
+    }
+
+    /**
+     * Returns the number of queued calls.
+     */
+    public int getQueueSize()
+    {
+        synchronized (queues)
+        {
+            return queueSize;
+        }
+    }
+
+    /**
+     * Stops dialing, queued calls are dropped.
+     */
+    public void shutdown()
+    {
+        synchronized (queues)
+        {
+            shutdown = true;
+
+            queues.clear();
+            queueSize = 0;
+
+            queues.notifyAll();
+        }
+    }
+
+    /**
+     * Dials queued calls until shut down.
+     */
+    private void dialQueued()
+    {
+        try
+        {
+            while (true)
+            {
+                Dial dial;
+
+                synchronized (queues)
+                {
+                    while (true)
+                    {
+                        while (!shutdown && queueSize == 0)
+                            queues.wait();
+
+                        if (shutdown)
+                            return;
+
+                        // Calls hung up while queued do not take a token
+                        if (peek().isCancelled())
+                        {
+                            poll();
+                            Statistics.increment(TOTAL_DIALS_CANCELLED);
+                            continue;
+                        }
+
+                        long delay = takeToken();
+                        if (delay == 0)
+                            break;
+
+                        queues.wait(delay);
+                    }
+
+                    dial = poll();
+                }
+
+                Statistics.getHistogram(DIAL_QUEUE_WAIT_TIME, WAIT_TIME_BOUNDS)
+                    .record(System.currentTimeMillis() - dial.queued);
+
+                try
+                {
+                    dial.dial.run();
+                }
+                catch (Exception e)
+                {
+                    logger.error("Failed to dial", e);
+                }
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Takes a token from the bucket.
+     *
+     * @return <tt>0</tt> if the token has been taken or the time (in ms)
+     *         until the next token is available.
+     */
+    private long takeToken()
+    {
+        long now = System.currentTimeMillis();
+
+        tokens = Math.min(burst, tokens + (now - lastRefill) * cps / 1000D);
+        lastRefill = now;
+
+        if (tokens >= 1)
+        {
+            tokens -= 1;
+            return 0;
+        }
+        return Math.max(1, (long) Math.ceil((1 - tokens) * 1000D / cps));
+    }
+
+    /**
+     * Returns the next call of the room which has the turn.
+     */
+    private Dial peek()
+    {
+        return queues.values().iterator().next().peek();
+    }
+
+    /**
+     * Takes the next call of the room which has the turn and moves the room
+     * to the end of the turns.
+     */
+    private Dial poll()
+    {
+        Iterator<Map.Entry<String, Queue<Dial>>> iter
+            = queues.entrySet().iterator();
+        Map.Entry<String, Queue<Dial>> entry = iter.next();
+        Queue<Dial> queue = entry.getValue();
+
+        Dial dial = queue.poll();
+        queueSize--;
+
+        iter.remove();
+        if (!queue.isEmpty())
+            queues.put(entry.getKey(), queue);
+
+        return dial;
+    }
+
+    /**
+     * The call waiting to be dialed.
+     */
+    private static class Dial
+    {
+        /**
+         * Dials the call.
+         */
+        final Runnable dial;
+
+        /**
+         * The time the call has been queued.
+         */
+        final long queued = System.currentTimeMillis();
+
+        Dial(Runnable dial)
+        {
+            this.dial = dial;
+        }
+
+        boolean isCancelled()
+        {
+            return dial instanceof CancellableDial
+                && ((CancellableDial) dial).isCancelled();
+        }
+    }
+}
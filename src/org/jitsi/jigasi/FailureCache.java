@@ -0,0 +1,235 @@
+/*
+ * Jitsi Videobridge, OpenSource video conferencing.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package org.jitsi.jigasi;
+
+import org.jitsi.jigasi.stats.*;
+import org.jitsi.service.configuration.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Remembers recent failures of destinations or rooms, so that new sessions
+ * to them can be refused at once instead of each one spending a SIP call,
+ * XMPP login, MUC join and the invite timeout to fail the same way. A key
+ * which keeps failing is refused for twice as long after every failure, up
+ * to the maximum time, and is forgotten as soon as it succeeds. Lookups are
+ * counted in <tt>total_&lt;name&gt;_failure_hits</tt> and
+ * <tt>total_&lt;name&gt;_failure_misses</tt>.
+ */
+public class FailureCache
+{
+    /**
+     * The name of the property which holds the time (in ms) a destination or
+     * a room is refused after its first failure, <tt>0</tt> disables the
+     * cache.
+     */
+    public static final String P_NAME_FAILURE_CACHE_TTL
+        = "org.jitsi.jigasi.FAILURE_CACHE_TTL";
+
+    /**
+     * The name of the property which holds the maximum time (in ms) a
+     * destination or a room which keeps failing is refused.
+     */
+    public static final String P_NAME_FAILURE_CACHE_MAX_TTL
+        = "org.jitsi.jigasi.FAILURE_CACHE_MAX_TTL";
+
+    /**
+     * Default failure cache TTL.
+     */
+    public static final long DEFAULT_FAILURE_CACHE_TTL = 10000;
+
+    /**
+     * Default maximum failure cache TTL.
+     */
+    public static final long DEFAULT_FAILURE_CACHE_MAX_TTL = 300000;
+
+    /**
+     * The maximum number of keys remembered, failures of new keys are not
+     * recorded when it is reached.
+     */
+    private static final int MAX_SIZE = 10000;
+
+    /**
+     * The name of the cache used in the names of its counters.
+     */
+    private final String name;
+
+    /**
+     * The time a key is refused after its first failure.
+     */
+    private final long ttl;
+
+    /**
+     * The maximum time a key is refused.
+     */
+    private final long maxTtl;
+
+    /**
+     * Recent failures by their keys.
+     */
+    private final ConcurrentMap<String, Failure> failures
+        = new ConcurrentHashMap<String, Failure>();
+
+    /**
+     * Creates new <tt>FailureCache</tt> configured by given configuration.
+     *
+     * @param name the name of the cache.
+     * @param config the <tt>ConfigurationService</tt>.
+     */
+    public static FailureCache create(String name,
+                                      ConfigurationService config)
+    {
+        return new FailureCache(
+            name,
+            config.getLong(
+                P_NAME_FAILURE_CACHE_TTL, DEFAULT_FAILURE_CACHE_TTL),
+            config.getLong(
+                P_NAME_FAILURE_CACHE_MAX_TTL, DEFAULT_FAILURE_CACHE_MAX_TTL));
+    }
+
+    /**
+     * Creates new <tt>FailureCache</tt>.
+     *
+     * @param name the name of the cache.
+     * @param ttl the time (in ms) a key is refused after its first failure,
+     *            <tt>0</tt> to never refuse any key.
+     * @param maxTtl the maximum time (in ms) a key is refused.
+     */
+    public FailureCache(String name, long ttl, long maxTtl)
+    {
+        this.name = name;
+        this.ttl = ttl;
+        this.maxTtl = Math.max(ttl, maxTtl);
+    }
+
+    /**
+     * Returns the time left until given key may be tried again.
+     *
+     * @param key the destination or the room name.
+     * @return the time (in ms) the key is refused for or <tt>0</tt> if it has
+     *         not failed recently.
+     */
+    public long getRetryDelay(String key)
+    {
+        if (ttl <= 0 || key == null)
+            return 0;
+
+        Failure failure = failures.get(key.toLowerCase());
+        long delay
+            = failure != null
+                ? failure.expires - System.currentTimeMillis() : 0;
+
+        if (delay > 0)
+        {
+            Statistics.increment("total_" + name + "_failure_hits");
+            return delay;
+        }
+        else
+        {
+            Statistics.increment("total_" + name + "_failure_misses");
+            return 0;
+        }
+    }
+
+    /**
+     * Records the failure of given key.
+     *
+     * @param key the destination or the room name.
+     */
+    public void recordFailure(String key)
+    {
+        if (ttl <= 0 || key == null)
+            return;
+
+        key = key.toLowerCase();
+
+        long now = System.currentTimeMillis();
+        if (failures.size() >= MAX_SIZE && !failures.containsKey(key))
+        {
+            purgeExpired(now);
+            if (failures.size() >= MAX_SIZE)
+                return;
+        }
+
+        Failure failure = failures.get(key);
+        if (failure == null)
+        {
+            failure = new Failure();
+
+            Failure old = failures.putIfAbsent(key, failure);
+            if (old != null)
+                failure = old;
+        }
+        failure.failed(now);
+    }
+
+    /**
+     * Forgets the failures of given key.
+     *
+     * @param key the destination or the room name.
+     */
+    public void recordSuccess(String key)
+    {
+        if (key != null)
+            failures.remove(key.toLowerCase());
+    }
+
+    /**
+     * Returns the number of keys remembered.
+     */
+    public int size()
+    {
+        return failures.size();
+    }
+
+    /**
+     * Removes failures which have expired and won't be backed off anymore.
+     */
+    private void purgeExpired(long now)
+    {
+        Iterator<Failure> iter = failures.values().iterator();
+        while (iter.hasNext())
+        {
+            if (iter.next().expires + maxTtl < now)
+                iter.remove();
+        }
+    }
+
+    /**
+     * Consecutive failures of single key.
+     */
+    private class Failure
+    {
+        /**
+         * The number of consecutive failures.
+         */
+        private int count;
+
+        /**
+         * The time until which the key is refused.
+         */
+        private volatile long expires;
+
+        synchronized void failed(long now)
+        {
+            // Start over once the key has been tried again long after the
+            // last refusal
+            if (count > 0 && expires + maxTtl < now)
+                count = 0;
+
+            long delay = ttl;
+            for (int i = 0; i < count && delay < maxTtl; i++)
+            {
+                delay *= 2;
+            }
+
+            count++;
+            expires = now + Math.min(delay, maxTtl);
+        }
+    }
+}
@@ -9,10 +9,17 @@ package org.jitsi.jigasi;
 import net.java.sip.communicator.service.protocol.*;
 import net.java.sip.communicator.service.protocol.event.*;
 import net.java.sip.communicator.util.Logger;
+import org.jitsi.jigasi.media.*;
+import org.jitsi.jigasi.packetlogging.*;
+import org.jitsi.jigasi.stats.*;
+import org.jitsi.jigasi.util.*;
+import org.jitsi.service.neomedia.format.*;
 import org.jitsi.util.*;
 import org.jivesoftware.smack.packet.*;
 
 import java.text.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
 
 /**
  * Class represents gateway session which manages single SIP call instance
@@ -29,30 +36,48 @@ public class GatewaySession
     private final static Logger logger = Logger.getLogger(GatewaySession.class);
 
     /**
-     * The <tt>SipGateway</tt> that manages this session.
+     * How long (in ms) the reason of ended SIP call is shown in MUC presence
+     * before the room is left.
      */
-    private SipGateway sipGateway;
+    private static final long REASON_DISPLAY_TIME = 5000;
+
+    /**
+     * Timer which runs delayed tasks of all sessions.
+     */
+    private static Timer timer;
 
     /**
-     * The {@link OperationSetJitsiMeetTools} for SIP leg.
+     * Logs events of this session with its call resource, direction and room
+     * name.
      */
-    private final OperationSetJitsiMeetTools jisitMeetTool;
+    private final SessionLogger log = new SessionLogger(logger);
+
+    /**
+     * The <tt>SipGateway</tt> that manages this session.
+     */
+    private SipGateway sipGateway;
 
     /**
      * The <tt>JvbConference</tt> that handles current JVB conference.
      */
-    private JvbConference jvbConference;
+    private volatile JvbConference jvbConference;
 
     /**
      * The SIP call instance if any SIP call is active.
      */
-    private Call call;
+    private volatile Call call;
 
     /**
      * Stores JVB call instance that will be merged into single conference with
      * SIP call.
      */
-    private Call jvbConferenceCall;
+    private volatile Call jvbConferenceCall;
+
+    /**
+     * Whether outgoing SIP call has been scheduled to be dialed, so that it
+     * is dialed once even if JVB call starts while it waits for its turn.
+     */
+    private final AtomicBoolean dialScheduled = new AtomicBoolean();
 
     /**
      * Object listens for SIP call state changes.
@@ -60,6 +85,58 @@ public class GatewaySession
     private final SipCallStateListener callStateListener
         = new SipCallStateListener();
 
+    /**
+     * The engine which filters RTP packets of SIP call.
+     */
+    private RtpFilterEngine sipFilterEngine;
+
+    /**
+     * Drops audio received from SIP peer while the session is muted.
+     */
+    private final MuteFilter sipMuteFilter = new MuteFilter();
+
+    /**
+     * Suppresses silence sent to SIP peer or <tt>null</tt> if disabled.
+     */
+    private SilenceSuppressionFilter sipSilenceFilter;
+
+    /**
+     * Plays announcement prompts to SIP peer while there is no audio of JVB
+     * call to be sent.
+     */
+    private final PromptFilter sipPromptFilter = new PromptFilter();
+
+    /**
+     * Whether SIP call is to be hung up once the prompt has been played.
+     */
+    private boolean hangUpScheduled;
+
+    /**
+     * Whether this session shares JVB conference leg with other sessions in
+     * the room.
+     */
+    private volatile boolean sharedJvbLeg;
+
+    /**
+     * Whether incoming SIP call has been answered before JVB call started.
+     */
+    private volatile boolean earlyAnswered;
+
+    /**
+     * Whether SIP call is being hung up together with JVB conference leg.
+     */
+    private volatile boolean sipHangUpStarted;
+
+    /**
+     * Call detail record of current call.
+     */
+    private volatile CallDetailRecord cdr;
+
+    /**
+     * Samples media statistics of SIP and JVB calls.
+     */
+    private MediaQualityMonitor qualityMonitor;
+
     /**
      * Peers state listener that publishes peer state in MUC presence status.
      */
@@ -116,6 +193,10 @@ public class GatewaySession
         this(gateway);
         this.callResource = callResource;
         this.call = sipCall;
+
+        log.setContext("call", callResource).setContext("dir", "in");
+
+        cdr = new CallDetailRecord(callResource, CallDetailRecord.INCOMING);
     }
 
     /**
@@ -130,9 +211,45 @@ public class GatewaySession
     {
         this.sipGateway = gateway;
         this.sipProvider = gateway.getSipProvider();
-        this.jisitMeetTool
-            = sipProvider.getOperationSet(
-                    OperationSetJitsiMeetTools.class);
+    }
+
+    /**
+     * Returns whether failed SIP call with given reason means that the
+     * destination is unusable: it does not exist (404, 410, 484, 604), the
+     * request has timed out (408) or the server has failed (5xx). Calls
+     * which failed without response, e.g. on transport error or timeout of
+     * the transaction, have no reason code.
+     *
+     * @param reasonCode the SIP status code of the failure or <tt>-1</tt>
+     *                   if there was no response.
+     */
+    static boolean isDestinationFailure(int reasonCode)
+    {
+        if (reasonCode < 0)
+            return true;
+
+        switch (reasonCode)
+        {
+        case 404:
+        case 408:
+        case 410:
+        case 484:
+        case 604:
+            return true;
+        default:
+            return reasonCode >= 500 && reasonCode < 600;
+        }
+    }
+
+    /**
+     * Returns the timer shared by all sessions.
+     */
+    private static synchronized Timer getTimer()
+    {
+        if (timer == null)
+            timer = new Timer("GatewaySession", true);
+
+        return timer;
     }
 
     private void allCallsEnded()
@@ -143,7 +260,14 @@ public class GatewaySession
 
         callResource = null;
 
-        sipGateway.notifyCallEnded(resource);
+        log.setContext("call", null).setContext("room", null);
+
+        CallDetailRecord cdr = this.cdr;
+        this.cdr = null;
+        if (cdr != null)
+            cdr.ended();
+
+        sipGateway.notifyCallEnded(resource, cdr);
     }
 
     private void cancelWaitThread()
@@ -164,6 +288,22 @@ public class GatewaySession
      */
     public void createOutgoingCall(String destination, String jvbRoomName,
                                    String callResource)
+    {
+        createOutgoingCall(destination, jvbRoomName, callResource, false);
+    }
+
+    /**
+     * Starts new outgoing session by dialing given SIP number and joining JVB
+     * conference held in given MUC room.
+     * @param destination the destination SIP number that will be called.
+     * @param jvbRoomName the name of MUC that holds JVB conference that will be
+     *                    joined.
+     * @param callResource the call resource that will identify new call.
+     * @param shareJvbLeg <tt>true</tt> to share JVB conference leg with other
+     *                    sessions in the room.
+     */
+    void createOutgoingCall(String destination, String jvbRoomName,
+                            String callResource, boolean shareJvbLeg)
     {
         if (jvbConference != null)
         {
@@ -178,9 +318,31 @@ public class GatewaySession
         this.destination = destination;
         this.callResource = callResource;
 
-        jvbConference = new JvbConference(this, jvbRoomName);
+        log.setContext("call", callResource)
+            .setContext("dir", "out")
+            .setContext("room", jvbRoomName);
+
+        cdr = new CallDetailRecord(callResource, CallDetailRecord.OUTGOING);
+        cdr.setDestination(destination);
+        cdr.setRoomName(jvbRoomName);
+
+        if (shareJvbLeg)
+        {
+            startSharedJvbConference(jvbRoomName);
+        }
+        else
+        {
+            jvbConference = new JvbConference(this, jvbRoomName);
+
+            jvbConference.start();
+        }
 
-        jvbConference.start();
+        if (SipGateway.isParallelDial())
+        {
+            // Ring while JVB conference is being joined, the calls are
+            // bridged once JVB call has started
+            scheduleDial(jvbRoomName);
+        }
     }
 
     /**
@@ -201,6 +363,14 @@ public class GatewaySession
         return sipGateway.getCallsControl();
     }
 
+    /**
+     * Returns the <tt>SipGateway</tt> that manages this session.
+     */
+    SipGateway getSipGateway()
+    {
+        return sipGateway;
+    }
+
     /**
      * Returns the name of the chat room that holds current JVB conference or
      * <tt>null</tt> we're not in any room.
@@ -260,12 +430,32 @@ public class GatewaySession
     {
         cancelWaitThread();
 
-        if (jvbConference != null)
+        CallDetailRecord cdr = this.cdr;
+        if (cdr != null && reasonCode != -1)
+            cdr.setEndReason(reasonCode, reason);
+
+        final JvbConference jvbConference = this.jvbConference;
+        final Call call = this.call;
+
+        if (jvbConference != null && call != null && !sipHangUpStarted)
+        {
+            sipHangUpStarted = true;
+
+            hangUpInParallel(jvbConference, call, reasonCode, reason);
+        }
+        else if (jvbConference != null)
         {
-            jvbConference.stop();
+            jvbConference.stop(this);
         }
         else if (call != null)
         {
+            // BYE has already been sent while leaving JVB conference
+            if (sipHangUpStarted)
+                return;
+
+            if (hangUpAfterPrompt(reasonCode, reason))
+                return;
+
             if (reasonCode != -1)
                 CallManager.hangupCall(call, reasonCode, reason);
             else
@@ -273,14 +463,85 @@ public class GatewaySession
         }
     }
 
+    /**
+     * Sends SIP BYE while leaving JVB conference, instead of waiting for
+     * the conference leg to be torn down first. Runs on the teardown pool,
+     * so that the caller is not held back.
+     */
+    private void hangUpInParallel(final JvbConference jvbConference,
+                                  final Call call,
+                                  final int reasonCode,
+                                  final String reason)
+    {
+        new Teardown(getCallResource())
+            .addStep("sip_bye", new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    CallManager.hangupCallNow(call, reasonCode, reason);
+                }
+            })
+            .addStep("jvb_stop", new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    jvbConference.stop(GatewaySession.this);
+                }
+            })
+            .runAsync(Teardown.getStepTimeout());
+    }
+
     private void joinJvbConference(String conferenceRoomName)
     {
         cancelWaitThread();
 
-        jvbConference
-            = new JvbConference(this, conferenceRoomName);
+        log.setContext("room", conferenceRoomName);
+
+        CallDetailRecord cdr = this.cdr;
+        if (cdr != null)
+            cdr.setRoomName(conferenceRoomName);
+
+        long retryDelay
+            = sipGateway.getRoomFailures().getRetryDelay(conferenceRoomName);
+        if (retryDelay > 0)
+        {
+            log.info(
+                "Room {} has failed recently, retry in {} ms",
+                conferenceRoomName, retryDelay);
+
+            hangUp(
+                OperationSetBasicTelephony.HANGUP_REASON_TIMEOUT,
+                "Conference not started");
+            return;
+        }
 
-        jvbConference.start();
+        if (SipGateway.isSharedJvbLeg())
+        {
+            startSharedJvbConference(conferenceRoomName);
+        }
+        else
+        {
+            jvbConference
+                = new JvbConference(this, conferenceRoomName);
+
+            jvbConference.start();
+        }
+    }
+
+    /**
+     * Joins JVB conference leg shared by all sessions in given room.
+     */
+    private void startSharedJvbConference(String conferenceRoomName)
+    {
+        JvbConference sharedConference
+            = sipGateway.getSharedJvbConference(this, conferenceRoomName);
+
+        sharedJvbLeg = true;
+        jvbConference = sharedConference;
+
+        sharedConference.start(this);
     }
 
     /*private void joinSipWithJvbCalls()
@@ -318,11 +579,37 @@ public class GatewaySession
      */
     Exception onConferenceCallStarted(Call jvbConferenceCall)
     {
+        // Shared JVB conference may notify us more than once
+        if (this.jvbConferenceCall == jvbConferenceCall)
+            return null;
+
         this.jvbConferenceCall = jvbConferenceCall;
 
         if (destination == null)
         {
-            CallManager.acceptCall(call);
+            if (earlyAnswered)
+            {
+                log.info("Bridging early answered call {}", call);
+
+                sipPromptFilter.stop();
+            }
+            else
+            {
+                CallManager.acceptCall(call);
+            }
+        }
+        else if (call != null)
+        {
+            // SIP call has been dialed in parallel, bridge the media
+            log.info("Bridging outgoing call {}", call);
+
+            call.setConference(jvbConferenceCall.getConference());
+        }
+        else if (dialScheduled.get())
+        {
+            // Dialed in parallel, but still waiting for its turn. Bridged by
+            // dialSip() once dialed.
+            log.info("Outgoing call to {} not dialed yet", destination);
         }
         else
         {
@@ -336,45 +623,250 @@ public class GatewaySession
                 //    SipGatewayExtension.STATE_RINGING);
             //}
 
-            // Make an outgoing call
-            OperationSetBasicTelephony tele
-                = sipProvider.getOperationSet(
-                        OperationSetBasicTelephony.class);
+            scheduleDial(getJvbRoomName());
+        }
 
-            try
+        return null;
+    }
+
+    /**
+     * Dials the SIP call when the calls per second limit of the SIP account
+     * allows it, unless it has already been scheduled.
+     *
+     * @param roomName the name of the room of this session.
+     */
+    private void scheduleDial(String roomName)
+    {
+        if (!dialScheduled.compareAndSet(false, true))
+            return;
+
+        DialScheduler.CancellableDial dial
+            = new DialScheduler.CancellableDial()
             {
-                this.call = tele.createCall(destination);
+                @Override
+                public boolean isCancelled()
+                {
+                    // Hung up while waiting for the turn
+                    return jvbConference == null || call != null;
+                }
 
-                peerStateListener = new CallPeerListener(this.call);
+                @Override
+                public void run()
+                {
+                    if (isCancelled())
+                        return;
 
-                // Outgoing SIP connection mode sets common conference object
-                // just after the call has been created
+                    Exception error = dialSip();
+                    if (error != null)
+                    {
+                        log.error("Failed to dial {}: {}", destination, error);
+
+                        hangUp();
+                    }
+                }
+            };
+
+        if (!sipGateway.getDialScheduler().schedule(roomName, dial))
+        {
+            log.error("Dial queue full, not dialing {}", destination);
+
+            hangUp();
+        }
+    }
+
+    /**
+     * Makes outgoing SIP call to the destination of this session. The call
+     * shares the conference of JVB call if it has already started.
+     *
+     * @return any <tt>Exception</tt> that occurred when creating the call.
+     */
+    private Exception dialSip()
+    {
+        OperationSetBasicTelephony tele
+            = sipProvider.getOperationSet(
+                    OperationSetBasicTelephony.class);
+
+        try
+        {
+            this.call = tele.createCall(destination);
+
+            peerStateListener = new CallPeerListener(this.call);
+
+            // Outgoing SIP connection mode sets common conference object
+            // just after the call has been created. Read after the call has
+            // been set, so that JVB call which starts meanwhile is bridged
+            // either here or in onConferenceCallStarted().
+            Call jvbConferenceCall = this.jvbConferenceCall;
+            if (jvbConferenceCall != null)
                 call.setConference(jvbConferenceCall.getConference());
 
-                logger.info(
-                    "Created outgoing call to " + destination + " " + call);
+            log.info("Created outgoing call to {} {}", destination, call);
 
-                this.call.addCallChangeListener(callStateListener);
+            this.call.addCallChangeListener(callStateListener);
 
-                //FIXME: It might be already in progress or ended ?!
-                if (!CallState.CALL_INITIALIZATION.equals(call.getCallState()))
-                {
-                    callStateListener.handleCallState(call, null);
-                }
-            }
-            catch (OperationFailedException e)
-            {
-                return e;
-            }
-            catch (ParseException e)
+            //FIXME: It might be already in progress or ended ?!
+            if (!CallState.CALL_INITIALIZATION.equals(call.getCallState()))
             {
-                return e;
+                callStateListener.handleCallState(call, null);
             }
         }
-
+        catch (OperationFailedException e)
+        {
+            sipGateway.getDestinationFailures().recordFailure(destination);
+            return e;
+        }
+        catch (ParseException e)
+        {
+            sipGateway.getDestinationFailures().recordFailure(destination);
+            return e;
+        }
         return null;
     }
 
+    /**
+     * Called by <tt>JvbConference</tt> when the media of JVB call is ready to
+     * be filtered.
+     */
+    void onJvbMediaStarted()
+    {
+        CallDetailRecord cdr = this.cdr;
+        if (cdr != null)
+            cdr.jvbJoined();
+
+        onMediaStarted();
+    }
+
+    /**
+     * Called when media of either SIP or JVB call has been started.
+     */
+    private void onMediaStarted()
+    {
+        installSipMediaFilters();
+
+        startQualityMonitor();
+    }
+
+    /**
+     * Starts sampling media statistics once the media of both calls has been
+     * started.
+     */
+    private synchronized void startQualityMonitor()
+    {
+        if (qualityMonitor != null
+            || call == null || jvbConferenceCall == null)
+        {
+            return;
+        }
+
+        long interval = MediaQualityMonitor.getSampleInterval();
+        if (interval <= 0)
+            return;
+
+        qualityMonitor
+            = new MediaQualityMonitor(callResource, call, jvbConferenceCall);
+
+        qualityMonitor.start(interval);
+    }
+
+    /**
+     * Stops sampling media statistics.
+     */
+    private synchronized void stopQualityMonitor()
+    {
+        if (qualityMonitor != null)
+        {
+            qualityMonitor.stop();
+
+            CallDetailRecord cdr = this.cdr;
+            if (cdr != null)
+                cdr.setQualitySummary(qualityMonitor.getSummary());
+
+            qualityMonitor = null;
+        }
+    }
+
+    /**
+     * Returns the monitor which samples media statistics of this session or
+     * <tt>null</tt> if the media has not been started yet.
+     */
+    public synchronized MediaQualityMonitor getQualityMonitor()
+    {
+        return qualityMonitor;
+    }
+
+    /**
+     * Installs the filters which process RTP packets of SIP call once its
+     * media has been started.
+     */
+    private synchronized void installSipMediaFilters()
+    {
+        if (sipFilterEngine != null
+            || call == null
+            || call.getCallState() != CallState.CALL_IN_PROGRESS)
+        {
+            return;
+        }
+
+        sipFilterEngine = RtpFilterEngine.install(call.getCallPeers().next());
+        if (sipFilterEngine == null)
+            return;
+
+        // Must be the first one, so that muted audio is not even relayed
+        sipFilterEngine.addFilter(sipMuteFilter);
+
+        // Before silence suppression, so that the prompt is not dropped
+        MediaFormat sipFormat = Util.getFirstPeerMediaFormat(call);
+        sipPromptFilter.setOpus(
+            sipFormat != null
+                && "opus".equalsIgnoreCase(sipFormat.getEncoding()));
+        sipFilterEngine.addFilter(sipPromptFilter);
+
+        if (SilenceSuppressionFilter.isEnabledInConfig())
+        {
+            // SIP peers do not use audio level extension, the level is
+            // calculated for G.711 and Opus relies on encoder DTX
+            sipSilenceFilter
+                = new SilenceSuppressionFilter(
+                        -1,
+                        SilenceSuppressionFilter.getConfiguredSilenceLevel());
+
+            sipFilterEngine.addFilter(sipSilenceFilter);
+        }
+    }
+
+    /**
+     * Returns <tt>true</tt> if the audio of SIP peer is not being sent to
+     * JVB conference.
+     */
+    public boolean isMuted()
+    {
+        return sipMuteFilter.isMuted();
+    }
+
+    /**
+     * Mutes or unmutes SIP peer in JVB conference. The audio received from
+     * muted peer is dropped before it gets decoded and once the audio of all
+     * peers on JVB call is muted the call stops encoding and sending audio.
+     *
+     * @param muted <tt>true</tt> to mute SIP peer or <tt>false</tt> to
+     *              unmute.
+     */
+    public void setMuted(boolean muted)
+    {
+        if (sipMuteFilter.isMuted() == muted)
+            return;
+
+        log.info(muted ? "Muted" : "Unmuted");
+
+        sipMuteFilter.setMuted(muted);
+
+        JvbConference jvbConference = this.jvbConference;
+        if (jvbConference != null)
+        {
+            jvbConference.updateAudioMute();
+        }
+    }
+
     /**
      * Caled by <tt>JvbConference</tt> to notify that JVB call has ended.
      * @param jvbConference <tt>JvbConference</tt> instance.
@@ -382,6 +874,8 @@ public class GatewaySession
     void onJvbConferenceStopped(JvbConference jvbConference,
                                 int reasonCode, String reason)
     {
+        stopQualityMonitor();
+
         this.jvbConference = null;
 
         if (call != null)
@@ -413,7 +907,17 @@ public class GatewaySession
         if (call == null)
             return;
 
-        logger.info("Sip call ended: " + call.toString());
+        log.info("Sip call ended: {}", call);
+
+        stopQualityMonitor();
+
+        if (sipSilenceFilter != null)
+        {
+            log.info(
+                "Silent packets not sent to SIP: {}, bytes: {}",
+                sipSilenceFilter.getPacketsSuppressed(),
+                sipSilenceFilter.getBytesSuppressed());
+        }
 
         call.removeCallChangeListener(callStateListener);
 
@@ -421,7 +925,7 @@ public class GatewaySession
 
         if (jvbConference != null)
         {
-            jvbConference.stop();
+            jvbConference.stop(this);
         }
         else
         {
@@ -441,6 +945,17 @@ public class GatewaySession
         }
     }
 
+    /**
+     * Returns <tt>true</tt> if the MUC presence of current JVB conference
+     * reflects the state of this session's SIP call. It is not the case for
+     * the sessions which have joined shared JVB conference leg later.
+     */
+    private boolean isJvbPresenceOwner()
+    {
+        return jvbConference != null
+            && jvbConference.getGatewaySession() == this;
+    }
+
     /**
      * Initializes this instance for incoming call which was passed to the
      * constructor {@link #GatewaySession(SipGateway, String, Call)}.
@@ -458,10 +973,82 @@ public class GatewaySession
         }
         else
         {
+            if (SipGateway.isEarlyAnswer())
+            {
+                answerEarly();
+            }
+
             waitForRoomName();
         }
     }
 
+    /**
+     * Answers incoming SIP call without waiting for JVB call and plays the
+     * waiting prompt, if configured, until JVB call starts.
+     */
+    private void answerEarly()
+    {
+        Prompt prompt = sipGateway.getPrompt(PromptCache.PLEASE_WAIT);
+        if (prompt != null)
+            sipPromptFilter.play(prompt);
+
+        earlyAnswered = true;
+
+        log.info("Answering SIP call early: {}", call);
+
+        CallManager.acceptCall(call);
+    }
+
+    /**
+     * Plays the prompt matching given hangup reason to SIP peer and hangs up
+     * the call once it has been played.
+     *
+     * @return <tt>true</tt> if the call will be hung up after the prompt or
+     *         <tt>false</tt> if there is no prompt to be played.
+     */
+    private synchronized boolean hangUpAfterPrompt(final int reasonCode,
+                                                   final String reason)
+    {
+        if (hangUpScheduled)
+            return true;
+
+        final Call call = this.call;
+        if (call == null
+            || sipFilterEngine == null
+            || call.getCallState() != CallState.CALL_IN_PROGRESS)
+        {
+            return false;
+        }
+
+        String promptName;
+        if (reasonCode == OperationSetBasicTelephony.HANGUP_REASON_BUSY_HERE)
+            promptName = PromptCache.NO_ROOM;
+        else if (reasonCode == OperationSetBasicTelephony.HANGUP_REASON_TIMEOUT)
+            promptName = PromptCache.CONFERENCE_NOT_STARTED;
+        else
+            return false;
+
+        Prompt prompt = sipGateway.getPrompt(promptName);
+        if (prompt == null)
+            return false;
+
+        log.info("Playing {} before hanging up {}", promptName, call);
+
+        hangUpScheduled = true;
+        sipPromptFilter.play(prompt);
+
+        getTimer().schedule(new TimerTask()
+        {
+            @Override
+            public void run()
+            {
+                CallManager.hangupCall(call, reasonCode, reason);
+            }
+        }, prompt.getDuration());
+
+        return true;
+    }
+
     private void waitForRoomName()
     {
         if (waitThread != null)
@@ -471,7 +1058,7 @@ public class GatewaySession
 
         waitThread = new WaitForJvbRoomNameThread();
 
-        jisitMeetTool.addRequestListener(this);
+        sipGateway.getRequestDispatcher().addRequestListener(call, this);
 
         waitThread.start();
     }
@@ -541,7 +1128,7 @@ public class GatewaySession
             // Once call is started notify SIP gateway
             if (call.getCallState() == CallState.CALL_IN_PROGRESS)
             {
-                logger.info("Sip call IN_PROGRESS: " + call);
+                log.info("Sip call IN_PROGRESS: {}", call);
                 //sendPresenceExtension(
                   //  createPresenceExtension(
                     //    SipGatewayExtension.STATE_IN_PROGRESS, null));
@@ -549,20 +1136,58 @@ public class GatewaySession
                 //jvbConference.setPresenceStatus(
                   //  SipGatewayExtension.STATE_IN_PROGRESS);
 
-                logger.info("SIP call format used: "
-                                + Util.getFirstPeerMediaFormat(call));
+                MediaFormat sipFormat = Util.getFirstPeerMediaFormat(call);
+
+                log.info("SIP call format used: {}", sipFormat);
+
+                CallDetailRecord cdr = GatewaySession.this.cdr;
+                if (cdr != null)
+                {
+                    cdr.sipAnswered(
+                        sipFormat != null ? sipFormat.toString() : null);
+                }
+
+                onMediaStarted();
+
+                if (destination != null)
+                {
+                    sipGateway.getDestinationFailures()
+                        .recordSuccess(destination);
+
+                    sipGateway.notifyCallAnswered(callResource);
+                }
             }
             else if(call.getCallState() == CallState.CALL_ENDED)
             {
+                CallDetailRecord cdr = GatewaySession.this.cdr;
+                if (cdr != null && cause != null)
+                {
+                    cdr.setEndReason(
+                        cause.getReasonCode(), cause.getReasonString());
+                }
+
+                // The destination can not take calls, busy or declined
+                // calls and calls not answered do not count
+                if (destination != null && cause != null
+                    && CallPeerState.FAILED.equals(cause.getNewValue())
+                    && isDestinationFailure(cause.getReasonCode()))
+                {
+                    sipGateway.getDestinationFailures()
+                        .recordFailure(destination);
+                }
+
                 // If we have something to show and we're still in the MUC
                 // then we display error reason string and leave the room with
                 // 5 sec delay.
                 if (cause != null
-                    && jvbConference != null && jvbConference.isInTheRoom())
+                    && isJvbPresenceOwner() && jvbConference.isInTheRoom())
                 {
                     // Show reason instead of disconnected
                     if (!StringUtils.isNullOrEmpty(cause.getReasonString()))
                     {
+                        PacketCapture.dumpOnSessionFailure(
+                            "sip-" + cause.getReasonCode());
+
                         peerStateListener.unregister();
 
                         jvbConference.setPresenceStatus(
@@ -570,23 +1195,14 @@ public class GatewaySession
                     }
 
                     // Delay 5 seconds
-                    new Thread(new Runnable()
+                    getTimer().schedule(new TimerTask()
                     {
                         @Override
                         public void run()
                         {
-                            try
-                            {
-                                Thread.sleep(5000);
-
-                                sipCallEnded();
-                            }
-                            catch (InterruptedException e)
-                            {
-                                Thread.currentThread().interrupt();
-                            }
+                            sipCallEnded();
                         }
-                    }).start();
+                    }, REASON_DISPLAY_TIME);
                 }
                 else
                 {
@@ -613,9 +1229,9 @@ public class GatewaySession
             String stateString
                 = ((CallPeerState)evt.getNewValue()).getStateString();
 
-            logger.info(callResource + " SIP peer state: " + stateString);
+            log.info("SIP peer state: {}", stateString);
 
-            if (jvbConference != null)
+            if (isJvbPresenceOwner())
                 jvbConference.setPresenceStatus(stateString);
         }
 
@@ -633,6 +1249,11 @@ public class GatewaySession
     {
         private boolean cancel = false;
 
+        /**
+         * The call for which the room name is awaited.
+         */
+        private final Call waitCall = call;
+
         @Override
         public void run()
         {
@@ -682,7 +1303,8 @@ public class GatewaySession
                 }
                 finally
                 {
-                    jisitMeetTool.removeRequestListener(GatewaySession.this);
+                    sipGateway.getRequestDispatcher().removeRequestListener(
+                        waitCall, GatewaySession.this);
                 }
             }
         }
@@ -10,6 +10,10 @@ import net.java.sip.communicator.impl.protocol.jabber.extensions.jitsimeet.*;
 import net.java.sip.communicator.impl.protocol.jabber.extensions.rayo.*;
 import net.java.sip.communicator.service.protocol.*;
 import net.java.sip.communicator.util.*;
+import org.jitsi.jigasi.media.*;
+import org.jitsi.jigasi.stats.*;
+import org.jitsi.jigasi.util.*;
+import org.jitsi.jigasi.xmpp.*;
 import org.jitsi.service.configuration.*;
 import org.jivesoftware.smack.provider.*;
 import org.osgi.framework.*;
@@ -36,6 +40,16 @@ public class JigasiBundleActivator
 
     private SipGateway gateway;
 
+    /**
+     * Adjusts media quality to the load of the host if enabled.
+     */
+    private QualityGovernor qualityGovernor;
+
+    /**
+     * Writes call detail records if enabled.
+     */
+    private CdrWriter cdrWriter;
+
     /**
      * Returns <tt>ConfigurationService</tt> instance.
      * @return <tt>ConfigurationService</tt> instance.
@@ -52,10 +66,30 @@ public class JigasiBundleActivator
     {
         osgiContext = bundleContext;
 
+        SessionLogger.configure(getConfigurationservice());
+
         gateway = new SipGateway();
 
         osgiContext.registerService(SipGateway.class, gateway, null);
 
+        cdrWriter = CdrWriter.create(getConfigurationservice());
+        if (cdrWriter != null)
+        {
+            cdrWriter.start();
+
+            gateway.setCdrWriter(cdrWriter);
+        }
+
+        if (QualityGovernor.isEnabled())
+        {
+            qualityGovernor = new QualityGovernor();
+
+            qualityGovernor.start();
+
+            osgiContext.registerService(
+                QualityGovernor.class, qualityGovernor, null);
+        }
+
         bundleContext.addServiceListener(this);
 
         ServiceReference[] refs =
@@ -80,7 +114,23 @@ public class JigasiBundleActivator
     {
         logger.info("Stopping JigasiBundleActivator");
 
+        if (qualityGovernor != null)
+        {
+            qualityGovernor.stop();
+            qualityGovernor = null;
+        }
+
         gateway.stop();
+
+        if (cdrWriter != null)
+        {
+            gateway.setCdrWriter(null);
+
+            cdrWriter.stop();
+            cdrWriter = null;
+        }
+
+        SessionLogger.shutdown();
     }
 
     @Override
@@ -101,8 +151,13 @@ public class JigasiBundleActivator
 
         // Register Jitsi Meet media presence extension.
         MediaPresenceExtension.registerExtensions(providerManager);
+        // Do not parse presence extensions of occupants of large rooms
+        if (SipGateway.isLargeRoomMode())
+            SkippedExtensionProvider.registerSkippedExtensions(providerManager);
         // Register Rayo IQs
         new RayoIqProvider().registerRayoIQs(providerManager);
+        // Register audio mute IQs
+        new AudioMuteIqProvider().registerMuteIQs(providerManager);
 
         ProtocolProviderService pps = (ProtocolProviderService) service;
 
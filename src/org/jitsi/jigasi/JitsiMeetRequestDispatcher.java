@@ -0,0 +1,92 @@
+/*
+ * Jitsi Videobridge, OpenSource video conferencing.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package org.jitsi.jigasi;
+
+import net.java.sip.communicator.service.protocol.*;
+import net.java.sip.communicator.util.*;
+
+import java.util.concurrent.*;
+
+/**
+ * Single listener of Jitsi Meet join requests of SIP provider which passes
+ * each request only to the listener registered for the request's call,
+ * instead of every waiting {@link GatewaySession} being notified about every
+ * request.
+ */
+public class JitsiMeetRequestDispatcher
+    implements OperationSetJitsiMeetTools.JitsiMeetRequestListener
+{
+    /**
+     * The logger
+     */
+    private final static Logger logger
+        = Logger.getLogger(JitsiMeetRequestDispatcher.class);
+
+    /**
+     * Listeners by the calls they wait the requests for.
+     */
+    private final ConcurrentMap<Call,
+                                OperationSetJitsiMeetTools
+                                    .JitsiMeetRequestListener> listeners
+        = new ConcurrentHashMap<Call,
+                                OperationSetJitsiMeetTools
+                                    .JitsiMeetRequestListener>();
+
+    /**
+     * Registers the listener for join requests of given call, replacing
+     * previously registered one.
+     *
+     * @param call the <tt>Call</tt> for which requests will be passed.
+     * @param listener the listener to be notified.
+     */
+    public void addRequestListener(
+            Call call,
+            OperationSetJitsiMeetTools.JitsiMeetRequestListener listener)
+    {
+        listeners.put(call, listener);
+    }
+
+    /**
+     * Removes the listener registered for given call, if it is still the
+     * one registered.
+     *
+     * @param call the <tt>Call</tt> for which the listener was registered.
+     * @param listener the listener to be removed.
+     */
+    public void removeRequestListener(
+            Call call,
+            OperationSetJitsiMeetTools.JitsiMeetRequestListener listener)
+    {
+        listeners.remove(call, listener);
+    }
+
+    /**
+     * Returns the number of registered listeners.
+     */
+    public int getListenerCount()
+    {
+        return listeners.size();
+    }
+
+    @Override
+    public void onJoinJitsiMeetRequest(Call call, String jitsiMeetRoom)
+    {
+        OperationSetJitsiMeetTools.JitsiMeetRequestListener listener
+            = call != null ? listeners.get(call) : null;
+
+        if (listener != null)
+        {
+            listener.onJoinJitsiMeetRequest(call, jitsiMeetRoom);
+        }
+        else if (logger.isDebugEnabled())
+        {
+            logger.debug(
+                "No listener for join request of " + call
+                    + " to " + jitsiMeetRoom);
+        }
+    }
+}
@@ -9,15 +9,25 @@ package org.jitsi.jigasi;
 import net.java.sip.communicator.service.protocol.*;
 import net.java.sip.communicator.service.protocol.event.*;
 import net.java.sip.communicator.service.protocol.jabber.*;
-import net.java.sip.communicator.service.protocol.media.*;
 import net.java.sip.communicator.util.*;
+import net.java.sip.communicator.impl.protocol.jabber.*;
 import net.java.sip.communicator.impl.protocol.jabber.extensions.jitsimeet.*;
+import org.jitsi.jigasi.media.*;
+import org.jitsi.jigasi.packetlogging.*;
+import org.jitsi.jigasi.stats.*;
+import org.jitsi.jigasi.util.*;
+import org.jitsi.jigasi.xmpp.*;
 import org.jitsi.service.neomedia.*;
+import org.jivesoftware.smack.*;
+import org.jivesoftware.smack.filter.*;
 import org.jivesoftware.smack.packet.*;
+import org.jivesoftware.smack.util.StringUtils;
 import org.jivesoftware.smackx.packet.*;
 import org.osgi.framework.*;
 
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 
 /**
  * Class takes care of handling Jitsi Videobridge conference. Currently it waits
@@ -38,6 +48,11 @@ public class JvbConference
      */
     private final static Logger logger = Logger.getLogger(JvbConference.class);
 
+    /**
+     * Logs events of this conference with its room name.
+     */
+    private final SessionLogger log = new SessionLogger(logger);
+
     /**
      * The name of XMPP feature which states for Jigasi SIP Gateway and can be
      * used to recognize gateway client.
@@ -51,10 +66,26 @@ public class JvbConference
      */
     private static final String INIT_STATUS_NAME = "Initializing Call";
 
+    /**
+     * Buckets (in us) of the histogram of member presence handling time.
+     */
+    private static final long[] PRESENCE_HANDLING_BOUNDS
+        = { 10, 50, 100, 500, 1000, 5000, 10000 };
+
     /**
      * {@link GatewaySession} that uses this <tt>JvbConference</tt> instance.
+     * When the conference is shared this is the session on behalf of which
+     * we have joined the room (or the oldest one still attached).
      */
-    private final GatewaySession gatewaySession;
+    private volatile GatewaySession gatewaySession;
+
+    /**
+     * The list of all {@link GatewaySession}s that use this instance. Contains
+     * more than one element only when JVB conference leg is shared by SIP
+     * sessions in the room.
+     */
+    private final List<GatewaySession> sessions
+        = new CopyOnWriteArrayList<GatewaySession>();
 
     /**
      * The XMPP account used for the call handled by this instance.
@@ -81,11 +112,44 @@ public class JvbConference
      */
     private boolean started;
 
+    /**
+     * Indicates whether this instance has been stopped and can no longer be
+     * shared by new sessions.
+     */
+    private boolean disposed;
+
     /**
      * The call established with JVB conference.
      */
     private Call jvbCall;
 
+    /**
+     * The engine which filters RTP packets received on JVB conference call.
+     */
+    private volatile RtpFilterEngine filterEngine;
+
+    /**
+     * Lets only the packets of the loudest speakers through to the mixer or
+     * <tt>null</tt> if all speakers are mixed.
+     */
+    private LoudestSpeakersFilter loudestSpeakersFilter;
+
+    /**
+     * Suppresses silence sent to JVB or <tt>null</tt> if disabled.
+     */
+    private volatile SilenceSuppressionFilter silenceFilter;
+
+    /**
+     * Whether the audio sent to JVB is muted, because all SIP peers of this
+     * conference are muted.
+     */
+    private boolean audioMuted;
+
+    /**
+     * Handles audio mute requests sent to us by the moderators.
+     */
+    private final MuteIqListener muteIqListener = new MuteIqListener();
+
     /**
      * Operation set telephony.
      */
@@ -108,6 +172,28 @@ public class JvbConference
      */
     private ProtocolProviderFactory xmppProviderFactory;
 
+    /**
+     * Gathers presence changes sent to the room or <tt>null</tt> if they are
+     * sent immediately.
+     */
+    private volatile PresenceCoalescer presenceCoalescer;
+
+    /**
+     * Tracks the presence of the focus in large room mode.
+     */
+    private final FocusPresenceListener focusPresenceListener
+        = new FocusPresenceListener();
+
+    /**
+     * The number of member presence events handled.
+     */
+    private final AtomicLong presenceEvents = new AtomicLong();
+
+    /**
+     * The time (in ns) spent handling member presence events.
+     */
+    private final AtomicLong presenceHandlingTime = new AtomicLong();
+
     /**
      * Handles timeout for the waiting for JVB conference call invite sent by
      * the focus.
@@ -131,6 +217,12 @@ public class JvbConference
      */
     private String focusResourceAddr;
 
+    /**
+     * The full address of the focus that has invited us to the conference,
+     * from which it sends its requests.
+     */
+    private volatile String focusAddress;
+
     /**
      * Creates new instance of <tt>JvbConference</tt>
      * @param gatewaySession the <tt>GatewaySession</tt> that will be using this
@@ -141,6 +233,150 @@ public class JvbConference
         this.gatewaySession = gatewaySession;
 
         this.roomName = roomName;
+
+        log.setContext("room", roomName);
+
+        sessions.add(gatewaySession);
+    }
+
+    /**
+     * Adds given <tt>session</tt> to the list of sessions that share this
+     * JVB conference leg.
+     * @param session the <tt>GatewaySession</tt> to be added.
+     * @return <tt>true</tt> if the session has been added or <tt>false</tt> if
+     *         this instance has been stopped already.
+     */
+    synchronized boolean addSession(GatewaySession session)
+    {
+        if (disposed)
+            return false;
+
+        if (!sessions.contains(session))
+            sessions.add(session);
+
+        return true;
+    }
+
+    /**
+     * Returns the {@link GatewaySession} on behalf of which this instance
+     * publishes its presence in the room.
+     */
+    GatewaySession getGatewaySession()
+    {
+        return gatewaySession;
+    }
+
+    /**
+     * Installs the filters which process RTP packets received from JVB
+     * before they are decoded.
+     * @param peer the JVB <tt>CallPeer</tt> whose audio stream will be
+     *             filtered.
+     */
+    private void installMediaFilters(CallPeer peer)
+    {
+        synchronized (this)
+        {
+            if (filterEngine != null)
+                return;
+
+            RtpFilterEngine engine = RtpFilterEngine.install(peer);
+            if (engine == null)
+            {
+                logger.warn("No audio stream found for " + peer);
+                return;
+            }
+
+            int topN = LoudestSpeakersFilter.getConfiguredLimit();
+
+            QualityGovernor governor
+                = ServiceUtils.getService(
+                        JigasiBundleActivator.osgiContext,
+                        QualityGovernor.class);
+
+            if (topN > 0)
+            {
+                loudestSpeakersFilter
+                    = new LoudestSpeakersFilter(
+                            topN,
+                            LoudestSpeakersFilter.getConfiguredExtensionId());
+
+                // Governor limits the number of speakers under high load
+                if (governor != null)
+                    governor.addFilter(loudestSpeakersFilter);
+
+                engine.addFilter(loudestSpeakersFilter);
+
+                log.info(
+                    "{} mixing {} loudest speakers",
+                    gatewaySession.getCallResource(),
+                    loudestSpeakersFilter.getLimit());
+            }
+            else if (governor != null)
+            {
+                // Speakers are limited by the governor under high load only
+                governor.addEngine(
+                    engine, LoudestSpeakersFilter.getConfiguredExtensionId());
+            }
+
+            if (SilenceSuppressionFilter.isEnabledInConfig())
+            {
+                silenceFilter
+                    = new SilenceSuppressionFilter(
+                            LoudestSpeakersFilter.getConfiguredExtensionId(),
+                            SilenceSuppressionFilter
+                                .getConfiguredSilenceLevel());
+
+                engine.addFilter(silenceFilter);
+            }
+
+            filterEngine = engine;
+
+            // Apply mute requested before the media has been started
+            audioMuted = false;
+            updateAudioMute();
+        }
+
+        // Sessions must not be notified while holding the lock, as they
+        // may be stopping this conference at the same time
+        for (GatewaySession session : sessions)
+        {
+            session.onJvbMediaStarted();
+        }
+    }
+
+    /**
+     * Mutes the audio sent to JVB once all SIP peers of this conference are
+     * muted and unmutes it when any of them gets unmuted. The audio stream of
+     * muted call stops sending, so that no audio is encoded at all.
+     */
+    synchronized void updateAudioMute()
+    {
+        boolean muted = !sessions.isEmpty();
+        for (GatewaySession session : sessions)
+        {
+            muted &= session.isMuted();
+        }
+
+        if (muted == audioMuted || jvbCall == null || filterEngine == null)
+            return;
+
+        MediaStream stream
+            = Util.getPeerMediaStream(
+                    jvbCall.getCallPeers().next(), MediaType.AUDIO);
+        if (stream == null)
+            return;
+
+        audioMuted = muted;
+
+        stream.setDirection(
+            muted ? MediaDirection.RECVONLY : MediaDirection.SENDRECV);
+
+        sendPresenceExtension(
+            new AudioMuteIqProvider.AudioMutedExtension(muted));
+
+        log.info(
+            "{} audio sent to JVB {}",
+            gatewaySession.getCallResource(), muted ? "muted" : "unmuted");
     }
 
     /**
@@ -153,10 +389,9 @@ public class JvbConference
                                                MediaType.AUDIO);
         String videoSSRC = getPeerSSRCforMedia(peer,
                                                MediaType.VIDEO);
-        logger.info(
-            "Peer " + peer.getState()
-                + " SSRCs audio: " + audioSSRC
-                + " video: " + videoSSRC);
+        log.info(
+            "Peer {} SSRCs audio: {} video: {}",
+            peer.getState(), audioSSRC, videoSSRC);
 
         MediaPresenceExtension mediaPresence
             = new MediaPresenceExtension();
@@ -225,17 +460,7 @@ public class JvbConference
      */
     private String getPeerSSRCforMedia(CallPeer peer, MediaType mediaType)
     {
-        if (!(peer instanceof MediaAwareCallPeer))
-            return null;
-
-        MediaAwareCallPeer peerMedia = (MediaAwareCallPeer) peer;
-
-        CallPeerMediaHandler mediaHandler
-            = peerMedia.getMediaHandler();
-        if (mediaHandler == null)
-            return null;
-
-        MediaStream stream = mediaHandler.getStream(mediaType);
+        MediaStream stream = Util.getPeerMediaStream(peer, mediaType);
         if (stream == null)
             return null;
 
@@ -316,18 +541,125 @@ public class JvbConference
     }
 
     /**
-     * Quits current JVB conference if any.
+     * Starts this instance on behalf of given <tt>session</tt> or, if it has
+     * been started already by other session sharing it, brings the session up
+     * to date with the current state of the conference.
+     * @param session the <tt>GatewaySession</tt> which uses this instance.
      */
-    public synchronized void stop()
+    public synchronized void start(GatewaySession session)
     {
-        if (!started)
+        if (!started && !disposed)
         {
-            logger.error("Already stopped !");
+            start();
             return;
         }
 
+        if (isInTheRoom())
+        {
+            session.notifyJvbRoomJoined();
+        }
+
+        if (jvbCall != null)
+        {
+            session.onConferenceCallInvited(jvbCall);
+
+            if (CallState.CALL_IN_PROGRESS.equals(jvbCall.getCallState()))
+            {
+                Exception error = session.onConferenceCallStarted(jvbCall);
+
+                if (error != null)
+                {
+                    logger.error(error, error);
+                }
+            }
+        }
+    }
+
+    /**
+     * Detaches given <tt>session</tt> from this instance. JVB conference is
+     * quit once the last session using it has been detached.
+     * @param session the <tt>GatewaySession</tt> which no longer uses this
+     *                instance.
+     */
+    public void stop(GatewaySession session)
+    {
+        synchronized (this)
+        {
+            // Both legs of the session may be stopping it at the same time
+            // and a session which is not attached must not tear down the
+            // shared leg
+            if (!sessions.contains(session))
+                return;
+
+            if (sessions.size() <= 1 || !sessions.remove(session))
+                session = null;
+            else if (session == gatewaySession)
+                gatewaySession = sessions.get(0);
+        }
+
+        if (session == null)
+        {
+            stop();
+            return;
+        }
+
+        log.info(
+            "{} has left shared JVB conference", session.getCallResource());
+
+        session.onJvbConferenceStopped(this, -1, null);
+    }
+
+    /**
+     * Quits current JVB conference if any. The room is left and the call is
+     * hung up before the account is unloaded, as unloading closes the
+     * connection they use. The teardown is waited for without holding the
+     * lock of this instance, so that the other sessions sharing it are not
+     * held back.
+     */
+    public void stop()
+    {
+        Teardown teardown;
+        List<GatewaySession> stopped;
+        int endReasonCode;
+        String endReason;
+
+        synchronized (this)
+        {
+            if (!started)
+            {
+                logger.error("Already stopped !");
+                return;
+            }
+
+            teardown = dispose();
+
+            stopped = new ArrayList<GatewaySession>(sessions);
+            sessions.clear();
+
+            endReasonCode = this.endReasonCode;
+            endReason = this.endReason;
+        }
+
+        teardown.run(Teardown.getStepTimeout());
+
+        for (GatewaySession session : stopped)
+        {
+            session.onJvbConferenceStopped(this, endReasonCode, endReason);
+        }
+    }
+
+    /**
+     * Releases the resources of this instance which do not need to wait and
+     * returns the teardown of the others.
+     */
+    private Teardown dispose()
+    {
         started = false;
 
+        disposed = true;
+
+        gatewaySession.getSipGateway().notifyJvbConferenceStopped(this);
+
         JigasiBundleActivator.osgiContext.removeServiceListener(this);
 
         if (telephony != null)
@@ -336,34 +668,100 @@ public class JvbConference
             telephony = null;
         }
 
-        if(mucRoom != null)
+        // Independent steps, so that none of them holds back the others,
+        // the account is unloaded once the room has been left
+        Teardown teardown
+            = new Teardown(
+                    gatewaySession.getCallResource() + " JVB conference");
+
+        final ChatRoom mucRoom
+            = this.mucRoom != null ? detachConferenceRoom() : null;
+        if (mucRoom != null)
         {
-            leaveConferenceRoom();
+            teardown.addStep("muc_leave", new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    mucRoom.leave();
+                }
+            });
         }
 
+        final Call jvbCall = this.jvbCall;
         if (jvbCall != null)
         {
-            CallManager.hangupCall(jvbCall);
+            teardown.addStep("jvb_hangup", new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    CallManager.hangupCallNow(jvbCall, -1, null);
+                }
+            });
         }
 
         if (xmppProvider != null)
         {
             xmppProvider.removeRegistrationStateChangeListener(this);
 
-            logger.info(
-                gatewaySession.getCallResource()
-                    + " is removing account " + xmppAccount);
+            log.info(
+                "{} is removing account {}",
+                gatewaySession.getCallResource(), xmppAccount);
+
+            final ProtocolProviderFactory xmppProviderFactory
+                = this.xmppProviderFactory;
+            final AccountID xmppAccount = this.xmppAccount;
 
-            xmppProviderFactory.unloadAccount(xmppAccount);
+            teardown.then().addStep("account_unload", new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    xmppProviderFactory.unloadAccount(xmppAccount);
+                }
+            });
 
-            xmppProviderFactory = null;
+            this.xmppProviderFactory = null;
 
-            xmppAccount = null;
+            this.xmppAccount = null;
 
             xmppProvider = null;
         }
 
-        gatewaySession.onJvbConferenceStopped(this, endReasonCode, endReason);
+        QualityGovernor governor
+            = ServiceUtils.getService(
+                    JigasiBundleActivator.osgiContext, QualityGovernor.class);
+
+        if (loudestSpeakersFilter != null)
+        {
+            log.info(
+                "{} packets not decoded: {}",
+                gatewaySession.getCallResource(),
+                loudestSpeakersFilter.getPacketsDropped());
+
+            if (governor != null)
+                governor.removeFilter(loudestSpeakersFilter);
+        }
+        else if (governor != null && filterEngine != null)
+        {
+            governor.removeEngine(filterEngine);
+        }
+
+        log.info(
+            "{} member presence events handled in {} us",
+            presenceEvents.get(), presenceHandlingTime.get() / 1000);
+
+        if (silenceFilter != null)
+        {
+            log.info(
+                "{} silent packets not sent: {}, bytes: {}",
+                gatewaySession.getCallResource(),
+                silenceFilter.getPacketsSuppressed(),
+                silenceFilter.getBytesSuppressed());
+        }
+
+        return teardown;
     }
 
     /**
@@ -385,12 +783,11 @@ public class JvbConference
                 .equals(xmppAccount.getAccountUniqueID()))
         {
 
-            logger.info(
-                callResource + " rejects XMPP provider " + xmppProvider);
+            log.info("{} rejects XMPP provider {}", callResource, xmppProvider);
             return;
         }
 
-        logger.info(callResource + " will use " + xmppProvider);
+        log.info("{} will use {}", callResource, xmppProvider);
 
         this.xmppProvider = xmppProvider;
 
@@ -429,9 +826,7 @@ public class JvbConference
         }
         else
         {
-            logger.info(
-                "XMPP (" + gatewaySession.getCallResource()
-                         + "): " + evt.toString());
+            log.info("XMPP ({}): {}", gatewaySession.getCallResource(), evt);
         }
     }
 
@@ -457,7 +852,7 @@ public class JvbConference
 
         try
         {
-            logger.info("Joining JVB conference room: " + roomName);
+            log.info("Joining JVB conference room");
 
             ChatRoom mucRoom = muc.findRoom(roomName);
 
@@ -475,32 +870,74 @@ public class JvbConference
                         .extractCallIdFromResource(
                                 gatewaySession.getCallResource());
 
+            String displayName = getDisplayName();
+
+            XMPPConnection connection = getConnection();
+            long presenceInterval = PresenceCoalescer.getInterval();
+            if (connection != null && presenceInterval > 0)
+            {
+                // Nick and status go into the join presence
+                presenceCoalescer
+                    = new PresenceCoalescer(
+                            connection, roomName, meetTools,
+                            presenceInterval);
+
+                if (displayName != null)
+                    presenceCoalescer.setExtension(new Nick(displayName));
+                presenceCoalescer.setStatus(INIT_STATUS_NAME);
+            }
+
             mucRoom.joinAs(callId);
 
             this.mucRoom = mucRoom;
 
-            mucRoom.addMemberPresenceListener(this);
+            if (connection != null)
+            {
+                connection.addPacketListener(
+                    muteIqListener,
+                    new PacketTypeFilter(AudioMuteIqProvider.MuteIq.class));
+            }
 
-            String displayName = getDisplayName();
-            if (displayName != null)
+            if (connection != null && SipGateway.isLargeRoomMode())
             {
-                Nick nick = new Nick(displayName);
-                sendPresenceExtension(nick);
+                connection.addPacketListener(
+                    focusPresenceListener, focusPresenceListener);
             }
             else
             {
-                logger.error("No display name to use...");
+                mucRoom.addMemberPresenceListener(this);
+            }
+
+            if (presenceCoalescer != null)
+            {
+                presenceCoalescer.setChatRoom(mucRoom);
             }
+            else
+            {
+                if (displayName != null)
+                {
+                    Nick nick = new Nick(displayName);
+                    sendPresenceExtension(nick);
+                }
+
+                // Announce that we're connecting to JVB conference
+                // (waiting for invite)
+                //sendPresenceExtension(
+                  //  gatewaySession.createPresenceExtension(
+                    //    SipGatewayExtension.STATE_CONNECTING_JVB, null));
 
-            // Announce that we're connecting to JVB conference
-            // (waiting for invite)
-            //sendPresenceExtension(
-              //  gatewaySession.createPresenceExtension(
-                //    SipGatewayExtension.STATE_CONNECTING_JVB, null));
+                setPresenceStatus(INIT_STATUS_NAME);
+            }
 
-            setPresenceStatus(INIT_STATUS_NAME);
+            if (displayName == null)
+            {
+                logger.error("No display name to use...");
+            }
 
-            gatewaySession.notifyJvbRoomJoined();
+            for (GatewaySession session : sessions)
+            {
+                session.notifyJvbRoomJoined();
+            }
 
             inviteTimeout.scheduleTimeout(
                 SipGateway.getJvbInviteTimeout());
@@ -515,7 +952,12 @@ public class JvbConference
 
     void setPresenceStatus(String statusMsg)
     {
-        if (mucRoom != null)
+        PresenceCoalescer presenceCoalescer = this.presenceCoalescer;
+        if (presenceCoalescer != null)
+        {
+            presenceCoalescer.setStatus(statusMsg);
+        }
+        else if (mucRoom != null)
         {
             // Send presence status update
             OperationSetJitsiMeetTools jitsiMeetTools
@@ -546,29 +988,52 @@ public class JvbConference
 
     private void onJvbCallStarted()
     {
-        logger.info("JVB conference call IN_PROGRESS " + roomName);
+        log.info("JVB conference call IN_PROGRESS");
 
-        Exception error = gatewaySession.onConferenceCallStarted(jvbCall);
-
-        if (error != null)
+        for (GatewaySession session : sessions)
         {
-            logger.error(error, error);
+            Exception error = session.onConferenceCallStarted(jvbCall);
+
+            if (error != null)
+            {
+                logger.error(error, error);
+            }
         }
     }
 
-    private void leaveConferenceRoom()
+    /**
+     * Stops listening to the conference room, which is left by the caller.
+     *
+     * @return the room to leave or <tt>null</tt> if not in the room.
+     */
+    private ChatRoom detachConferenceRoom()
     {
+        if (presenceCoalescer != null)
+        {
+            presenceCoalescer.dispose();
+            presenceCoalescer = null;
+        }
+
         if (mucRoom == null)
         {
             logger.warn("MUC room is null");
-            return;
+            return null;
         }
 
         mucRoom.removeMemberPresenceListener(this);
 
-        mucRoom.leave();
+        XMPPConnection connection = getConnection();
+        if (connection != null)
+        {
+            connection.removePacketListener(muteIqListener);
+            connection.removePacketListener(focusPresenceListener);
+        }
+
+        ChatRoom mucRoom = this.mucRoom;
+
+        this.mucRoom = null;
 
-        mucRoom = null;
+        return mucRoom;
     }
 
     @Override
@@ -596,7 +1061,23 @@ public class JvbConference
     @Override
     public void memberPresenceChanged(ChatRoomMemberPresenceChangeEvent evt)
     {
-        logger.info("Member presence change: "+evt);
+        long start = System.nanoTime();
+        try
+        {
+            handleMemberPresence(evt);
+        }
+        finally
+        {
+            presenceHandled(start);
+        }
+    }
+
+    /**
+     * Stops this conference if given event tells that the focus has left.
+     */
+    private void handleMemberPresence(ChatRoomMemberPresenceChangeEvent evt)
+    {
+        log.info("Member presence change: {}", evt);
 
         String eventType = evt.getEventType();
 
@@ -609,26 +1090,142 @@ public class JvbConference
 
         ChatRoomMember member = evt.getChatRoomMember();
 
-        logger.info(
-            "Member left : " + member.getRole()
-                + " " + member.getContactAddress());
+        log.info(
+            "Member left : {} {}",
+            member.getRole(), member.getContactAddress());
 
         if (ChatRoomMemberRole.OWNER.equals(member.getRole()) ||
             member.getContactAddress().equals(focusResourceAddr))
         {
-            logger.info("Focus left! - stopping");
+            onFocusLeft();
+        }
+    }
 
+    /**
+     * Hangs up all sessions in the room once the focus has left. The first
+     * conference in the room which notices it tears down the sessions of
+     * all the others. This conference is stopped on its own if the room
+     * teardown does not cover it.
+     */
+    private void onFocusLeft()
+    {
+        log.info("Focus left! - stopping all sessions in the room");
+
+        GatewaySession session = gatewaySession;
+        SipGateway gateway = session.getSipGateway();
+
+        boolean covered
+            = gateway.getActiveSessions().contains(session)
+                && roomName.equalsIgnoreCase(session.getJvbRoomName());
+
+        if (gateway.getRoomTeardown().hangUpRoomAsync(roomName) == -1
+                || !covered)
+        {
             stop();
         }
     }
 
+    /**
+     * Records the time spent handling member presence event.
+     *
+     * @param start the value of <tt>System.nanoTime()</tt> when the handling
+     *              has started.
+     */
+    private void presenceHandled(long start)
+    {
+        long time = System.nanoTime() - start;
+
+        presenceEvents.incrementAndGet();
+        presenceHandlingTime.addAndGet(time);
+
+        Statistics.increment(Statistics.TOTAL_PRESENCE_EVENTS);
+        Statistics.getHistogram(
+                Statistics.PRESENCE_HANDLING_TIME, PRESENCE_HANDLING_BOUNDS)
+            .record(time / 1000);
+    }
+
+    /**
+     * Returns XMPP connection of our XMPP account or <tt>null</tt> if it is
+     * not available.
+     */
+    private XMPPConnection getConnection()
+    {
+        if (!(xmppProvider instanceof ProtocolProviderServiceJabberImpl))
+            return null;
+
+        return ((ProtocolProviderServiceJabberImpl) xmppProvider)
+            .getConnection();
+    }
+
+    /**
+     * Checks whether the sender of given packet is allowed to mute us. It is
+     * either the focus or one of the moderators of the conference room.
+     */
+    private boolean isModerator(String from)
+    {
+        ChatRoom mucRoom = this.mucRoom;
+
+        return isModerator(
+            from,
+            focusAddress,
+            roomName,
+            mucRoom != null
+                ? mucRoom.getMembers()
+                : Collections.<ChatRoomMember>emptyList());
+    }
+
+    /**
+     * Checks whether given address is the focus which has invited us or
+     * the occupant of the conference room with moderator role. The focus is
+     * trusted only by its full address, any other JID named "focus" is
+     * treated as an ordinary occupant or stranger.
+     *
+     * @param from the full JID of the sender.
+     * @param focusAddress the full JID of the focus or <tt>null</tt>.
+     * @param roomName the bare JID of the conference room.
+     * @param members the occupants of the conference room.
+     */
+    static boolean isModerator(String from,
+                               String focusAddress,
+                               String roomName,
+                               List<ChatRoomMember> members)
+    {
+        if (from == null)
+            return false;
+
+        if (from.equals(focusAddress))
+            return true;
+
+        if (roomName == null
+            || !roomName.equalsIgnoreCase(StringUtils.parseBareAddress(from)))
+        {
+            return false;
+        }
+
+        String nickname = StringUtils.parseResource(from);
+        for (ChatRoomMember member : members)
+        {
+            if (nickname.equals(member.getName()))
+            {
+                return member.getRole().getRoleIndex()
+                    >= ChatRoomMemberRole.MODERATOR.getRoleIndex();
+            }
+        }
+        return false;
+    }
+
     /**
      * Sends given <tt>extension</tt> in MUC presence update packet.
      * @param extension the packet extension to be included in MUC presence.
      */
     void sendPresenceExtension(PacketExtension extension)
     {
-        if (mucRoom != null)
+        PresenceCoalescer presenceCoalescer = this.presenceCoalescer;
+        if (presenceCoalescer != null)
+        {
+            presenceCoalescer.setExtension(extension);
+        }
+        else if (mucRoom != null)
         {
             // Send presence update
             OperationSetJitsiMeetTools jitsiMeetTools
@@ -665,11 +1262,15 @@ public class JvbConference
             else
             {
                 String fullAddress = focus.getAddress();
+                focusAddress = fullAddress;
                 focusResourceAddr
                     = fullAddress.substring(
                             fullAddress.indexOf("/") + 1);
 
-                logger.info("Got invite from " + focusResourceAddr);
+                focusPresenceListener.setFocusOccupant(
+                    roomName + "/" + focusResourceAddr);
+
+                log.info("Got invite from {}", focusResourceAddr);
             }
 
             if (jvbCall != null)
@@ -687,6 +1288,9 @@ public class JvbConference
 
             inviteTimeout.cancel();
 
+            gatewaySession.getSipGateway().getRoomFailures()
+                .recordSuccess(roomName);
+
             jvbCall = event.getSourceCall();
 
             CallPeer peer = jvbCall.getCallPeers().next();
@@ -697,20 +1301,25 @@ public class JvbConference
                 {
                     CallPeer peer = evt.getSourceCallPeer();
                     CallPeerState peerState = peer.getState();
-                    logger.info(
-                        gatewaySession.getCallResource()
-                        + " JVB peer state: " + peerState);
+                    log.info(
+                        "{} JVB peer state: {}",
+                        gatewaySession.getCallResource(), peerState);
 
                     if (CallPeerState.CONNECTED.equals(peerState))
                     {
                         advertisePeerSSRCs(peer);
+
+                        installMediaFilters(peer);
                     }
                 }
             });
 
             jvbCall.addCallChangeListener(callChangeListener);
 
-            gatewaySession.onConferenceCallInvited(jvbCall);
+            for (GatewaySession session : sessions)
+            {
+                session.onConferenceCallInvited(jvbCall);
+            }
 
             // Accept incoming jingle call
             CallManager.acceptCall(jvbCall);
@@ -796,6 +1405,87 @@ public class JvbConference
         return properties;
     }
 
+    /**
+     * Checks whether given packet is the presence of the focus in the room.
+     * The focus is the occupant which has invited us or, until the invite
+     * arrives, any owner of the room, as in
+     * {@link #handleMemberPresence(ChatRoomMemberPresenceChangeEvent)}.
+     *
+     * @param packet the packet received by the XMPP connection.
+     * @param roomName the bare JID of the conference room.
+     * @param focusOccupant the occupant JID of the focus or <tt>null</tt>.
+     */
+    static boolean isFocusPresence(Packet packet,
+                                   String roomName,
+                                   String focusOccupant)
+    {
+        String from = packet.getFrom();
+        int length = roomName.length();
+
+        // Cheap check first, the filter sees every packet of the connection
+        if (!(packet instanceof Presence)
+            || from == null
+            || from.length() <= length
+            || from.charAt(length) != '/'
+            || !from.regionMatches(true, 0, roomName, 0, length))
+        {
+            return false;
+        }
+
+        if (from.equalsIgnoreCase(focusOccupant))
+            return true;
+
+        MUCUser mucUser
+            = (MUCUser) packet.getExtension(
+                    "x", "http://jabber.org/protocol/muc#user");
+        MUCUser.Item item = mucUser != null ? mucUser.getItem() : null;
+
+        return item != null && "owner".equals(item.getAffiliation());
+    }
+
+    /**
+     * Listens to the presence of the focus occupant only and stops the
+     * conference when the focus leaves the room. Used in large room mode
+     * instead of handling presence events of all room members.
+     */
+    private class FocusPresenceListener
+        implements PacketListener,
+                   PacketFilter
+    {
+        /**
+         * The occupant JID of the focus.
+         */
+        private volatile String focusOccupant;
+
+        void setFocusOccupant(String focusOccupant)
+        {
+            this.focusOccupant = focusOccupant;
+        }
+
+        @Override
+        public boolean accept(Packet packet)
+        {
+            return isFocusPresence(packet, roomName, focusOccupant);
+        }
+
+        @Override
+        public void processPacket(Packet packet)
+        {
+            long start = System.nanoTime();
+            try
+            {
+                if (((Presence) packet).getType() == Presence.Type.unavailable)
+                {
+                    onFocusLeft();
+                }
+            }
+            finally
+            {
+                presenceHandled(start);
+            }
+        }
+    }
+
     /**
      * Threads handles the timeout for the waiting for conference call invite
      * sent by the focus.
@@ -846,6 +1536,11 @@ public class JvbConference
                         endReasonCode
                             = OperationSetBasicTelephony.HANGUP_REASON_TIMEOUT;
 
+                        gatewaySession.getSipGateway().getRoomFailures()
+                            .recordFailure(roomName);
+
+                        PacketCapture.dumpOnSessionFailure("jvb-invite-timeout");
+
                         stop();
                     }
                 }
@@ -880,4 +1575,45 @@ public class JvbConference
             }
         }
     }
+
+    /**
+     * Mutes or unmutes the SIP peers of this conference on request of
+     * the moderators.
+     */
+    class MuteIqListener
+        implements PacketListener
+    {
+        @Override
+        public void processPacket(Packet packet)
+        {
+            AudioMuteIqProvider.MuteIq muteIq
+                = (AudioMuteIqProvider.MuteIq) packet;
+
+            if (!IQ.Type.SET.equals(muteIq.getType()))
+                return;
+
+            XMPPConnection connection = getConnection();
+            if (connection == null)
+                return;
+
+            if (muteIq.getMute() == null || !isModerator(muteIq.getFrom()))
+            {
+                logger.warn(
+                    "Mute request rejected from: " + muteIq.getFrom());
+
+                connection.sendPacket(
+                    IQ.createErrorResponse(
+                        muteIq,
+                        new XMPPError(XMPPError.Condition.not_allowed)));
+                return;
+            }
+
+            for (GatewaySession session : sessions)
+            {
+                session.setMuted(muteIq.getMute());
+            }
+
+            connection.sendPacket(IQ.createResultIQ(muteIq));
+        }
+    }
 }
@@ -0,0 +1,359 @@
+/*
+ * Jitsi Videobridge, OpenSource video conferencing.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package org.jitsi.jigasi;
+
+import net.java.sip.communicator.util.*;
+import org.jitsi.jigasi.stats.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Hangs up all sessions of a room in parallel within a total deadline. Used
+ * when the conference ends, so that the SIP calls, MUC rooms and XMPP
+ * accounts of all sessions of a big meeting are released at once instead of
+ * each session discovering on its own that the focus has left. Nobody waits
+ * for the teardown, the result is passed to a listener.
+ */
+public class RoomTeardown
+{
+    /**
+     * The logger
+     */
+    private final static Logger logger = Logger.getLogger(RoomTeardown.class);
+
+    /**
+     * The name of the property which holds the total time (in ms) given to
+     * the sessions of a room to hang up.
+     */
+    public static final String P_NAME_ROOM_TEARDOWN_TIMEOUT
+        = "org.jitsi.jigasi.ROOM_TEARDOWN_TIMEOUT";
+
+    /**
+     * Default room teardown timeout.
+     */
+    public static final long DEFAULT_ROOM_TEARDOWN_TIMEOUT = 5000;
+
+    /**
+     * The name of the counter of room teardowns.
+     */
+    public static final String TOTAL_ROOM_TEARDOWNS = "total_room_teardowns";
+
+    /**
+     * The name of the counter of sessions which did not hang up within the
+     * deadline.
+     */
+    public static final String TOTAL_TEARDOWN_TIMEOUTS
+        = "total_teardown_timeouts";
+
+    /**
+     * The maximum number of sessions hung up at the same time.
+     */
+    private static final int POOL_SIZE = 16;
+
+    /**
+     * The result of room teardown.
+     */
+    public static class Result
+    {
+        /**
+         * The number of sessions of the room.
+         */
+        private final int sessions;
+
+        /**
+         * The number of sessions hung up within the deadline. A session
+         * with both legs counts once its legs are being torn down on the
+         * teardown pool.
+         */
+        private final int completed;
+
+        Result(int sessions, int completed)
+        {
+            this.sessions = sessions;
+            this.completed = completed;
+        }
+
+        /**
+         * Returns the number of sessions of the room.
+         */
+        public int getSessions()
+        {
+            return sessions;
+        }
+
+        /**
+         * Returns the number of sessions hung up within the deadline.
+         */
+        public int getCompleted()
+        {
+            return completed;
+        }
+    }
+
+    /**
+     * Notified when room teardown has finished.
+     */
+    public interface Listener
+    {
+        /**
+         * Called once all sessions of the room have been hung up or the
+         * deadline has passed, on a thread of the teardown.
+         *
+         * @param roomName the name of the room.
+         * @param result the result of the teardown.
+         */
+        void roomTornDown(String roomName, Result result);
+    }
+
+    /**
+     * The gateway which manages the sessions.
+     */
+    private final SipGateway gateway;
+
+    /**
+     * Hangs up the sessions.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * Fires the deadlines of teardowns.
+     */
+    private final Timer timer = new Timer("RoomTeardown deadline", true);
+
+    /**
+     * The names of rooms being torn down.
+     */
+    private final Set<String> rooms
+        = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /**
+     * Creates new <tt>RoomTeardown</tt>.
+     *
+     * @param gateway the <tt>SipGateway</tt> which manages the sessions.
+     */
+    public RoomTeardown(SipGateway gateway)
+    {
+        this.gateway = gateway;
+
+        final AtomicInteger threadCount = new AtomicInteger();
+        this.executor
+            = Executors.newFixedThreadPool(
+                    POOL_SIZE,
+                    new ThreadFactory()
+                    {
+                        @Override
+                        public Thread newThread(Runnable r)
+                        {
+                            Thread thread
+                                = new Thread(
+                                        r,
+                                        "RoomTeardown-"
+                                            + threadCount.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+    }
+
+    /**
+     * Returns configured room teardown timeout.
+     */
+    public static long getTimeout()
+    {
+        return JigasiBundleActivator.getConfigurationservice().getLong(
+            P_NAME_ROOM_TEARDOWN_TIMEOUT, DEFAULT_ROOM_TEARDOWN_TIMEOUT);
+    }
+
+    /**
+     * Starts hanging up all sessions in given room in parallel, without
+     * waiting for them. The listener is notified once they have been hung
+     * up or the timeout has passed. Sessions which did not make it keep
+     * hanging up in the background.
+     *
+     * @param roomName the name of the room.
+     * @param timeout the total time (in ms) given to the sessions.
+     * @param listener notified of the result or <tt>null</tt>.
+     * @return the number of sessions of the room or <tt>-1</tt> if the room
+     *         is already being torn down.
+     */
+    public int hangUpRoom(String roomName, long timeout, Listener listener)
+    {
+        List<Runnable> hangUps = new ArrayList<Runnable>();
+        for (final GatewaySession session : gateway.getActiveSessions())
+        {
+            if (!roomName.equalsIgnoreCase(session.getJvbRoomName()))
+                continue;
+
+            hangUps.add(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    session.hangUp();
+                }
+            });
+        }
+
+        return hangUp(roomName, hangUps, timeout, listener)
+            ? hangUps.size() : -1;
+    }
+
+    /**
+     * Starts tearing down given room in the background with configured
+     * timeout, unless it is already being torn down.
+     *
+     * @param roomName the name of the room.
+     * @return the number of sessions of the room or <tt>-1</tt> if the room
+     *         is already being torn down.
+     */
+    public int hangUpRoomAsync(String roomName)
+    {
+        return hangUpRoom(roomName, getTimeout(), null);
+    }
+
+    /**
+     * Runs the hang ups of the sessions of given room on the pool.
+     *
+     * @param roomName the name of the room.
+     * @param hangUps hang up the sessions.
+     * @param timeout the total time (in ms) given to the sessions.
+     * @param listener notified of the result or <tt>null</tt>.
+     * @return <tt>false</tt> if the room is already being torn down.
+     */
+    boolean hangUp(String roomName, List<Runnable> hangUps, long timeout,
+                   Listener listener)
+    {
+        if (!rooms.add(roomName.toLowerCase()))
+            return false;
+
+        Statistics.increment(TOTAL_ROOM_TEARDOWNS);
+
+        final RoomHangUp roomHangUp
+            = new RoomHangUp(roomName, hangUps.size(), listener);
+
+        // The teardown of a room without sessions finishes at once
+        timer.schedule(
+            roomHangUp, hangUps.isEmpty() ? 0 : Math.max(0, timeout));
+
+        for (final Runnable hangUp : hangUps)
+        {
+            executor.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        hangUp.run();
+                    }
+                    catch (RuntimeException e)
+                    {
+                        logger.error("Failed to hang up session", e);
+                    }
+                    roomHangUp.sessionHungUp();
+                }
+            });
+        }
+        return true;
+    }
+
+    /**
+     * The teardown of single room. Finishes once all sessions have been
+     * hung up or the deadline has passed.
+     */
+    private class RoomHangUp
+        extends TimerTask
+    {
+        private final String roomName;
+
+        private final int sessions;
+
+        private final Listener listener;
+
+        private final long start = System.currentTimeMillis();
+
+        /**
+         * The number of sessions hung up within the deadline.
+         */
+        private int completed;
+
+        private boolean finished;
+
+        RoomHangUp(String roomName, int sessions, Listener listener)
+        {
+            this.roomName = roomName;
+            this.sessions = sessions;
+            this.listener = listener;
+        }
+
+        void sessionHungUp()
+        {
+            synchronized (this)
+            {
+                if (finished)
+                    return;
+
+                completed++;
+                if (completed < sessions)
+                    return;
+            }
+            finish();
+        }
+
+        /**
+         * The deadline has passed.
+         */
+        @Override
+        public void run()
+        {
+            finish();
+        }
+
+        private void finish()
+        {
+            int completed;
+            synchronized (this)
+            {
+                if (finished)
+                    return;
+
+                finished = true;
+                completed = this.completed;
+            }
+
+            cancel();
+            rooms.remove(roomName.toLowerCase());
+
+            if (completed < sessions)
+            {
+                Statistics.add(TOTAL_TEARDOWN_TIMEOUTS, sessions - completed);
+            }
+
+            logger.info(
+                "Room " + roomName + " torn down in "
+                    + (System.currentTimeMillis() - start) + " ms, sessions: "
+                    + sessions + ", completed: " + completed);
+
+            if (listener != null)
+            {
+                listener.roomTornDown(
+                    roomName, new Result(sessions, completed));
+            }
+        }
+    }
+
+    /**
+     * Stops the threads.
+     */
+    public void shutdown()
+    {
+        timer.cancel();
+        executor.shutdown();
+    }
+}
@@ -9,8 +9,11 @@ package org.jitsi.jigasi;
 import net.java.sip.communicator.service.protocol.*;
 import net.java.sip.communicator.service.protocol.event.*;
 import net.java.sip.communicator.util.*;
+import org.jitsi.jigasi.media.*;
+import org.jitsi.jigasi.stats.*;
 
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * SIP gateway uses first registered SIP account. Manages {@link GatewaySession}
@@ -43,6 +46,36 @@ public class SipGateway
      */
     public static final long DEFAULT_JVB_INVITE_TIMEOUT = 30L * 1000L;
 
+    /**
+     * Name of the property used to enable the mode in which all SIP calls
+     * into the same room share single JVB conference leg.
+     */
+    public static final String P_NAME_SHARED_JVB_LEG
+        = "org.jitsi.jigasi.SHARED_JVB_LEG";
+
+    /**
+     * Name of the property used to enable the mode in which outgoing SIP call
+     * is dialed at the same time as JVB conference is joined, instead of
+     * after the JVB call has been started.
+     */
+    public static final String P_NAME_PARALLEL_DIAL
+        = "org.jitsi.jigasi.PARALLEL_DIAL";
+
+    /**
+     * Name of the property used to enable answering incoming SIP calls
+     * before JVB conference call has been started.
+     */
+    public static final String P_NAME_EARLY_ANSWER
+        = "org.jitsi.jigasi.EARLY_ANSWER";
+
+    /**
+     * Name of the property used to enable large room mode in which only the
+     * presence of the focus is tracked and presence extensions of other
+     * occupants are not parsed.
+     */
+    public static final String P_NAME_LARGE_ROOM_MODE
+        = "org.jitsi.jigasi.LARGE_ROOM_MODE";
+
     /**
      * SIP protocol provider instance.
      */
@@ -58,6 +91,18 @@ public class SipGateway
      */
     private final SipCallListener callListener = new SipCallListener();
 
+    /**
+     * Passes Jitsi Meet join requests of SIP provider to the sessions of the
+     * calls they belong to.
+     */
+    private final JitsiMeetRequestDispatcher requestDispatcher
+        = new JitsiMeetRequestDispatcher();
+
+    /**
+     * Hangs up all sessions of a room at once.
+     */
+    private final RoomTeardown roomTeardown = new RoomTeardown(this);
+
     /**
      * The {@link CallsControl} that manages call resource/URIs.
      */
@@ -69,11 +114,61 @@ public class SipGateway
     private final Map<String, GatewaySession> sessions
         = new HashMap<String, GatewaySession>();
 
+    /**
+     * Writes call detail records of ended sessions if enabled.
+     */
+    private volatile CdrWriter cdrWriter;
+
+    /**
+     * The map of room names to <tt>JvbConference</tt>s shared by all SIP
+     * sessions in the room. Used only when {@link #P_NAME_SHARED_JVB_LEG}
+     * is enabled.
+     */
+    private final ConcurrentMap<String, JvbConference> sharedJvbConferences
+        = new ConcurrentHashMap<String, JvbConference>();
+
     /**
      * The name of XMPP server that hosts JVB conference room.
      */
     private String xmppServerName;
 
+    /**
+     * Announcement prompts played to SIP calls or <tt>null</tt> if disabled.
+     */
+    private PromptCache promptCache;
+
+    /**
+     * Whether the prompt cache has been created.
+     */
+    private boolean promptCacheCreated;
+
+    /**
+     * Recent failures of SIP destinations.
+     */
+    private FailureCache destinationFailures;
+
+    /**
+     * Recent failures of JVB rooms, e.g. rooms to which the focus has not
+     * invited us.
+     */
+    private FailureCache roomFailures;
+
+    /**
+     * Paces outgoing calls of the SIP account.
+     */
+    private DialScheduler dialScheduler;
+
+    /**
+     * Loads the routing table of outgoing calls or <tt>null</tt> if routing
+     * is disabled.
+     */
+    private DialPlanLoader dialPlanLoader;
+
+    /**
+     * Whether the dial plan loader has been created.
+     */
+    private boolean dialPlanLoaderCreated;
+
     /**
      * Creates new instance of <tt>SipGateway</tt>.
      */
@@ -98,6 +193,17 @@ public class SipGateway
         {
             logger.error("Cannot unregister");
         }
+
+        roomTeardown.shutdown();
+
+        synchronized (this)
+        {
+            if (dialScheduler != null)
+                dialScheduler.shutdown();
+
+            if (dialPlanLoader != null)
+                dialPlanLoader.stop();
+        }
     }
 
     /**
@@ -125,6 +231,141 @@ public class SipGateway
         return sipProvider;
     }
 
+    /**
+     * Returns the <tt>RoomTeardown</tt> which hangs up all sessions of a
+     * room.
+     */
+    public RoomTeardown getRoomTeardown()
+    {
+        return roomTeardown;
+    }
+
+    /**
+     * Returns the dispatcher of Jitsi Meet join requests of SIP provider.
+     */
+    public JitsiMeetRequestDispatcher getRequestDispatcher()
+    {
+        return requestDispatcher;
+    }
+
+    /**
+     * Returns the announcement prompt of given name.
+     *
+     * @param name the name of the prompt, one of the names defined by
+     *             {@link PromptCache}.
+     * @return the prompt or <tt>null</tt> if prompts are disabled or the
+     *         prompt is not available.
+     */
+    public Prompt getPrompt(String name)
+    {
+        PromptCache promptCache;
+
+        synchronized (this)
+        {
+            if (!promptCacheCreated)
+            {
+                promptCacheCreated = true;
+                this.promptCache
+                    = PromptCache.create(
+                            JigasiBundleActivator.getConfigurationservice());
+            }
+            promptCache = this.promptCache;
+        }
+        return promptCache != null ? promptCache.get(name) : null;
+    }
+
+    /**
+     * Returns recent failures of SIP destinations.
+     */
+    public synchronized FailureCache getDestinationFailures()
+    {
+        if (destinationFailures == null)
+        {
+            destinationFailures
+                = FailureCache.create(
+                        "destination",
+                        JigasiBundleActivator.getConfigurationservice());
+        }
+        return destinationFailures;
+    }
+
+    /**
+     * Returns recent failures of JVB rooms.
+     */
+    public synchronized FailureCache getRoomFailures()
+    {
+        if (roomFailures == null)
+        {
+            roomFailures
+                = FailureCache.create(
+                        "room",
+                        JigasiBundleActivator.getConfigurationservice());
+        }
+        return roomFailures;
+    }
+
+    /**
+     * Returns the scheduler of outgoing calls of the SIP account.
+     */
+    public synchronized DialScheduler getDialScheduler()
+    {
+        if (dialScheduler == null)
+        {
+            dialScheduler
+                = DialScheduler.create(
+                        sipProvider != null
+                            ? sipProvider.getAccountID().getUserID() : "SIP",
+                        JigasiBundleActivator.getConfigurationservice());
+        }
+        return dialScheduler;
+    }
+
+    /**
+     * Returns current dial plan of outgoing calls.
+     */
+    public DialPlan getDialPlan()
+    {
+        DialPlanLoader dialPlanLoader;
+
+        synchronized (this)
+        {
+            if (!dialPlanLoaderCreated)
+            {
+                dialPlanLoaderCreated = true;
+                this.dialPlanLoader
+                    = DialPlanLoader.create(
+                            JigasiBundleActivator.getConfigurationservice());
+                if (this.dialPlanLoader != null)
+                    this.dialPlanLoader.start();
+            }
+            dialPlanLoader = this.dialPlanLoader;
+        }
+        return dialPlanLoader != null
+            ? dialPlanLoader.getDialPlan() : DialPlan.EMPTY;
+    }
+
+    /**
+     * Throws an exception if given destination or room has failed recently.
+     */
+    private void checkRecentFailures(String destination, String roomName)
+    {
+        long delay = getRoomFailures().getRetryDelay(roomName);
+        if (delay > 0)
+        {
+            throw new IllegalStateException(
+                "Room " + roomName + " has failed recently, retry in "
+                    + delay + " ms");
+        }
+
+        delay = getDestinationFailures().getRetryDelay(destination);
+        if (delay > 0)
+        {
+            throw new IllegalStateException(
+                "Destination " + destination + " has failed recently, retry"
+                    + " in " + delay + " ms");
+        }
+    }
+
     /**
      * Returns the name of the XMPP server that hosts JVB conference room.
      */
@@ -141,6 +382,12 @@ public class SipGateway
             OperationSetBasicTelephony.class);
 
         telephony.addCallListener(callListener);
+
+        OperationSetJitsiMeetTools meetTools
+            = pps.getOperationSet(OperationSetJitsiMeetTools.class);
+
+        if (meetTools != null)
+            meetTools.addRequestListener(requestDispatcher);
     }
 
     @Override
@@ -163,9 +410,13 @@ public class SipGateway
     }
 
     /**
-     * Notifies {@link CallsControl} that current call has ended.
+     * Notifies {@link CallsControl} that current call has ended and queues
+     * its call detail record.
+     *
+     * @param callResource the call resource of ended call.
+     * @param cdr the call detail record of ended call or <tt>null</tt>.
      */
-    void notifyCallEnded(String callResource)
+    void notifyCallEnded(String callResource, CallDetailRecord cdr)
     {
         GatewaySession session;
 
@@ -184,12 +435,29 @@ public class SipGateway
 
         logger.info("Removed session for call " + callResource);
 
+        CdrWriter cdrWriter = this.cdrWriter;
+        if (cdr != null && cdrWriter != null)
+            cdrWriter.offer(cdr);
+
         if (callsControl != null)
         {
-            callsControl.callEnded(this, session.getCallResource());
+            callsControl.callEnded(this, callResource);
         }
     }
 
+    /**
+     * Notifies {@link CallsControl} that outgoing SIP call of the session
+     * has been answered.
+     * @param callResource the call resource of the session.
+     */
+    void notifyCallAnswered(String callResource)
+    {
+        CallsControl callsControl = this.callsControl;
+
+        if (callsControl != null && callResource != null)
+            callsControl.callAnswered(this, callResource);
+    }
+
     /**
      * Returns the <tt>CallsControl</tt> that manages this instance.
      * @return the <tt>CallsControl</tt> that manages this instance.
@@ -199,6 +467,18 @@ public class SipGateway
         return callsControl;
     }
 
+    /**
+     * Sets the <tt>CdrWriter</tt> which will write call detail records of
+     * ended sessions.
+     *
+     * @param cdrWriter the <tt>CdrWriter</tt> or <tt>null</tt> to stop
+     *                  recording CDRs.
+     */
+    public void setCdrWriter(CdrWriter cdrWriter)
+    {
+        this.cdrWriter = cdrWriter;
+    }
+
     /**
      * Starts new outgoing session by dialing given SIP number and joining JVB
      * conference held in given MUC room.
@@ -210,6 +490,10 @@ public class SipGateway
     public GatewaySession createOutgoingCall(String to, String roomName,
                                              String callResource)
     {
+        to = getDialPlan().apply(to);
+
+        checkRecentFailures(to, roomName);
+
         GatewaySession outgoingSession = new GatewaySession(this);
 
         sessions.put(callResource, outgoingSession);
@@ -219,6 +503,92 @@ public class SipGateway
         return outgoingSession;
     }
 
+    /**
+     * Starts new outgoing sessions which call given destinations of single
+     * room. The sessions may share single JVB conference leg, so that the
+     * room is joined once for the whole batch. Destinations which have
+     * failed recently are not called.
+     *
+     * @param destinations the destination SIP addresses to be called.
+     * @param roomName the name of MUC room that holds JVB conference.
+     * @param callResources the call resources of new sessions, one for each
+     *                      destination.
+     * @param shareJvbLeg <tt>true</tt> to call all destinations from single
+     *                    JVB conference leg or <tt>false</tt> to join the
+     *                    room for each of them.
+     * @return new sessions in the order of destinations, <tt>null</tt> for
+     *         the destinations which have failed recently.
+     */
+    public List<GatewaySession> createOutgoingCalls(List<String> destinations,
+                                                    String roomName,
+                                                    List<String> callResources,
+                                                    boolean shareJvbLeg)
+    {
+        if (destinations.size() != callResources.size())
+        {
+            throw new IllegalArgumentException(
+                "Expected " + destinations.size() + " call resources");
+        }
+
+        checkRecentFailures(null, roomName);
+
+        DialPlan dialPlan = getDialPlan();
+        FailureCache destinationFailures = getDestinationFailures();
+
+        List<String> numbers = new ArrayList<String>(destinations.size());
+        for (String destination : destinations)
+        {
+            String to = dialPlan.apply(destination);
+
+            long delay = destinationFailures.getRetryDelay(to);
+            if (delay > 0)
+            {
+                logger.warn(
+                    "Destination " + to + " has failed recently, retry in "
+                        + delay + " ms");
+
+                to = null;
+            }
+            numbers.add(to);
+        }
+
+        List<GatewaySession> batch
+            = new ArrayList<GatewaySession>(destinations.size());
+
+        synchronized (sessions)
+        {
+            for (int i = 0; i < numbers.size(); i++)
+            {
+                GatewaySession session = null;
+
+                if (numbers.get(i) != null)
+                {
+                    session = new GatewaySession(this);
+
+                    sessions.put(callResources.get(i), session);
+                }
+                batch.add(session);
+            }
+        }
+
+        logger.info(
+            "Dialing " + destinations.size() + " destinations from "
+                + roomName);
+
+        for (int i = 0; i < batch.size(); i++)
+        {
+            GatewaySession session = batch.get(i);
+
+            if (session != null)
+            {
+                session.createOutgoingCall(
+                    numbers.get(i), roomName, callResources.get(i),
+                    shareJvbLeg);
+            }
+        }
+        return batch;
+    }
+
     /**
      * Finds {@link GatewaySession} for given <tt>callResource</tt> if one is
      * currently active.
@@ -257,6 +627,91 @@ public class SipGateway
             .getLong(P_NAME_JVB_INVITE_TIMEOUT, DEFAULT_JVB_INVITE_TIMEOUT);
     }
 
+    /**
+     * Returns <tt>true</tt> if all SIP sessions in the same room are to share
+     * single JVB conference leg.
+     */
+    public static boolean isSharedJvbLeg()
+    {
+        return JigasiBundleActivator.getConfigurationservice()
+            .getBoolean(P_NAME_SHARED_JVB_LEG, false);
+    }
+
+    /**
+     * Returns <tt>true</tt> if outgoing SIP calls are to be dialed in parallel
+     * with joining JVB conference.
+     */
+    public static boolean isParallelDial()
+    {
+        return JigasiBundleActivator.getConfigurationservice()
+            .getBoolean(P_NAME_PARALLEL_DIAL, false);
+    }
+
+    /**
+     * Returns <tt>true</tt> if incoming SIP calls are to be answered before
+     * JVB conference call has been started.
+     */
+    public static boolean isEarlyAnswer()
+    {
+        return JigasiBundleActivator.getConfigurationservice()
+            .getBoolean(P_NAME_EARLY_ANSWER, false);
+    }
+
+    /**
+     * Returns <tt>true</tt> if JVB conferences are to track the presence of
+     * the focus only.
+     */
+    public static boolean isLargeRoomMode()
+    {
+        return JigasiBundleActivator.getConfigurationservice()
+            .getBoolean(P_NAME_LARGE_ROOM_MODE, false);
+    }
+
+    /**
+     * Finds the <tt>JvbConference</tt> shared by SIP sessions in given room
+     * and adds given <tt>session</tt> to it. New instance is created if
+     * there is no active one for the room yet.
+     *
+     * @param session the <tt>GatewaySession</tt> that wants to join the room.
+     * @param roomName the name of MUC room that holds JVB conference.
+     *
+     * @return <tt>JvbConference</tt> to which given <tt>session</tt> has been
+     *         added. It has to be started by the caller.
+     */
+    JvbConference getSharedJvbConference(GatewaySession session,
+                                         String         roomName)
+    {
+        synchronized (sharedJvbConferences)
+        {
+            JvbConference conference = sharedJvbConferences.get(roomName);
+
+            if (conference != null && conference.addSession(session))
+            {
+                logger.info(
+                    session.getCallResource()
+                        + " shares JVB conference leg in " + roomName);
+
+                return conference;
+            }
+
+            conference = new JvbConference(session, roomName);
+
+            sharedJvbConferences.put(roomName, conference);
+
+            return conference;
+        }
+    }
+
+    /**
+     * Notifies this gateway that given <tt>JvbConference</tt> has stopped, so
+     * that it will no longer be shared by new SIP sessions.
+     * @param conference the <tt>JvbConference</tt> that has been stopped.
+     */
+    void notifyJvbConferenceStopped(JvbConference conference)
+    {
+        sharedJvbConferences.remove(conference.getRoomName(), conference);
+    }
+
     /**
      * Sets new timeout for waiting for the JVB conference invite from the
      * focus.
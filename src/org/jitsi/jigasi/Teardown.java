@@ -0,0 +1,288 @@
+/*
+ * Jitsi Videobridge, OpenSource video conferencing.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package org.jitsi.jigasi;
+
+import net.java.sip.communicator.util.*;
+import org.jitsi.jigasi.stats.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Runs independent steps of session teardown (SIP BYE, MUC leave, JVB call
+ * hangup, ...) in parallel and waits for each of them at most the step
+ * timeout, so that a hanging step does not hold back the release of the
+ * resources of the others. Steps which depend on others (e.g. account
+ * unload, which closes the connection used to leave the room) go to a later
+ * phase, which starts once the steps of the previous one have completed or
+ * timed out. The duration of every step is recorded in the
+ * <tt>teardown_&lt;step&gt;_time</tt> histogram (in ms), also when the step
+ * completes after the timeout.
+ */
+public class Teardown
+{
+    /**
+     * The logger
+     */
+    private final static Logger logger = Logger.getLogger(Teardown.class);
+
+    /**
+     * The name of the property which holds the time (in ms) the teardown
+     * waits for each step.
+     */
+    public static final String P_NAME_TEARDOWN_STEP_TIMEOUT
+        = "org.jitsi.jigasi.TEARDOWN_STEP_TIMEOUT";
+
+    /**
+     * Default step timeout.
+     */
+    public static final long DEFAULT_TEARDOWN_STEP_TIMEOUT = 3000;
+
+    /**
+     * The name of the counter of steps which have not completed in time.
+     */
+    public static final String TOTAL_TEARDOWN_STEP_TIMEOUTS
+        = "total_teardown_step_timeouts";
+
+    /**
+     * Buckets (in ms) of the histograms of step durations.
+     */
+    private static final long[] STEP_TIME_BOUNDS
+        = { 1, 10, 50, 100, 500, 1000, 5000 };
+
+    /**
+     * Threads are created on demand and kept idle for a minute.
+     */
+    private static final long KEEP_ALIVE = 60;
+
+    /**
+     * Runs the steps of all teardowns. Never queues, a step which can not get
+     * a pool thread runs on the thread of the teardown.
+     */
+    private static final ExecutorService executor;
+
+    static
+    {
+        final AtomicInteger threadCount = new AtomicInteger();
+
+        executor
+            = new ThreadPoolExecutor(
+                    0, 64,
+                    KEEP_ALIVE, TimeUnit.SECONDS,
+                    new SynchronousQueue<Runnable>(),
+                    new ThreadFactory()
+                    {
+                        @Override
+                        public Thread newThread(Runnable r)
+                        {
+                            Thread thread
+                                = new Thread(
+                                        r,
+                                        "Teardown-"
+                                            + threadCount.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    },
+                    new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * The name used in the logs.
+     */
+    private final String name;
+
+    /**
+     * The names of the steps.
+     */
+    private final List<String> stepNames = new ArrayList<String>();
+
+    /**
+     * The steps.
+     */
+    private final List<Runnable> steps = new ArrayList<Runnable>();
+
+    /**
+     * The indexes of the first steps of the phases after the first one.
+     */
+    private final List<Integer> phaseStarts = new ArrayList<Integer>();
+
+    /**
+     * Returns configured step timeout.
+     */
+    public static long getStepTimeout()
+    {
+        return JigasiBundleActivator.getConfigurationservice().getLong(
+            P_NAME_TEARDOWN_STEP_TIMEOUT, DEFAULT_TEARDOWN_STEP_TIMEOUT);
+    }
+
+    /**
+     * Creates new <tt>Teardown</tt>.
+     *
+     * @param name the name used in the logs.
+     */
+    public Teardown(String name)
+    {
+        this.name = name;
+    }
+
+    /**
+     * Adds the step to this teardown.
+     *
+     * @param stepName the name of the step.
+     * @param step the step.
+     * @return this instance.
+     */
+    public Teardown addStep(String stepName, Runnable step)
+    {
+        stepNames.add(stepName);
+        steps.add(step);
+
+        return this;
+    }
+
+    /**
+     * Starts next phase of this teardown. The steps added after this call
+     * run once the steps added before it have completed or timed out.
+     *
+     * @return this instance.
+     */
+    public Teardown then()
+    {
+        phaseStarts.add(steps.size());
+
+        return this;
+    }
+
+    /**
+     * Runs the steps of each phase in parallel and waits until they have
+     * completed or the timeout has passed before starting the next phase.
+     *
+     * @param stepTimeout the time (in ms) given to each step.
+     * @return <tt>true</tt> if all steps have completed in time.
+     */
+    public boolean run(long stepTimeout)
+    {
+        boolean completed = true;
+        int start = 0;
+
+        for (int i = 0; i <= phaseStarts.size(); i++)
+        {
+            int end
+                = i < phaseStarts.size() ? phaseStarts.get(i) : steps.size();
+
+            if (!runPhase(start, end, stepTimeout))
+                completed = false;
+
+            if (Thread.currentThread().isInterrupted())
+                return false;
+
+            start = end;
+        }
+        return completed;
+    }
+
+    /**
+     * Runs this teardown on a pool thread, so that the caller does not wait
+     * for it. It runs on the calling thread only if the pool is exhausted.
+     *
+     * @param stepTimeout the time (in ms) given to each step.
+     */
+    public void runAsync(final long stepTimeout)
+    {
+        executor.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                Teardown.this.run(stepTimeout);
+            }
+        });
+    }
+
+    /**
+     * Runs given steps in parallel and waits until they have completed or
+     * the timeout has passed.
+     */
+    private boolean runPhase(int start, int end, long stepTimeout)
+    {
+        long deadline = System.currentTimeMillis() + stepTimeout;
+
+        List<Future<?>> futures = new ArrayList<Future<?>>(end - start);
+        for (int i = start; i < end; i++)
+        {
+            futures.add(
+                executor.submit(new Step(stepNames.get(i), steps.get(i))));
+        }
+
+        boolean completed = true;
+        for (int i = start; i < end; i++)
+        {
+            try
+            {
+                futures.get(i - start).get(
+                    Math.max(0, deadline - System.currentTimeMillis()),
+                    TimeUnit.MILLISECONDS);
+            }
+            catch (TimeoutException e)
+            {
+                completed = false;
+
+                Statistics.increment(TOTAL_TEARDOWN_STEP_TIMEOUTS);
+
+                logger.warn(
+                    name + " " + stepNames.get(i) + " has not completed in "
+                        + stepTimeout + " ms");
+            }
+            catch (ExecutionException e)
+            {
+                logger.error(
+                    name + " " + stepNames.get(i) + " failed", e.getCause());
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return completed;
+    }
+
+    /**
+     * Runs single step and records its duration.
+     */
+    private static class Step
+        implements Runnable
+    {
+        private final String name;
+
+        private final Runnable step;
+
+        Step(String name, Runnable step)
+        {
+            this.name = name;
+            this.step = step;
+        }
+
+        @Override
+        public void run()
+        {
+            long start = System.currentTimeMillis();
+            try
+            {
+                step.run();
+            }
+            finally
+            {
+                Statistics.getHistogram(
+                        "teardown_" + name + "_time", STEP_TIME_BOUNDS)
+                    .record(System.currentTimeMillis() - start);
+            }
+        }
+    }
+}
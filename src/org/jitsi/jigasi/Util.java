@@ -36,6 +36,26 @@ public class Util
 
         CallPeer peer
             = (CallPeer) mediaCall.getCallPeerList().get(0);
+
+        MediaStream peerStream = getPeerMediaStream(peer, MediaType.AUDIO);
+
+        if (peerStream == null)
+            return null;
+
+        return peerStream.getFormat();
+    }
+
+    /**
+     * Returns the <tt>MediaStream</tt> of given type used to exchange media
+     * with given <tt>peer</tt>(if it is available).
+     *
+     * @param peer the {@link CallPeer} for which we want to retrieve the
+     *             media stream.
+     * @param mediaType the type of media of the stream.
+     */
+    public static MediaStream getPeerMediaStream(CallPeer  peer,
+                                                 MediaType mediaType)
+    {
         if (!(peer instanceof MediaAwareCallPeer))
             return null;
 
@@ -47,12 +67,6 @@ public class Util
         if (peerMediaHndl == null)
             return null;
 
-        MediaStream peerStream
-            = peerMediaHndl.getStream(MediaType.AUDIO);
-
-        if (peerStream == null)
-            return null;
-
-        return peerStream.getFormat();
+        return peerMediaHndl.getStream(mediaType);
     }
 }
@@ -0,0 +1,114 @@
+/*
+ * Jitsi Videobridge, OpenSource video conferencing.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package org.jitsi.jigasi.media;
+
+/**
+ * G.711 (PCMU and PCMA) helpers which work directly on encoded payloads.
+ */
+public class G711
+{
+    /**
+     * RTP payload type of PCMU.
+     */
+    public static final int PCMU_PAYLOAD_TYPE = 0;
+
+    /**
+     * RTP payload type of PCMA.
+     */
+    public static final int PCMA_PAYLOAD_TYPE = 8;
+
+    /**
+     * Linear values of u-law encoded samples.
+     */
+    private static final short[] ULAW_TO_LINEAR = new short[256];
+
+    /**
+     * Linear values of A-law encoded samples.
+     */
+    private static final short[] ALAW_TO_LINEAR = new short[256];
+
+    static
+    {
+        for (int i = 0; i < 256; i++)
+        {
+            int u = ~i & 0xFF;
+            int sample = (((u & 0x0F) << 3) + 0x84) << ((u >> 4) & 0x07);
+            sample -= 0x84;
+            ULAW_TO_LINEAR[i] = (short) ((u & 0x80) != 0 ? -sample : sample);
+
+            int a = i ^ 0x55;
+            int exponent = (a >> 4) & 0x07;
+            int mantissa = a & 0x0F;
+            sample
+                = exponent == 0
+                    ? (mantissa << 4) + 8
+                    : ((mantissa << 4) + 0x108) << (exponent - 1);
+            ALAW_TO_LINEAR[i] = (short) ((a & 0x80) != 0 ? sample : -sample);
+        }
+    }
+
+    /**
+     * Checks whether given RTP payload type is static payload type of G.711.
+     */
+    public static boolean isG711(int payloadType)
+    {
+        return payloadType == PCMU_PAYLOAD_TYPE
+            || payloadType == PCMA_PAYLOAD_TYPE;
+    }
+
+    /**
+     * Decodes single u-law sample.
+     */
+    public static short ulawToLinear(byte sample)
+    {
+        return ULAW_TO_LINEAR[sample & 0xFF];
+    }
+
+    /**
+     * Decodes single A-law sample.
+     */
+    public static short alawToLinear(byte sample)
+    {
+        return ALAW_TO_LINEAR[sample & 0xFF];
+    }
+
+    /**
+     * Calculates the level of G.711 encoded audio in the same units as
+     * ssrc-audio-level RTP header extension (RFC 6464), that is in -dBov
+     * from 0 (the loudest) to 127 (silence).
+     *
+     * @param buf the buffer which holds encoded samples.
+     * @param off the offset of the first sample.
+     * @param len the number of samples.
+     * @param aLaw <tt>true</tt> for PCMA and <tt>false</tt> for PCMU.
+     * @return the level of the audio.
+     */
+    public static int getAudioLevel(byte[] buf, int off, int len,
+                                    boolean aLaw)
+    {
+        if (len <= 0)
+            return RtpUtils.SILENCE_AUDIO_LEVEL;
+
+        short[] table = aLaw ? ALAW_TO_LINEAR : ULAW_TO_LINEAR;
+        double energy = 0;
+
+        for (int i = off, end = off + len; i < end; i++)
+        {
+            int sample = table[buf[i] & 0xFF];
+
+            energy += sample * sample;
+        }
+
+        double rms = Math.sqrt(energy / len);
+        if (rms < 1)
+            return RtpUtils.SILENCE_AUDIO_LEVEL;
+
+        int level = (int) Math.round(-20 * Math.log10(rms / 32768));
+
+        return Math.max(0, Math.min(RtpUtils.SILENCE_AUDIO_LEVEL, level));
+    }
+}
@@ -0,0 +1,376 @@
+/*
+ * Jitsi Videobridge, OpenSource video conferencing.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package org.jitsi.jigasi.media;
+
+import org.jitsi.impl.neomedia.*;
+import org.jitsi.jigasi.*;
+import org.jitsi.jigasi.stats.*;
+
+/**
+ * Filter installed on the audio stream of JVB conference leg which lets only
+ * the packets of N loudest speakers through to the decoders and the mixer.
+ * Speakers are ranked by the audio levels carried in ssrc-audio-level RTP
+ * header extension (RFC 6464), so the packets of the other participants are
+ * dropped before any decoding work is done.
+ */
+public class LoudestSpeakersFilter
+    extends RtpPacketFilter
+{
+    /**
+     * The name of the property which specifies how many loudest speakers are
+     * decoded and mixed for the SIP leg. Zero or less disables the filter.
+     */
+    public static final String P_NAME_TOP_N_SPEAKERS
+        = "org.jitsi.jigasi.TOP_N_SPEAKERS";
+
+    /**
+     * The name of the property which specifies the ID of ssrc-audio-level
+     * RTP header extension used on JVB conference leg.
+     */
+    public static final String P_NAME_AUDIO_LEVEL_EXT_ID
+        = "org.jitsi.jigasi.AUDIO_LEVEL_EXT_ID";
+
+    /**
+     * The default ID of ssrc-audio-level RTP header extension.
+     */
+    public static final int DEFAULT_AUDIO_LEVEL_EXT_ID = 1;
+
+    /**
+     * How often loudest speakers are selected (in ms).
+     */
+    private static final long SELECTION_INTERVAL = 200;
+
+    /**
+     * The time after which the speaker that does not send any packets is
+     * forgotten (in ms).
+     */
+    private static final long SPEAKER_TIMEOUT = 5000;
+
+    /**
+     * The ID of ssrc-audio-level RTP header extension.
+     */
+    private final int extensionId;
+
+    /**
+     * How many loudest speakers are let through.
+     */
+    private volatile int limit;
+
+    /**
+     * SSRCs of known speakers. Speaker table is accessed only by the thread
+     * which receives the packets.
+     */
+    private long[] ssrcs = new long[16];
+
+    /**
+     * Smoothed energy of known speakers.
+     */
+    private int[] energies = new int[16];
+
+    /**
+     * The time when the last packet has been received from known speakers.
+     */
+    private long[] lastSeen = new long[16];
+
+    /**
+     * Indicates which speakers are currently selected.
+     */
+    private boolean[] selected = new boolean[16];
+
+    /**
+     * The number of known speakers.
+     */
+    private int count;
+
+    /**
+     * The number of selected speakers.
+     */
+    private int selectedCount;
+
+    /**
+     * The lowest energy of the selected speakers.
+     */
+    private int weakestSelectedEnergy;
+
+    /**
+     * The last time when speakers were selected.
+     */
+    private long lastSelection;
+
+    /**
+     * The number of packets dropped so far.
+     */
+    private volatile long packetsDropped;
+
+    /**
+     * The number of speakers which were not silent during last selection.
+     */
+    private volatile int activeSpeakers;
+
+    /**
+     * The number of dropped packets already added to {@link Statistics}.
+     */
+    private long packetsDroppedReported;
+
+    /**
+     * Returns the number of loudest speakers configured for JVB conference
+     * legs or zero if the filter is disabled.
+     */
+    public static int getConfiguredLimit()
+    {
+        return JigasiBundleActivator.getConfigurationservice()
+            .getInt(P_NAME_TOP_N_SPEAKERS, 0);
+    }
+
+    /**
+     * Returns the ID of ssrc-audio-level RTP header extension configured for
+     * JVB conference legs.
+     */
+    public static int getConfiguredExtensionId()
+    {
+        return JigasiBundleActivator.getConfigurationservice()
+            .getInt(P_NAME_AUDIO_LEVEL_EXT_ID, DEFAULT_AUDIO_LEVEL_EXT_ID);
+    }
+
+    /**
+     * Creates new <tt>LoudestSpeakersFilter</tt>.
+     * @param limit how many loudest speakers will be let through.
+     * @param extensionId the ID of ssrc-audio-level RTP header extension.
+     */
+    public LoudestSpeakersFilter(int limit, int extensionId)
+    {
+        this.limit = limit;
+        this.extensionId = extensionId;
+    }
+
+    /**
+     * Returns how many loudest speakers are let through.
+     */
+    public int getLimit()
+    {
+        return limit;
+    }
+
+    /**
+     * Changes how many loudest speakers are let through. Takes effect on
+     * the next selection.
+     * @param limit the number of loudest speakers to be let through.
+     */
+    public void setLimit(int limit)
+    {
+        this.limit = limit;
+    }
+
+    /**
+     * Returns the number of packets that have not been decoded, because they
+     * did not belong to any of the loudest speakers.
+     */
+    public long getPacketsDropped()
+    {
+        return packetsDropped;
+    }
+
+    /**
+     * Returns the number of speakers which are currently sending audio
+     * louder than silence.
+     */
+    public int getActiveSpeakerCount()
+    {
+        return activeSpeakers;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public RawPacket filterReceived(RawPacket packet)
+    {
+        return filterReceived(packet, System.currentTimeMillis());
+    }
+
+    /**
+     * Filters the packet received at given time.
+     */
+    RawPacket filterReceived(RawPacket packet, long now)
+    {
+        byte[] buf = packet.getBuffer();
+        int off = packet.getOffset();
+        int len = packet.getLength();
+
+        if (!RtpUtils.isRtp(buf, off, len))
+            return packet;
+
+        int level = RtpUtils.getAudioLevel(buf, off, len, extensionId);
+        if (level < 0)
+            return packet;
+
+        long ssrc = RtpUtils.getSsrc(buf, off);
+        int idx = update(ssrc, RtpUtils.SILENCE_AUDIO_LEVEL - level, now);
+
+        if (now - lastSelection >= SELECTION_INTERVAL
+            || (!selected[idx] && energies[idx] > weakestSelectedEnergy))
+        {
+            select(now);
+
+            // Removal of gone speakers moves the others in the table
+            idx = indexOf(ssrc);
+        }
+
+        if (selected[idx])
+            return packet;
+
+        packetsDropped++;
+        return null;
+    }
+
+    /**
+     * Updates the energy of the speaker with given <tt>ssrc</tt>.
+     *
+     * @return the index of the speaker in the speaker table.
+     */
+    private int update(long ssrc, int loudness, long now)
+    {
+        int idx = indexOf(ssrc);
+
+        if (idx == -1)
+        {
+            if (count == ssrcs.length)
+                grow();
+
+            idx = count++;
+            ssrcs[idx] = ssrc;
+            energies[idx] = 0;
+            selected[idx] = selectedCount < limit;
+            if (selected[idx])
+                selectedCount++;
+        }
+
+        // Exponential moving average of the loudness scaled by 8
+        energies[idx] += loudness - (energies[idx] >> 3);
+        lastSeen[idx] = now;
+
+        return idx;
+    }
+
+    /**
+     * Returns the index of the speaker with given <tt>ssrc</tt> in the
+     * speaker table or <tt>-1</tt> if it is not known.
+     */
+    private int indexOf(long ssrc)
+    {
+        for (int i = 0; i < count; i++)
+        {
+            if (ssrcs[i] == ssrc)
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Selects the loudest speakers and forgets those which are gone. The
+     * speaker who has just sent a packet is never forgotten.
+     */
+    private void select(long now)
+    {
+        lastSelection = now;
+
+        int active = 0;
+        for (int i = count - 1; i >= 0; i--)
+        {
+            long idle = now - lastSeen[i];
+
+            if (idle > SPEAKER_TIMEOUT)
+            {
+                remove(i);
+                continue;
+            }
+            // Speakers which stopped sending packets(DTX) fade out
+            if (idle > SELECTION_INTERVAL)
+                energies[i] >>= 1;
+
+            if (energies[i] > 0)
+                active++;
+
+            selected[i] = false;
+        }
+        activeSpeakers = active;
+
+        int limit = this.limit;
+
+        selectedCount = 0;
+        weakestSelectedEnergy = Integer.MAX_VALUE;
+        while (selectedCount < limit && selectedCount < count)
+        {
+            int loudest = -1;
+            for (int i = 0; i < count; i++)
+            {
+                if (!selected[i]
+                    && (loudest == -1 || energies[i] > energies[loudest]))
+                {
+                    loudest = i;
+                }
+            }
+
+            selected[loudest] = true;
+            selectedCount++;
+            weakestSelectedEnergy
+                = Math.min(weakestSelectedEnergy, energies[loudest]);
+        }
+
+        if (selectedCount < limit)
+        {
+            // New speakers will be selected as they come
+            weakestSelectedEnergy = Integer.MAX_VALUE;
+        }
+
+        long dropped = packetsDropped;
+        if (dropped != packetsDroppedReported)
+        {
+            Statistics.add(
+                Statistics.TOTAL_PACKETS_NOT_DECODED,
+                dropped - packetsDroppedReported);
+
+            packetsDroppedReported = dropped;
+        }
+    }
+
+    /**
+     * Removes the speaker at given index from the speaker table.
+     */
+    private void remove(int idx)
+    {
+        int last = --count;
+
+        ssrcs[idx] = ssrcs[last];
+        energies[idx] = energies[last];
+        lastSeen[idx] = lastSeen[last];
+        selected[idx] = selected[last];
+    }
+
+    /**
+     * Doubles the capacity of the speaker table.
+     */
+    private void grow()
+    {
+        int capacity = ssrcs.length * 2;
+
+        long[] newSsrcs = new long[capacity];
+        int[] newEnergies = new int[capacity];
+        long[] newLastSeen = new long[capacity];
+        boolean[] newSelected = new boolean[capacity];
+
+        System.arraycopy(ssrcs, 0, newSsrcs, 0, count);
+        System.arraycopy(energies, 0, newEnergies, 0, count);
+        System.arraycopy(lastSeen, 0, newLastSeen, 0, count);
+        System.arraycopy(selected, 0, newSelected, 0, count);
+
+        ssrcs = newSsrcs;
+        energies = newEnergies;
+        lastSeen = newLastSeen;
+        selected = newSelected;
+    }
+}
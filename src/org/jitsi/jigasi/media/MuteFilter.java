@@ -0,0 +1,65 @@
+/*
+ * Jitsi Videobridge, OpenSource video conferencing.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package org.jitsi.jigasi.media;
+
+import org.jitsi.impl.neomedia.*;
+
+/**
+ * Drops RTP packets received from muted call leg before they get decoded and
+ * mixed into the audio sent to the other leg.
+ */
+public class MuteFilter
+    extends RtpPacketFilter
+{
+    /**
+     * Whether received packets are dropped.
+     */
+    private volatile boolean muted;
+
+    /**
+     * The number of dropped packets.
+     */
+    private volatile long packetsDropped;
+
+    /**
+     * Returns <tt>true</tt> if received packets are dropped.
+     */
+    public boolean isMuted()
+    {
+        return muted;
+    }
+
+    /**
+     * Mutes or unmutes the leg.
+     * @param muted <tt>true</tt> to drop received packets.
+     */
+    public void setMuted(boolean muted)
+    {
+        this.muted = muted;
+    }
+
+    /**
+     * Returns the number of packets dropped while muted.
+     */
+    public long getPacketsDropped()
+    {
+        return packetsDropped;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public RawPacket filterReceived(RawPacket packet)
+    {
+        if (!muted)
+            return packet;
+
+        packetsDropped++;
+        return null;
+    }
+}
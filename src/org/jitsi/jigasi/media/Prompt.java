@@ -0,0 +1,242 @@
+/*
+ * Jitsi Videobridge, OpenSource video conferencing.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package org.jitsi.jigasi.media;
+
+import net.java.sip.communicator.util.*;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+
+/**
+ * Pre-encoded announcement mapped into memory, so that it can be played by
+ * any number of sessions without decoding, encoding or copying it. The
+ * prompt is loaded from the files named <tt>&lt;path&gt;.pcmu</tt> and
+ * <tt>&lt;path&gt;.pcma</tt> which hold raw 8 kHz G.711 samples and
+ * <tt>&lt;path&gt;.opus</tt> which holds 20 ms Opus frames, each one
+ * preceded by its length as two byte big endian number. Any of the files
+ * can be missing.
+ */
+public class Prompt
+{
+    /**
+     * The logger
+     */
+    private final static Logger logger = Logger.getLogger(Prompt.class);
+
+    /**
+     * The extension of PCMU file.
+     */
+    public static final String PCMU_EXTENSION = ".pcmu";
+
+    /**
+     * The extension of PCMA file.
+     */
+    public static final String PCMA_EXTENSION = ".pcma";
+
+    /**
+     * The extension of Opus file.
+     */
+    public static final String OPUS_EXTENSION = ".opus";
+
+    /**
+     * The duration of single Opus frame in ms.
+     */
+    public static final int OPUS_FRAME_DURATION = 20;
+
+    /**
+     * G.711 samples per ms.
+     */
+    private static final int G711_SAMPLES_PER_MS = 8;
+
+    /**
+     * PCMU samples or <tt>null</tt>.
+     */
+    private final ByteBuffer pcmu;
+
+    /**
+     * PCMA samples or <tt>null</tt>.
+     */
+    private final ByteBuffer pcma;
+
+    /**
+     * Length prefixed Opus frames or <tt>null</tt>.
+     */
+    private final ByteBuffer opus;
+
+    /**
+     * The duration of the prompt in ms.
+     */
+    private final long duration;
+
+    /**
+     * Maps the files of the prompt stored under given path.
+     *
+     * @param path the path of prompt files without the extension.
+     * @return the prompt or <tt>null</tt> if no file of the prompt could be
+     *         mapped.
+     */
+    public static Prompt load(String path)
+    {
+        ByteBuffer pcmu = map(new File(path + PCMU_EXTENSION));
+        ByteBuffer pcma = map(new File(path + PCMA_EXTENSION));
+        ByteBuffer opus = map(new File(path + OPUS_EXTENSION));
+
+        if (opus != null && countOpusFrames(opus) < 0)
+        {
+            logger.error("Invalid Opus frames in " + path + OPUS_EXTENSION);
+            opus = null;
+        }
+
+        if (pcmu == null && pcma == null && opus == null)
+        {
+            logger.error("No file of prompt " + path);
+            return null;
+        }
+        return new Prompt(pcmu, pcma, opus);
+    }
+
+    /**
+     * Maps the whole file into memory.
+     *
+     * @return the content of the file or <tt>null</tt> if it does not exist,
+     *         is empty or could not be mapped.
+     */
+    private static ByteBuffer map(File file)
+    {
+        if (!file.isFile() || file.length() == 0)
+            return null;
+
+        try
+        {
+            FileInputStream in = new FileInputStream(file);
+            try
+            {
+                // The mapping stays valid after the channel is closed
+                FileChannel channel = in.getChannel();
+
+                return channel.map(
+                    FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        catch (IOException e)
+        {
+            logger.error("Failed to map " + file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Counts length prefixed Opus frames.
+     *
+     * @return the number of frames or <tt>-1</tt> if the frames are
+     *         malformed.
+     */
+    private static int countOpusFrames(ByteBuffer opus)
+    {
+        int count = 0;
+
+        for (int pos = 0, limit = opus.limit(); pos < limit; count++)
+        {
+            if (pos + 2 > limit)
+                return -1;
+
+            int length = opus.getShort(pos) & 0xFFFF;
+            if (length == 0)
+                return -1;
+
+            pos += 2 + length;
+            if (pos > limit)
+                return -1;
+        }
+        return count;
+    }
+
+    /**
+     * Creates new <tt>Prompt</tt>.
+     *
+     * @param pcmu PCMU samples or <tt>null</tt>.
+     * @param pcma PCMA samples or <tt>null</tt>.
+     */
+    public Prompt(ByteBuffer pcmu, ByteBuffer pcma)
+    {
+        this(pcmu, pcma, null);
+    }
+
+    /**
+     * Creates new <tt>Prompt</tt>.
+     *
+     * @param pcmu PCMU samples or <tt>null</tt>.
+     * @param pcma PCMA samples or <tt>null</tt>.
+     * @param opus length prefixed Opus frames or <tt>null</tt>.
+     */
+    public Prompt(ByteBuffer pcmu, ByteBuffer pcma, ByteBuffer opus)
+    {
+        this.pcmu = pcmu != null ? pcmu.asReadOnlyBuffer() : null;
+        this.pcma = pcma != null ? pcma.asReadOnlyBuffer() : null;
+        this.opus = opus != null ? opus.asReadOnlyBuffer() : null;
+
+        long duration = 0;
+        if (pcmu != null)
+            duration = pcmu.limit() / G711_SAMPLES_PER_MS;
+        if (pcma != null)
+            duration = Math.max(duration, pcma.limit() / G711_SAMPLES_PER_MS);
+        if (opus != null)
+        {
+            duration
+                = Math.max(
+                        duration,
+                        countOpusFrames(opus) * (long) OPUS_FRAME_DURATION);
+        }
+        this.duration = duration;
+    }
+
+    /**
+     * Returns the duration of the prompt in ms.
+     */
+    public long getDuration()
+    {
+        return duration;
+    }
+
+    /**
+     * Returns the samples of the prompt encoded with given static G.711
+     * payload type.
+     *
+     * @param payloadType RTP payload type.
+     * @return new view of shared samples with its own position, or
+     *         <tt>null</tt> if the prompt is not available in given encoding.
+     */
+    public ByteBuffer getSamples(int payloadType)
+    {
+        ByteBuffer samples;
+
+        if (payloadType == G711.PCMU_PAYLOAD_TYPE)
+            samples = pcmu;
+        else if (payloadType == G711.PCMA_PAYLOAD_TYPE)
+            samples = pcma;
+        else
+            samples = null;
+
+        return samples != null ? samples.duplicate() : null;
+    }
+
+    /**
+     * Returns length prefixed Opus frames of the prompt.
+     *
+     * @return new view of shared frames with its own position, or
+     *         <tt>null</tt> if the prompt is not available in Opus.
+     */
+    public ByteBuffer getOpusFrames()
+    {
+        return opus != null ? opus.duplicate() : null;
+    }
+}
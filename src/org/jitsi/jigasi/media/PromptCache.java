@@ -0,0 +1,111 @@
+/*
+ * Jitsi Videobridge, OpenSource video conferencing.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package org.jitsi.jigasi.media;
+
+import org.jitsi.service.configuration.*;
+
+import java.io.*;
+import java.util.concurrent.*;
+
+/**
+ * Announcement prompts shared by all sessions. Each prompt is mapped into
+ * memory from the prompts directory on first use and kept for the lifetime
+ * of the cache, see {@link Prompt} for the format of the files.
+ */
+public class PromptCache
+{
+    /**
+     * The name of the property which holds the directory of prompt files.
+     * Prompts are not played unless it is set.
+     */
+    public static final String P_NAME_PROMPTS_DIR
+        = "org.jitsi.jigasi.PROMPTS_DIR";
+
+    /**
+     * The prompt played while JVB conference is being joined.
+     */
+    public static final String PLEASE_WAIT = "please-wait";
+
+    /**
+     * The prompt played when no room name has been provided for the call.
+     */
+    public static final String NO_ROOM = "no-room";
+
+    /**
+     * The prompt played when the conference has not been started by the
+     * focus.
+     */
+    public static final String CONFERENCE_NOT_STARTED
+        = "conference-not-started";
+
+    /**
+     * Marks prompts which could not be loaded.
+     */
+    private static final Prompt MISSING = new Prompt(null, null);
+
+    /**
+     * The directory of prompt files.
+     */
+    private final File dir;
+
+    /**
+     * Loaded prompts by their names.
+     */
+    private final ConcurrentMap<String, Prompt> prompts
+        = new ConcurrentHashMap<String, Prompt>();
+
+    /**
+     * Creates new <tt>PromptCache</tt> if the prompts directory is set in
+     * given configuration.
+     *
+     * @param config the <tt>ConfigurationService</tt>.
+     * @return new <tt>PromptCache</tt> or <tt>null</tt> if prompts are
+     *         disabled.
+     */
+    public static PromptCache create(ConfigurationService config)
+    {
+        String path = config.getString(P_NAME_PROMPTS_DIR);
+
+        if (path == null || path.trim().length() == 0)
+            return null;
+
+        return new PromptCache(new File(path.trim()));
+    }
+
+    /**
+     * Creates new <tt>PromptCache</tt>.
+     *
+     * @param dir the directory of prompt files.
+     */
+    public PromptCache(File dir)
+    {
+        this.dir = dir;
+    }
+
+    /**
+     * Returns the prompt of given name, loading it on first use.
+     *
+     * @param name the name of the prompt.
+     * @return the prompt or <tt>null</tt> if its files could not be loaded.
+     */
+    public Prompt get(String name)
+    {
+        Prompt prompt = prompts.get(name);
+
+        if (prompt == null)
+        {
+            prompt = Prompt.load(new File(dir, name).getPath());
+            if (prompt == null)
+                prompt = MISSING;
+
+            Prompt old = prompts.putIfAbsent(name, prompt);
+            if (old != null)
+                prompt = old;
+        }
+        return prompt != MISSING ? prompt : null;
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Jitsi Videobridge, OpenSource video conferencing.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package org.jitsi.jigasi.media;
+
+import org.jitsi.impl.neomedia.*;
+
+import java.nio.*;
+
+/**
+ * Plays a {@link Prompt} in a loop to the peer of the call leg by replacing
+ * the payload of packets sent while the leg has nothing else to send, e.g.
+ * while the other leg is being set up or before the call is hung up. G.711
+ * payloads are overwritten with prompt samples and Opus payloads (dynamic
+ * payload types of the leg using Opus) are replaced with prompt frames.
+ * Packets of other encodings are passed through unchanged.
+ */
+public class PromptFilter
+    extends RtpPacketFilter
+{
+    /**
+     * The lowest dynamic RTP payload type.
+     */
+    private static final int MIN_DYNAMIC_PAYLOAD_TYPE = 96;
+
+    /**
+     * The prompt to be played or <tt>null</tt>.
+     */
+    private volatile Prompt prompt;
+
+    /**
+     * Whether the leg sends Opus using dynamic payload type.
+     */
+    private volatile boolean opus;
+
+    /**
+     * The prompt currently played by the media thread.
+     */
+    private Prompt current;
+
+    /**
+     * The payload type of the samples or <tt>-1</tt>.
+     */
+    private int payloadType = -1;
+
+    /**
+     * This leg's view of the samples (or frames) of the prompt.
+     */
+    private ByteBuffer samples;
+
+    /**
+     * Creates new <tt>PromptFilter</tt> which does not play any prompt.
+     */
+    public PromptFilter()
+    {
+    }
+
+    /**
+     * Creates new <tt>PromptFilter</tt> playing given prompt.
+     *
+     * @param prompt the prompt to be played.
+     */
+    public PromptFilter(Prompt prompt)
+    {
+        this.prompt = prompt;
+    }
+
+    /**
+     * Starts playing given prompt from the beginning.
+     */
+    public void play(Prompt prompt)
+    {
+        this.prompt = prompt;
+    }
+
+    /**
+     * Returns <tt>true</tt> if a prompt is being played.
+     */
+    public boolean isPlaying()
+    {
+        return prompt != null;
+    }
+
+    /**
+     * Stops playing the prompt, the packets are sent unchanged from now on.
+     */
+    public void stop()
+    {
+        prompt = null;
+    }
+
+    /**
+     * Sets whether the leg sends Opus using dynamic payload type.
+     */
+    public void setOpus(boolean opus)
+    {
+        this.opus = opus;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public RawPacket filterSent(RawPacket packet)
+    {
+        Prompt prompt = this.prompt;
+
+        if (prompt == null)
+            return packet;
+
+        byte[] buf = packet.getBuffer();
+        int off = packet.getOffset();
+        int len = packet.getLength();
+
+        if (!RtpUtils.isRtp(buf, off, len))
+            return packet;
+
+        int pt = RtpUtils.getPayloadType(buf, off);
+        if (prompt != current || pt != payloadType)
+        {
+            current = prompt;
+            payloadType = pt;
+
+            if (pt >= MIN_DYNAMIC_PAYLOAD_TYPE)
+                samples = opus ? prompt.getOpusFrames() : null;
+            else
+                samples = prompt.getSamples(pt);
+        }
+
+        ByteBuffer samples = this.samples;
+        if (samples == null)
+            return packet;
+
+        int headerLen = RtpUtils.getHeaderLength(buf, off);
+
+        if (pt >= MIN_DYNAMIC_PAYLOAD_TYPE)
+            writeOpusFrame(packet, headerLen, samples);
+        else
+            writeSamples(buf, off + headerLen, off + len, samples);
+
+        return packet;
+    }
+
+    /**
+     * Overwrites G.711 payload with the samples, one byte per sample.
+     */
+    private static void writeSamples(byte[] buf, int pos, int end,
+                                     ByteBuffer samples)
+    {
+        while (pos < end)
+        {
+            if (!samples.hasRemaining())
+                samples.rewind();
+
+            int count = Math.min(end - pos, samples.remaining());
+
+            samples.get(buf, pos, count);
+            pos += count;
+        }
+    }
+
+    /**
+     * Replaces Opus payload with the next frame if it fits into the buffer
+     * of the packet.
+     */
+    private static void writeOpusFrame(RawPacket packet, int headerLen,
+                                       ByteBuffer frames)
+    {
+        if (!frames.hasRemaining())
+            frames.rewind();
+
+        byte[] buf = packet.getBuffer();
+        int off = packet.getOffset();
+        int length = frames.getShort() & 0xFFFF;
+
+        if (off + headerLen + length > buf.length)
+        {
+            frames.position(frames.position() + length);
+            return;
+        }
+
+        frames.get(buf, off + headerLen, length);
+
+        // No padding after the frame
+        buf[off] &= ~0x20;
+        packet.setLength(headerLen + length);
+    }
+}
@@ -0,0 +1,445 @@
+/*
+ * Jitsi Videobridge, OpenSource video conferencing.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package org.jitsi.jigasi.media;
+
+import net.java.sip.communicator.util.*;
+import org.jitsi.jigasi.*;
+import org.jitsi.jigasi.stats.*;
+import org.jitsi.service.configuration.*;
+
+import java.lang.management.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Watches the CPU usage of the process and the scheduling lag of its threads
+ * and lowers media quality of all sessions in steps when the host gets
+ * overloaded, so that all calls degrade gradually instead of breaking up at
+ * once. The quality is restored step by step when the load drops.
+ * <p>
+ * Each level lowers the number of JVB conference speakers decoded and mixed
+ * for the SIP leg of every session and the complexity of Opus encoders.
+ * Sessions which do not limit the number of speakers themselves get
+ * a {@link LoudestSpeakersFilter} only while the quality is lowered. The
+ * speaker limit applies to every session at once. The complexity does not:
+ * libjitsi reads it when the encoder is opened and has no control to change
+ * it later, so only the calls started after the level has changed use it.
+ * Calls in progress keep the complexity they have started with.
+ */
+public class QualityGovernor
+{
+    /**
+     * The logger.
+     */
+    private final static Logger logger
+        = Logger.getLogger(QualityGovernor.class);
+
+    /**
+     * The name of the property which enables the governor.
+     */
+    public static final String P_NAME_QUALITY_GOVERNOR
+        = "org.jitsi.jigasi.QUALITY_GOVERNOR";
+
+    /**
+     * The name of the property which holds Opus encoder complexity.
+     */
+    public static final String P_NAME_OPUS_COMPLEXITY
+        = "net.java.sip.communicator.impl.neomedia.codec.audio.opus.encoder"
+            + ".COMPLEXITY";
+
+    /**
+     * The name of the statistic which holds current quality level.
+     */
+    public static final String QUALITY_LEVEL = "quality_level";
+
+    /**
+     * The name of the statistic which holds the CPU usage of the process
+     * (in percents).
+     */
+    public static final String CPU_USAGE = "cpu_usage";
+
+    /**
+     * The maximum Opus encoder complexity on each quality level.
+     */
+    private static final int[] OPUS_COMPLEXITY = { 10, 8, 5, 2 };
+
+    /**
+     * The maximum number of speakers mixed on each quality level.
+     */
+    private static final int[] SPEAKERS
+        = { Integer.MAX_VALUE, 3, 2, 1 };
+
+    /**
+     * The lowest quality level.
+     */
+    static final int MAX_LEVEL = OPUS_COMPLEXITY.length - 1;
+
+    /**
+     * CPU usage above which the host is considered overloaded.
+     */
+    static final double HIGH_CPU = 0.85;
+
+    /**
+     * CPU usage below which the quality can be restored.
+     */
+    static final double LOW_CPU = 0.6;
+
+    /**
+     * Scheduling lag (in ms) above which the host is considered overloaded.
+     */
+    static final long HIGH_LAG = 100;
+
+    /**
+     * Scheduling lag (in ms) below which the quality can be restored.
+     */
+    static final long LOW_LAG = 20;
+
+    /**
+     * The number of consecutive overloaded samples after which the quality
+     * is lowered.
+     */
+    static final int DEGRADE_SAMPLES = 3;
+
+    /**
+     * The number of consecutive idle samples after which the quality is
+     * raised.
+     */
+    static final int RECOVER_SAMPLES = 10;
+
+    /**
+     * How often the load is sampled (in ms).
+     */
+    private static final long SAMPLE_INTERVAL = 1000;
+
+    /**
+     * Loudest speaker filters of active sessions mapped to their configured
+     * limits.
+     */
+    private final Map<LoudestSpeakersFilter, Integer> filters
+        = new ConcurrentHashMap<LoudestSpeakersFilter, Integer>();
+
+    /**
+     * Filter engines of active sessions which do not limit the number of
+     * speakers themselves, mapped to the filters installed by this governor
+     * or to <tt>null</tt> while the speakers are not limited.
+     */
+    private final Map<RtpFilterEngine, LoudestSpeakersFilter> engines
+        = new HashMap<RtpFilterEngine, LoudestSpeakersFilter>();
+
+    /**
+     * The IDs of ssrc-audio-level RTP header extension of the engines.
+     */
+    private final Map<RtpFilterEngine, Integer> extensionIds
+        = new HashMap<RtpFilterEngine, Integer>();
+
+    /**
+     * Current quality level. Zero is the best quality.
+     */
+    private volatile int level;
+
+    /**
+     * The number of consecutive overloaded samples.
+     */
+    private int overloadedSamples;
+
+    /**
+     * The number of consecutive idle samples.
+     */
+    private int idleSamples;
+
+    /**
+     * The configuration service used to adjust encoder settings. Set when
+     * the governor is started.
+     */
+    private ConfigurationService config;
+
+    /**
+     * Opus encoder complexity configured by the user.
+     */
+    private int configuredComplexity;
+
+    /**
+     * The timer which samples the load.
+     */
+    private Timer timer;
+
+    /**
+     * Process CPU time at the time of the last sample (in ns).
+     */
+    private long lastCpuTime = -1;
+
+    /**
+     * The time of the last sample (in ns).
+     */
+    private long lastSampleTime;
+
+    /**
+     * Returns <tt>true</tt> if the governor has been enabled in
+     * the configuration.
+     */
+    public static boolean isEnabled()
+    {
+        return JigasiBundleActivator.getConfigurationservice()
+            .getBoolean(P_NAME_QUALITY_GOVERNOR, false);
+    }
+
+    /**
+     * Starts sampling the load.
+     */
+    public synchronized void start()
+    {
+        if (timer != null)
+            return;
+
+        config = JigasiBundleActivator.getConfigurationservice();
+
+        configuredComplexity
+            = config.getInt(P_NAME_OPUS_COMPLEXITY, OPUS_COMPLEXITY[0]);
+
+        Statistics.set(QUALITY_LEVEL, level);
+
+        timer = new Timer("QualityGovernor", true);
+        timer.schedule(new SampleTask(), SAMPLE_INTERVAL, SAMPLE_INTERVAL);
+
+        logger.info("Quality governor started");
+    }
+
+    /**
+     * Stops sampling the load and restores the best quality.
+     */
+    public synchronized void stop()
+    {
+        if (timer == null)
+            return;
+
+        timer.cancel();
+        timer = null;
+
+        setLevel(0);
+    }
+
+    /**
+     * Returns current quality level. Zero is the best quality.
+     */
+    public int getLevel()
+    {
+        return level;
+    }
+
+    /**
+     * Puts given loudest speakers filter under control of this governor.
+     * @param filter the <tt>LoudestSpeakersFilter</tt> of new session.
+     */
+    public synchronized void addFilter(LoudestSpeakersFilter filter)
+    {
+        filters.put(filter, filter.getLimit());
+
+        filter.setLimit(Math.min(filter.getLimit(), SPEAKERS[level]));
+    }
+
+    /**
+     * Releases given loudest speakers filter from control of this governor.
+     * @param filter the <tt>LoudestSpeakersFilter</tt> of ended session.
+     */
+    public synchronized void removeFilter(LoudestSpeakersFilter filter)
+    {
+        filters.remove(filter);
+    }
+
+    /**
+     * Puts given filter engine of a session which does not limit the number
+     * of speakers under control of this governor. The speakers are limited
+     * by a filter installed on the engine while the quality is lowered.
+     *
+     * @param engine the <tt>RtpFilterEngine</tt> of JVB leg of new session.
+     * @param extensionId the ID of ssrc-audio-level RTP header extension.
+     */
+    public synchronized void addEngine(RtpFilterEngine engine, int extensionId)
+    {
+        extensionIds.put(engine, extensionId);
+        engines.put(engine, null);
+
+        updateEngine(engine, SPEAKERS[level]);
+    }
+
+    /**
+     * Releases given filter engine from control of this governor and removes
+     * the filter installed on it.
+     *
+     * @param engine the <tt>RtpFilterEngine</tt> of ended session.
+     */
+    public synchronized void removeEngine(RtpFilterEngine engine)
+    {
+        LoudestSpeakersFilter filter = engines.remove(engine);
+
+        extensionIds.remove(engine);
+        if (filter != null)
+            engine.removeFilter(filter);
+    }
+
+    /**
+     * Returns the filter installed by this governor on given engine or
+     * <tt>null</tt>.
+     */
+    synchronized LoudestSpeakersFilter getFilter(RtpFilterEngine engine)
+    {
+        return engines.get(engine);
+    }
+
+    /**
+     * Installs, updates or removes the filter of given engine.
+     *
+     * @param engine the <tt>RtpFilterEngine</tt> controlled by this governor.
+     * @param speakers the maximum number of speakers mixed.
+     */
+    private void updateEngine(RtpFilterEngine engine, int speakers)
+    {
+        LoudestSpeakersFilter filter = engines.get(engine);
+
+        if (speakers == Integer.MAX_VALUE)
+        {
+            if (filter != null)
+            {
+                engine.removeFilter(filter);
+                engines.put(engine, null);
+            }
+        }
+        else if (filter == null)
+        {
+            filter
+                = new LoudestSpeakersFilter(speakers, extensionIds.get(engine));
+
+            engine.addFilter(filter);
+            engines.put(engine, filter);
+        }
+        else
+        {
+            filter.setLimit(speakers);
+        }
+    }
+
+    /**
+     * Updates the quality level with new load sample.
+     *
+     * @param cpu CPU usage of the process (0.0 - 1.0) or negative value if
+     *            not available.
+     * @param lag scheduling lag of sampling thread (in ms).
+     * @return the quality level after the update.
+     */
+    synchronized int update(double cpu, long lag)
+    {
+        boolean overloaded = cpu > HIGH_CPU || lag > HIGH_LAG;
+        boolean idle = cpu < LOW_CPU && lag < LOW_LAG;
+
+        overloadedSamples = overloaded ? overloadedSamples + 1 : 0;
+        idleSamples = idle ? idleSamples + 1 : 0;
+
+        if (overloadedSamples >= DEGRADE_SAMPLES && level < MAX_LEVEL)
+        {
+            overloadedSamples = 0;
+            setLevel(level + 1);
+        }
+        else if (idleSamples >= RECOVER_SAMPLES && level > 0)
+        {
+            idleSamples = 0;
+            setLevel(level - 1);
+        }
+
+        return level;
+    }
+
+    /**
+     * Applies new quality level to the sessions.
+     */
+    private void setLevel(int newLevel)
+    {
+        if (newLevel == level)
+            return;
+
+        logger.info("Quality level changed: " + level + " -> " + newLevel);
+
+        level = newLevel;
+
+        Statistics.set(QUALITY_LEVEL, newLevel);
+
+        if (config != null)
+        {
+            // Not persisted, only the calls started from now on use it
+            config.setProperty(
+                P_NAME_OPUS_COMPLEXITY,
+                String.valueOf(
+                    Math.min(configuredComplexity, OPUS_COMPLEXITY[newLevel])),
+                true);
+        }
+
+        for (Map.Entry<LoudestSpeakersFilter, Integer> filter
+                : filters.entrySet())
+        {
+            filter.getKey().setLimit(
+                Math.min(filter.getValue(), SPEAKERS[newLevel]));
+        }
+
+        for (RtpFilterEngine engine : engines.keySet())
+        {
+            updateEngine(engine, SPEAKERS[newLevel]);
+        }
+    }
+
+    /**
+     * Returns CPU usage of the process since the last call or negative value
+     * if it is not available.
+     */
+    private double sampleCpu(long now)
+    {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+
+        if (!(os instanceof com.sun.management.OperatingSystemMXBean))
+            return -1;
+
+        long cpuTime
+            = ((com.sun.management.OperatingSystemMXBean) os)
+                .getProcessCpuTime();
+        if (cpuTime < 0)
+            return -1;
+
+        double usage = -1;
+        if (lastCpuTime >= 0 && now > lastSampleTime)
+        {
+            usage
+                = (double) (cpuTime - lastCpuTime)
+                    / (now - lastSampleTime)
+                    / os.getAvailableProcessors();
+        }
+
+        lastCpuTime = cpuTime;
+        lastSampleTime = now;
+
+        return usage;
+    }
+
+    /**
+     * Samples the load. The delay with which the task runs is used as
+     * the measure of how much the threads of the process are starved.
+     */
+    private class SampleTask
+        extends TimerTask
+    {
+        @Override
+        public void run()
+        {
+            long lag
+                = Math.max(
+                    0, System.currentTimeMillis() - scheduledExecutionTime());
+
+            double cpu = sampleCpu(System.nanoTime());
+            if (cpu >= 0)
+                Statistics.set(CPU_USAGE, Math.round(cpu * 100));
+
+            update(cpu, lag);
+        }
+    }
+}
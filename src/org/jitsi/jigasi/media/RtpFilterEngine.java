@@ -0,0 +1,164 @@
+/*
+ * Jitsi Videobridge, OpenSource video conferencing.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package org.jitsi.jigasi.media;
+
+import net.java.sip.communicator.service.protocol.*;
+import org.jitsi.impl.neomedia.*;
+import org.jitsi.impl.neomedia.transform.*;
+import org.jitsi.jigasi.*;
+import org.jitsi.service.neomedia.*;
+
+/**
+ * <tt>TransformEngine</tt> installed as the external transformer of the audio
+ * <tt>MediaStream</tt> of a call leg. It passes RTP packets through the chain
+ * of {@link RtpPacketFilter}s which can be added and removed while the stream
+ * is running.
+ */
+public class RtpFilterEngine
+    implements TransformEngine
+{
+    /**
+     * Empty filter chain.
+     */
+    private static final RtpPacketFilter[] NO_FILTERS = new RtpPacketFilter[0];
+
+    /**
+     * Current filter chain. Replaced on every modification, so that media
+     * threads can iterate over it without locking or allocations.
+     */
+    private volatile RtpPacketFilter[] filters = NO_FILTERS;
+
+    /**
+     * Transforms RTP packets by passing them through the filters.
+     */
+    private final PacketTransformer rtpTransformer = new PacketTransformer()
+    {
+        @Override
+        public void close() { }
+
+        @Override
+        public RawPacket transform(RawPacket packet)
+        {
+            RtpPacketFilter[] filters = RtpFilterEngine.this.filters;
+
+            for (int i = 0; i < filters.length && packet != null; i++)
+            {
+                packet = filters[i].filterSent(packet);
+            }
+            return packet;
+        }
+
+        @Override
+        public RawPacket reverseTransform(RawPacket packet)
+        {
+            RtpPacketFilter[] filters = RtpFilterEngine.this.filters;
+
+            for (int i = 0; i < filters.length && packet != null; i++)
+            {
+                packet = filters[i].filterReceived(packet);
+            }
+            return packet;
+        }
+    };
+
+    /**
+     * RTCP packets are passed through unchanged.
+     */
+    private final PacketTransformer rtcpTransformer = new PacketTransformer()
+    {
+        @Override
+        public void close() { }
+
+        @Override
+        public RawPacket transform(RawPacket packet)
+        {
+            return packet;
+        }
+
+        @Override
+        public RawPacket reverseTransform(RawPacket packet)
+        {
+            return packet;
+        }
+    };
+
+    /**
+     * Creates new <tt>RtpFilterEngine</tt> and installs it on the audio
+     * stream of given <tt>peer</tt>.
+     *
+     * @param peer the <tt>CallPeer</tt> of the call leg to be filtered.
+     * @return new <tt>RtpFilterEngine</tt> installed on the audio stream or
+     *         <tt>null</tt> if the peer has no audio stream.
+     */
+    public static RtpFilterEngine install(CallPeer peer)
+    {
+        MediaStream stream = Util.getPeerMediaStream(peer, MediaType.AUDIO);
+        if (stream == null)
+            return null;
+
+        RtpFilterEngine engine = new RtpFilterEngine();
+
+        stream.setExternalTransformer(engine);
+
+        return engine;
+    }
+
+    /**
+     * Appends given <tt>filter</tt> to the filter chain.
+     * @param filter the <tt>RtpPacketFilter</tt> to be added.
+     */
+    public synchronized void addFilter(RtpPacketFilter filter)
+    {
+        RtpPacketFilter[] newFilters = new RtpPacketFilter[filters.length + 1];
+
+        System.arraycopy(filters, 0, newFilters, 0, filters.length);
+        newFilters[filters.length] = filter;
+
+        filters = newFilters;
+    }
+
+    /**
+     * Removes given <tt>filter</tt> from the filter chain.
+     * @param filter the <tt>RtpPacketFilter</tt> to be removed.
+     */
+    public synchronized void removeFilter(RtpPacketFilter filter)
+    {
+        for (int i = 0; i < filters.length; i++)
+        {
+            if (filters[i] == filter)
+            {
+                RtpPacketFilter[] newFilters
+                    = new RtpPacketFilter[filters.length - 1];
+
+                System.arraycopy(filters, 0, newFilters, 0, i);
+                System.arraycopy(
+                    filters, i + 1, newFilters, i, newFilters.length - i);
+
+                filters = newFilters;
+                return;
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public PacketTransformer getRTPTransformer()
+    {
+        return rtpTransformer;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public PacketTransformer getRTCPTransformer()
+    {
+        return rtcpTransformer;
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Jitsi Videobridge, OpenSource video conferencing.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package org.jitsi.jigasi.media;
+
+import org.jitsi.impl.neomedia.*;
+
+/**
+ * Filter of RTP packets of the audio stream of a call leg. Filters are plugged
+ * into the stream through {@link RtpFilterEngine}. Methods are called on the
+ * media threads for every packet, so implementations must not block.
+ */
+public abstract class RtpPacketFilter
+{
+    /**
+     * Filters RTP packet received from the remote peer, before it is passed
+     * on for decoding.
+     *
+     * @param packet the packet received from the remote peer.
+     * @return the packet to be passed on for decoding (which can be modified
+     *         or replaced) or <tt>null</tt> to drop it.
+     */
+    public RawPacket filterReceived(RawPacket packet)
+    {
+        return packet;
+    }
+
+    /**
+     * Filters encoded RTP packet before it is sent to the remote peer.
+     *
+     * @param packet the packet to be sent to the remote peer.
+     * @return the packet to be sent (which can be modified or replaced) or
+     *         <tt>null</tt> to drop it.
+     */
+    public RawPacket filterSent(RawPacket packet)
+    {
+        return packet;
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Jitsi Videobridge, OpenSource video conferencing.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package org.jitsi.jigasi.media;
+
+/**
+ * Utility methods for reading and rewriting RTP packet headers in place.
+ * None of the methods allocates, so they can be used on media threads for
+ * every packet.
+ */
+public class RtpUtils
+{
+    /**
+     * The size of the fixed part of RTP header.
+     */
+    public static final int FIXED_HEADER_SIZE = 12;
+
+    /**
+     * The value of "defined by profile" field of RTP header extension which
+     * indicates one-byte header extensions (RFC 5285).
+     */
+    private static final int ONE_BYTE_EXTENSION_PROFILE = 0xBEDE;
+
+    /**
+     * The audio level which stands for silence (-127 dBov) in the
+     * ssrc-audio-level header extension (RFC 6464).
+     */
+    public static final int SILENCE_AUDIO_LEVEL = 127;
+
+    /**
+     * Checks whether given buffer can hold RTP packet.
+     *
+     * @param buf the buffer that holds the packet.
+     * @param off the offset of the packet in the buffer.
+     * @param len the length of the packet.
+     * @return <tt>true</tt> if the buffer contains RTP version 2 packet which
+     *         is not shorter than its header.
+     */
+    public static boolean isRtp(byte[] buf, int off, int len)
+    {
+        if (buf == null || len < FIXED_HEADER_SIZE
+            || buf.length < off + len)
+            return false;
+
+        if ((buf[off] & 0xC0) != 0x80)
+            return false;
+
+        int csrcEnd = FIXED_HEADER_SIZE + 4 * (buf[off] & 0x0F);
+        if ((buf[off] & 0x10) != 0 && csrcEnd + 4 > len)
+            return false;
+
+        return getHeaderLength(buf, off) <= len;
+    }
+
+    /**
+     * Returns the length of RTP header including CSRC list and header
+     * extension.
+     */
+    public static int getHeaderLength(byte[] buf, int off)
+    {
+        int length = FIXED_HEADER_SIZE + 4 * (buf[off] & 0x0F);
+
+        if ((buf[off] & 0x10) != 0)
+        {
+            int extLength = readUint16(buf, off + length + 2);
+
+            length += 4 + 4 * extLength;
+        }
+        return length;
+    }
+
+    /**
+     * Returns the payload type of RTP packet.
+     */
+    public static int getPayloadType(byte[] buf, int off)
+    {
+        return buf[off + 1] & 0x7F;
+    }
+
+    /**
+     * Returns the sequence number of RTP packet.
+     */
+    public static int getSequenceNumber(byte[] buf, int off)
+    {
+        return readUint16(buf, off + 2);
+    }
+
+    /**
+     * Sets the sequence number of RTP packet.
+     */
+    public static void setSequenceNumber(byte[] buf, int off, int seq)
+    {
+        buf[off + 2] = (byte) (seq >> 8);
+        buf[off + 3] = (byte) seq;
+    }
+
+    /**
+     * Returns the timestamp of RTP packet.
+     */
+    public static long getTimestamp(byte[] buf, int off)
+    {
+        return readUint32(buf, off + 4);
+    }
+
+    /**
+     * Sets the timestamp of RTP packet.
+     */
+    public static void setTimestamp(byte[] buf, int off, long timestamp)
+    {
+        writeUint32(buf, off + 4, timestamp);
+    }
+
+    /**
+     * Returns the SSRC of RTP packet.
+     */
+    public static long getSsrc(byte[] buf, int off)
+    {
+        return readUint32(buf, off + 8);
+    }
+
+    /**
+     * Sets the SSRC of RTP packet.
+     */
+    public static void setSsrc(byte[] buf, int off, long ssrc)
+    {
+        writeUint32(buf, off + 8, ssrc);
+    }
+
+    /**
+     * Finds the audio level carried in ssrc-audio-level one-byte header
+     * extension (RFC 6464) of RTP packet.
+     *
+     * @param buf the buffer that holds the packet.
+     * @param off the offset of the packet in the buffer.
+     * @param len the length of the packet.
+     * @param extensionId the ID of ssrc-audio-level extension negotiated for
+     *                    the stream.
+     * @return the audio level in -dBov (<tt>0</tt> is the loudest and
+     *         {@link #SILENCE_AUDIO_LEVEL} stands for silence) or <tt>-1</tt>
+     *         if the packet does not carry the extension.
+     */
+    public static int getAudioLevel(byte[] buf, int off, int len,
+                                    int extensionId)
+    {
+        if ((buf[off] & 0x10) == 0)
+            return -1;
+
+        int extOff = off + FIXED_HEADER_SIZE + 4 * (buf[off] & 0x0F);
+        if (extOff + 4 > off + len
+            || readUint16(buf, extOff) != ONE_BYTE_EXTENSION_PROFILE)
+            return -1;
+
+        int end = extOff + 4 + 4 * readUint16(buf, extOff + 2);
+        if (end > off + len)
+            return -1;
+
+        int i = extOff + 4;
+        while (i < end)
+        {
+            int id = (buf[i] & 0xF0) >>> 4;
+
+            if (id == 0)
+            {
+                // Padding
+                i++;
+                continue;
+            }
+            if (id == 15)
+                break;
+
+            int elementLength = (buf[i] & 0x0F) + 1;
+
+            if (id == extensionId)
+            {
+                return i + 1 < end ? buf[i + 1] & 0x7F : -1;
+            }
+            i += 1 + elementLength;
+        }
+        return -1;
+    }
+
+    private static int readUint16(byte[] buf, int off)
+    {
+        return ((buf[off] & 0xFF) << 8) | (buf[off + 1] & 0xFF);
+    }
+
+    private static long readUint32(byte[] buf, int off)
+    {
+        return ((buf[off] & 0xFFL) << 24)
+            | ((buf[off + 1] & 0xFFL) << 16)
+            | ((buf[off + 2] & 0xFFL) << 8)
+            | (buf[off + 3] & 0xFFL);
+    }
+
+    private static void writeUint32(byte[] buf, int off, long value)
+    {
+        buf[off] = (byte) (value >> 24);
+        buf[off + 1] = (byte) (value >> 16);
+        buf[off + 2] = (byte) (value >> 8);
+        buf[off + 3] = (byte) value;
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * Jitsi Videobridge, OpenSource video conferencing.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package org.jitsi.jigasi.media;
+
+import org.jitsi.impl.neomedia.*;
+import org.jitsi.jigasi.*;
+import org.jitsi.jigasi.stats.*;
+
+/**
+ * Voice activity detection on the sending side of a call leg. Packets which
+ * carry silence are not sent once the silence lasts longer than
+ * the hangover period, except for a keep-alive packet every second. The first
+ * packet after the silence has the marker bit set, as at the beginning of
+ * every talkspurt. Sequence numbers of the packets sent after suppressed ones
+ * are lowered by the number of suppressed packets of their SSRC, so that
+ * the receiver does not count the gaps as lost packets.
+ * <p>
+ * The level of the audio is taken from ssrc-audio-level RTP header extension
+ * or, for G.711 payloads, calculated from the samples. Packets of which
+ * the level is unknown are always sent.
+ */
+public class SilenceSuppressionFilter
+    extends RtpPacketFilter
+{
+    /**
+     * The name of the property which enables silence suppression.
+     */
+    public static final String P_NAME_SILENCE_SUPPRESSION
+        = "org.jitsi.jigasi.SILENCE_SUPPRESSION";
+
+    /**
+     * The name of the property which specifies the audio level (in -dBov)
+     * above which the audio is considered silence.
+     */
+    public static final String P_NAME_SILENCE_LEVEL
+        = "org.jitsi.jigasi.SILENCE_LEVEL";
+
+    /**
+     * The default audio level above which the audio is considered silence.
+     */
+    public static final int DEFAULT_SILENCE_LEVEL = 60;
+
+    /**
+     * For how long (in ms) the packets are sent after the last voice packet.
+     */
+    private static final long HANGOVER = 200;
+
+    /**
+     * How often (in ms) keep-alive packet is sent during silence.
+     */
+    private static final long KEEP_ALIVE_INTERVAL = 1000;
+
+    /**
+     * The ID of ssrc-audio-level RTP header extension or <tt>-1</tt> if
+     * the level is calculated from G.711 payload.
+     */
+    private final int audioLevelExtId;
+
+    /**
+     * Audio level above which the audio is considered silence.
+     */
+    private final int silenceLevel;
+
+    /**
+     * Whether the packets are being suppressed.
+     */
+    private volatile boolean enabled = true;
+
+    /**
+     * The last time when voice has been sent.
+     */
+    private long lastVoice;
+
+    /**
+     * The last time when any packet has been sent.
+     */
+    private long lastSent;
+
+    /**
+     * Whether the last packet has been suppressed.
+     */
+    private boolean suppressing;
+
+    /**
+     * The SSRC of the last packet.
+     */
+    private long ssrc = -1;
+
+    /**
+     * The number of packets of <tt>ssrc</tt> suppressed so far, subtracted
+     * from the sequence numbers of the packets sent.
+     */
+    private int seqOffset;
+
+    /**
+     * The number of suppressed packets.
+     */
+    private volatile long packetsSuppressed;
+
+    /**
+     * The number of suppressed payload bytes.
+     */
+    private volatile long bytesSuppressed;
+
+    /**
+     * Returns <tt>true</tt> if silence suppression has been enabled in
+     * the configuration.
+     */
+    public static boolean isEnabledInConfig()
+    {
+        return JigasiBundleActivator.getConfigurationservice()
+            .getBoolean(P_NAME_SILENCE_SUPPRESSION, false);
+    }
+
+    /**
+     * Returns the audio level above which the audio is considered silence.
+     */
+    public static int getConfiguredSilenceLevel()
+    {
+        return JigasiBundleActivator.getConfigurationservice()
+            .getInt(P_NAME_SILENCE_LEVEL, DEFAULT_SILENCE_LEVEL);
+    }
+
+    /**
+     * Creates new <tt>SilenceSuppressionFilter</tt>.
+     *
+     * @param audioLevelExtId the ID of ssrc-audio-level RTP header extension
+     *                        of sent packets or <tt>-1</tt> if the level
+     *                        should be calculated from G.711 payloads.
+     * @param silenceLevel the audio level (in -dBov) above which the audio is
+     *                     considered silence.
+     */
+    public SilenceSuppressionFilter(int audioLevelExtId, int silenceLevel)
+    {
+        this.audioLevelExtId = audioLevelExtId;
+        this.silenceLevel = silenceLevel;
+    }
+
+    /**
+     * Enables or disables the suppression. Disabled filter sends all
+     * the packets.
+     */
+    public void setEnabled(boolean enabled)
+    {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Returns the number of packets which have not been sent.
+     */
+    public long getPacketsSuppressed()
+    {
+        return packetsSuppressed;
+    }
+
+    /**
+     * Returns the number of payload bytes which have not been sent.
+     */
+    public long getBytesSuppressed()
+    {
+        return bytesSuppressed;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public RawPacket filterSent(RawPacket packet)
+    {
+        byte[] buf = packet.getBuffer();
+        int off = packet.getOffset();
+        int len = packet.getLength();
+
+        if (!RtpUtils.isRtp(buf, off, len))
+            return packet;
+
+        long ssrc = RtpUtils.getSsrc(buf, off);
+        if (ssrc != this.ssrc)
+        {
+            this.ssrc = ssrc;
+            seqOffset = 0;
+        }
+
+        int level = enabled ? getAudioLevel(buf, off, len) : -1;
+        if (level < 0)
+            return rewriteSequenceNumber(packet);
+
+        long now = System.currentTimeMillis();
+
+        if (level <= silenceLevel)
+        {
+            if (suppressing)
+            {
+                // The beginning of new talkspurt
+                buf[off + 1] |= 0x80;
+                suppressing = false;
+            }
+            lastVoice = now;
+        }
+        else if (now - lastVoice > HANGOVER
+            && now - lastSent < KEEP_ALIVE_INTERVAL)
+        {
+            suppressing = true;
+            packetsSuppressed++;
+            bytesSuppressed += len - RtpUtils.getHeaderLength(buf, off);
+
+            Statistics.increment(Statistics.TOTAL_PACKETS_SUPPRESSED);
+
+            seqOffset = (seqOffset + 1) & 0xFFFF;
+            return null;
+        }
+
+        lastSent = now;
+
+        return rewriteSequenceNumber(packet);
+    }
+
+    /**
+     * Lowers the sequence number of given packet by the number of suppressed
+     * packets of its SSRC.
+     */
+    private RawPacket rewriteSequenceNumber(RawPacket packet)
+    {
+        if (seqOffset != 0)
+        {
+            byte[] buf = packet.getBuffer();
+            int off = packet.getOffset();
+
+            RtpUtils.setSequenceNumber(
+                buf, off,
+                (RtpUtils.getSequenceNumber(buf, off) - seqOffset) & 0xFFFF);
+        }
+        return packet;
+    }
+
+    /**
+     * Returns the level of the audio carried by given packet or <tt>-1</tt>
+     * if it is not known.
+     */
+    private int getAudioLevel(byte[] buf, int off, int len)
+    {
+        if (audioLevelExtId != -1)
+            return RtpUtils.getAudioLevel(buf, off, len, audioLevelExtId);
+
+        int payloadType = RtpUtils.getPayloadType(buf, off);
+        if (!G711.isG711(payloadType))
+            return -1;
+
+        int headerLen = RtpUtils.getHeaderLength(buf, off);
+
+        return G711.getAudioLevel(
+            buf, off + headerLen, len - headerLen,
+            payloadType == G711.PCMA_PAYLOAD_TYPE);
+    }
+}
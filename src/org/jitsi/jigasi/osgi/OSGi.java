@@ -77,7 +77,7 @@ public class OSGi
                 "net/java/sip/communicator/impl/netaddr/NetaddrActivator"
             },
             {
-                "net/java/sip/communicator/impl/packetlogging/PacketLoggingActivator"
+                "org/jitsi/jigasi/packetlogging/PacketCaptureActivator"
             },
             {
                 "net/java/sip/communicator/service/gui/internal/GuiServiceActivator"
@@ -0,0 +1,557 @@
+/*
+ * Jitsi Videobridge, OpenSource video conferencing.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package org.jitsi.jigasi.packetlogging;
+
+import net.java.sip.communicator.util.*;
+import org.jitsi.jigasi.*;
+import org.jitsi.jigasi.media.*;
+import org.jitsi.service.packetlogging.*;
+
+import java.io.*;
+import java.nio.*;
+import java.text.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * <tt>PacketLoggingService</tt> which keeps most recent SIP, XMPP and
+ * optionally RTP packets in a fixed size off-heap ring buffer instead of
+ * writing them to disk. The content of the buffer is written to a pcap file
+ * only on demand or when a gateway session fails, so the capture can stay
+ * enabled under load at a constant memory cost.
+ * <p>
+ * The buffer is divided into slots of equal size, each one holding single
+ * packet truncated to the capacity of the slot. Only the headers of RTP
+ * packets are stored. Writers never block each other and the oldest packets
+ * are overwritten once the buffer is full.
+ */
+public class PacketCapture
+    implements PacketLoggingService
+{
+    /**
+     * The logger.
+     */
+    private final static Logger logger
+        = Logger.getLogger(PacketCapture.class);
+
+    /**
+     * The name of the property which enables the capture. When enabled it
+     * replaces packet logging to disk.
+     */
+    public static final String P_NAME_PACKET_CAPTURE
+        = "org.jitsi.jigasi.PACKET_CAPTURE";
+
+    /**
+     * The name of the property which holds the size of capture buffer in
+     * bytes.
+     */
+    public static final String P_NAME_PACKET_CAPTURE_SIZE
+        = "org.jitsi.jigasi.PACKET_CAPTURE_SIZE";
+
+    /**
+     * The name of the property which enables the capture of RTP headers.
+     */
+    public static final String P_NAME_PACKET_CAPTURE_RTP
+        = "org.jitsi.jigasi.PACKET_CAPTURE_RTP";
+
+    /**
+     * The name of the property which holds the directory where pcap files are
+     * written. Defaults to the log directory of Jigasi home.
+     */
+    public static final String P_NAME_PACKET_CAPTURE_DIR
+        = "org.jitsi.jigasi.PACKET_CAPTURE_DIR";
+
+    /**
+     * The name of the element of the IQ which requests the dump of capture
+     * buffer.
+     */
+    public static final String ELEMENT_NAME = "dump-capture";
+
+    /**
+     * The namespace of the IQ which requests the dump of capture buffer.
+     */
+    public static final String NAMESPACE = "http://jitsi.org/protocol/jigasi";
+
+    /**
+     * Default size of capture buffer.
+     */
+    public static final int DEFAULT_SIZE = 8 * 1024 * 1024;
+
+    /**
+     * The size of single buffer slot.
+     */
+    static final int SLOT_SIZE = 2048;
+
+    /**
+     * Offsets of the fields of packet record stored in each slot.
+     */
+    private static final int TIMESTAMP_OFFSET = 0;
+    private static final int PROTOCOL_OFFSET = 8;
+    private static final int TRANSPORT_OFFSET = 9;
+    private static final int ADDRESS_LENGTH_OFFSET = 10;
+    private static final int SRC_ADDRESS_OFFSET = 12;
+    private static final int DST_ADDRESS_OFFSET = 28;
+    private static final int SRC_PORT_OFFSET = 44;
+    private static final int DST_PORT_OFFSET = 48;
+    private static final int ORIGINAL_LENGTH_OFFSET = 52;
+    private static final int LENGTH_OFFSET = 56;
+    private static final int DATA_OFFSET = 60;
+
+    /**
+     * The maximum number of packet bytes stored in one slot.
+     */
+    static final int SLOT_CAPACITY = SLOT_SIZE - DATA_OFFSET;
+
+    /**
+     * The minimum interval between two dumps triggered by failed sessions.
+     */
+    private static final long MIN_FAILURE_DUMP_INTERVAL = 60000;
+
+    /**
+     * The minimum interval between two dumps requested by the same
+     * requester.
+     */
+    static final long MIN_REQUEST_DUMP_INTERVAL = 60000;
+
+    /**
+     * The number of slots of the buffer.
+     */
+    private final int slotCount;
+
+    /**
+     * Off-heap memory which holds captured packets.
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * Sequence number of the packet stored in each slot increased by one,
+     * zero when the slot is empty or being written.
+     */
+    private final AtomicLongArray stamps;
+
+    /**
+     * The sequence number of the next captured packet.
+     */
+    private final AtomicLong nextSeq = new AtomicLong();
+
+    /**
+     * Whether the headers of RTP packets are captured.
+     */
+    private final boolean captureRtp;
+
+    /**
+     * The time of the last dump triggered by failed session.
+     */
+    private final AtomicLong lastFailureDump = new AtomicLong();
+
+    /**
+     * The times of the last dumps requested by each requester.
+     */
+    private final ConcurrentMap<String, Long> lastRequestDumps
+        = new ConcurrentHashMap<String, Long>();
+
+    /**
+     * The directory where pcap files are written.
+     */
+    private File dumpDirectory;
+
+    /**
+     * Creates new <tt>PacketCapture</tt>.
+     *
+     * @param size the size of capture buffer in bytes.
+     * @param captureRtp whether the headers of RTP packets are captured.
+     */
+    public PacketCapture(int size, boolean captureRtp)
+    {
+        this.slotCount = Math.max(1, size / SLOT_SIZE);
+        this.buffer = ByteBuffer.allocateDirect(slotCount * SLOT_SIZE);
+        this.stamps = new AtomicLongArray(slotCount);
+        this.captureRtp = captureRtp;
+    }
+
+    /**
+     * Sets the directory where pcap files are written.
+     */
+    public void setDumpDirectory(File dumpDirectory)
+    {
+        this.dumpDirectory = dumpDirectory;
+    }
+
+    /**
+     * Returns the number of packets this buffer can hold.
+     */
+    public int getCapacity()
+    {
+        return slotCount;
+    }
+
+    /**
+     * Returns the number of packets captured since the start.
+     */
+    public long getPacketsCaptured()
+    {
+        return nextSeq.get();
+    }
+
+    @Override
+    public boolean isLoggingEnabled()
+    {
+        return true;
+    }
+
+    @Override
+    public boolean isLoggingEnabled(ProtocolName protocol)
+    {
+        switch (protocol)
+        {
+        case SIP:
+        case JABBER:
+            return true;
+        case RTP:
+            return captureRtp;
+        default:
+            return false;
+        }
+    }
+
+    @Override
+    public void logPacket(ProtocolName protocol,
+                          byte[] sourceAddress, int sourcePort,
+                          byte[] destinationAddress, int destinationPort,
+                          TransportName transport,
+                          boolean sender,
+                          byte[] packetContent)
+    {
+        logPacket(protocol, sourceAddress, sourcePort,
+                  destinationAddress, destinationPort,
+                  transport, sender,
+                  packetContent, 0, packetContent.length);
+    }
+
+    @Override
+    public void logPacket(ProtocolName protocol,
+                          byte[] sourceAddress, int sourcePort,
+                          byte[] destinationAddress, int destinationPort,
+                          TransportName transport,
+                          boolean sender,
+                          byte[] packetContent,
+                          int packetOffset, int packetLength)
+    {
+        if (!isLoggingEnabled(protocol))
+            return;
+
+        int length = Math.min(packetLength, SLOT_CAPACITY);
+        if (protocol == ProtocolName.RTP)
+        {
+            length
+                = RtpUtils.isRtp(packetContent, packetOffset, packetLength)
+                    ? RtpUtils.getHeaderLength(packetContent, packetOffset)
+                    : Math.min(packetLength, RtpUtils.FIXED_HEADER_SIZE);
+            length = Math.min(length, SLOT_CAPACITY);
+        }
+
+        int addressLength
+            = isIPv6(sourceAddress) || isIPv6(destinationAddress) ? 16 : 4;
+
+        long seq = nextSeq.getAndIncrement();
+        int slot = (int) (seq % slotCount);
+        int base = slot * SLOT_SIZE;
+
+        stamps.set(slot, 0);
+
+        ByteBuffer buf = buffer.duplicate();
+
+        buf.putLong(
+            base + TIMESTAMP_OFFSET, System.currentTimeMillis() * 1000L);
+        buf.put(base + PROTOCOL_OFFSET, (byte) protocol.ordinal());
+        buf.put(
+            base + TRANSPORT_OFFSET,
+            (byte) (transport == TransportName.TCP ? 1 : 0));
+        buf.put(base + ADDRESS_LENGTH_OFFSET, (byte) addressLength);
+        putAddress(buf, base + SRC_ADDRESS_OFFSET, sourceAddress);
+        putAddress(buf, base + DST_ADDRESS_OFFSET, destinationAddress);
+        buf.putInt(base + SRC_PORT_OFFSET, sourcePort);
+        buf.putInt(base + DST_PORT_OFFSET, destinationPort);
+        buf.putInt(base + ORIGINAL_LENGTH_OFFSET, packetLength);
+        buf.putInt(base + LENGTH_OFFSET, length);
+
+        buf.position(base + DATA_OFFSET);
+        buf.put(packetContent, packetOffset, length);
+
+        stamps.set(slot, seq + 1);
+    }
+
+    @Override
+    public PacketLoggingConfiguration getConfiguration()
+    {
+        return new PacketLoggingConfiguration();
+    }
+
+    /**
+     * Writes the content of the buffer to a new pcap file in the dump
+     * directory.
+     *
+     * @param reason short description of the reason of the dump which becomes
+     *               part of the file name.
+     * @return the file to which packets have been written.
+     * @throws IOException if writing the file fails.
+     */
+    public File dump(String reason)
+        throws IOException
+    {
+        File dir = dumpDirectory != null
+            ? dumpDirectory : new File(System.getProperty("java.io.tmpdir"));
+
+        if (!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("Failed to create " + dir);
+
+        String name
+            = "jigasi-"
+                + new SimpleDateFormat("yyyyMMdd-HHmmss-SSS")
+                        .format(new Date())
+                + "-" + reason.replaceAll("[^A-Za-z0-9._-]", "_")
+                + ".pcap";
+
+        File file = new File(dir, name);
+
+        OutputStream out
+            = new BufferedOutputStream(new FileOutputStream(file));
+        try
+        {
+            int count = writePcap(out);
+
+            logger.info("Dumped " + count + " packets to " + file);
+        }
+        finally
+        {
+            out.close();
+        }
+        return file;
+    }
+
+    /**
+     * Dumps the buffer on request, unless the same requester has dumped it
+     * recently.
+     *
+     * @param requester the bare JID of the requester.
+     * @return the file to which packets have been written or <tt>null</tt>
+     *         if the requester has to wait before the next dump.
+     * @throws IOException if writing the file fails.
+     */
+    public File dumpOnRequest(String requester)
+        throws IOException
+    {
+        long now = System.currentTimeMillis();
+        Long last = lastRequestDumps.get(requester);
+
+        if (last == null)
+        {
+            if (lastRequestDumps.putIfAbsent(requester, now) != null)
+                return null;
+        }
+        else if (now - last < MIN_REQUEST_DUMP_INTERVAL
+            || !lastRequestDumps.replace(requester, last, now))
+        {
+            return null;
+        }
+
+        return dump("request-" + requester);
+    }
+
+    /**
+     * Dumps the buffer in a background thread after a failure of gateway
+     * session, unless another failure has been dumped recently.
+     *
+     * @param reason the description of the failure.
+     */
+    public void dumpOnFailure(final String reason)
+    {
+        long now = System.currentTimeMillis();
+        long last = lastFailureDump.get();
+
+        if (now - last < MIN_FAILURE_DUMP_INTERVAL
+            || !lastFailureDump.compareAndSet(last, now))
+            return;
+
+        new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    dump(reason);
+                }
+                catch (IOException e)
+                {
+                    logger.error("Failed to dump packet capture", e);
+                }
+            }
+        }, "PacketCaptureDump").start();
+    }
+
+    /**
+     * Dumps packet capture after a failure of gateway session if the capture
+     * is running.
+     *
+     * @param reason the description of the failure.
+     */
+    public static void dumpOnSessionFailure(String reason)
+    {
+        if (JigasiBundleActivator.osgiContext == null)
+            return;
+
+        PacketCapture capture
+            = ServiceUtils.getService(
+                    JigasiBundleActivator.osgiContext, PacketCapture.class);
+
+        if (capture != null)
+            capture.dumpOnFailure(reason);
+    }
+
+    /**
+     * Writes the content of the buffer in pcap format, from the oldest to the
+     * newest packet. Packets are wrapped in synthetic IP and UDP or TCP
+     * headers, so that they can be decoded by the usual tools.
+     *
+     * @param out the stream to which the capture is written.
+     * @return the number of packets written.
+     * @throws IOException if writing to the stream fails.
+     */
+    int writePcap(OutputStream out)
+        throws IOException
+    {
+        DataOutputStream pcap = new DataOutputStream(out);
+
+        // Global header: magic, version 2.4, GMT offset, accuracy, snap
+        // length and raw IP link type.
+        pcap.writeInt(0xa1b2c3d4);
+        pcap.writeShort(2);
+        pcap.writeShort(4);
+        pcap.writeInt(0);
+        pcap.writeInt(0);
+        pcap.writeInt(65535);
+        pcap.writeInt(101);
+
+        long end = nextSeq.get();
+        long start = Math.max(0, end - slotCount);
+        byte[] record = new byte[SLOT_SIZE];
+        ByteBuffer buf = buffer.duplicate();
+        int count = 0;
+
+        for (long seq = start; seq < end; seq++)
+        {
+            int slot = (int) (seq % slotCount);
+
+            if (stamps.get(slot) != seq + 1)
+                continue;
+
+            buf.position(slot * SLOT_SIZE);
+            buf.get(record);
+
+            // Skip the slot if it has been overwritten while copied
+            if (stamps.get(slot) != seq + 1)
+                continue;
+
+            writeRecord(pcap, ByteBuffer.wrap(record));
+            count++;
+        }
+        pcap.flush();
+
+        return count;
+    }
+
+    /**
+     * Writes single packet record copied from the buffer.
+     */
+    private static void writeRecord(DataOutputStream pcap, ByteBuffer record)
+        throws IOException
+    {
+        long timestamp = record.getLong(TIMESTAMP_OFFSET);
+        boolean tcp = record.get(TRANSPORT_OFFSET) == 1;
+        int addressLength = record.get(ADDRESS_LENGTH_OFFSET);
+        int originalLength = record.getInt(ORIGINAL_LENGTH_OFFSET);
+        int length = record.getInt(LENGTH_OFFSET);
+
+        int ipHeaderLength = addressLength == 16 ? 40 : 20;
+        int transportHeaderLength = tcp ? 20 : 8;
+        int headersLength = ipHeaderLength + transportHeaderLength;
+
+        pcap.writeInt((int) (timestamp / 1000000L));
+        pcap.writeInt((int) (timestamp % 1000000L));
+        pcap.writeInt(headersLength + length);
+        pcap.writeInt(headersLength + originalLength);
+
+        int transportLength = transportHeaderLength + originalLength;
+        int protocol = tcp ? 6 : 17;
+
+        if (addressLength == 16)
+        {
+            pcap.writeInt(0x60000000);
+            pcap.writeShort(transportLength);
+            pcap.writeByte(protocol);
+            pcap.writeByte(64);
+        }
+        else
+        {
+            pcap.writeByte(0x45);
+            pcap.writeByte(0);
+            pcap.writeShort(ipHeaderLength + transportLength);
+            pcap.writeInt(0);
+            pcap.writeByte(64);
+            pcap.writeByte(protocol);
+            pcap.writeShort(0);
+        }
+        pcap.write(record.array(), SRC_ADDRESS_OFFSET, addressLength);
+        pcap.write(record.array(), DST_ADDRESS_OFFSET, addressLength);
+
+        pcap.writeShort(record.getInt(SRC_PORT_OFFSET));
+        pcap.writeShort(record.getInt(DST_PORT_OFFSET));
+        if (tcp)
+        {
+            // Sequence and acknowledgment numbers are not tracked
+            pcap.writeInt(0);
+            pcap.writeInt(0);
+            // Data offset, PSH and ACK flags and window
+            pcap.writeShort(0x5018);
+            pcap.writeShort(0xffff);
+            pcap.writeShort(0);
+            pcap.writeShort(0);
+        }
+        else
+        {
+            pcap.writeShort(transportLength);
+            pcap.writeShort(0);
+        }
+        pcap.write(record.array(), DATA_OFFSET, length);
+    }
+
+    /**
+     * Stores IP address in the slot, IPv4 addresses take first 4 bytes of the
+     * field.
+     */
+    private static void putAddress(ByteBuffer buf, int offset, byte[] address)
+    {
+        for (int i = 0; i < 16; i++)
+        {
+            byte b = 0;
+
+            if (address != null && i < address.length)
+                b = address[i];
+            buf.put(offset + i, b);
+        }
+    }
+
+    /**
+     * Checks whether given address is IPv6 address.
+     */
+    private static boolean isIPv6(byte[] address)
+    {
+        return address != null && address.length == 16;
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Jitsi Videobridge, OpenSource video conferencing.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package org.jitsi.jigasi.packetlogging;
+
+import net.java.sip.communicator.impl.packetlogging.*;
+import net.java.sip.communicator.util.*;
+import org.jitsi.service.configuration.*;
+import org.jitsi.service.packetlogging.*;
+import org.osgi.framework.*;
+
+import java.io.*;
+
+/**
+ * Bundle which provides <tt>PacketLoggingService</tt>. Registers in-memory
+ * {@link PacketCapture} when it is enabled or starts the default packet
+ * logging to disk otherwise.
+ */
+public class PacketCaptureActivator
+    implements BundleActivator
+{
+    /**
+     * The logger.
+     */
+    private final static Logger logger
+        = Logger.getLogger(PacketCaptureActivator.class);
+
+    /**
+     * The default packet logging bundle used when the capture is disabled.
+     */
+    private BundleActivator packetLogging;
+
+    @Override
+    public void start(BundleContext bundleContext)
+        throws Exception
+    {
+        ConfigurationService config
+            = ServiceUtils.getService(
+                    bundleContext, ConfigurationService.class);
+
+        if (config == null
+            || !config.getBoolean(PacketCapture.P_NAME_PACKET_CAPTURE, false))
+        {
+            packetLogging = new PacketLoggingActivator();
+            packetLogging.start(bundleContext);
+            return;
+        }
+
+        PacketCapture capture
+            = new PacketCapture(
+                    config.getInt(
+                        PacketCapture.P_NAME_PACKET_CAPTURE_SIZE,
+                        PacketCapture.DEFAULT_SIZE),
+                    config.getBoolean(
+                        PacketCapture.P_NAME_PACKET_CAPTURE_RTP, false));
+
+        String dir
+            = config.getString(PacketCapture.P_NAME_PACKET_CAPTURE_DIR);
+        if (dir == null)
+        {
+            dir = config.getScHomeDirLocation()
+                + File.separator + config.getScHomeDirName()
+                + File.separator + "log";
+        }
+        capture.setDumpDirectory(new File(dir));
+
+        bundleContext.registerService(
+            PacketLoggingService.class, capture, null);
+        bundleContext.registerService(
+            PacketCapture.class, capture, null);
+
+        logger.info(
+            "Packet capture started, buffer of " + capture.getCapacity()
+                + " packets, dumps go to " + dir);
+    }
+
+    @Override
+    public void stop(BundleContext bundleContext)
+        throws Exception
+    {
+        if (packetLogging != null)
+        {
+            packetLogging.stop(bundleContext);
+            packetLogging = null;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Jitsi Videobridge, OpenSource video conferencing.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package org.jitsi.jigasi.stats;
+
+import org.json.simple.*;
+
+/**
+ * Call detail record of single gateway session. Filled by the session as
+ * the call goes through its phases and written by {@link CdrWriter} once the
+ * session has ended.
+ */
+public class CallDetailRecord
+{
+    /**
+     * The direction of the session started by incoming SIP call.
+     */
+    public static final String INCOMING = "in";
+
+    /**
+     * The direction of the session which dials SIP destination.
+     */
+    public static final String OUTGOING = "out";
+
+    /**
+     * The call resource of the session.
+     */
+    private final String callResource;
+
+    /**
+     * The direction of the session.
+     */
+    private final String direction;
+
+    /**
+     * The time when the session has been created.
+     */
+    private final long startTimestamp;
+
+    private volatile String roomName;
+
+    private volatile String destination;
+
+    private volatile String sipCodec;
+
+    private volatile long sipAnsweredTimestamp = -1;
+
+    private volatile long jvbJoinedTimestamp = -1;
+
+    private volatile long endTimestamp = -1;
+
+    private volatile int endReasonCode = -1;
+
+    private volatile String endReason;
+
+    private volatile String qualitySummary;
+
+    /**
+     * Creates new record of the session started now.
+     *
+     * @param callResource the call resource of the session.
+     * @param direction {@link #INCOMING} or {@link #OUTGOING}.
+     */
+    public CallDetailRecord(String callResource, String direction)
+    {
+        this.callResource = callResource;
+        this.direction = direction;
+        this.startTimestamp = System.currentTimeMillis();
+    }
+
+    public String getCallResource()
+    {
+        return callResource;
+    }
+
+    public void setRoomName(String roomName)
+    {
+        this.roomName = roomName;
+    }
+
+    public void setDestination(String destination)
+    {
+        this.destination = destination;
+    }
+
+    /**
+     * Records that the SIP call has been answered.
+     *
+     * @param sipCodec the format used by the SIP call.
+     */
+    public void sipAnswered(String sipCodec)
+    {
+        this.sipCodec = sipCodec;
+        if (sipAnsweredTimestamp == -1)
+            sipAnsweredTimestamp = System.currentTimeMillis();
+    }
+
+    /**
+     * Records that the media of JVB conference call has been started.
+     */
+    public void jvbJoined()
+    {
+        if (jvbJoinedTimestamp == -1)
+            jvbJoinedTimestamp = System.currentTimeMillis();
+    }
+
+    /**
+     * Sets the reason of the end of the session unless it is already known.
+     *
+     * @param code the reason code, one of <tt>OperationSetBasicTelephony</tt>
+     *             hangup reasons or SIP response code.
+     * @param reason the description of the reason.
+     */
+    public void setEndReason(int code, String reason)
+    {
+        if (endReasonCode != -1)
+            return;
+
+        this.endReasonCode = code;
+        this.endReason = reason;
+    }
+
+    public void setQualitySummary(String qualitySummary)
+    {
+        this.qualitySummary = qualitySummary;
+    }
+
+    /**
+     * Records that the session has ended.
+     */
+    public void ended()
+    {
+        endTimestamp = System.currentTimeMillis();
+    }
+
+    /**
+     * Returns the record as single line JSON object.
+     */
+    @SuppressWarnings("unchecked")
+    public String toJson()
+    {
+        JSONObject json = new JSONObject();
+
+        json.put("call", callResource);
+        json.put("direction", direction);
+        json.put("room", roomName);
+        json.put("destination", destination);
+        json.put("sip_codec", sipCodec);
+        json.put("start", startTimestamp);
+        json.put("sip_answered", sipAnsweredTimestamp);
+        json.put("jvb_joined", jvbJoinedTimestamp);
+        json.put("end", endTimestamp);
+        json.put("end_reason_code", endReasonCode);
+        json.put("end_reason", endReason);
+        json.put("quality", qualitySummary);
+
+        return json.toJSONString();
+    }
+}
@@ -0,0 +1,341 @@
+/*
+ * Jitsi Videobridge, OpenSource video conferencing.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package org.jitsi.jigasi.stats;
+
+import net.java.sip.communicator.util.*;
+import org.jitsi.service.configuration.*;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+
+/**
+ * Appends call detail records to a file, one JSON object per line.
+ * <p>
+ * Records are put on a lock-free queue by signaling threads, which never
+ * wait for the disk. A background thread writes all queued records with one
+ * write and one sync of the file per flush interval (group commit) and
+ * rotates the file when it grows over the size limit. Records are dropped and
+ * counted when the queue is full.
+ */
+public class CdrWriter
+    implements Runnable
+{
+    /**
+     * The logger.
+     */
+    private final static Logger logger = Logger.getLogger(CdrWriter.class);
+
+    /**
+     * The name of the property which holds the path of CDR file. CDRs are not
+     * written unless it is set.
+     */
+    public static final String P_NAME_CDR_FILE
+        = "org.jitsi.jigasi.CDR_FILE";
+
+    /**
+     * The name of the property which holds the size in bytes above which the
+     * file is rotated.
+     */
+    public static final String P_NAME_CDR_MAX_FILE_SIZE
+        = "org.jitsi.jigasi.CDR_MAX_FILE_SIZE";
+
+    /**
+     * The name of the property which holds how often (in ms) queued records
+     * are written.
+     */
+    public static final String P_NAME_CDR_FLUSH_INTERVAL
+        = "org.jitsi.jigasi.CDR_FLUSH_INTERVAL";
+
+    /**
+     * The name of the counter of CDRs written.
+     */
+    public static final String TOTAL_CDRS_WRITTEN = "total_cdrs_written";
+
+    /**
+     * The name of the counter of CDRs dropped.
+     */
+    public static final String TOTAL_CDRS_DROPPED = "total_cdrs_dropped";
+
+    /**
+     * Default maximum size of the file.
+     */
+    private static final long DEFAULT_MAX_FILE_SIZE = 64L * 1024L * 1024L;
+
+    /**
+     * Default flush interval.
+     */
+    private static final long DEFAULT_FLUSH_INTERVAL = 1000;
+
+    /**
+     * The maximum number of queued records.
+     */
+    private static final int MAX_QUEUED = 10000;
+
+    /**
+     * The charset of the file.
+     */
+    private static final String CHARSET = "UTF-8";
+
+    /**
+     * Records waiting to be written.
+     */
+    private final ConcurrentLinkedQueue<CallDetailRecord> queue
+        = new ConcurrentLinkedQueue<CallDetailRecord>();
+
+    /**
+     * The number of records in the queue.
+     */
+    private final AtomicInteger queued = new AtomicInteger();
+
+    /**
+     * The CDR file.
+     */
+    private final File file;
+
+    /**
+     * The size above which the file is rotated.
+     */
+    private final long maxFileSize;
+
+    /**
+     * How often records are written.
+     */
+    private final long flushInterval;
+
+    /**
+     * The channel of the file opened for appending.
+     */
+    private FileChannel channel;
+
+    /**
+     * The writer thread.
+     */
+    private Thread thread;
+
+    /**
+     * Whether the writer thread should keep running.
+     */
+    private volatile boolean running;
+
+    /**
+     * Creates new <tt>CdrWriter</tt> if CDRs are enabled in given
+     * configuration.
+     *
+     * @param config the <tt>ConfigurationService</tt>.
+     * @return new <tt>CdrWriter</tt> or <tt>null</tt> if CDRs are disabled.
+     */
+    public static CdrWriter create(ConfigurationService config)
+    {
+        String path = config.getString(P_NAME_CDR_FILE);
+
+        if (path == null || path.trim().length() == 0)
+            return null;
+
+        return new CdrWriter(
+            new File(path.trim()),
+            config.getLong(P_NAME_CDR_MAX_FILE_SIZE, DEFAULT_MAX_FILE_SIZE),
+            config.getLong(P_NAME_CDR_FLUSH_INTERVAL, DEFAULT_FLUSH_INTERVAL));
+    }
+
+    /**
+     * Creates new <tt>CdrWriter</tt>.
+     *
+     * @param file the file to which records are appended.
+     * @param maxFileSize the size above which the file is rotated.
+     * @param flushInterval how often (in ms) records are written.
+     */
+    public CdrWriter(File file, long maxFileSize, long flushInterval)
+    {
+        this.file = file;
+        this.maxFileSize = maxFileSize;
+        this.flushInterval = flushInterval;
+    }
+
+    /**
+     * Starts the writer thread.
+     */
+    public synchronized void start()
+    {
+        if (thread != null)
+            return;
+
+        running = true;
+
+        thread = new Thread(this, "CdrWriter");
+        thread.setDaemon(true);
+        thread.start();
+
+        logger.info("Writing CDRs to " + file);
+    }
+
+    /**
+     * Writes remaining records and stops the writer thread.
+     */
+    public void stop()
+    {
+        Thread thread;
+        synchronized (this)
+        {
+            thread = this.thread;
+            this.thread = null;
+        }
+        if (thread == null)
+            return;
+
+        running = false;
+        LockSupport.unpark(thread);
+        try
+        {
+            thread.join();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Queues the record to be written. Never blocks.
+     *
+     * @param cdr the record of ended session.
+     * @return <tt>false</tt> if the record has been dropped, because the
+     *         queue is full.
+     */
+    public boolean offer(CallDetailRecord cdr)
+    {
+        if (queued.incrementAndGet() > MAX_QUEUED)
+        {
+            queued.decrementAndGet();
+            Statistics.increment(TOTAL_CDRS_DROPPED);
+            return false;
+        }
+
+        queue.add(cdr);
+        return true;
+    }
+
+    @Override
+    public void run()
+    {
+        try
+        {
+            while (running)
+            {
+                LockSupport.parkNanos(
+                    this, TimeUnit.MILLISECONDS.toNanos(flushInterval));
+
+                flush();
+            }
+            flush();
+        }
+        finally
+        {
+            close();
+        }
+    }
+
+    /**
+     * Writes all queued records. Called by the writer thread only.
+     *
+     * @return the number of records written.
+     */
+    int flush()
+    {
+        StringBuilder batch = null;
+        int count = 0;
+        CallDetailRecord cdr;
+
+        while ((cdr = queue.poll()) != null)
+        {
+            queued.decrementAndGet();
+
+            if (batch == null)
+                batch = new StringBuilder();
+
+            batch.append(cdr.toJson()).append('\n');
+            count++;
+        }
+        if (count == 0)
+            return 0;
+
+        try
+        {
+            ByteBuffer buffer
+                = ByteBuffer.wrap(batch.toString().getBytes(CHARSET));
+
+            FileChannel channel = getChannel(buffer.remaining());
+            while (buffer.hasRemaining())
+            {
+                channel.write(buffer);
+            }
+            channel.force(false);
+
+            Statistics.add(TOTAL_CDRS_WRITTEN, count);
+        }
+        catch (IOException e)
+        {
+            logger.error("Failed to write " + count + " CDRs to " + file, e);
+            Statistics.add(TOTAL_CDRS_DROPPED, count);
+            close();
+        }
+        return count;
+    }
+
+    /**
+     * Returns the channel of CDR file, rotating the file first if given number
+     * of bytes would make it larger than the limit.
+     */
+    private FileChannel getChannel(int length)
+        throws IOException
+    {
+        if (channel != null
+            && channel.size() > 0
+            && channel.size() + length > maxFileSize)
+        {
+            close();
+
+            File rotated
+                = new File(
+                        file.getPath() + "." + System.currentTimeMillis());
+            if (!file.renameTo(rotated))
+                logger.error("Failed to rotate " + file + " to " + rotated);
+        }
+
+        if (channel == null)
+        {
+            File dir = file.getAbsoluteFile().getParentFile();
+            if (dir != null && !dir.isDirectory())
+                dir.mkdirs();
+
+            channel = new FileOutputStream(file, true).getChannel();
+        }
+        return channel;
+    }
+
+    /**
+     * Closes the file.
+     */
+    private void close()
+    {
+        if (channel == null)
+            return;
+
+        try
+        {
+            channel.close();
+        }
+        catch (IOException e)
+        {
+            logger.error("Failed to close " + file, e);
+        }
+        channel = null;
+    }
+}
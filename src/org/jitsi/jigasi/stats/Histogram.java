@@ -0,0 +1,179 @@
+/*
+ * Jitsi Videobridge, OpenSource video conferencing.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package org.jitsi.jigasi.stats;
+
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Histogram with fixed buckets which can be updated concurrently without
+ * locking. Percentiles are approximated with the upper bound of the bucket
+ * in which they fall.
+ */
+public class Histogram
+{
+    /**
+     * Upper bounds (inclusive) of the buckets in ascending order. Values
+     * greater than the last bound fall into the overflow bucket.
+     */
+    private final long[] bounds;
+
+    /**
+     * The number of values in each bucket, the last one is the overflow
+     * bucket.
+     */
+    private final AtomicLongArray buckets;
+
+    /**
+     * The number of recorded values.
+     */
+    private final AtomicLong count = new AtomicLong();
+
+    /**
+     * The sum of recorded values.
+     */
+    private final AtomicLong sum = new AtomicLong();
+
+    /**
+     * The greatest recorded value.
+     */
+    private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+    /**
+     * Creates new <tt>Histogram</tt>.
+     * @param bounds upper bounds of the buckets in ascending order.
+     */
+    public Histogram(long[] bounds)
+    {
+        this.bounds = bounds.clone();
+        this.buckets = new AtomicLongArray(bounds.length + 1);
+    }
+
+    /**
+     * Returns upper bounds of the buckets of this histogram.
+     */
+    public long[] getBounds()
+    {
+        return bounds.clone();
+    }
+
+    /**
+     * Records given value.
+     * @param value the value to be recorded.
+     */
+    public void record(long value)
+    {
+        int idx = Arrays.binarySearch(bounds, value);
+        if (idx < 0)
+            idx = -idx - 1;
+
+        buckets.incrementAndGet(idx);
+        count.incrementAndGet();
+        sum.addAndGet(value);
+
+        long currentMax;
+        while (value > (currentMax = max.get()))
+        {
+            if (max.compareAndSet(currentMax, value))
+                break;
+        }
+    }
+
+    /**
+     * Adds all values recorded by given histogram to this one. Both
+     * histograms must have the same buckets.
+     * @param other the histogram to be merged into this one.
+     */
+    public void merge(Histogram other)
+    {
+        if (!Arrays.equals(bounds, other.bounds))
+            throw new IllegalArgumentException("Buckets differ");
+
+        for (int i = 0; i < other.buckets.length(); i++)
+        {
+            buckets.addAndGet(i, other.buckets.get(i));
+        }
+        count.addAndGet(other.count.get());
+        sum.addAndGet(other.sum.get());
+
+        long otherMax = other.max.get();
+        long currentMax;
+        while (otherMax > (currentMax = max.get()))
+        {
+            if (max.compareAndSet(currentMax, otherMax))
+                break;
+        }
+    }
+
+    /**
+     * Returns the number of recorded values.
+     */
+    public long getCount()
+    {
+        return count.get();
+    }
+
+    /**
+     * Returns the mean of recorded values or zero if there are none.
+     */
+    public long getMean()
+    {
+        long count = this.count.get();
+
+        return count > 0 ? sum.get() / count : 0;
+    }
+
+    /**
+     * Returns the greatest recorded value or zero if there are none.
+     */
+    public long getMax()
+    {
+        return count.get() > 0 ? max.get() : 0;
+    }
+
+    /**
+     * Returns the approximation of given percentile of recorded values.
+     *
+     * @param percentile the percentile from 0 to 100.
+     * @return the upper bound of the bucket in which given percentile falls,
+     *         the greatest recorded value if it falls into the overflow bucket
+     *         or zero if no values have been recorded.
+     */
+    public long getPercentile(double percentile)
+    {
+        long count = this.count.get();
+        if (count == 0)
+            return 0;
+
+        long rank = (long) Math.ceil(count * percentile / 100d);
+        long seen = 0;
+
+        for (int i = 0; i < bounds.length; i++)
+        {
+            seen += buckets.get(i);
+            if (seen >= rank)
+                return Math.min(bounds[i], getMax());
+        }
+        return getMax();
+    }
+
+    /**
+     * Puts the summary of this histogram into given map of statistics.
+     *
+     * @param name the name of this histogram used as the prefix of
+     *             the statistics.
+     * @param stats the map to which the statistics will be added.
+     */
+    public void addTo(String name, Map<String, Long> stats)
+    {
+        stats.put(name + "_count", getCount());
+        stats.put(name + "_mean", getMean());
+        stats.put(name + "_p50", getPercentile(50));
+        stats.put(name + "_p95", getPercentile(95));
+        stats.put(name + "_max", getMax());
+    }
+}
@@ -0,0 +1,362 @@
+/*
+ * Jitsi Videobridge, OpenSource video conferencing.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package org.jitsi.jigasi.stats;
+
+import net.java.sip.communicator.service.protocol.*;
+import net.java.sip.communicator.util.*;
+import org.jitsi.jigasi.*;
+import org.jitsi.jigasi.media.*;
+import org.jitsi.service.neomedia.*;
+
+import java.util.*;
+
+/**
+ * Periodically samples <tt>MediaStreamStats</tt> of the audio streams of SIP
+ * and JVB calls of single gateway session. Samples are recorded in
+ * the histograms of the session and in instance wide histograms registered
+ * in {@link Statistics} (named like <tt>sip_jitter_ms</tt>).
+ */
+public class MediaQualityMonitor
+{
+    /**
+     * The logger.
+     */
+    private final static Logger logger
+        = Logger.getLogger(MediaQualityMonitor.class);
+
+    /**
+     * The name of the property which specifies how often (in ms) media
+     * statistics are sampled. Zero or less disables sampling.
+     */
+    public static final String P_NAME_QUALITY_SAMPLE_INTERVAL
+        = "org.jitsi.jigasi.QUALITY_SAMPLE_INTERVAL";
+
+    /**
+     * The default interval between samples (in ms).
+     */
+    public static final long DEFAULT_SAMPLE_INTERVAL = 5000;
+
+    /**
+     * The name of the leg of SIP call.
+     */
+    public static final String SIP_LEG = "sip";
+
+    /**
+     * The name of the leg of JVB call.
+     */
+    public static final String JVB_LEG = "jvb";
+
+    /**
+     * The timer shared by all monitors.
+     */
+    private static Timer timer;
+
+    /**
+     * Sampled metrics.
+     */
+    public enum Metric
+    {
+        /**
+         * Received packets lost (in 0.1%).
+         */
+        LOSS("loss_permille", new long[] { 0, 5, 10, 20, 50, 100, 200, 500 }),
+
+        /**
+         * Jitter of received packets (in ms).
+         */
+        JITTER("jitter_ms", new long[] { 5, 10, 20, 30, 50, 100, 200 }),
+
+        /**
+         * Round trip time (in ms).
+         */
+        RTT("rtt_ms", new long[] { 50, 100, 150, 200, 300, 500, 1000 }),
+
+        /**
+         * Bitrate of received audio (in kbps).
+         */
+        BITRATE("bitrate_kbps", new long[] { 8, 16, 32, 48, 64, 96, 128 }),
+
+        /**
+         * Delay introduced by jitter buffer (in ms).
+         */
+        JITTER_BUFFER_DELAY(
+            "jitter_buffer_ms", new long[] { 20, 40, 60, 80, 120, 200, 400 }),
+
+        /**
+         * Packets discarded by jitter buffer during sampling interval, which
+         * have to be concealed by the decoder.
+         */
+        CONCEALED("concealed_packets", new long[] { 0, 1, 5, 10, 25, 50 });
+
+        /**
+         * The name of the metric.
+         */
+        private final String name;
+
+        /**
+         * Upper bounds of histogram buckets.
+         */
+        private final long[] bounds;
+
+        private Metric(String name, long[] bounds)
+        {
+            this.name = name;
+            this.bounds = bounds;
+        }
+
+        /**
+         * Returns the name of the metric.
+         */
+        public String getName()
+        {
+            return name;
+        }
+    }
+
+    /**
+     * The call resource of monitored session used in the logs.
+     */
+    private final String callResource;
+
+    /**
+     * Monitored legs.
+     */
+    private final List<Leg> legs = new ArrayList<Leg>(2);
+
+    /**
+     * Quality level of the governor at the time of the samples.
+     */
+    private final Histogram qualityLevels
+        = new Histogram(new long[] { 0, 1, 2, 3 });
+
+    /**
+     * Samples the statistics.
+     */
+    private TimerTask task;
+
+    /**
+     * Returns how often media statistics are sampled (in ms).
+     */
+    public static long getSampleInterval()
+    {
+        return JigasiBundleActivator.getConfigurationservice()
+            .getLong(P_NAME_QUALITY_SAMPLE_INTERVAL, DEFAULT_SAMPLE_INTERVAL);
+    }
+
+    /**
+     * Returns the timer shared by all monitors.
+     */
+    private static synchronized Timer getTimer()
+    {
+        if (timer == null)
+            timer = new Timer("MediaQualityMonitor", true);
+
+        return timer;
+    }
+
+    /**
+     * Creates new <tt>MediaQualityMonitor</tt>.
+     *
+     * @param callResource the call resource of monitored session.
+     * @param sipCall the SIP call of the session.
+     * @param jvbCall the JVB call of the session.
+     */
+    public MediaQualityMonitor(String callResource, Call sipCall, Call jvbCall)
+    {
+        this.callResource = callResource;
+
+        legs.add(new Leg(SIP_LEG, sipCall));
+        legs.add(new Leg(JVB_LEG, jvbCall));
+    }
+
+    /**
+     * Starts sampling the statistics with given interval.
+     * @param interval the interval between samples (in ms).
+     */
+    public synchronized void start(long interval)
+    {
+        if (task != null)
+            return;
+
+        task = new TimerTask()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    sample();
+                }
+                catch (Throwable t)
+                {
+                    // Do not let it kill the timer shared by all sessions
+                    logger.error(callResource + " failed to sample stats", t);
+                }
+            }
+        };
+
+        getTimer().schedule(task, interval, interval);
+    }
+
+    /**
+     * Stops sampling and logs the summary of the session.
+     */
+    public synchronized void stop()
+    {
+        if (task == null)
+            return;
+
+        task.cancel();
+        task = null;
+
+        logger.info(callResource + " media quality: " + getSummary());
+    }
+
+    /**
+     * Takes one sample of media statistics of both legs.
+     */
+    void sample()
+    {
+        qualityLevels.record(Statistics.get(QualityGovernor.QUALITY_LEVEL));
+
+        for (Leg leg : legs)
+        {
+            leg.sample();
+        }
+    }
+
+    /**
+     * Returns session histogram of given metric of given leg.
+     *
+     * @param leg {@link #SIP_LEG} or {@link #JVB_LEG}.
+     * @param metric the metric.
+     * @return the histogram or <tt>null</tt> if there is no such leg.
+     */
+    public Histogram getHistogram(String leg, Metric metric)
+    {
+        for (Leg l : legs)
+        {
+            if (l.name.equals(leg))
+                return l.histograms[metric.ordinal()];
+        }
+        return null;
+    }
+
+    /**
+     * Returns the summary of media statistics of the session in the form of
+     * <tt>leg_metric=median/95th percentile/max</tt>.
+     */
+    public String getSummary()
+    {
+        StringBuilder summary = new StringBuilder();
+
+        for (Leg leg : legs)
+        {
+            for (Metric metric : Metric.values())
+            {
+                Histogram histogram = leg.histograms[metric.ordinal()];
+
+                summary.append(leg.name).append('_').append(metric.name)
+                    .append('=').append(histogram.getPercentile(50))
+                    .append('/').append(histogram.getPercentile(95))
+                    .append('/').append(histogram.getMax()).append(' ');
+            }
+        }
+        summary.append(QualityGovernor.QUALITY_LEVEL).append("_max=")
+            .append(qualityLevels.getMax());
+
+        return summary.toString();
+    }
+
+    /**
+     * Samples the audio stream of single call.
+     */
+    private static class Leg
+    {
+        /**
+         * The name of the leg.
+         */
+        private final String name;
+
+        /**
+         * The call of the leg.
+         */
+        private final Call call;
+
+        /**
+         * Session histograms of the leg indexed by metric ordinal.
+         */
+        private final Histogram[] histograms;
+
+        /**
+         * Instance wide histograms of the leg indexed by metric ordinal.
+         */
+        private final Histogram[] globalHistograms;
+
+        /**
+         * The number of packets discarded by jitter buffer at the time of
+         * the last sample.
+         */
+        private long lastDiscarded = -1;
+
+        Leg(String name, Call call)
+        {
+            this.name = name;
+            this.call = call;
+
+            Metric[] metrics = Metric.values();
+
+            histograms = new Histogram[metrics.length];
+            globalHistograms = new Histogram[metrics.length];
+            for (Metric metric : metrics)
+            {
+                histograms[metric.ordinal()] = new Histogram(metric.bounds);
+                globalHistograms[metric.ordinal()]
+                    = Statistics.getHistogram(
+                            name + "_" + metric.name, metric.bounds);
+            }
+        }
+
+        void sample()
+        {
+            Iterator<? extends CallPeer> peers = call.getCallPeers();
+            if (!peers.hasNext())
+                return;
+
+            MediaStream stream
+                = Util.getPeerMediaStream(peers.next(), MediaType.AUDIO);
+            if (stream == null || !stream.isStarted())
+                return;
+
+            MediaStreamStats stats = stream.getMediaStreamStats();
+
+            stats.updateStats();
+
+            record(Metric.LOSS,
+                   Math.round(stats.getDownloadPercentLoss() * 10));
+            record(Metric.JITTER, Math.round(stats.getDownloadJitterMs()));
+            record(Metric.BITRATE,
+                   Math.round(stats.getDownloadRateKiloBitPerSec()));
+            record(Metric.JITTER_BUFFER_DELAY, stats.getJitterBufferDelayMs());
+
+            long rtt = stats.getRttMs();
+            if (rtt >= 0)
+                record(Metric.RTT, rtt);
+
+            long discarded = stats.getNbDiscarded();
+            if (lastDiscarded >= 0)
+                record(Metric.CONCEALED, discarded - lastDiscarded);
+            lastDiscarded = discarded;
+        }
+
+        private void record(Metric metric, long value)
+        {
+            histograms[metric.ordinal()].record(value);
+            globalHistograms[metric.ordinal()].record(value);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Jitsi Videobridge, OpenSource video conferencing.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package org.jitsi.jigasi.stats;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Instance wide statistics of the gateway. Holds named counters which are
+ * updated by the sessions and can be read as a single snapshot, for example
+ * by the call control component which exposes them over XMPP.
+ */
+public class Statistics
+{
+    /**
+     * The name of the element used to query for statistics over XMPP.
+     */
+    public static final String ELEMENT_NAME = "stats";
+
+    /**
+     * The namespace of the element used to query for statistics over XMPP.
+     */
+    public static final String NAMESPACE = "http://jitsi.org/protocol/colibri";
+
+    /**
+     * The name of the counter of RTP packets received on JVB legs which have
+     * not been decoded, because they did not belong to the loudest speakers.
+     */
+    public static final String TOTAL_PACKETS_NOT_DECODED
+        = "total_packets_not_decoded";
+
+    /**
+     * The name of the counter of silent RTP packets which have not been sent.
+     */
+    public static final String TOTAL_PACKETS_SUPPRESSED
+        = "total_packets_suppressed";
+
+    /**
+     * The name of the counter of log records dropped, because the queue of
+     * asynchronous logging was full.
+     */
+    public static final String TOTAL_LOG_RECORDS_DROPPED
+        = "total_log_records_dropped";
+
+    /**
+     * The name of the counter of repeated log records suppressed by rate
+     * limiting.
+     */
+    public static final String TOTAL_LOG_RECORDS_SUPPRESSED
+        = "total_log_records_suppressed";
+
+    /**
+     * The name of the counter of MUC member presence events handled by JVB
+     * conferences.
+     */
+    public static final String TOTAL_PRESENCE_EVENTS
+        = "total_presence_events";
+
+    /**
+     * The name of the histogram of the time (in us) spent handling single
+     * member presence event.
+     */
+    public static final String PRESENCE_HANDLING_TIME
+        = "presence_handling_time";
+
+    /**
+     * Named counters.
+     */
+    private static final ConcurrentMap<String, AtomicLong> counters
+        = new ConcurrentHashMap<String, AtomicLong>();
+
+    /**
+     * Named histograms.
+     */
+    private static final ConcurrentMap<String, Histogram> histograms
+        = new ConcurrentHashMap<String, Histogram>();
+
+    /**
+     * Returns the counter registered under given <tt>name</tt> creating new
+     * one if necessary.
+     */
+    private static AtomicLong getCounter(String name)
+    {
+        AtomicLong counter = counters.get(name);
+
+        if (counter == null)
+        {
+            AtomicLong newCounter = new AtomicLong();
+
+            counter = counters.putIfAbsent(name, newCounter);
+            if (counter == null)
+                counter = newCounter;
+        }
+        return counter;
+    }
+
+    /**
+     * Adds given <tt>delta</tt> to the counter with given <tt>name</tt>.
+     * @param name the name of the counter to be updated.
+     * @param delta the value to be added to the counter.
+     */
+    public static void add(String name, long delta)
+    {
+        getCounter(name).addAndGet(delta);
+    }
+
+    /**
+     * Increments the counter with given <tt>name</tt> by one.
+     * @param name the name of the counter to be incremented.
+     */
+    public static void increment(String name)
+    {
+        getCounter(name).incrementAndGet();
+    }
+
+    /**
+     * Sets the value of the statistic with given <tt>name</tt>.
+     * @param name the name of the statistic to be set.
+     * @param value new value of the statistic.
+     */
+    public static void set(String name, long value)
+    {
+        getCounter(name).set(value);
+    }
+
+    /**
+     * Returns current value of the statistic with given <tt>name</tt> or
+     * <tt>0</tt> if it has never been updated.
+     */
+    public static long get(String name)
+    {
+        AtomicLong counter = counters.get(name);
+
+        return counter != null ? counter.get() : 0;
+    }
+
+    /**
+     * Returns the histogram registered under given <tt>name</tt> creating
+     * new one with given buckets if necessary.
+     *
+     * @param name the name of the histogram.
+     * @param bounds upper bounds of histogram buckets.
+     */
+    public static Histogram getHistogram(String name, long[] bounds)
+    {
+        Histogram histogram = histograms.get(name);
+
+        if (histogram == null)
+        {
+            Histogram newHistogram = new Histogram(bounds);
+
+            histogram = histograms.putIfAbsent(name, newHistogram);
+            if (histogram == null)
+                histogram = newHistogram;
+        }
+        return histogram;
+    }
+
+    /**
+     * Returns the snapshot of all statistics sorted by their names.
+     * Histograms are summarized by their count, mean, median, 95th percentile
+     * and maximum.
+     */
+    public static Map<String, Long> getSnapshot()
+    {
+        Map<String, Long> snapshot = new TreeMap<String, Long>();
+
+        for (Map.Entry<String, AtomicLong> entry : counters.entrySet())
+        {
+            snapshot.put(entry.getKey(), entry.getValue().get());
+        }
+        for (Map.Entry<String, Histogram> entry : histograms.entrySet())
+        {
+            entry.getValue().addTo(entry.getKey(), snapshot);
+        }
+        return snapshot;
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * Jitsi Videobridge, OpenSource video conferencing.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package org.jitsi.jigasi.util;
+
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+
+/**
+ * Bounded lock-free queue of log records written by any thread and consumed
+ * by single writer thread, which formats the records and passes them to the
+ * logging framework.
+ * <p>
+ * Each slot of the ring carries a sequence number which tells producers
+ * whether the slot is free and the consumer whether it has been filled, so
+ * that neither side ever takes a lock.
+ */
+class AsyncLogQueue
+    implements Runnable
+{
+    /**
+     * How long the writer thread sleeps when the queue is empty, unless woken
+     * up by new record.
+     */
+    private static final long IDLE_WAIT_NANOS = 100L * 1000L * 1000L;
+
+    /**
+     * How long (in ms) {@link #stop()} waits for the writer thread to exit.
+     */
+    private static final long STOP_TIMEOUT = 1000;
+
+    /**
+     * The records of the ring.
+     */
+    private final AtomicReferenceArray<SessionLogger.Record> records;
+
+    /**
+     * Sequence numbers of ring slots. The slot is free for the record with
+     * sequence equal to its value and holds the record with sequence one less
+     * than its value.
+     */
+    private final AtomicLongArray sequences;
+
+    /**
+     * The number of slots minus one.
+     */
+    private final int mask;
+
+    /**
+     * The sequence of the next record offered.
+     */
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * The sequence of the next record polled, used by the consumer only.
+     */
+    private long head;
+
+    /**
+     * Whether the writer thread is about to sleep.
+     */
+    private volatile boolean idle;
+
+    /**
+     * Whether the writer thread has been asked to exit.
+     */
+    private volatile boolean stopped;
+
+    /**
+     * The writer thread.
+     */
+    private Thread thread;
+
+    /**
+     * Creates new queue.
+     *
+     * @param capacity the capacity of the queue rounded up to the power of
+     *                 two.
+     */
+    AsyncLogQueue(int capacity)
+    {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+
+        records = new AtomicReferenceArray<SessionLogger.Record>(size);
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++)
+        {
+            sequences.set(i, i);
+        }
+        mask = size - 1;
+    }
+
+    /**
+     * Returns the number of records this queue can hold.
+     */
+    int getCapacity()
+    {
+        return mask + 1;
+    }
+
+    /**
+     * Starts the writer thread.
+     */
+    synchronized void start()
+    {
+        if (thread != null || stopped)
+            return;
+
+        thread = new Thread(this, "AsyncLogWriter");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops the writer thread and writes the records left in the queue.
+     */
+    void stop()
+    {
+        Thread thread;
+
+        synchronized (this)
+        {
+            stopped = true;
+            thread = this.thread;
+        }
+
+        if (thread != null)
+        {
+            LockSupport.unpark(thread);
+            try
+            {
+                thread.join(STOP_TIMEOUT);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        drain();
+    }
+
+    /**
+     * Returns the writer thread or <tt>null</tt> if it has not been started.
+     */
+    synchronized Thread getThread()
+    {
+        return thread;
+    }
+
+    /**
+     * Adds the record to the queue.
+     *
+     * @return <tt>false</tt> if the queue is full.
+     */
+    boolean offer(SessionLogger.Record record)
+    {
+        long pos = tail.get();
+
+        while (true)
+        {
+            int index = (int) (pos & mask);
+            long diff = sequences.get(index) - pos;
+
+            if (diff == 0)
+            {
+                if (tail.compareAndSet(pos, pos + 1))
+                {
+                    records.set(index, record);
+                    sequences.set(index, pos + 1);
+                    break;
+                }
+            }
+            else if (diff < 0)
+            {
+                return false;
+            }
+            pos = tail.get();
+        }
+
+        if (idle)
+        {
+            Thread thread = this.thread;
+            if (thread != null)
+                LockSupport.unpark(thread);
+        }
+        return true;
+    }
+
+    /**
+     * Removes the oldest record from the queue. Must be called by one thread
+     * at a time.
+     *
+     * @return the oldest record or <tt>null</tt> if the queue is empty.
+     */
+    SessionLogger.Record poll()
+    {
+        int index = (int) (head & mask);
+
+        if (sequences.get(index) != head + 1)
+            return null;
+
+        SessionLogger.Record record = records.get(index);
+
+        records.set(index, null);
+        sequences.set(index, head + mask + 1);
+        head++;
+
+        return record;
+    }
+
+    /**
+     * Writes all records currently in the queue. Must be called by one thread
+     * at a time.
+     *
+     * @return the number of records written.
+     */
+    synchronized int drain()
+    {
+        int count = 0;
+        SessionLogger.Record record;
+
+        while ((record = poll()) != null)
+        {
+            record.write();
+            count++;
+        }
+        return count;
+    }
+
+    @Override
+    public void run()
+    {
+        while (!stopped)
+        {
+            if (drain() > 0)
+                continue;
+
+            idle = true;
+            // Check again, the record could have been added before the flag
+            // was seen by its producer.
+            if (drain() == 0)
+                LockSupport.parkNanos(this, IDLE_WAIT_NANOS);
+            idle = false;
+        }
+    }
+}
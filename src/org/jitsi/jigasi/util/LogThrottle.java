@@ -0,0 +1,64 @@
+/*
+ * Jitsi Videobridge, OpenSource video conferencing.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package org.jitsi.jigasi.util;
+
+import java.util.concurrent.atomic.*;
+
+/**
+ * Limits the rate of repeated log message. Up to given number of records
+ * pass every second and only every n-th record is sampled above that
+ * limit. The number of records suppressed in between is reported with the
+ * next record which passes.
+ */
+class LogThrottle
+{
+    /**
+     * The length of rate limiting window in milliseconds.
+     */
+    static final long WINDOW = 1000;
+
+    /**
+     * The start of current window.
+     */
+    private final AtomicLong windowStart = new AtomicLong();
+
+    /**
+     * The number of records in current window.
+     */
+    private final AtomicInteger count = new AtomicInteger();
+
+    /**
+     * The number of records suppressed since the last one passed.
+     */
+    private final AtomicInteger suppressed = new AtomicInteger();
+
+    /**
+     * Checks whether the record should be written.
+     *
+     * @param now current time in milliseconds.
+     * @param limit the number of records passed in every window.
+     * @param sampleRate every how many records one is passed above the limit,
+     *                   <tt>0</tt> to suppress all of them.
+     * @return the number of records suppressed since the last one passed or
+     *         <tt>-1</tt> if the record should be suppressed.
+     */
+    int acquire(long now, int limit, int sampleRate)
+    {
+        long start = windowStart.get();
+
+        if (now - start >= WINDOW && windowStart.compareAndSet(start, now))
+            count.set(0);
+
+        int n = count.incrementAndGet();
+
+        if (n <= limit || (sampleRate > 0 && (n - limit) % sampleRate == 0))
+            return suppressed.getAndSet(0);
+
+        suppressed.incrementAndGet();
+        return -1;
+    }
+}
@@ -0,0 +1,442 @@
+/*
+ * Jitsi Videobridge, OpenSource video conferencing.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package org.jitsi.jigasi.util;
+
+import net.java.sip.communicator.util.*;
+import org.jitsi.jigasi.stats.*;
+import org.jitsi.service.configuration.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Logger for signaling hot paths which moves message formatting and writing
+ * off the calling thread and limits the rate of repeated messages.
+ * <p>
+ * Messages are templates with <tt>{}</tt> placeholders replaced with the
+ * arguments by the writer thread, so the arguments should not change after
+ * they are logged. The last argument is logged as the cause if it is a
+ * <tt>Throwable</tt>. Context of the session like the call resource or the
+ * room name is set once and prefixed to every message of the logger.
+ * <p>
+ * If {@link #P_NAME_LOG_RATE_LIMIT} is set, trace, debug and info messages
+ * are throttled per template: only that many of them are written every
+ * second and every {@link #P_NAME_LOG_SAMPLE_RATE}-th above that limit.
+ * Warnings and errors are never throttled nor dropped. Both asynchronous
+ * logging and throttling are disabled by default.
+ */
+public class SessionLogger
+{
+    /**
+     * The name of the property which enables asynchronous logging.
+     */
+    public static final String P_NAME_ASYNC_LOGGING
+        = "org.jitsi.jigasi.ASYNC_LOGGING";
+
+    /**
+     * The name of the property which holds the capacity of the queue of
+     * asynchronous logging.
+     */
+    public static final String P_NAME_LOG_QUEUE_SIZE
+        = "org.jitsi.jigasi.LOG_QUEUE_SIZE";
+
+    /**
+     * The name of the property which holds how many times per second the same
+     * message can be logged, <tt>0</tt> disables rate limiting.
+     */
+    public static final String P_NAME_LOG_RATE_LIMIT
+        = "org.jitsi.jigasi.LOG_RATE_LIMIT";
+
+    /**
+     * The name of the property which holds every how many messages above the
+     * rate limit one is logged, <tt>0</tt> suppresses all of them.
+     */
+    public static final String P_NAME_LOG_SAMPLE_RATE
+        = "org.jitsi.jigasi.LOG_SAMPLE_RATE";
+
+    /**
+     * Default capacity of the queue.
+     */
+    private static final int DEFAULT_QUEUE_SIZE = 4096;
+
+    /**
+     * Default rate limit, messages are not throttled.
+     */
+    private static final int DEFAULT_RATE_LIMIT = 0;
+
+    /**
+     * Default sample rate.
+     */
+    private static final int DEFAULT_SAMPLE_RATE = 100;
+
+    /**
+     * Log levels.
+     */
+    static final int TRACE = 0;
+    static final int DEBUG = 1;
+    static final int INFO = 2;
+    static final int WARN = 3;
+    static final int ERROR = 4;
+
+    /**
+     * The queue of asynchronous logging or <tt>null</tt> if messages are
+     * written by calling threads.
+     */
+    private static volatile AsyncLogQueue queue;
+
+    /**
+     * Current rate limit.
+     */
+    private static volatile int rateLimit = DEFAULT_RATE_LIMIT;
+
+    /**
+     * Current sample rate.
+     */
+    private static volatile int sampleRate = DEFAULT_SAMPLE_RATE;
+
+    /**
+     * Throttles of repeated messages by their templates.
+     */
+    private static final ConcurrentMap<String, LogThrottle> throttles
+        = new ConcurrentHashMap<String, LogThrottle>();
+
+    /**
+     * Configures logging and starts the writer thread if asynchronous
+     * logging is enabled.
+     *
+     * @param config the <tt>ConfigurationService</tt> with logging settings.
+     */
+    public static synchronized void configure(ConfigurationService config)
+    {
+        rateLimit
+            = config.getInt(P_NAME_LOG_RATE_LIMIT, DEFAULT_RATE_LIMIT);
+        sampleRate
+            = config.getInt(P_NAME_LOG_SAMPLE_RATE, DEFAULT_SAMPLE_RATE);
+
+        if (queue == null && config.getBoolean(P_NAME_ASYNC_LOGGING, false))
+        {
+            AsyncLogQueue newQueue
+                = new AsyncLogQueue(
+                        config.getInt(
+                            P_NAME_LOG_QUEUE_SIZE, DEFAULT_QUEUE_SIZE));
+
+            newQueue.start();
+            queue = newQueue;
+        }
+    }
+
+    /**
+     * Stops the writer thread, writes all queued messages and switches back
+     * to logging on calling threads.
+     */
+    public static synchronized void shutdown()
+    {
+        AsyncLogQueue queue = SessionLogger.queue;
+
+        if (queue != null)
+        {
+            SessionLogger.queue = null;
+            queue.stop();
+        }
+    }
+
+    /**
+     * The logger to which messages are written.
+     */
+    private final Logger logger;
+
+    /**
+     * The context values by their names.
+     */
+    private final Map<String, Object> context
+        = new LinkedHashMap<String, Object>();
+
+    /**
+     * The prefix built from the context.
+     */
+    private volatile String prefix = "";
+
+    /**
+     * Creates new <tt>SessionLogger</tt>.
+     *
+     * @param logger the logger to which messages are written.
+     */
+    public SessionLogger(Logger logger)
+    {
+        this.logger = logger;
+    }
+
+    /**
+     * Sets the value of the context prefixed to every message.
+     *
+     * @param name the name of the value, e.g. <tt>room</tt>.
+     * @param value the value or <tt>null</tt> to remove it from the context.
+     * @return this logger.
+     */
+    public SessionLogger setContext(String name, Object value)
+    {
+        synchronized (context)
+        {
+            if (value != null)
+                context.put(name, value);
+            else
+                context.remove(name);
+
+            StringBuilder sb = new StringBuilder();
+            for (Map.Entry<String, Object> e : context.entrySet())
+            {
+                sb.append(sb.length() == 0 ? "[" : " ")
+                    .append(e.getKey()).append('=').append(e.getValue());
+            }
+            if (sb.length() > 0)
+                sb.append("] ");
+
+            prefix = sb.toString();
+        }
+        return this;
+    }
+
+    /**
+     * Returns the prefix built from the context of this logger.
+     */
+    public String getContext()
+    {
+        return prefix;
+    }
+
+    /**
+     * Checks whether debug messages are logged.
+     */
+    public boolean isDebugEnabled()
+    {
+        return logger.isDebugEnabled();
+    }
+
+    /**
+     * Checks whether info messages are logged.
+     */
+    public boolean isInfoEnabled()
+    {
+        return logger.isInfoEnabled();
+    }
+
+    /**
+     * Logs a trace message.
+     *
+     * @param message the message template.
+     * @param args the arguments of the template.
+     */
+    public void trace(String message, Object... args)
+    {
+        if (logger.isTraceEnabled())
+            log(TRACE, message, args);
+    }
+
+    /**
+     * Logs a debug message.
+     *
+     * @param message the message template.
+     * @param args the arguments of the template.
+     */
+    public void debug(String message, Object... args)
+    {
+        if (logger.isDebugEnabled())
+            log(DEBUG, message, args);
+    }
+
+    /**
+     * Logs an info message.
+     *
+     * @param message the message template.
+     * @param args the arguments of the template.
+     */
+    public void info(String message, Object... args)
+    {
+        if (logger.isInfoEnabled())
+            log(INFO, message, args);
+    }
+
+    /**
+     * Logs a warning message.
+     *
+     * @param message the message template.
+     * @param args the arguments of the template.
+     */
+    public void warn(String message, Object... args)
+    {
+        log(WARN, message, args);
+    }
+
+    /**
+     * Logs an error message.
+     *
+     * @param message the message template.
+     * @param args the arguments of the template.
+     */
+    public void error(String message, Object... args)
+    {
+        log(ERROR, message, args);
+    }
+
+    /**
+     * Throttles and queues the message.
+     */
+    private void log(int level, String message, Object[] args)
+    {
+        int suppressed = 0;
+
+        if (level < WARN && rateLimit > 0)
+        {
+            suppressed = getThrottle(message).acquire(
+                System.currentTimeMillis(), rateLimit, sampleRate);
+
+            if (suppressed < 0)
+            {
+                Statistics.increment(Statistics.TOTAL_LOG_RECORDS_SUPPRESSED);
+                return;
+            }
+        }
+
+        Record record
+            = new Record(logger, level, prefix, message, args, suppressed);
+
+        AsyncLogQueue queue = SessionLogger.queue;
+        if (queue == null)
+        {
+            record.write();
+        }
+        else if (!queue.offer(record))
+        {
+            if (level >= WARN)
+                record.write();
+            else
+                Statistics.increment(Statistics.TOTAL_LOG_RECORDS_DROPPED);
+        }
+    }
+
+    /**
+     * Returns the throttle of given message template.
+     */
+    private static LogThrottle getThrottle(String message)
+    {
+        LogThrottle throttle = throttles.get(message);
+
+        if (throttle == null)
+        {
+            LogThrottle newThrottle = new LogThrottle();
+
+            throttle = throttles.putIfAbsent(message, newThrottle);
+            if (throttle == null)
+                throttle = newThrottle;
+        }
+        return throttle;
+    }
+
+    /**
+     * Replaces <tt>{}</tt> placeholders of the template with the arguments.
+     *
+     * @param message the template.
+     * @param args the arguments, the last one is skipped if it is
+     *             <tt>Throwable</tt>.
+     * @return formatted message.
+     */
+    static String format(String message, Object[] args)
+    {
+        int count = args.length;
+        if (count > 0 && args[count - 1] instanceof Throwable)
+            count--;
+
+        if (count == 0)
+            return message;
+
+        StringBuilder sb = new StringBuilder(message.length() + 32 * count);
+        int start = 0;
+
+        for (int i = 0; i < count; i++)
+        {
+            int end = message.indexOf("{}", start);
+            if (end < 0)
+                break;
+
+            sb.append(message, start, end).append(args[i]);
+            start = end + 2;
+        }
+        sb.append(message, start, message.length());
+
+        return sb.toString();
+    }
+
+    /**
+     * Single log message waiting in the queue.
+     */
+    static class Record
+    {
+        private final Logger logger;
+
+        private final int level;
+
+        private final String prefix;
+
+        private final String message;
+
+        private final Object[] args;
+
+        private final int suppressed;
+
+        Record(Logger logger, int level, String prefix,
+               String message, Object[] args, int suppressed)
+        {
+            this.logger = logger;
+            this.level = level;
+            this.prefix = prefix;
+            this.message = message;
+            this.args = args;
+            this.suppressed = suppressed;
+        }
+
+        /**
+         * Returns the arguments of the message.
+         */
+        Object[] getArgs()
+        {
+            return args;
+        }
+
+        /**
+         * Formats the message and passes it to the logger.
+         */
+        void write()
+        {
+            String text = prefix + format(message, args);
+            if (suppressed > 0)
+                text += " (" + suppressed + " similar suppressed)";
+
+            Throwable cause
+                = args.length > 0 && args[args.length - 1] instanceof Throwable
+                    ? (Throwable) args[args.length - 1] : null;
+
+            switch (level)
+            {
+            case TRACE:
+                logger.trace(text, cause);
+                break;
+            case DEBUG:
+                logger.debug(text, cause);
+                break;
+            case INFO:
+                logger.info(text, cause);
+                break;
+            case WARN:
+                logger.warn(text, cause);
+                break;
+            default:
+                logger.error(text, cause);
+                break;
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Jitsi Videobridge, OpenSource video conferencing.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package org.jitsi.jigasi.xmpp;
+
+import org.jitsi.service.configuration.*;
+import org.xmpp.packet.*;
+
+import java.util.*;
+
+/**
+ * The JIDs allowed to send administrative commands to the call control
+ * component, like dumping packet capture, hanging up whole rooms or reading
+ * the statistics of single requesters. An entry is either a bare JID or
+ * a domain, which admits every JID of that domain. Nobody is admin unless
+ * the list is configured.
+ */
+public class AdminList
+{
+    /**
+     * The name of the property which holds comma separated bare JIDs and
+     * domains of the admins.
+     */
+    public static final String P_NAME_ADMIN_JIDS
+        = "org.jitsi.jigasi.ADMIN_JIDS";
+
+    /**
+     * The bare JIDs of the admins in lower case.
+     */
+    private final Set<String> jids = new HashSet<String>();
+
+    /**
+     * The domains of the admins in lower case.
+     */
+    private final Set<String> domains = new HashSet<String>();
+
+    /**
+     * Creates new <tt>AdminList</tt> configured by given configuration.
+     *
+     * @param config the <tt>ConfigurationService</tt>.
+     */
+    public static AdminList create(ConfigurationService config)
+    {
+        return new AdminList(config.getString(P_NAME_ADMIN_JIDS));
+    }
+
+    /**
+     * Creates new <tt>AdminList</tt>.
+     *
+     * @param admins comma separated bare JIDs and domains of the admins or
+     *               <tt>null</tt>.
+     */
+    public AdminList(String admins)
+    {
+        if (admins == null)
+            return;
+
+        for (String admin : admins.split(","))
+        {
+            admin = admin.trim().toLowerCase();
+
+            if (admin.length() == 0)
+                continue;
+
+            if (admin.indexOf('@') != -1)
+                jids.add(admin);
+            else
+                domains.add(admin);
+        }
+    }
+
+    /**
+     * Checks whether given JID is an admin.
+     *
+     * @param jid the address of the requester.
+     * @return <tt>true</tt> if the bare JID or the domain of <tt>jid</tt> is
+     *         on the list.
+     */
+    public boolean isAdmin(JID jid)
+    {
+        if (jid == null || jid.getDomain() == null)
+            return false;
+
+        // Domain JIDs are admins only if the domain is listed
+        if (jid.getNode() != null
+            && jids.contains(jid.toBareJID().toLowerCase()))
+        {
+            return true;
+        }
+        return domains.contains(jid.getDomain().toLowerCase());
+    }
+}
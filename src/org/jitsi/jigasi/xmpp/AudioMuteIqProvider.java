@@ -0,0 +1,205 @@
+/*
+ * Jitsi Videobridge, OpenSource video conferencing.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package org.jitsi.jigasi.xmpp;
+
+import org.jitsi.util.*;
+import org.jivesoftware.smack.packet.*;
+import org.jivesoftware.smack.provider.*;
+import org.xmlpull.v1.*;
+
+/**
+ * Parses audio mute requests sent to conference participants by
+ * the moderators of Jitsi Meet conference, for example:
+ * <pre>
+ * &lt;mute xmlns='http://jitsi.org/jitmeet/audio' jid='room@muc/nick'&gt;
+ *     true
+ * &lt;/mute&gt;
+ * </pre>
+ */
+public class AudioMuteIqProvider
+    implements IQProvider
+{
+    /**
+     * The namespace of audio mute IQ and presence extension.
+     */
+    public static final String NAMESPACE = "http://jitsi.org/jitmeet/audio";
+
+    /**
+     * Registers this provider in given <tt>ProviderManager</tt>.
+     * @param providerManager the <tt>ProviderManager</tt> to which this
+     *                        provider will be added.
+     */
+    public void registerMuteIQs(ProviderManager providerManager)
+    {
+        providerManager.addIQProvider(
+            MuteIq.ELEMENT_NAME, NAMESPACE, this);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IQ parseIQ(XmlPullParser parser)
+        throws Exception
+    {
+        if (!NAMESPACE.equals(parser.getNamespace())
+            || !MuteIq.ELEMENT_NAME.equals(parser.getName()))
+        {
+            return null;
+        }
+
+        MuteIq iq = new MuteIq();
+
+        iq.setJid(parser.getAttributeValue("", MuteIq.JID_ATTR_NAME));
+
+        String text = parser.nextText();
+        if (!StringUtils.isNullOrEmpty(text))
+        {
+            iq.setMute(Boolean.valueOf(text.trim()));
+        }
+
+        return iq;
+    }
+
+    /**
+     * Audio mute request.
+     */
+    public static class MuteIq
+        extends IQ
+    {
+        /**
+         * The name of mute IQ element.
+         */
+        public static final String ELEMENT_NAME = "mute";
+
+        /**
+         * The name of the attribute which holds the address of participant to
+         * be muted.
+         */
+        public static final String JID_ATTR_NAME = "jid";
+
+        /**
+         * The address of participant to be muted.
+         */
+        private String jid;
+
+        /**
+         * <tt>true</tt> to mute, <tt>false</tt> to unmute or <tt>null</tt>
+         * if not specified.
+         */
+        private Boolean mute;
+
+        /**
+         * Returns the address of participant to be muted.
+         */
+        public String getJid()
+        {
+            return jid;
+        }
+
+        /**
+         * Sets the address of participant to be muted.
+         */
+        public void setJid(String jid)
+        {
+            this.jid = jid;
+        }
+
+        /**
+         * Returns <tt>true</tt> to mute, <tt>false</tt> to unmute or
+         * <tt>null</tt> if not specified.
+         */
+        public Boolean getMute()
+        {
+            return mute;
+        }
+
+        /**
+         * Sets whether the participant is to be muted.
+         */
+        public void setMute(Boolean mute)
+        {
+            this.mute = mute;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String getChildElementXML()
+        {
+            StringBuilder xml = new StringBuilder();
+
+            xml.append('<').append(ELEMENT_NAME)
+                .append(" xmlns='").append(NAMESPACE).append('\'');
+
+            if (jid != null)
+            {
+                xml.append(' ').append(JID_ATTR_NAME)
+                    .append("='").append(jid).append('\'');
+            }
+
+            if (mute != null)
+            {
+                xml.append('>').append(mute)
+                    .append("</").append(ELEMENT_NAME).append('>');
+            }
+            else
+            {
+                xml.append("/>");
+            }
+
+            return xml.toString();
+        }
+    }
+
+    /**
+     * Presence extension which advertises audio mute state of
+     * the participant.
+     */
+    public static class AudioMutedExtension
+        implements PacketExtension
+    {
+        /**
+         * The name of the extension element.
+         */
+        public static final String ELEMENT_NAME = "audiomuted";
+
+        /**
+         * Whether the participant is muted.
+         */
+        private final boolean muted;
+
+        /**
+         * Creates new <tt>AudioMutedExtension</tt>.
+         * @param muted whether the participant is muted.
+         */
+        public AudioMutedExtension(boolean muted)
+        {
+            this.muted = muted;
+        }
+
+        @Override
+        public String getElementName()
+        {
+            return ELEMENT_NAME;
+        }
+
+        @Override
+        public String getNamespace()
+        {
+            return NAMESPACE;
+        }
+
+        @Override
+        public String toXML()
+        {
+            return "<" + ELEMENT_NAME + " xmlns='" + NAMESPACE + "'>"
+                + muted + "</" + ELEMENT_NAME + ">";
+        }
+    }
+}
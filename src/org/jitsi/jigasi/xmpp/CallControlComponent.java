@@ -10,10 +10,20 @@ import net.java.sip.communicator.impl.protocol.jabber.extensions.rayo.*;
 import net.java.sip.communicator.util.*;
 import org.dom4j.*;
 import org.jitsi.jigasi.*;
+import org.jitsi.jigasi.packetlogging.*;
+import org.jitsi.jigasi.stats.*;
 import org.osgi.framework.*;
 import org.xmpp.component.*;
 import org.xmpp.packet.IQ;
+import org.xmpp.packet.JID;
 import org.xmpp.packet.Message;
+import org.xmpp.packet.PacketError;
+import org.xmpp.packet.Presence;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 
 /**
  * Experimental implementation of call control component that is capable of
@@ -32,11 +42,58 @@ public class CallControlComponent
     private final static Logger logger
         = Logger.getLogger(CallControlComponent.class);
 
+    /**
+     * The namespace of Jigasi specific commands.
+     */
+    public static final String NAMESPACE = "http://jitsi.org/protocol/jigasi";
+
+    /**
+     * The namespace of Rayo call events.
+     */
+    public static final String RAYO_NAMESPACE = "urn:xmpp:rayo:1";
+
     /**
      * Name of 'header' attribute that hold JVB room name.
      */
     public static final String ROOM_NAME_HEADER = "JvbRoomName";
 
+    /**
+     * Name of 'header' attribute that holds the key which identifies the dial
+     * request across retransmissions.
+     */
+    public static final String DIAL_KEY_HEADER = "JvbDialKey";
+
+    /**
+     * The name of the command which dials many destinations at once.
+     */
+    public static final String BATCH_DIAL_ELEMENT_NAME = "dial-batch";
+
+    /**
+     * The name of the attribute of batch dial command which tells whether
+     * the destinations share single JVB conference leg.
+     */
+    public static final String SHARED_JVB_LEG_ATTR_NAME = "shared-jvb-leg";
+
+    /**
+     * The name of the command which hangs up all calls in a room.
+     */
+    public static final String HANGUP_ROOM_ELEMENT_NAME = "hangup-room";
+
+    /**
+     * The maximum number of destinations in single batch dial request.
+     */
+    public static final int MAX_BATCH_SIZE = 200;
+
+    /**
+     * The name of Rayo command which mutes the call.
+     */
+    public static final String MUTE_ELEMENT_NAME = "mute";
+
+    /**
+     * The name of Rayo command which unmutes the call.
+     */
+    public static final String UNMUTE_ELEMENT_NAME = "unmute";
+
     /**
      * Name of the domain on which this component is currently running.
      */
@@ -47,6 +104,33 @@ public class CallControlComponent
      */
     private SipGateway gateway;
 
+    /**
+     * The last call ID generated, used to keep call resources unique.
+     */
+    private final AtomicLong lastCallId = new AtomicLong();
+
+    /**
+     * The addresses to which the events of batch dialed calls are sent, by
+     * call resources.
+     */
+    private final ConcurrentMap<String, JID> batchRequesters
+        = new ConcurrentHashMap<String, JID>();
+
+    /**
+     * Call resources of recent dial requests.
+     */
+    private DialRequestCache dialRequests;
+
+    /**
+     * Limits the rate of requests of each requester.
+     */
+    private RequestRateLimiter rateLimiter;
+
+    /**
+     * The JIDs allowed to send administrative commands.
+     */
+    private AdminList admins;
+
     /**
      * FIXME: temporary to be removed/fixed
      */
@@ -77,6 +161,19 @@ public class CallControlComponent
 
         gateway.setXmppServerName(
             domain.substring(domain.indexOf(".") + 1));
+
+        dialRequests
+            = new DialRequestCache(
+                    JigasiBundleActivator.getConfigurationservice().getInt(
+                        DialRequestCache.P_NAME_DIAL_REQUEST_CACHE_SIZE,
+                        DialRequestCache.DEFAULT_DIAL_REQUEST_CACHE_SIZE));
+
+        rateLimiter
+            = RequestRateLimiter.create(
+                    JigasiBundleActivator.getConfigurationservice());
+
+        admins
+            = AdminList.create(JigasiBundleActivator.getConfigurationservice());
     }
 
     /**
@@ -88,7 +185,7 @@ public class CallControlComponent
         return
             new String[]
                 {
-                    "http://jitsi.org/protocol/jigasi",
+                    NAMESPACE,
                     "urn:xmpp:rayo:0"
                 };
     }
@@ -106,26 +203,58 @@ public class CallControlComponent
     }
 
     /**
-     * Initializes new outgoing call.
+     * Initializes new outgoing call unless the same request has already
+     * started one.
+     * @param requestKey the key of the dial request.
      * @param roomName the name of the MUC room that holds JVB conference call.
      * @param from source address(optional)
      * @param to destination call address/URI.
-     * @return the call resource string that will identify newly created call.
+     * @return the call resource string that identifies the call.
      */
-    String initNewCall(String roomName, String from, String to)
+    private String initNewCall(String requestKey,
+                               String roomName, String from, String to)
     {
         String callResource = generateNextCallResource();
 
-        gateway.createOutgoingCall(to, roomName, callResource);
+        String existing = dialRequests.putIfAbsent(requestKey, callResource);
+        if (existing != null)
+        {
+            Statistics.increment(
+                DialRequestCache.TOTAL_DUPLICATE_DIAL_REQUESTS);
+
+            logger.info(
+                "Duplicate dial request " + requestKey + " -> " + existing);
+
+            return existing;
+        }
+
+        try
+        {
+            gateway.createOutgoingCall(to, roomName, callResource);
+        }
+        catch (RuntimeException e)
+        {
+            dialRequests.remove(requestKey);
+            throw e;
+        }
 
         return callResource;
     }
 
     private String generateNextCallResource()
     {
-        //FIXME: fix resource generation and check if created resource
-        // is already taken
-        return Long.toHexString(System.currentTimeMillis()) + "@" + domain;
+        // Time based, but never the same for calls started in the same ms
+        long now = System.currentTimeMillis();
+        long last;
+        long callId;
+        do
+        {
+            last = lastCallId.get();
+            callId = Math.max(now, last + 1);
+        }
+        while (!lastCallId.compareAndSet(last, callId));
+
+        return Long.toHexString(callId) + "@" + domain;
     }
 
     /**
@@ -145,8 +274,45 @@ public class CallControlComponent
     public IQ handleIQSet(IQ iq)
         throws Exception
     {
+        RequestRateLimiter rateLimiter = this.rateLimiter;
+        if (rateLimiter != null
+            && !rateLimiter.tryAcquire(iq.getFrom().toBareJID()))
+        {
+            logger.warn("Too many requests from " + iq.getFrom());
+
+            return createError(iq, PacketError.Condition.resource_constraint);
+        }
+
         try
         {
+            Element command = iq.getChildElement();
+            if (command != null
+                && RayoIqProvider.NAMESPACE.equals(command.getNamespaceURI())
+                && (MUTE_ELEMENT_NAME.equals(command.getName())
+                    || UNMUTE_ELEMENT_NAME.equals(command.getName())))
+            {
+                return handleMuteCommand(
+                    iq, MUTE_ELEMENT_NAME.equals(command.getName()));
+            }
+            else if (command != null
+                && PacketCapture.NAMESPACE.equals(command.getNamespaceURI())
+                && PacketCapture.ELEMENT_NAME.equals(command.getName()))
+            {
+                return handleDumpCapture(iq);
+            }
+            else if (command != null
+                && NAMESPACE.equals(command.getNamespaceURI())
+                && BATCH_DIAL_ELEMENT_NAME.equals(command.getName()))
+            {
+                return handleBatchDial(iq, command);
+            }
+            else if (command != null
+                && NAMESPACE.equals(command.getNamespaceURI())
+                && HANGUP_ROOM_ELEMENT_NAME.equals(command.getName()))
+            {
+                return handleHangUpRoom(iq, command);
+            }
+
             org.jivesoftware.smack.packet.IQ smackIq = IQUtils.convert(iq);
 
             if (smackIq instanceof RayoIqProvider.DialIq)
@@ -164,7 +330,14 @@ public class CallControlComponent
                     "Got dial request " + from + " -> " + to
                     + " room: " + roomName);
 
-                String callResource = initNewCall(roomName, from, to);
+                String requestKey
+                    = DialRequestCache.getKey(
+                            iq.getFrom().toString(),
+                            dialIq.getHeader(DIAL_KEY_HEADER),
+                            iq.getID());
+
+                String callResource
+                    = initNewCall(requestKey, roomName, from, to);
 
                 callResource = "xmpp:" + callResource;
 
@@ -208,9 +381,488 @@ public class CallControlComponent
         }
     }
 
+    /**
+     * Handles Rayo mute and unmute commands addressed to the call resource.
+     *
+     * @param iq the command IQ.
+     * @param mute <tt>true</tt> to mute the call or <tt>false</tt> to unmute.
+     * @return the result IQ.
+     */
+    private IQ handleMuteCommand(IQ iq, boolean mute)
+    {
+        String callResource = iq.getTo().toString();
+
+        GatewaySession session = gateway.getSession(callResource);
+
+        if (session == null)
+            throw new RuntimeException("No gateway for call: " + callResource);
+
+        session.setMuted(mute);
+
+        return IQ.createResultIQ(iq);
+    }
+
+    /**
+     * Dials all destinations of batch dial request. The destinations share
+     * single JVB conference leg if the <tt>shared-jvb-leg</tt> attribute of
+     * the command says so, the shared JVB leg setting is used if it is
+     * missing. Each destination costs the requester a request token. The
+     * result holds the call resource of every destination, or an error for
+     * the destinations which have failed recently, and the events of the
+     * calls are sent to the requester as they arrive. A retransmitted
+     * request is answered with the same result without dialing again.
+     *
+     * @param iq the command IQ.
+     * @param command the <tt>dial-batch</tt> element.
+     * @return the result IQ with one ref for each destination.
+     */
+    private IQ handleBatchDial(IQ iq, Element command)
+    {
+        String roomName = null;
+        String dialKey = null;
+        for (Object header : command.elements("header"))
+        {
+            Element headerElement = (Element) header;
+            String name = headerElement.attributeValue("name");
+
+            if (ROOM_NAME_HEADER.equals(name))
+                roomName = headerElement.attributeValue("value");
+            else if (DIAL_KEY_HEADER.equals(name))
+                dialKey = headerElement.attributeValue("value");
+        }
+        if (roomName == null || roomName.length() == 0)
+            throw new RuntimeException("No JvbRoomName header found");
+
+        String shared = command.attributeValue(SHARED_JVB_LEG_ATTR_NAME);
+        boolean shareJvbLeg
+            = shared != null
+                ? Boolean.parseBoolean(shared) : SipGateway.isSharedJvbLeg();
+
+        List<String> destinations = new ArrayList<String>();
+        for (Object dial : command.elements("dial"))
+        {
+            String to = ((Element) dial).attributeValue("to");
+
+            if (to == null || to.length() == 0)
+                throw new RuntimeException("No destination of dial");
+
+            destinations.add(to);
+        }
+        if (destinations.isEmpty() || destinations.size() > MAX_BATCH_SIZE)
+        {
+            throw new RuntimeException(
+                "Expected 1 to " + MAX_BATCH_SIZE + " destinations, got "
+                    + destinations.size());
+        }
+
+        logger.info(
+            "Got batch dial request of " + destinations.size()
+                + " destinations from " + iq.getFrom() + " room: " + roomName);
+
+        List<String> callResources
+            = new ArrayList<String>(destinations.size());
+        for (int i = 0; i < destinations.size(); i++)
+        {
+            callResources.add(generateNextCallResource());
+        }
+
+        String requestKey
+            = DialRequestCache.getKey(
+                    iq.getFrom().toString(), dialKey, iq.getID());
+
+        String existing
+            = dialRequests.putIfAbsent(
+                    requestKey, joinCallResources(callResources));
+        if (existing != null)
+        {
+            Statistics.increment(
+                DialRequestCache.TOTAL_DUPLICATE_DIAL_REQUESTS);
+
+            logger.info("Duplicate batch dial request " + requestKey);
+
+            return createBatchDialResult(
+                iq, destinations, splitCallResources(existing));
+        }
+
+        // The request itself has already taken one token
+        RequestRateLimiter rateLimiter = this.rateLimiter;
+        if (rateLimiter != null
+            && !rateLimiter.tryAcquire(
+                    iq.getFrom().toBareJID(), destinations.size() - 1))
+        {
+            logger.warn(
+                "Too many destinations from " + iq.getFrom() + ": "
+                    + destinations.size());
+
+            dialRequests.remove(requestKey);
+
+            return createError(iq, PacketError.Condition.resource_constraint);
+        }
+
+        for (String callResource : callResources)
+            batchRequesters.put(callResource, iq.getFrom());
+
+        List<GatewaySession> sessions;
+        try
+        {
+            sessions
+                = gateway.createOutgoingCalls(
+                        destinations, roomName, callResources, shareJvbLeg);
+        }
+        catch (RuntimeException e)
+        {
+            for (String callResource : callResources)
+                batchRequesters.remove(callResource);
+
+            dialRequests.remove(requestKey);
+
+            throw e;
+        }
+
+        boolean refused = false;
+        for (int i = 0; i < sessions.size(); i++)
+        {
+            if (sessions.get(i) == null)
+            {
+                refused = true;
+
+                batchRequesters.remove(callResources.get(i));
+                callResources.set(i, null);
+            }
+        }
+        if (refused)
+            dialRequests.replace(requestKey, joinCallResources(callResources));
+
+        return createBatchDialResult(iq, destinations, callResources);
+    }
+
+    /**
+     * Creates the result of batch dial request.
+     *
+     * @param iq the command IQ.
+     * @param destinations the destinations of the batch.
+     * @param callResources the call resources of the destinations,
+     *                      <tt>null</tt> for those which have not been
+     *                      called.
+     * @return the result IQ with one ref for each destination.
+     */
+    private IQ createBatchDialResult(IQ iq, List<String> destinations,
+                                     List<String> callResources)
+    {
+        IQ result = IQ.createResultIQ(iq);
+        Element refs
+            = result.setChildElement(BATCH_DIAL_ELEMENT_NAME, NAMESPACE);
+        for (int i = 0; i < destinations.size(); i++)
+        {
+            Element ref
+                = refs.addElement("ref")
+                    .addAttribute("to", destinations.get(i));
+
+            String callResource
+                = i < callResources.size() ? callResources.get(i) : null;
+            if (callResource != null)
+            {
+                ref.addAttribute("uri", "xmpp:" + callResource);
+            }
+            else
+            {
+                ref.addAttribute(
+                    "error",
+                    PacketError.Condition.service_unavailable.toXMPP());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Joins the call resources of batch dial request for
+     * {@link DialRequestCache}, <tt>-</tt> stands for a destination which
+     * has not been called.
+     */
+    private static String joinCallResources(List<String> callResources)
+    {
+        StringBuilder joined = new StringBuilder();
+        for (String callResource : callResources)
+        {
+            if (joined.length() > 0)
+                joined.append(' ');
+
+            joined.append(callResource != null ? callResource : "-");
+        }
+        return joined.toString();
+    }
+
+    /**
+     * Splits the call resources joined by
+     * {@link #joinCallResources(List)}.
+     */
+    private static List<String> splitCallResources(String joined)
+    {
+        List<String> callResources = new ArrayList<String>();
+        for (String callResource : joined.split(" "))
+        {
+            callResources.add("-".equals(callResource) ? null : callResource);
+        }
+        return callResources;
+    }
+
+    /**
+     * Hangs up all calls in the room given in the command in parallel. Only
+     * admins can hang up rooms. The result with the number of sessions found
+     * is sent at once and the number of sessions hung up is sent to the
+     * requester in a <tt>hangup-room</tt> presence once they have been hung
+     * up or the timeout (in ms) given in the command has passed. The timeout
+     * is never longer than the configured one, which is also the default.
+     *
+     * @param iq the command IQ.
+     * @param command the <tt>hangup-room</tt> element.
+     * @return the result IQ with the number of sessions found.
+     */
+    private IQ handleHangUpRoom(IQ iq, Element command)
+    {
+        if (!isAdmin(iq))
+        {
+            logger.warn("Room hangup not allowed for " + iq.getFrom());
+
+            return createError(iq, PacketError.Condition.forbidden);
+        }
+
+        String roomName = command.attributeValue("room");
+        if (roomName == null || roomName.length() == 0)
+            return createError(iq, PacketError.Condition.bad_request);
+
+        long maxTimeout = RoomTeardown.getTimeout();
+        long timeout = maxTimeout;
+
+        String timeoutStr = command.attributeValue("timeout");
+        if (timeoutStr != null)
+        {
+            try
+            {
+                timeout = Math.min(maxTimeout, Long.parseLong(timeoutStr));
+            }
+            catch (NumberFormatException e)
+            {
+                timeout = -1;
+            }
+            if (timeout < 0)
+                return createError(iq, PacketError.Condition.bad_request);
+        }
+
+        logger.info(
+            "Got hangup request for room " + roomName + " from "
+                + iq.getFrom());
+
+        final JID requester = iq.getFrom();
+
+        int sessions
+            = gateway.getRoomTeardown().hangUpRoom(
+                roomName, timeout,
+                new RoomTeardown.Listener()
+                {
+                    @Override
+                    public void roomTornDown(String roomName,
+                                             RoomTeardown.Result result)
+                    {
+                        sendHangUpRoomResult(requester, roomName, result);
+                    }
+                });
+        if (sessions == -1)
+        {
+            logger.warn("Room is being torn down: " + roomName);
+
+            return createError(iq, PacketError.Condition.conflict);
+        }
+
+        IQ result = IQ.createResultIQ(iq);
+        result.setChildElement(HANGUP_ROOM_ELEMENT_NAME, NAMESPACE)
+            .addAttribute("room", roomName)
+            .addAttribute("sessions", String.valueOf(sessions));
+
+        return result;
+    }
+
+    /**
+     * Sends the result of room teardown to the requester of room hangup.
+     *
+     * @param requester the address of the requester.
+     * @param roomName the name of the room.
+     * @param result the result of the teardown.
+     */
+    private void sendHangUpRoomResult(JID requester, String roomName,
+                                      RoomTeardown.Result result)
+    {
+        Presence presence = new Presence();
+        presence.setFrom(new JID(domain));
+        presence.setTo(requester);
+        presence.getElement().addElement(HANGUP_ROOM_ELEMENT_NAME, NAMESPACE)
+            .addAttribute("room", roomName)
+            .addAttribute("sessions", String.valueOf(result.getSessions()))
+            .addAttribute(
+                "completed", String.valueOf(result.getCompleted()));
+
+        send(presence);
+    }
+
+    /**
+     * Sends Rayo event of the call to the requester of batch dial, if the
+     * call has been batch dialed.
+     *
+     * @param callResource the call resource of the call.
+     * @param eventName the name of Rayo event element.
+     * @param ended <tt>true</tt> if it is the last event of the call.
+     */
+    private void sendBatchCallEvent(String callResource, String eventName,
+                                    boolean ended)
+    {
+        JID requester
+            = ended
+                ? batchRequesters.remove(callResource)
+                : batchRequesters.get(callResource);
+        if (requester == null)
+            return;
+
+        Presence presence = new Presence();
+        presence.setFrom(new JID(callResource));
+        presence.setTo(requester);
+        presence.getElement().addElement(eventName, RAYO_NAMESPACE);
+
+        send(presence);
+    }
+
+    /**
+     * Checks whether the sender of given IQ is an admin.
+     */
+    private boolean isAdmin(IQ iq)
+    {
+        AdminList admins = this.admins;
+
+        return admins != null && admins.isAdmin(iq.getFrom());
+    }
+
+    /**
+     * Creates error response to given IQ.
+     *
+     * @param iq the request IQ.
+     * @param condition the error condition.
+     * @return the error IQ.
+     */
+    private static IQ createError(IQ iq, PacketError.Condition condition)
+    {
+        IQ error = IQ.createResultIQ(iq);
+        if (iq.getChildElement() != null)
+            error.setChildElement(iq.getChildElement().createCopy());
+        error.setError(condition);
+        return error;
+    }
+
+    /**
+     * Writes the content of packet capture buffer to a pcap file. Only
+     * admins can request the dump and each of them not more often than once
+     * a minute.
+     *
+     * @param iq the command IQ.
+     * @return the result IQ which holds the name of pcap file in the dump
+     *         directory.
+     * @throws IOException if writing the file fails.
+     */
+    private IQ handleDumpCapture(IQ iq)
+        throws IOException
+    {
+        if (!isAdmin(iq))
+        {
+            logger.warn("Capture dump not allowed for " + iq.getFrom());
+
+            return createError(iq, PacketError.Condition.forbidden);
+        }
+
+        PacketCapture capture
+            = ServiceUtils.getService(
+                    JigasiBundleActivator.osgiContext, PacketCapture.class);
+
+        if (capture == null)
+            throw new RuntimeException("Packet capture is not enabled");
+
+        File file = capture.dumpOnRequest(iq.getFrom().toBareJID());
+        if (file == null)
+            return createError(iq, PacketError.Condition.resource_constraint);
+
+        IQ result = IQ.createResultIQ(iq);
+        result.setChildElement(
+                PacketCapture.ELEMENT_NAME, PacketCapture.NAMESPACE)
+            .addAttribute("file", file.getName());
+
+        return result;
+    }
+
+    /**
+     * Handles an <tt>org.xmpp.packet.IQ</tt> stanza of type <tt>get</tt>.
+     * Answers statistics queries with current values of Jigasi counters.
+     * Only admins get the numbers of rejected requests of single requesters,
+     * as they reveal who is using the gateway.
+     *
+     * @param iq the <tt>org.xmpp.packet.IQ</tt> stanza of type <tt>get</tt>
+     * which represents the request to handle
+     * @return an <tt>org.xmpp.packet.IQ</tt> stanza which represents the
+     * response to the specified request or <tt>null</tt> to reply with
+     * <tt>feature-not-implemented</tt>
+     * @throws Exception to reply with <tt>internal-server-error</tt> to the
+     * specified request
+     * @see AbstractComponent#handleIQGet(IQ)
+     */
+    @Override
+    public IQ handleIQGet(IQ iq)
+        throws Exception
+    {
+        Element query = iq.getChildElement();
+        if (query != null
+            && Statistics.ELEMENT_NAME.equals(query.getName())
+            && Statistics.NAMESPACE.equals(query.getNamespaceURI()))
+        {
+            IQ result = IQ.createResultIQ(iq);
+            Element stats
+                = result.setChildElement(
+                        Statistics.ELEMENT_NAME, Statistics.NAMESPACE);
+
+            for (Map.Entry<String, Long> stat
+                    : Statistics.getSnapshot().entrySet())
+            {
+                stats.addElement("stat")
+                    .addAttribute("name", stat.getKey())
+                    .addAttribute("value", String.valueOf(stat.getValue()));
+            }
+
+            RequestRateLimiter rateLimiter = this.rateLimiter;
+            if (rateLimiter != null && isAdmin(iq))
+            {
+                for (Map.Entry<String, Long> rejection
+                        : rateLimiter.getRejections().entrySet())
+                {
+                    stats.addElement("stat")
+                        .addAttribute(
+                            "name",
+                            RequestRateLimiter.TOTAL_RAYO_REQUESTS_REJECTED
+                                + "_" + rejection.getKey())
+                        .addAttribute(
+                            "value", String.valueOf(rejection.getValue()));
+                }
+            }
+            return result;
+        }
+        return super.handleIQGet(iq);
+    }
+
+    @Override
+    public void callAnswered(SipGateway gateway, String callResource)
+    {
+        sendBatchCallEvent(callResource, "answered", false);
+    }
+
     @Override
     public void callEnded(SipGateway gateway, String callResource)
     {
+        sendBatchCallEvent(callResource, "end", true);
+
         // Send confirmation
         // FIXME: we've left the room already at this point
         /*EndExtension end = new EndExtension();
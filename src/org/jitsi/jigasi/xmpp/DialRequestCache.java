@@ -0,0 +1,115 @@
+/*
+ * Jitsi Videobridge, OpenSource video conferencing.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package org.jitsi.jigasi.xmpp;
+
+import com.googlecode.concurrentlinkedhashmap.*;
+
+import java.util.concurrent.*;
+
+/**
+ * Remembers the call resources of recent dial requests, so that a request
+ * retransmitted by Rayo client is answered with the call which has already
+ * been started instead of dialing the destination again. Requests are
+ * identified by the address of the requester and either the dial key
+ * supplied by the client or the id of the IQ. The least recently used
+ * requests are forgotten once the cache is full.
+ */
+public class DialRequestCache
+{
+    /**
+     * The name of the property which holds the number of dial requests
+     * remembered.
+     */
+    public static final String P_NAME_DIAL_REQUEST_CACHE_SIZE
+        = "org.jitsi.jigasi.DIAL_REQUEST_CACHE_SIZE";
+
+    /**
+     * Default number of dial requests remembered.
+     */
+    public static final int DEFAULT_DIAL_REQUEST_CACHE_SIZE = 1000;
+
+    /**
+     * The name of the counter of duplicate dial requests.
+     */
+    public static final String TOTAL_DUPLICATE_DIAL_REQUESTS
+        = "total_duplicate_dial_requests";
+
+    /**
+     * Call resources by request keys.
+     */
+    private final ConcurrentMap<String, String> callResources;
+
+    /**
+     * Creates new <tt>DialRequestCache</tt>.
+     *
+     * @param size the number of requests remembered.
+     */
+    public DialRequestCache(int size)
+    {
+        this.callResources
+            = new ConcurrentLinkedHashMap.Builder<String, String>()
+                .maximumWeightedCapacity(size)
+                .build();
+    }
+
+    /**
+     * Returns the key of the dial request.
+     *
+     * @param from the address of the requester.
+     * @param dialKey the key supplied by the client or <tt>null</tt>.
+     * @param iqId the id of the IQ.
+     */
+    public static String getKey(String from, String dialKey, String iqId)
+    {
+        return dialKey != null
+            ? from + " key " + dialKey
+            : from + " id " + iqId;
+    }
+
+    /**
+     * Associates the call resource with the request unless the request has
+     * already been seen.
+     *
+     * @param key the key of the request.
+     * @param callResource the resource of the call to be started.
+     * @return the resource of the call started by the same request before or
+     *         <tt>null</tt> if the request is new.
+     */
+    public String putIfAbsent(String key, String callResource)
+    {
+        return callResources.putIfAbsent(key, callResource);
+    }
+
+    /**
+     * Replaces the call resource of the request which has been seen before.
+     *
+     * @param key the key of the request.
+     * @param callResource the new resource of the request.
+     */
+    public void replace(String key, String callResource)
+    {
+        callResources.replace(key, callResource);
+    }
+
+    /**
+     * Forgets the request, e.g. when its call could not be started.
+     *
+     * @param key the key of the request.
+     */
+    public void remove(String key)
+    {
+        callResources.remove(key);
+    }
+
+    /**
+     * Returns the number of requests remembered.
+     */
+    public int size()
+    {
+        return callResources.size();
+    }
+}
@@ -0,0 +1,318 @@
+/*
+ * Jitsi Videobridge, OpenSource video conferencing.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package org.jitsi.jigasi.xmpp;
+
+import net.java.sip.communicator.service.protocol.*;
+import org.jitsi.jigasi.*;
+import org.jitsi.jigasi.stats.*;
+import org.jivesoftware.smack.*;
+import org.jivesoftware.smack.filter.*;
+import org.jivesoftware.smack.packet.*;
+import org.jivesoftware.smack.util.StringUtils;
+
+import java.util.*;
+
+/**
+ * Gathers MUC presence changes of single room into one pending state and
+ * sends it at most once per interval, so that every change does not cause
+ * a full presence stanza to be redistributed to all occupants.
+ * <p>
+ * Pending status and extensions are added by a packet interceptor to the
+ * next presence sent to the room. Changes made before the room is joined go
+ * into the join presence.
+ */
+public class PresenceCoalescer
+    implements PacketInterceptor
+{
+    /**
+     * The name of the property which holds the minimum interval (in ms)
+     * between two presence updates sent to the room, <tt>0</tt> sends every
+     * change immediately.
+     */
+    public static final String P_NAME_PRESENCE_UPDATE_INTERVAL
+        = "org.jitsi.jigasi.PRESENCE_UPDATE_INTERVAL";
+
+    /**
+     * Default presence update interval.
+     */
+    public static final long DEFAULT_PRESENCE_UPDATE_INTERVAL = 200;
+
+    /**
+     * The name of the counter of presence changes requested.
+     */
+    public static final String TOTAL_PRESENCE_CHANGES
+        = "total_presence_changes";
+
+    /**
+     * The name of the counter of presence stanzas sent to rooms.
+     */
+    public static final String TOTAL_PRESENCE_STANZAS
+        = "total_presence_stanzas";
+
+    /**
+     * Timer which sends pending updates of all rooms.
+     */
+    private static Timer timer;
+
+    /**
+     * Returns configured presence update interval.
+     */
+    public static long getInterval()
+    {
+        return JigasiBundleActivator.getConfigurationservice().getLong(
+            P_NAME_PRESENCE_UPDATE_INTERVAL,
+            DEFAULT_PRESENCE_UPDATE_INTERVAL);
+    }
+
+    /**
+     * Returns the timer shared by all instances.
+     */
+    private static synchronized Timer getTimer()
+    {
+        if (timer == null)
+            timer = new Timer("PresenceCoalescer", true);
+
+        return timer;
+    }
+
+    /**
+     * XMPP connection on which presence packets are intercepted.
+     */
+    private final XMPPConnection connection;
+
+    /**
+     * The name of MUC room.
+     */
+    private final String roomName;
+
+    /**
+     * The operation set used to send presence updates.
+     */
+    private final OperationSetJitsiMeetTools meetTools;
+
+    /**
+     * The interval between presence updates.
+     */
+    private final long interval;
+
+    /**
+     * Pending extensions by their element name and namespace.
+     */
+    private final Map<String, PacketExtension> pendingExtensions
+        = new LinkedHashMap<String, PacketExtension>();
+
+    /**
+     * Pending status or <tt>null</tt>.
+     */
+    private String pendingStatus;
+
+    /**
+     * The last status sent to the room.
+     */
+    private String status;
+
+    /**
+     * The room or <tt>null</tt> if not joined yet.
+     */
+    private ChatRoom chatRoom;
+
+    /**
+     * The time when the last presence has been sent.
+     */
+    private long lastSent;
+
+    /**
+     * Whether sending of pending changes has been scheduled.
+     */
+    private boolean scheduled;
+
+    /**
+     * Creates new <tt>PresenceCoalescer</tt> and starts intercepting
+     * presence packets sent to given room.
+     *
+     * @param connection the XMPP connection of the room.
+     * @param roomName the name of MUC room.
+     * @param meetTools the operation set used to send presence updates.
+     * @param interval the minimum interval between two updates.
+     */
+    public PresenceCoalescer(XMPPConnection connection,
+                             String roomName,
+                             OperationSetJitsiMeetTools meetTools,
+                             long interval)
+    {
+        this.connection = connection;
+        this.roomName = roomName;
+        this.meetTools = meetTools;
+        this.interval = interval;
+
+        connection.addPacketInterceptor(
+            this, new PacketTypeFilter(Presence.class));
+    }
+
+    /**
+     * Sets the room once it has been joined. Changes made from now on are
+     * sent by this instance.
+     */
+    public synchronized void setChatRoom(ChatRoom chatRoom)
+    {
+        this.chatRoom = chatRoom;
+        this.lastSent = System.currentTimeMillis();
+
+        if (hasPending())
+            schedule();
+    }
+
+    /**
+     * Stops intercepting presence packets and drops pending changes.
+     */
+    public synchronized void dispose()
+    {
+        connection.removePacketInterceptor(this);
+
+        chatRoom = null;
+        pendingExtensions.clear();
+        pendingStatus = null;
+    }
+
+    /**
+     * Sets the status which will be sent with the next presence update.
+     */
+    public synchronized void setStatus(String status)
+    {
+        Statistics.increment(TOTAL_PRESENCE_CHANGES);
+
+        pendingStatus = status;
+        schedule();
+    }
+
+    /**
+     * Adds the extension to the next presence update, replacing pending or
+     * sent extension with the same element name and namespace.
+     */
+    public synchronized void setExtension(PacketExtension extension)
+    {
+        Statistics.increment(TOTAL_PRESENCE_CHANGES);
+
+        pendingExtensions.put(getKey(extension), extension);
+        schedule();
+    }
+
+    /**
+     * Schedules sending of pending changes once the interval has passed
+     * since the last update.
+     */
+    private void schedule()
+    {
+        if (scheduled || chatRoom == null)
+            return;
+
+        scheduled = true;
+
+        long delay = lastSent + interval - System.currentTimeMillis();
+
+        getTimer().schedule(new TimerTask()
+        {
+            @Override
+            public void run()
+            {
+                flush();
+            }
+        }, Math.max(0, delay));
+    }
+
+    /**
+     * Sends pending changes in a single presence update.
+     */
+    void flush()
+    {
+        ChatRoom chatRoom;
+        String status;
+        PacketExtension extension = null;
+
+        synchronized (this)
+        {
+            scheduled = false;
+
+            chatRoom = this.chatRoom;
+            if (chatRoom == null || !hasPending())
+                return;
+
+            status = pendingStatus;
+            if (status == null)
+            {
+                extension = pendingExtensions.values().iterator().next();
+            }
+        }
+
+        // Other pending changes are added by the interceptor
+        if (extension != null)
+            meetTools.sendPresenceExtension(chatRoom, extension);
+        else
+            meetTools.setPresenceStatus(chatRoom, status);
+    }
+
+    /**
+     * Checks whether there are changes to be sent.
+     */
+    private boolean hasPending()
+    {
+        return pendingStatus != null || !pendingExtensions.isEmpty();
+    }
+
+    /**
+     * Adds pending changes to presence sent to the room.
+     */
+    @Override
+    public void interceptPacket(Packet packet)
+    {
+        Presence presence = (Presence) packet;
+
+        if (presence.getType() != Presence.Type.available
+            || presence.getTo() == null
+            || !roomName.equalsIgnoreCase(
+                    StringUtils.parseBareAddress(presence.getTo())))
+        {
+            return;
+        }
+
+        synchronized (this)
+        {
+            Statistics.increment(TOTAL_PRESENCE_STANZAS);
+
+            lastSent = System.currentTimeMillis();
+
+            if (pendingStatus != null)
+            {
+                status = pendingStatus;
+                pendingStatus = null;
+            }
+            if (status != null)
+                presence.setStatus(status);
+
+            for (PacketExtension extension : pendingExtensions.values())
+            {
+                PacketExtension old
+                    = presence.getExtension(
+                            extension.getElementName(),
+                            extension.getNamespace());
+                if (old != null)
+                    presence.removeExtension(old);
+
+                presence.addExtension(extension);
+            }
+            pendingExtensions.clear();
+        }
+    }
+
+    /**
+     * Returns the key of the extension in the map of pending extensions.
+     */
+    private static String getKey(PacketExtension extension)
+    {
+        return extension.getElementName() + " " + extension.getNamespace();
+    }
+}
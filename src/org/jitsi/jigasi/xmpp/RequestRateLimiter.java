@@ -0,0 +1,195 @@
+/*
+ * Jitsi Videobridge, OpenSource video conferencing.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package org.jitsi.jigasi.xmpp;
+
+import com.googlecode.concurrentlinkedhashmap.*;
+import org.jitsi.jigasi.stats.*;
+import org.jitsi.service.configuration.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Limits the rate of call control requests of each requester with its own
+ * token bucket, so that a misbehaving client can not saturate the gateway.
+ * Buckets of the least recently seen requesters are dropped once there are
+ * too many of them.
+ */
+public class RequestRateLimiter
+{
+    /**
+     * The name of the property which holds the number of requests per second
+     * allowed for each requester, <tt>0</tt> disables the limit.
+     */
+    public static final String P_NAME_RAYO_REQUEST_RATE
+        = "org.jitsi.jigasi.RAYO_REQUEST_RATE";
+
+    /**
+     * The name of the property which holds the number of requests each
+     * requester can send at once.
+     */
+    public static final String P_NAME_RAYO_REQUEST_BURST
+        = "org.jitsi.jigasi.RAYO_REQUEST_BURST";
+
+    /**
+     * Default number of requests each requester can send at once.
+     */
+    public static final int DEFAULT_RAYO_REQUEST_BURST = 20;
+
+    /**
+     * The name of the counter of rejected requests.
+     */
+    public static final String TOTAL_RAYO_REQUESTS_REJECTED
+        = "total_rayo_requests_rejected";
+
+    /**
+     * The maximum number of requesters tracked.
+     */
+    private static final int MAX_REQUESTERS = 10000;
+
+    /**
+     * The number of requests per second allowed for each requester.
+     */
+    private final int rate;
+
+    /**
+     * The number of requests each requester can send at once.
+     */
+    private final int burst;
+
+    /**
+     * The buckets of requesters.
+     */
+    private final ConcurrentMap<String, Bucket> buckets
+        = new ConcurrentLinkedHashMap.Builder<String, Bucket>()
+            .maximumWeightedCapacity(MAX_REQUESTERS)
+            .build();
+
+    /**
+     * Creates new <tt>RequestRateLimiter</tt> configured by given
+     * configuration.
+     *
+     * @param config the <tt>ConfigurationService</tt>.
+     */
+    public static RequestRateLimiter create(ConfigurationService config)
+    {
+        return new RequestRateLimiter(
+            config.getInt(P_NAME_RAYO_REQUEST_RATE, 0),
+            config.getInt(
+                P_NAME_RAYO_REQUEST_BURST, DEFAULT_RAYO_REQUEST_BURST));
+    }
+
+    /**
+     * Creates new <tt>RequestRateLimiter</tt>.
+     *
+     * @param rate the number of requests per second allowed for each
+     *             requester, <tt>0</tt> to allow any number.
+     * @param burst the number of requests each requester can send at once.
+     */
+    public RequestRateLimiter(int rate, int burst)
+    {
+        this.rate = rate;
+        this.burst = Math.max(1, burst);
+    }
+
+    /**
+     * Takes a token of given requester.
+     *
+     * @param requester the bare JID of the requester.
+     * @return <tt>true</tt> if the request is allowed or <tt>false</tt> if
+     *         the requester is over the limit.
+     */
+    public boolean tryAcquire(String requester)
+    {
+        return tryAcquire(requester, 1);
+    }
+
+    /**
+     * Takes given number of tokens of given requester at once, e.g. one for
+     * each destination of batch dial request.
+     *
+     * @param requester the bare JID of the requester.
+     * @param permits the number of tokens.
+     * @return <tt>true</tt> if the request is allowed or <tt>false</tt> if
+     *         the requester does not have enough tokens, in which case none
+     *         is taken.
+     */
+    public boolean tryAcquire(String requester, int permits)
+    {
+        if (rate <= 0 || permits <= 0)
+            return true;
+
+        Bucket bucket = buckets.get(requester);
+        if (bucket == null)
+        {
+            Bucket newBucket = new Bucket();
+
+            bucket = buckets.putIfAbsent(requester, newBucket);
+            if (bucket == null)
+                bucket = newBucket;
+        }
+
+        if (bucket.tryAcquire(permits))
+            return true;
+
+        Statistics.increment(TOTAL_RAYO_REQUESTS_REJECTED);
+        return false;
+    }
+
+    /**
+     * Returns the numbers of rejected requests of the requesters which have
+     * been rejected at least once.
+     */
+    public Map<String, Long> getRejections()
+    {
+        Map<String, Long> rejections = new TreeMap<String, Long>();
+
+        for (Map.Entry<String, Bucket> entry : buckets.entrySet())
+        {
+            long rejected = entry.getValue().getRejected();
+
+            if (rejected > 0)
+                rejections.put(entry.getKey(), rejected);
+        }
+        return rejections;
+    }
+
+    /**
+     * Token bucket of single requester.
+     */
+    private class Bucket
+    {
+        private double tokens = burst;
+
+        private long lastRefill = System.currentTimeMillis();
+
+        private long rejected;
+
+        synchronized boolean tryAcquire(int permits)
+        {
+            long now = System.currentTimeMillis();
+
+            tokens
+                = Math.min(burst, tokens + (now - lastRefill) * rate / 1000D);
+            lastRefill = now;
+
+            if (tokens >= permits)
+            {
+                tokens -= permits;
+                return true;
+            }
+
+            rejected++;
+            return false;
+        }
+
+        synchronized long getRejected()
+        {
+            return rejected;
+        }
+    }
+}
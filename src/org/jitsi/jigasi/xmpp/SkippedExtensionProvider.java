@@ -0,0 +1,80 @@
+/*
+ * Jitsi Videobridge, OpenSource video conferencing.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package org.jitsi.jigasi.xmpp;
+
+import net.java.sip.communicator.impl.protocol.jabber.extensions.jitsimeet.*;
+import org.jivesoftware.smack.packet.*;
+import org.jivesoftware.smack.provider.*;
+import org.jivesoftware.smackx.packet.*;
+import org.xmlpull.v1.*;
+
+/**
+ * Extension provider which skips the XML of presence extensions sent by
+ * conference participants which Jigasi never reads, instead of building
+ * their objects. Used in large room mode where every occupant presence is
+ * parsed by every Jigasi session in the room.
+ */
+public class SkippedExtensionProvider
+    implements PacketExtensionProvider
+{
+    /**
+     * Element names and namespaces of skipped extensions.
+     */
+    private static final String[][] SKIPPED_EXTENSIONS
+        = {
+            {
+                MediaPresenceExtension.ELEMENT_NAME,
+                MediaPresenceExtension.NAMESPACE
+            },
+            { "videomuted", "http://jitsi.org/jitmeet/video" },
+            { Nick.ELEMENT_NAME, Nick.NAMESPACE }
+        };
+
+    /**
+     * The extension returned in place of skipped ones, never matched by
+     * element name and namespace of any real extension.
+     */
+    private static final PacketExtension SKIPPED
+        = new DefaultPacketExtension("skipped", "http://jitsi.org/jigasi");
+
+    /**
+     * Registers this provider for all skipped extensions.
+     *
+     * @param providerManager the <tt>ProviderManager</tt> to which the
+     *                        provider will be added.
+     */
+    public static void registerSkippedExtensions(
+            ProviderManager providerManager)
+    {
+        SkippedExtensionProvider provider = new SkippedExtensionProvider();
+
+        for (String[] extension : SKIPPED_EXTENSIONS)
+        {
+            providerManager.addExtensionProvider(
+                extension[0], extension[1], provider);
+        }
+    }
+
+    /**
+     * Moves the parser to the end of current element.
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public PacketExtension parseExtension(XmlPullParser parser)
+        throws Exception
+    {
+        int depth = parser.getDepth();
+
+        while (parser.getEventType() != XmlPullParser.END_TAG
+            || parser.getDepth() != depth)
+        {
+            parser.next();
+        }
+        return SKIPPED;
+    }
+}
@@ -339,6 +339,262 @@ public class CallsHandlingTest
         assertFalse(conferenceChatRoom.isJoined());
     }
 
+    /**
+     * Tests batch dial from shared JVB conference leg and the events of
+     * batch dialed calls.
+     */
+    @Test
+    public void testBatchDial()
+        throws Exception
+    {
+        EventCollector component = new EventCollector("call", "conference.net");
+        component.init();
+
+        focus.setup();
+
+        org.xmpp.packet.IQ result
+            = component.handleIQSet(
+                    createBatchDial(
+                        roomName, "true", "sip-destination1",
+                        "sip-destination2"));
+
+        List<String> callResources = new ArrayList<String>();
+        for (Object ref : result.getChildElement().elements("ref"))
+        {
+            String uri = ((org.dom4j.Element) ref).attributeValue("uri");
+
+            assertEquals("xmpp:", uri.substring(0, 5));
+            callResources.add(uri.substring(5));
+        }
+        assertEquals(2, callResources.size());
+
+        SipGateway gateway = osgi.getSipGateway();
+        GatewaySession session1 = gateway.getSession(callResources.get(0));
+        GatewaySession session2 = gateway.getSession(callResources.get(1));
+
+        // SIP calls are dialed once shared JVB call has started
+        Call sipCall1 = waitForSipCall(session1, 1000);
+        Call sipCall2 = waitForSipCall(session2, 1000);
+        assertNotNull(sipCall1);
+        assertNotNull(sipCall2);
+
+        Call jvbCall = session1.getJvbCall();
+        assertNotNull(jvbCall);
+        assertSame(jvbCall, session2.getJvbCall());
+
+        ChatRoom jvbRoom = session1.getJvbChatRoom();
+
+        CallStateListener callStateWatch = new CallStateListener();
+
+        // The requester gets the event of each call
+        CallManager.acceptCall(sipCall1);
+        callStateWatch.waitForState(sipCall1, CallState.CALL_IN_PROGRESS, 1000);
+
+        component.assertEvent(callResources.get(0), "answered", 1000);
+
+        CallManager.hangupCall(sipCall1);
+        callStateWatch.waitForState(sipCall1, CallState.CALL_ENDED, 1000);
+
+        component.assertEvent(callResources.get(0), "end", 1000);
+        assertEquals(CallState.CALL_IN_PROGRESS, jvbCall.getCallState());
+
+        CallManager.hangupCall(sipCall2);
+        callStateWatch.waitForState(jvbCall, CallState.CALL_ENDED, 1000);
+
+        component.assertEvent(callResources.get(1), "end", 1000);
+        assertEquals(false, jvbRoom.isJoined());
+
+        // No event of the call which has not been answered
+        assertEquals(3, component.getEvents().size());
+    }
+
+    /**
+     * Tests that batch dialed sessions join the room each on its own, unless
+     * the request or the configuration asks for shared JVB conference leg.
+     */
+    @Test
+    public void testBatchDialOwnJvbLegs()
+        throws Exception
+    {
+        EventCollector component = new EventCollector("call", "conference.net");
+        component.init();
+
+        focus.setup();
+
+        org.xmpp.packet.IQ result
+            = component.handleIQSet(
+                    createBatchDial(
+                        roomName, null, "sip-destination1",
+                        "sip-destination2"));
+
+        List<?> refs = result.getChildElement().elements("ref");
+        assertEquals(2, refs.size());
+
+        SipGateway gateway = osgi.getSipGateway();
+        List<GatewaySession> sessions = new ArrayList<GatewaySession>();
+        for (Object ref : refs)
+        {
+            String uri = ((org.dom4j.Element) ref).attributeValue("uri");
+
+            sessions.add(gateway.getSession(uri.substring(5)));
+        }
+
+        Call sipCall1 = waitForSipCall(sessions.get(0), 1000);
+        Call sipCall2 = waitForSipCall(sessions.get(1), 1000);
+        assertNotNull(sipCall1);
+        assertNotNull(sipCall2);
+
+        Call jvbCall1 = sessions.get(0).getJvbCall();
+        Call jvbCall2 = sessions.get(1).getJvbCall();
+        assertNotNull(jvbCall1);
+        assertNotNull(jvbCall2);
+        assertNotSame(jvbCall1, jvbCall2);
+
+        CallManager.hangupCall(sipCall1);
+        CallManager.hangupCall(sipCall2);
+
+        CallStateListener callStateWatch = new CallStateListener();
+        callStateWatch.waitForState(jvbCall1, CallState.CALL_ENDED, 1000);
+        callStateWatch.waitForState(jvbCall2, CallState.CALL_ENDED, 1000);
+    }
+
+    /**
+     * Tests that batch dial without the room is rejected.
+     */
+    @Test
+    public void testBatchDialNoRoom()
+        throws Exception
+    {
+        EventCollector component = new EventCollector("call", "conference.net");
+        component.init();
+
+        try
+        {
+            component.handleIQSet(
+                createBatchDial("", "true", "sip-destination"));
+            fail("Batch dial without the room accepted");
+        }
+        catch (RuntimeException e)
+        {
+            // Expected
+        }
+        assertEquals(0, osgi.getSipGateway().getActiveSessions().size());
+    }
+
+    /**
+     * Creates batch dial request.
+     *
+     * @param roomName the value of the room name header.
+     * @param shared the value of <tt>shared-jvb-leg</tt> attribute or
+     *               <tt>null</tt>.
+     * @param destinations the destinations to be dialed.
+     */
+    private static org.xmpp.packet.IQ createBatchDial(String roomName,
+                                                      String shared,
+                                                      String... destinations)
+    {
+        org.xmpp.packet.IQ iq
+            = new org.xmpp.packet.IQ(org.xmpp.packet.IQ.Type.set);
+        iq.setFrom("requester@conference.net/batch");
+        iq.setTo("call.conference.net");
+
+        org.dom4j.Element command
+            = iq.setChildElement(
+                    CallControlComponent.BATCH_DIAL_ELEMENT_NAME,
+                    CallControlComponent.NAMESPACE);
+        if (shared != null)
+        {
+            command.addAttribute(
+                CallControlComponent.SHARED_JVB_LEG_ATTR_NAME, shared);
+        }
+        command.addElement("header")
+            .addAttribute("name", CallControlComponent.ROOM_NAME_HEADER)
+            .addAttribute("value", roomName);
+
+        for (String destination : destinations)
+        {
+            command.addElement("dial").addAttribute("to", destination);
+        }
+        return iq;
+    }
+
+    /**
+     * Waits for SIP call of given session to be dialed.
+     */
+    private static Call waitForSipCall(GatewaySession session, long timeout)
+        throws InterruptedException
+    {
+        long end = System.currentTimeMillis() + timeout;
+
+        while (session.getSipCall() == null
+            && System.currentTimeMillis() < end)
+        {
+            Thread.sleep(10);
+        }
+        return session.getSipCall();
+    }
+
+    /**
+     * Call control component which collects the packets it sends instead
+     * of sending them.
+     */
+    private static class EventCollector
+        extends CallControlComponent
+    {
+        private final List<org.xmpp.packet.Packet> events
+            = new ArrayList<org.xmpp.packet.Packet>();
+
+        EventCollector(String subdomain, String serverName)
+        {
+            super(subdomain, serverName);
+        }
+
+        @Override
+        protected synchronized void send(org.xmpp.packet.Packet packet)
+        {
+            events.add(packet);
+
+            notifyAll();
+        }
+
+        synchronized List<org.xmpp.packet.Packet> getEvents()
+        {
+            return new ArrayList<org.xmpp.packet.Packet>(events);
+        }
+
+        /**
+         * Waits for the event of given call to be sent to the requester of
+         * batch dial.
+         */
+        synchronized void assertEvent(String callResource, String eventName,
+                                      long timeout)
+            throws InterruptedException
+        {
+            long end = System.currentTimeMillis() + timeout;
+
+            while (true)
+            {
+                for (org.xmpp.packet.Packet event : events)
+                {
+                    if (callResource.equals(event.getFrom().toString())
+                        && event.getElement().element(eventName) != null)
+                    {
+                        assertEquals(
+                            "requester@conference.net/batch",
+                            event.getTo().toString());
+                        return;
+                    }
+                }
+
+                long left = end - System.currentTimeMillis();
+                if (left <= 0)
+                    fail("No " + eventName + " event of " + callResource);
+
+                wait(left);
+            }
+        }
+    }
+
     /**
      * Tests default JVB room name configuration property.
      * @throws Exception
@@ -451,6 +707,312 @@ public class CallsHandlingTest
         assertEquals(false, jvbRoom3.isJoined());
     }
 
+    /**
+     * Tests the mode in which SIP calls into the same room share single JVB
+     * conference leg.
+     */
+    @Test
+    public void testSharedJvbLeg()
+        throws Exception
+    {
+        ConfigurationService config
+            = JigasiBundleActivator.getConfigurationservice();
+
+        config.setProperty(SipGateway.P_NAME_SHARED_JVB_LEG, true);
+        try
+        {
+            doTestSharedJvbLeg();
+        }
+        finally
+        {
+            config.setProperty(SipGateway.P_NAME_SHARED_JVB_LEG, false);
+        }
+    }
+
+    private void doTestSharedJvbLeg()
+        throws Exception
+    {
+        focus.setup();
+
+        MockBasicTeleOpSet sipTele = sipProvider.getTelephony();
+
+        MockCall sipCall1 = sipTele.mockIncomingGatewayCall("calee1", roomName);
+        MockCall sipCall2 = sipTele.mockIncomingGatewayCall("calee2", roomName);
+
+        CallStateListener callStateWatch = new CallStateListener();
+
+        callStateWatch.waitForState(sipCall1, CallState.CALL_IN_PROGRESS, 1000);
+        callStateWatch.waitForState(sipCall2, CallState.CALL_IN_PROGRESS, 1000);
+
+        SipGateway gateway = osgi.getSipGateway();
+        List<GatewaySession> sessions = gateway.getActiveSessions();
+
+        assertEquals(2, sessions.size());
+
+        // Both sessions use the same JVB call and the same room
+        Call jvbCall = sessions.get(0).getJvbCall();
+        ChatRoom jvbRoom = sessions.get(0).getJvbChatRoom();
+
+        assertNotNull(jvbCall);
+        assertSame(jvbCall, sessions.get(1).getJvbCall());
+        assertSame(jvbRoom, sessions.get(1).getJvbChatRoom());
+
+        // Only the focus and one gateway participant are in the room
+        assertEquals(2, jvbRoom.getMembersCount());
+
+        // First SIP call ends, JVB leg stays up for the second one
+        CallManager.hangupCall(sipCall1);
+
+        callStateWatch.waitForState(sipCall1, CallState.CALL_ENDED, 1000);
+
+        assertEquals(CallState.CALL_IN_PROGRESS, jvbCall.getCallState());
+        assertEquals(true, jvbRoom.isJoined());
+
+        // The last SIP call ends and JVB leg is disposed
+        CallManager.hangupCall(sipCall2);
+
+        callStateWatch.waitForState(jvbCall, CallState.CALL_ENDED, 1000);
+        assertEquals(false, jvbRoom.isJoined());
+    }
+
+    /**
+     * Tests parallel dial when SIP peer answers before JVB call has started.
+     */
+    @Test
+    public void testParallelDialSipAnsweredFirst()
+        throws Exception
+    {
+        ConfigurationService config
+            = JigasiBundleActivator.getConfigurationservice();
+
+        config.setProperty(SipGateway.P_NAME_PARALLEL_DIAL, true);
+        try
+        {
+            doTestParallelDial(true);
+        }
+        finally
+        {
+            config.setProperty(SipGateway.P_NAME_PARALLEL_DIAL, false);
+        }
+    }
+
+    /**
+     * Tests parallel dial when SIP peer answers after JVB call has started.
+     */
+    @Test
+    public void testParallelDialJvbStartedFirst()
+        throws Exception
+    {
+        ConfigurationService config
+            = JigasiBundleActivator.getConfigurationservice();
+
+        config.setProperty(SipGateway.P_NAME_PARALLEL_DIAL, true);
+        try
+        {
+            doTestParallelDial(false);
+        }
+        finally
+        {
+            config.setProperty(SipGateway.P_NAME_PARALLEL_DIAL, false);
+        }
+    }
+
+    private void doTestParallelDial(boolean sipAnswersFirst)
+        throws Exception
+    {
+        // JVB call is started only once we release the invite
+        focus.setHoldInvites(true);
+        focus.setup();
+
+        CallStateListener callStateWatch = new CallStateListener();
+
+        OutCallListener outCallWatch = new OutCallListener();
+        outCallWatch.bind(sipProvider.getTelephony());
+
+        GatewaySession session
+            = osgi.getSipGateway().createOutgoingCall(
+                    "sip-destination", roomName, "callResourceUri" + roomName);
+        assertNotNull(session);
+
+        // SIP call is dialed while JVB conference is being joined
+        Call sipCall = outCallWatch.getOutgoingCall(1000);
+        assertNotNull(sipCall);
+
+        new GatewaySessionAsserts().assertJvbRoomJoined(session, 1000);
+        assertNull(session.getJvbCall());
+
+        ChatRoom chatRoom = session.getJvbChatRoom();
+
+        if (sipAnswersFirst)
+        {
+            CallManager.acceptCall(sipCall);
+
+            callStateWatch.waitForState(
+                sipCall, CallState.CALL_IN_PROGRESS, 1000);
+        }
+
+        focus.releaseInvites();
+
+        Call jvbCall = focus.getCall();
+        assertNotNull(jvbCall);
+
+        callStateWatch.waitForState(jvbCall, CallState.CALL_IN_PROGRESS, 1000);
+
+        if (!sipAnswersFirst)
+        {
+            assertEquals(
+                CallState.CALL_INITIALIZATION, sipCall.getCallState());
+
+            CallManager.acceptCall(sipCall);
+
+            callStateWatch.waitForState(
+                sipCall, CallState.CALL_IN_PROGRESS, 1000);
+        }
+
+        // The same SIP call has been bridged, no second one has been dialed
+        assertBridged(sipCall, jvbCall, 1000);
+        assertSame(sipCall, session.getSipCall());
+
+        CallManager.hangupCall(sipCall);
+
+        callStateWatch.waitForState(jvbCall, CallState.CALL_ENDED, 1000);
+        assertRoomLeft(chatRoom, 1000);
+    }
+
+    /**
+     * Tests that JVB conference is left when SIP call dialed in parallel
+     * fails before JVB call has started.
+     */
+    @Test
+    public void testParallelDialSipFailed()
+        throws Exception
+    {
+        ConfigurationService config
+            = JigasiBundleActivator.getConfigurationservice();
+
+        config.setProperty(SipGateway.P_NAME_PARALLEL_DIAL, true);
+        try
+        {
+            focus.setHoldInvites(true);
+            focus.setup();
+
+            CallStateListener callStateWatch = new CallStateListener();
+
+            OutCallListener outCallWatch = new OutCallListener();
+            outCallWatch.bind(sipProvider.getTelephony());
+
+            GatewaySession session
+                = osgi.getSipGateway().createOutgoingCall(
+                        "sip-destination", roomName,
+                        "callResourceUri" + roomName);
+
+            Call sipCall = outCallWatch.getOutgoingCall(1000);
+            assertNotNull(sipCall);
+
+            new GatewaySessionAsserts().assertJvbRoomJoined(session, 1000);
+
+            ChatRoom chatRoom = session.getJvbChatRoom();
+
+            // SIP peer rejects the call
+            CallManager.hangupCall(sipCall);
+
+            callStateWatch.waitForState(sipCall, CallState.CALL_ENDED, 1000);
+            assertRoomLeft(chatRoom, 1000);
+            assertEquals(
+                0, osgi.getSipGateway().getActiveSessions().size());
+        }
+        finally
+        {
+            config.setProperty(SipGateway.P_NAME_PARALLEL_DIAL, false);
+        }
+    }
+
+    /**
+     * Tests that SIP call dialed in parallel is cancelled when JVB call
+     * fails before SIP peer has answered.
+     */
+    @Test
+    public void testParallelDialJvbFailed()
+        throws Exception
+    {
+        ConfigurationService config
+            = JigasiBundleActivator.getConfigurationservice();
+
+        config.setProperty(SipGateway.P_NAME_PARALLEL_DIAL, true);
+        try
+        {
+            focus.setHoldInvites(true);
+            focus.setup();
+
+            CallStateListener callStateWatch = new CallStateListener();
+
+            OutCallListener outCallWatch = new OutCallListener();
+            outCallWatch.bind(sipProvider.getTelephony());
+
+            GatewaySession session
+                = osgi.getSipGateway().createOutgoingCall(
+                        "sip-destination", roomName,
+                        "callResourceUri" + roomName);
+
+            Call sipCall = outCallWatch.getOutgoingCall(1000);
+            assertNotNull(sipCall);
+
+            new GatewaySessionAsserts().assertJvbRoomJoined(session, 1000);
+
+            ChatRoom chatRoom = session.getJvbChatRoom();
+
+            focus.releaseInvites();
+
+            Call jvbCall = focus.getCall();
+            assertNotNull(jvbCall);
+
+            callStateWatch.waitForState(
+                jvbCall, CallState.CALL_IN_PROGRESS, 1000);
+
+            // JVB call ends while SIP peer is still ringing
+            CallManager.hangupCall(jvbCall);
+
+            callStateWatch.waitForState(jvbCall, CallState.CALL_ENDED, 1000);
+            callStateWatch.waitForState(sipCall, CallState.CALL_ENDED, 1000);
+            assertRoomLeft(chatRoom, 1000);
+        }
+        finally
+        {
+            config.setProperty(SipGateway.P_NAME_PARALLEL_DIAL, false);
+        }
+    }
+
+    /**
+     * Waits for SIP call to share the conference of JVB call.
+     */
+    private static void assertBridged(Call sipCall, Call jvbCall, long timeout)
+        throws InterruptedException
+    {
+        long end = System.currentTimeMillis() + timeout;
+
+        while (sipCall.getConference() != jvbCall.getConference()
+            && System.currentTimeMillis() < end)
+        {
+            Thread.sleep(10);
+        }
+        assertSame(jvbCall.getConference(), sipCall.getConference());
+    }
+
+    /**
+     * Waits for given room to be left.
+     */
+    private static void assertRoomLeft(ChatRoom room, long timeout)
+        throws InterruptedException
+    {
+        long end = System.currentTimeMillis() + timeout;
+
+        while (room.isJoined() && System.currentTimeMillis() < end)
+        {
+            Thread.sleep(10);
+        }
+        assertFalse(room.isJoined());
+    }
+
     @Test
     public void testNoFocusInTheRoom()
         throws Exception
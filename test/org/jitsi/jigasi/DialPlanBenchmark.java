@@ -0,0 +1,103 @@
+/*
+ * Jitsi Videobridge, OpenSource video conferencing.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package org.jitsi.jigasi;
+
+import java.util.*;
+
+/**
+ * Measures compilation and lookup time of {@link DialPlan} with a routing
+ * table of many prefixes. Not a part of the test suite, run with:
+ * <pre>
+ * java -cp ... org.jitsi.jigasi.DialPlanBenchmark [routes] [lookups]
+ * </pre>
+ */
+public class DialPlanBenchmark
+{
+    public static void main(String[] args)
+    {
+        int routeCount = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int lookupCount
+            = args.length > 1 ? Integer.parseInt(args[1]) : 10000000;
+
+        Random random = new Random(1);
+
+        // Prefixes of 1 to 7 digits, like country and area codes
+        Map<String, DialPlan.Route> routes
+            = new HashMap<String, DialPlan.Route>();
+        while (routes.size() < routeCount)
+        {
+            String prefix = randomDigits(random, 1 + random.nextInt(7));
+
+            routes.put(
+                prefix,
+                new DialPlan.Route(
+                    prefix, 0, "+", "trunk" + routes.size() % 10));
+        }
+
+        String[] numbers = new String[1024];
+        for (int i = 0; i < numbers.length; i++)
+        {
+            numbers[i] = "+" + randomDigits(random, 11 + random.nextInt(4));
+        }
+
+        long start = System.nanoTime();
+        DialPlan dialPlan = DialPlan.compile(routes.values());
+        long compileTime = System.nanoTime() - start;
+
+        System.out.println(
+            "Compiled " + routeCount + " routes into " + dialPlan.size()
+                + " nodes in " + compileTime / 1000000 + " ms");
+
+        // Warm up
+        int matched = lookup(dialPlan, numbers, lookupCount / 10);
+
+        start = System.nanoTime();
+        matched += lookup(dialPlan, numbers, lookupCount);
+        long lookupTime = System.nanoTime() - start;
+
+        System.out.println(
+            "Lookup: " + (double) lookupTime / lookupCount + " ns"
+                + " (matched " + matched + ")");
+
+        start = System.nanoTime();
+        int length = 0;
+        for (int i = 0; i < lookupCount / 10; i++)
+        {
+            length += dialPlan.apply(numbers[i & (numbers.length - 1)])
+                .length();
+        }
+        long applyTime = System.nanoTime() - start;
+
+        System.out.println(
+            "Lookup and rewrite: "
+                + (double) applyTime / (lookupCount / 10) + " ns"
+                + " (length " + length + ")");
+    }
+
+    private static int lookup(DialPlan dialPlan, String[] numbers, int count)
+    {
+        int matched = 0;
+
+        for (int i = 0; i < count; i++)
+        {
+            if (dialPlan.lookup(numbers[i & (numbers.length - 1)]) != null)
+                matched++;
+        }
+        return matched;
+    }
+
+    private static String randomDigits(Random random, int count)
+    {
+        StringBuilder digits = new StringBuilder(count);
+
+        for (int i = 0; i < count; i++)
+        {
+            digits.append((char) ('0' + random.nextInt(10)));
+        }
+        return digits.toString();
+    }
+}
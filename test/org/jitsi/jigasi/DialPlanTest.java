@@ -0,0 +1,158 @@
+/*
+ * Jitsi Videobridge, OpenSource video conferencing.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package org.jitsi.jigasi;
+
+import org.junit.*;
+import org.junit.runner.*;
+import org.junit.runners.*;
+
+import java.io.*;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link DialPlan} and {@link DialPlanLoader}.
+ */
+@RunWith(JUnit4.class)
+public class DialPlanTest
+{
+    private static DialPlan createDialPlan()
+    {
+        return DialPlan.compile(
+            Arrays.asList(
+                new DialPlan.Route("1", 0, "+", "us.example.com"),
+                new DialPlan.Route("1800", 0, null, "free.example.com"),
+                new DialPlan.Route("0044", 2, "+", "eu.example.com"),
+                new DialPlan.Route("", 0, null, null)));
+    }
+
+    @Test
+    public void testLongestPrefix()
+    {
+        DialPlan dialPlan = createDialPlan();
+
+        assertEquals("1", dialPlan.lookup("15551234567").getPrefix());
+        assertEquals("1800", dialPlan.lookup("18001234567").getPrefix());
+        assertEquals("1", dialPlan.lookup("180").getPrefix());
+        assertEquals("0044", dialPlan.lookup("00442071234567").getPrefix());
+        assertEquals("", dialPlan.lookup("0033123456").getPrefix());
+
+        // Separators and leading plus are ignored
+        assertEquals("1800", dialPlan.lookup("+1 (800) 123-4567").getPrefix());
+
+        // Not a number
+        assertNull(dialPlan.lookup("sip:1800@example.com"));
+        assertNull(dialPlan.lookup("1800+1"));
+
+        assertNull(DialPlan.EMPTY.lookup("1234"));
+        assertEquals(1, DialPlan.EMPTY.size());
+    }
+
+    @Test
+    public void testApply()
+    {
+        DialPlan dialPlan = createDialPlan();
+
+        assertEquals(
+            "+15551234567@us.example.com", dialPlan.apply("15551234567"));
+        assertEquals(
+            "+442071234567@eu.example.com",
+            dialPlan.apply("0044 20 7123 4567"));
+        assertEquals(
+            "18001234567@free.example.com", dialPlan.apply("1-800-123-4567"));
+        assertEquals("0033123456", dialPlan.apply("0033123456"));
+        assertEquals(
+            "sip:1800@example.com", dialPlan.apply("sip:1800@example.com"));
+    }
+
+    @Test
+    public void testLeadingPlus()
+    {
+        DialPlan dialPlan = createDialPlan();
+
+        // Kept by routes which neither strip nor prepend
+        assertEquals(
+            "+18001234567@free.example.com",
+            dialPlan.apply("+1-800-123-4567"));
+        assertEquals("+33123456", dialPlan.apply("+33 1 23 45 6"));
+
+        // Replaced by the prefix of the route
+        assertEquals(
+            "+15551234567@us.example.com", dialPlan.apply("+15551234567"));
+        assertEquals(
+            "+442071234567@eu.example.com",
+            dialPlan.apply("+0044 20 7123 4567"));
+
+        // Dropped by routes which strip digits
+        assertEquals(
+            "4412@eu.example.com",
+            DialPlan.compile(
+                    Arrays.asList(
+                        new DialPlan.Route("0", 1, null, "eu.example.com")))
+                .apply("+04412"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDuplicatePrefix()
+    {
+        DialPlan.compile(
+            Arrays.asList(
+                new DialPlan.Route("44", 0, null, null),
+                new DialPlan.Route("44", 0, null, "eu.example.com")));
+    }
+
+    @Test
+    public void testReload()
+        throws IOException
+    {
+        File file = File.createTempFile("dialplan", ".txt");
+        try
+        {
+            writeFile(file, "# prefix strip prepend trunk\n1 0 + us\n");
+
+            DialPlanLoader loader = new DialPlanLoader(file);
+            assertTrue(loader.checkFile());
+            assertFalse(loader.checkFile());
+
+            DialPlan first = loader.getDialPlan();
+            assertEquals("+1555@us", first.apply("1555"));
+
+            // Malformed table keeps the old dial plan
+            writeFile(file, "1 0 + us\n2 x\n");
+            file.setLastModified(file.lastModified() + 1000);
+            assertFalse(loader.checkFile());
+            assertSame(first, loader.getDialPlan());
+
+            writeFile(file, "1 0 + us\n155 0 - local\n");
+            file.setLastModified(file.lastModified() + 2000);
+            assertTrue(loader.checkFile());
+            assertEquals("1555@local", loader.getDialPlan().apply("1555"));
+
+            // The old dial plan is not changed
+            assertEquals("+1555@us", first.apply("1555"));
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    private static void writeFile(File file, String content)
+        throws IOException
+    {
+        Writer out = new FileWriter(file);
+        try
+        {
+            out.write(content);
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+}
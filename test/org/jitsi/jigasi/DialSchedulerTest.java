@@ -0,0 +1,207 @@
+/*
+ * Jitsi Videobridge, OpenSource video conferencing.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package org.jitsi.jigasi;
+
+import org.jitsi.jigasi.stats.*;
+import org.junit.*;
+import org.junit.runner.*;
+import org.junit.runners.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link DialScheduler}.
+ */
+@RunWith(JUnit4.class)
+public class DialSchedulerTest
+{
+    /**
+     * Records the order of dialed calls.
+     */
+    private static class TestDial
+        implements Runnable
+    {
+        private final String name;
+
+        private final List<String> dialed;
+
+        private final CountDownLatch done;
+
+        TestDial(String name, List<String> dialed, CountDownLatch done)
+        {
+            this.name = name;
+            this.dialed = dialed;
+            this.done = done;
+        }
+
+        @Override
+        public void run()
+        {
+            dialed.add(name);
+            done.countDown();
+        }
+    }
+
+    @Test
+    public void testNoLimit()
+    {
+        DialScheduler scheduler = new DialScheduler("test", 0, 0, 1);
+        List<String> dialed = new ArrayList<String>();
+
+        for (int i = 0; i < 3; i++)
+        {
+            assertTrue(
+                scheduler.schedule(
+                    "room",
+                    new TestDial("call" + i, dialed, new CountDownLatch(1))));
+        }
+
+        // Dialed at once on the calling thread
+        assertEquals(Arrays.asList("call0", "call1", "call2"), dialed);
+    }
+
+    @Test
+    public void testRoomsTakeTurns()
+        throws InterruptedException
+    {
+        DialScheduler scheduler = new DialScheduler("test", 1000, 10, 100);
+        final List<String> dialed
+            = Collections.synchronizedList(new ArrayList<String>());
+        CountDownLatch done = new CountDownLatch(5);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        // Holds the scheduler until all other calls are queued
+        scheduler.schedule("a", new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                started.countDown();
+                try
+                {
+                    release.await();
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        assertTrue(started.await(1, TimeUnit.SECONDS));
+
+        scheduler.schedule("a", new TestDial("a1", dialed, done));
+        scheduler.schedule("a", new TestDial("a2", dialed, done));
+        scheduler.schedule("a", new TestDial("a3", dialed, done));
+        scheduler.schedule("b", new TestDial("b1", dialed, done));
+        scheduler.schedule("c", new TestDial("c1", dialed, done));
+
+        release.countDown();
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("a1", "b1", "c1", "a2", "a3"), dialed);
+
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void testPacing()
+        throws InterruptedException
+    {
+        DialScheduler scheduler = new DialScheduler("test", 50, 2, 100);
+        List<String> dialed
+            = Collections.synchronizedList(new ArrayList<String>());
+        CountDownLatch done = new CountDownLatch(12);
+
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 12; i++)
+        {
+            scheduler.schedule(
+                "room" + (i % 3), new TestDial("call" + i, dialed, done));
+        }
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        // 2 calls at once, the other 10 every 20 ms
+        assertTrue(System.currentTimeMillis() - start >= 180);
+
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void testCancelledDialTakesNoToken()
+        throws InterruptedException
+    {
+        DialScheduler scheduler = new DialScheduler("test", 1, 1, 10);
+        final List<String> dialed
+            = Collections.synchronizedList(new ArrayList<String>());
+        CountDownLatch done = new CountDownLatch(2);
+
+        long cancelled = Statistics.get(DialScheduler.TOTAL_DIALS_CANCELLED);
+        long start = System.currentTimeMillis();
+
+        // Takes the only token, the next one is available in 1 s
+        scheduler.schedule("room", new TestDial("call0", dialed, done));
+        scheduler.schedule("room", new DialScheduler.CancellableDial()
+        {
+            @Override
+            public boolean isCancelled()
+            {
+                return true;
+            }
+
+            @Override
+            public void run()
+            {
+                dialed.add("cancelled");
+            }
+        });
+        scheduler.schedule("room", new TestDial("call1", dialed, done));
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        // Dialed with the token which would be taken by the cancelled call
+        assertTrue(System.currentTimeMillis() - start < 1800);
+        assertEquals(Arrays.asList("call0", "call1"), dialed);
+        assertEquals(
+            cancelled + 1,
+            Statistics.get(DialScheduler.TOTAL_DIALS_CANCELLED));
+
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void testQueueFull()
+        throws InterruptedException
+    {
+        DialScheduler scheduler = new DialScheduler("test", 1, 1, 2);
+        List<String> dialed
+            = Collections.synchronizedList(new ArrayList<String>());
+        CountDownLatch done = new CountDownLatch(1);
+
+        // The first one is dialed, the next two wait for the tokens
+        assertTrue(
+            scheduler.schedule("room", new TestDial("call0", dialed, done)));
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+
+        assertTrue(
+            scheduler.schedule("room", new TestDial("call1", dialed, done)));
+        assertTrue(
+            scheduler.schedule("room", new TestDial("call2", dialed, done)));
+        assertFalse(
+            scheduler.schedule("room", new TestDial("call3", dialed, done)));
+        assertEquals(2, scheduler.getQueueSize());
+
+        scheduler.shutdown();
+        assertEquals(0, scheduler.getQueueSize());
+        assertFalse(
+            scheduler.schedule("room", new TestDial("call4", dialed, done)));
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Jitsi Videobridge, OpenSource video conferencing.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package org.jitsi.jigasi;
+
+import org.jitsi.jigasi.stats.*;
+import org.junit.*;
+import org.junit.runner.*;
+import org.junit.runners.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link FailureCache}.
+ */
+@RunWith(JUnit4.class)
+public class FailureCacheTest
+{
+    @Test
+    public void testBackoff()
+    {
+        FailureCache cache = new FailureCache("test", 1000, 3000);
+
+        long hits = Statistics.get("total_test_failure_hits");
+        long misses = Statistics.get("total_test_failure_misses");
+
+        assertEquals(0, cache.getRetryDelay("sip:123@example.com"));
+
+        cache.recordFailure("sip:123@example.com");
+        long delay = cache.getRetryDelay("SIP:123@example.com");
+        assertTrue(delay > 0 && delay <= 1000);
+
+        cache.recordFailure("sip:123@example.com");
+        delay = cache.getRetryDelay("sip:123@example.com");
+        assertTrue(delay > 1000 && delay <= 2000);
+
+        // Never longer than the maximum
+        cache.recordFailure("sip:123@example.com");
+        cache.recordFailure("sip:123@example.com");
+        delay = cache.getRetryDelay("sip:123@example.com");
+        assertTrue(delay > 2000 && delay <= 3000);
+
+        assertEquals(0, cache.getRetryDelay("sip:456@example.com"));
+
+        cache.recordSuccess("sip:123@example.com");
+        assertEquals(0, cache.getRetryDelay("sip:123@example.com"));
+        assertEquals(0, cache.size());
+
+        assertEquals(hits + 3, Statistics.get("total_test_failure_hits"));
+        assertEquals(misses + 3, Statistics.get("total_test_failure_misses"));
+    }
+
+    @Test
+    public void testExpiry()
+        throws InterruptedException
+    {
+        FailureCache cache = new FailureCache("test", 50, 100);
+
+        cache.recordFailure("room");
+        assertTrue(cache.getRetryDelay("room") > 0);
+
+        Thread.sleep(100);
+        assertEquals(0, cache.getRetryDelay("room"));
+    }
+
+    @Test
+    public void testDisabled()
+    {
+        FailureCache cache = new FailureCache("test", 0, 1000);
+
+        cache.recordFailure("room");
+        assertEquals(0, cache.getRetryDelay("room"));
+        assertEquals(0, cache.size());
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Jitsi Videobridge, OpenSource video conferencing.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package org.jitsi.jigasi;
+
+import org.junit.*;
+import org.junit.runner.*;
+import org.junit.runners.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link GatewaySession}.
+ */
+@RunWith(JUnit4.class)
+public class GatewaySessionTest
+{
+    @Test
+    public void testDestinationFailure()
+    {
+        // Not found
+        assertTrue(GatewaySession.isDestinationFailure(404));
+        assertTrue(GatewaySession.isDestinationFailure(484));
+        assertTrue(GatewaySession.isDestinationFailure(604));
+
+        // Server errors and no response at all
+        assertTrue(GatewaySession.isDestinationFailure(408));
+        assertTrue(GatewaySession.isDestinationFailure(503));
+        assertTrue(GatewaySession.isDestinationFailure(-1));
+
+        // Busy, declined or not answered
+        assertFalse(GatewaySession.isDestinationFailure(486));
+        assertFalse(GatewaySession.isDestinationFailure(600));
+        assertFalse(GatewaySession.isDestinationFailure(603));
+        assertFalse(GatewaySession.isDestinationFailure(480));
+        assertFalse(GatewaySession.isDestinationFailure(487));
+    }
+}
@@ -6,6 +6,11 @@
  */
 package org.jitsi.jigasi;
 
+import org.jitsi.jigasi.media.*;
+import org.jitsi.jigasi.packetlogging.*;
+import org.jitsi.jigasi.stats.*;
+import org.jitsi.jigasi.util.*;
+import org.jitsi.jigasi.xmpp.*;
 import org.jitsi.jigasi.xmpp.rayo.*;
 import org.junit.runner.*;
 import org.junit.runners.*;
@@ -17,6 +22,27 @@ import org.junit.runners.*;
 @Suite.SuiteClasses(
     {
         CallsHandlingTest.class,
+        JvbConferenceTest.class,
+        GatewaySessionTest.class,
+        TeardownTest.class,
+        RoomTeardownTest.class,
+        FailureCacheTest.class,
+        DialSchedulerTest.class,
+        DialPlanTest.class,
+        LoudestSpeakersFilterTest.class,
+        PromptFilterTest.class,
+        QualityGovernorTest.class,
+        SilenceSuppressionFilterTest.class,
+        AudioMuteIqProviderTest.class,
+        DialRequestCacheTest.class,
+        RequestRateLimiterTest.class,
+        AdminListTest.class,
+        PresenceCoalescerTest.class,
+        SkippedExtensionProviderTest.class,
+        PacketCaptureTest.class,
+        HistogramTest.class,
+        CdrWriterTest.class,
+        SessionLoggerTest.class,
         DialIqProviderTest.class,
         RefIqProviderTest.class
     })
@@ -0,0 +1,113 @@
+/*
+ * Jitsi Videobridge, OpenSource video conferencing.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package org.jitsi.jigasi;
+
+import net.java.sip.communicator.service.protocol.*;
+import net.java.sip.communicator.service.protocol.mock.muc.*;
+import org.jivesoftware.smack.packet.*;
+import org.jivesoftware.smackx.packet.*;
+import org.junit.*;
+import org.junit.runner.*;
+import org.junit.runners.*;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests authorization of the requests which {@link JvbConference} handles.
+ */
+@RunWith(JUnit4.class)
+public class JvbConferenceTest
+{
+    private static final String ROOM = "room@conference.example.com";
+
+    private static final String FOCUS = ROOM + "/focus";
+
+    @Test
+    public void testModerator()
+    {
+        MockRoomMember moderator = new MockRoomMember("alice", null);
+        moderator.setRole(ChatRoomMemberRole.MODERATOR);
+
+        MockRoomMember participant = new MockRoomMember("bob", null);
+
+        List<ChatRoomMember> members = new ArrayList<ChatRoomMember>();
+        members.add(moderator);
+        members.add(participant);
+
+        assertTrue(JvbConference.isModerator(FOCUS, FOCUS, ROOM, members));
+        assertTrue(
+            JvbConference.isModerator(ROOM + "/alice", FOCUS, ROOM, members));
+
+        assertFalse(
+            JvbConference.isModerator(ROOM + "/bob", FOCUS, ROOM, members));
+        assertFalse(JvbConference.isModerator(null, FOCUS, ROOM, members));
+
+        // Moderator nickname in other room
+        assertFalse(
+            JvbConference.isModerator(
+                "other@conference.example.com/alice", FOCUS, ROOM, members));
+    }
+
+    @Test
+    public void testForeignFocusRejected()
+    {
+        List<ChatRoomMember> members = new ArrayList<ChatRoomMember>();
+
+        assertFalse(
+            JvbConference.isModerator(
+                "focus@evil.example.com/focus", FOCUS, ROOM, members));
+        assertFalse(
+            JvbConference.isModerator(
+                "focus@auth.example.com/x", FOCUS, ROOM, members));
+
+        // Not trusted before the focus has invited us
+        assertFalse(
+            JvbConference.isModerator(
+                "focus@auth.example.com/focus", null, ROOM, members));
+    }
+
+    @Test
+    public void testFocusPresence()
+    {
+        Presence focus = createPresence(FOCUS, "owner");
+        Presence occupant = createPresence(ROOM + "/alice", "member");
+
+        // Before the invite any owner of the room is the focus
+        assertTrue(JvbConference.isFocusPresence(focus, ROOM, null));
+        assertFalse(JvbConference.isFocusPresence(occupant, ROOM, null));
+
+        // Then also the occupant which has invited us
+        Presence invited = createPresence(ROOM + "/jicofo", null);
+        assertTrue(
+            JvbConference.isFocusPresence(invited, ROOM, ROOM + "/jicofo"));
+        assertFalse(JvbConference.isFocusPresence(invited, ROOM, FOCUS));
+
+        // Owners of other rooms are ignored
+        Presence other
+            = createPresence("other@conference.example.com/focus", "owner");
+        assertFalse(JvbConference.isFocusPresence(other, ROOM, FOCUS));
+        assertFalse(
+            JvbConference.isFocusPresence(
+                createPresence(ROOM + "x/focus", "owner"), ROOM, null));
+    }
+
+    private static Presence createPresence(String from, String affiliation)
+    {
+        Presence presence = new Presence(Presence.Type.unavailable);
+        presence.setFrom(from);
+
+        if (affiliation != null)
+        {
+            MUCUser mucUser = new MUCUser();
+            mucUser.setItem(new MUCUser.Item(affiliation, "none"));
+            presence.addExtension(mucUser);
+        }
+        return presence;
+    }
+}
@@ -18,6 +18,12 @@ public class MockCallsControl
 
     }
 
+    @Override
+    public void callAnswered(SipGateway gateway, String callResource)
+    {
+
+    }
+
     @Override
     public String extractCallIdFromResource(String callResource)
     {
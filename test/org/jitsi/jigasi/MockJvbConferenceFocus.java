@@ -13,6 +13,8 @@ import net.java.sip.communicator.service.protocol.mock.muc.*;
 import net.java.sip.communicator.util.*;
 import org.osgi.framework.*;
 
+import java.util.*;
+
 /**
  * Mock JVB focus used for unit tests purposes.
  *
@@ -40,6 +42,11 @@ public class MockJvbConferenceFocus
 
     private boolean leaveRoomAfterInvite;
 
+    private boolean holdInvites;
+
+    private final List<ChatRoomMember> heldInvites
+        = new ArrayList<ChatRoomMember>();
+
     public MockJvbConferenceFocus(String roomName)
     {
         this.roomName = roomName;
@@ -117,6 +124,16 @@ public class MockJvbConferenceFocus
 
     private void inviteToConference(ChatRoomMember member)
     {
+        synchronized (heldInvites)
+        {
+            if (holdInvites)
+            {
+                logger.info(myName + " holds invite of " + member.getName());
+                heldInvites.add(member);
+                return;
+            }
+        }
+
         MockBasicTeleOpSet xmppTele
             = (MockBasicTeleOpSet) member.getProtocolProvider()
                     .getOperationSet(OperationSetBasicTelephony.class);
@@ -198,4 +215,37 @@ public class MockJvbConferenceFocus
     {
         this.leaveRoomAfterInvite = leaveRoomAfterInvite;
     }
+
+    /**
+     * Makes the focus hold the invites of new participants until
+     * {@link #releaseInvites()} is called.
+     */
+    public void setHoldInvites(boolean holdInvites)
+    {
+        synchronized (heldInvites)
+        {
+            this.holdInvites = holdInvites;
+        }
+    }
+
+    /**
+     * Invites the participants whose invites have been held.
+     */
+    public void releaseInvites()
+    {
+        List<ChatRoomMember> members;
+
+        synchronized (heldInvites)
+        {
+            holdInvites = false;
+
+            members = new ArrayList<ChatRoomMember>(heldInvites);
+            heldInvites.clear();
+        }
+
+        for (ChatRoomMember member : members)
+        {
+            inviteToConference(member);
+        }
+    }
 }
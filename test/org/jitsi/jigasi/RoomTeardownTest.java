@@ -0,0 +1,226 @@
+/*
+ * Jitsi Videobridge, OpenSource video conferencing.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package org.jitsi.jigasi;
+
+import org.jitsi.jigasi.stats.*;
+import org.junit.*;
+import org.junit.runner.*;
+import org.junit.runners.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link RoomTeardown}.
+ */
+@RunWith(JUnit4.class)
+public class RoomTeardownTest
+{
+    private RoomTeardown teardown;
+
+    @Before
+    public void setUp()
+    {
+        teardown = new RoomTeardown(null);
+    }
+
+    @After
+    public void tearDown()
+    {
+        teardown.shutdown();
+    }
+
+    @Test
+    public void testSessionsHungUpInParallel()
+        throws InterruptedException
+    {
+        final CountDownLatch started = new CountDownLatch(3);
+
+        Runnable hangUp = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                started.countDown();
+                try
+                {
+                    // Completes only if all sessions hang up at the same time
+                    assertTrue(started.await(2, TimeUnit.SECONDS));
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+
+        ResultListener listener = new ResultListener();
+
+        long start = System.currentTimeMillis();
+
+        assertTrue(
+            teardown.hangUp(
+                "room", Arrays.asList(hangUp, hangUp, hangUp), 5000,
+                listener));
+
+        RoomTeardown.Result result = listener.await(3000);
+
+        assertTrue(System.currentTimeMillis() - start < 2000);
+        assertEquals("room", listener.roomName);
+        assertEquals(3, result.getSessions());
+        assertEquals(3, result.getCompleted());
+    }
+
+    @Test
+    public void testDeadline()
+        throws InterruptedException
+    {
+        final CountDownLatch release = new CountDownLatch(1);
+
+        Runnable stuck = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    release.await();
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        Runnable quick = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+            }
+        };
+
+        long timeouts = Statistics.get(RoomTeardown.TOTAL_TEARDOWN_TIMEOUTS);
+
+        ResultListener listener = new ResultListener();
+
+        long start = System.currentTimeMillis();
+
+        assertTrue(
+            teardown.hangUp(
+                "room", Arrays.asList(stuck, quick), 100, listener));
+
+        RoomTeardown.Result result = listener.await(2000);
+
+        // The result does not wait for the stuck session
+        assertTrue(System.currentTimeMillis() - start < 1000);
+        assertEquals(2, result.getSessions());
+        assertEquals(1, result.getCompleted());
+        assertEquals(
+            timeouts + 1,
+            Statistics.get(RoomTeardown.TOTAL_TEARDOWN_TIMEOUTS));
+
+        // The room can be torn down again once the deadline has passed
+        ResultListener again = new ResultListener();
+        assertTrue(
+            teardown.hangUp(
+                "room", Collections.<Runnable>emptyList(), 100, again));
+        assertEquals(0, again.await(1000).getSessions());
+
+        release.countDown();
+    }
+
+    @Test
+    public void testRoomTornDownOnce()
+        throws InterruptedException
+    {
+        final CountDownLatch release = new CountDownLatch(1);
+
+        Runnable hangUp = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    release.await();
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+
+        ResultListener listener = new ResultListener();
+
+        assertTrue(
+            teardown.hangUp(
+                "Room", Collections.singletonList(hangUp), 5000, listener));
+
+        // Room names are not case sensitive
+        assertFalse(
+            teardown.hangUp(
+                "room", Collections.singletonList(hangUp), 5000, null));
+
+        release.countDown();
+
+        RoomTeardown.Result result = listener.await(2000);
+        assertEquals(1, result.getCompleted());
+
+        assertTrue(
+            teardown.hangUp(
+                "room", Collections.<Runnable>emptyList(), 5000, null));
+    }
+
+    @Test
+    public void testNoSessions()
+        throws InterruptedException
+    {
+        ResultListener listener = new ResultListener();
+
+        assertTrue(
+            teardown.hangUp(
+                "room", Collections.<Runnable>emptyList(), 5000, listener));
+
+        // Does not wait for the deadline
+        RoomTeardown.Result result = listener.await(1000);
+        assertEquals(0, result.getSessions());
+        assertEquals(0, result.getCompleted());
+    }
+
+    /**
+     * Waits for the result of the teardown.
+     */
+    private static class ResultListener
+        implements RoomTeardown.Listener
+    {
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        private String roomName;
+
+        private RoomTeardown.Result result;
+
+        @Override
+        public void roomTornDown(String roomName, RoomTeardown.Result result)
+        {
+            this.roomName = roomName;
+            this.result = result;
+
+            done.countDown();
+        }
+
+        RoomTeardown.Result await(long timeout)
+            throws InterruptedException
+        {
+            assertTrue(done.await(timeout, TimeUnit.MILLISECONDS));
+            return result;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Jitsi Videobridge, OpenSource video conferencing.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package org.jitsi.jigasi;
+
+import org.jitsi.jigasi.stats.*;
+import org.junit.*;
+import org.junit.runner.*;
+import org.junit.runners.*;
+
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link Teardown}.
+ */
+@RunWith(JUnit4.class)
+public class TeardownTest
+{
+    @Test
+    public void testStepsRunInParallel()
+    {
+        final CountDownLatch started = new CountDownLatch(3);
+
+        Runnable step = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                started.countDown();
+                try
+                {
+                    // Completes only if all steps run at the same time
+                    assertTrue(started.await(2, TimeUnit.SECONDS));
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+
+        long start = System.currentTimeMillis();
+
+        assertTrue(
+            new Teardown("test")
+                .addStep("test_a", step)
+                .addStep("test_b", step)
+                .addStep("test_c", step)
+                .run(5000));
+
+        assertTrue(System.currentTimeMillis() - start < 2000);
+        assertEquals(
+            1, Statistics.getHistogram("teardown_test_a_time", null)
+                .getCount());
+    }
+
+    @Test
+    public void testHangingStep()
+    {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+
+        long timeouts
+            = Statistics.get(Teardown.TOTAL_TEARDOWN_STEP_TIMEOUTS);
+
+        boolean completed
+            = new Teardown("test")
+                .addStep("test_hanging", new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        try
+                        {
+                            release.await();
+                        }
+                        catch (InterruptedException e)
+                        {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                })
+                .addStep("test_quick", new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        done.countDown();
+                    }
+                })
+                .addStep("test_failing", new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        throw new IllegalStateException("test");
+                    }
+                })
+                .run(100);
+
+        assertFalse(completed);
+        assertEquals(0, done.getCount());
+        assertEquals(
+            timeouts + 1,
+            Statistics.get(Teardown.TOTAL_TEARDOWN_STEP_TIMEOUTS));
+
+        release.countDown();
+    }
+
+    @Test
+    public void testPhases()
+    {
+        final CountDownLatch firstPhase = new CountDownLatch(2);
+        final long[] pending = new long[1];
+
+        Runnable step = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                firstPhase.countDown();
+            }
+        };
+
+        assertTrue(
+            new Teardown("test")
+                .addStep("test_leave", step)
+                .addStep("test_hangup", step)
+                .then()
+                .addStep("test_unload", new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        pending[0] = firstPhase.getCount();
+                    }
+                })
+                .run(5000));
+
+        assertEquals(0, pending[0]);
+    }
+
+    @Test
+    public void testRunAsync()
+        throws InterruptedException
+    {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+
+        long start = System.currentTimeMillis();
+
+        new Teardown("test")
+            .addStep("test_async", new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        release.await();
+                    }
+                    catch (InterruptedException e)
+                    {
+                        Thread.currentThread().interrupt();
+                    }
+                    done.countDown();
+                }
+            })
+            .runAsync(5000);
+
+        assertTrue(System.currentTimeMillis() - start < 2000);
+
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Jitsi Videobridge, OpenSource video conferencing.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package org.jitsi.jigasi.media;
+
+import org.jitsi.impl.neomedia.*;
+import org.junit.*;
+import org.junit.runner.*;
+import org.junit.runners.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests RTP header parsing and selection of the loudest speakers.
+ */
+@RunWith(JUnit4.class)
+public class LoudestSpeakersFilterTest
+{
+    private static final int EXT_ID = 1;
+
+    /**
+     * Creates RTP packet with ssrc-audio-level header extension.
+     */
+    static RawPacket createPacket(long ssrc, int seq, int level)
+    {
+        byte[] buf = new byte[RtpUtils.FIXED_HEADER_SIZE + 8 + 20];
+
+        buf[0] = (byte) 0x90; // V=2, X=1
+        buf[1] = 111;
+        RtpUtils.setSequenceNumber(buf, 0, seq);
+        RtpUtils.setTimestamp(buf, 0, seq * 960L);
+        RtpUtils.setSsrc(buf, 0, ssrc);
+
+        buf[12] = (byte) 0xBE;
+        buf[13] = (byte) 0xDE;
+        buf[15] = 1;
+        buf[16] = (byte) (EXT_ID << 4);
+        buf[17] = (byte) level;
+
+        return new RawPacket(buf, 0, buf.length);
+    }
+
+    @Test
+    public void testParseHeader()
+    {
+        RawPacket p = createPacket(0xCAFEBABEL, 65535, 30);
+        byte[] buf = p.getBuffer();
+
+        assertTrue(RtpUtils.isRtp(buf, 0, p.getLength()));
+        assertEquals(111, RtpUtils.getPayloadType(buf, 0));
+        assertEquals(65535, RtpUtils.getSequenceNumber(buf, 0));
+        assertEquals(0xCAFEBABEL, RtpUtils.getSsrc(buf, 0));
+        assertEquals(20, RtpUtils.getHeaderLength(buf, 0));
+        assertEquals(30, RtpUtils.getAudioLevel(buf, 0, p.getLength(), EXT_ID));
+        assertEquals(-1, RtpUtils.getAudioLevel(buf, 0, p.getLength(), 2));
+
+        // Truncated header extension
+        assertFalse(RtpUtils.isRtp(buf, 0, 14));
+    }
+
+    @Test
+    public void testLoudestSpeakersSelection()
+    {
+        LoudestSpeakersFilter filter = new LoudestSpeakersFilter(1, EXT_ID);
+
+        long loud = 1;
+        long quiet = 2;
+
+        int seq = 0;
+        for (int i = 0; i < 20; i++, seq++)
+        {
+            assertNotNull(filter.filterReceived(createPacket(loud, seq, 10)));
+            assertNull(filter.filterReceived(createPacket(quiet, seq, 120)));
+        }
+        assertEquals(20, filter.getPacketsDropped());
+
+        // Speakers swap - the louder one should take over the slot as soon
+        // as its energy exceeds the one of currently selected speaker
+        boolean switched = false;
+        for (int i = 0; i < 50 && !switched; i++, seq++)
+        {
+            filter.filterReceived(createPacket(loud, seq, 127));
+            switched
+                = filter.filterReceived(createPacket(quiet, seq, 5)) != null;
+        }
+        assertTrue(switched);
+        assertNull(filter.filterReceived(createPacket(loud, seq, 127)));
+
+        // Packets without audio level are never dropped
+        RawPacket noLevel = createPacket(3, seq, 0);
+        noLevel.getBuffer()[0] = (byte) 0x80;
+        assertNotNull(filter.filterReceived(noLevel));
+    }
+
+    @Test
+    public void testGoneSpeakersRemoved()
+    {
+        LoudestSpeakersFilter filter = new LoudestSpeakersFilter(1, EXT_ID);
+
+        long first = 1;
+        long second = 2;
+        long third = 3;
+
+        // The first one is the loudest, the third one is last in the table
+        assertNotNull(filter.filterReceived(createPacket(first, 0, 10), 0));
+        assertNull(filter.filterReceived(createPacket(second, 0, 120), 0));
+        assertNull(filter.filterReceived(createPacket(third, 0, 120), 0));
+
+        // The other two are gone, the third one is moved to the front of
+        // the table and becomes the only speaker
+        assertNotNull(
+            filter.filterReceived(createPacket(third, 1, 120), 6000));
+        assertNotNull(
+            filter.filterReceived(createPacket(third, 2, 120), 6020));
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Jitsi Videobridge, OpenSource video conferencing.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package org.jitsi.jigasi.media;
+
+import org.jitsi.impl.neomedia.*;
+import org.junit.*;
+import org.junit.runner.*;
+import org.junit.runners.*;
+
+import java.io.*;
+import java.nio.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link PromptFilter} and {@link PromptCache}.
+ */
+@RunWith(JUnit4.class)
+public class PromptFilterTest
+{
+    private static RawPacket createPacket(int payloadType, int payloadLen)
+    {
+        byte[] buf = new byte[RtpUtils.FIXED_HEADER_SIZE + payloadLen];
+
+        buf[0] = (byte) 0x80;
+        buf[1] = (byte) payloadType;
+
+        return new RawPacket(buf, 0, buf.length);
+    }
+
+    @Test
+    public void testPlayInLoop()
+    {
+        Prompt prompt
+            = new Prompt(ByteBuffer.wrap(new byte[] { 1, 2, 3, 4, 5 }), null);
+        PromptFilter filter = new PromptFilter(prompt);
+
+        RawPacket packet = createPacket(G711.PCMU_PAYLOAD_TYPE, 4);
+        filter.filterSent(packet);
+        assertArrayEquals(
+            new byte[] { 1, 2, 3, 4 }, payload(packet));
+
+        packet = createPacket(G711.PCMU_PAYLOAD_TYPE, 4);
+        filter.filterSent(packet);
+        assertArrayEquals(
+            new byte[] { 5, 1, 2, 3 }, payload(packet));
+
+        // Other filter plays the same prompt from the beginning
+        PromptFilter other = new PromptFilter(prompt);
+        packet = createPacket(G711.PCMU_PAYLOAD_TYPE, 2);
+        other.filterSent(packet);
+        assertArrayEquals(new byte[] { 1, 2 }, payload(packet));
+
+        // No PCMA samples
+        packet = createPacket(G711.PCMA_PAYLOAD_TYPE, 2);
+        filter.filterSent(packet);
+        assertArrayEquals(new byte[] { 0, 0 }, payload(packet));
+
+        filter.stop();
+        packet = createPacket(G711.PCMU_PAYLOAD_TYPE, 2);
+        filter.filterSent(packet);
+        assertArrayEquals(new byte[] { 0, 0 }, payload(packet));
+        assertFalse(filter.isPlaying());
+    }
+
+    @Test
+    public void testOpusFrames()
+    {
+        ByteBuffer frames = ByteBuffer.allocate(9);
+        frames.putShort((short) 3).put(new byte[] { 1, 2, 3 });
+        frames.putShort((short) 2).put(new byte[] { 4, 5 });
+        frames.flip();
+
+        Prompt prompt = new Prompt(null, null, frames);
+        assertEquals(2 * Prompt.OPUS_FRAME_DURATION, prompt.getDuration());
+
+        PromptFilter filter = new PromptFilter();
+        filter.setOpus(true);
+        filter.play(prompt);
+
+        RawPacket packet = createPacket(111, 10);
+        filter.filterSent(packet);
+        assertArrayEquals(new byte[] { 1, 2, 3 }, payload(packet));
+
+        packet = createPacket(111, 10);
+        filter.filterSent(packet);
+        assertArrayEquals(new byte[] { 4, 5 }, payload(packet));
+
+        // Frame does not fit into the buffer
+        packet = createPacket(111, 1);
+        filter.filterSent(packet);
+        assertArrayEquals(new byte[] { 0 }, payload(packet));
+    }
+
+    @Test
+    public void testPromptCache()
+        throws IOException
+    {
+        File dir = File.createTempFile("prompts", "");
+        assertTrue(dir.delete());
+        assertTrue(dir.mkdir());
+
+        File pcmu = new File(dir, PromptCache.NO_ROOM + Prompt.PCMU_EXTENSION);
+        try
+        {
+            FileOutputStream out = new FileOutputStream(pcmu);
+            try
+            {
+                out.write(new byte[1600]);
+            }
+            finally
+            {
+                out.close();
+            }
+
+            PromptCache cache = new PromptCache(dir);
+
+            Prompt prompt = cache.get(PromptCache.NO_ROOM);
+            assertNotNull(prompt);
+            assertEquals(200, prompt.getDuration());
+            assertNotNull(prompt.getSamples(G711.PCMU_PAYLOAD_TYPE));
+            assertNull(prompt.getSamples(G711.PCMA_PAYLOAD_TYPE));
+
+            // Shared by all sessions
+            assertSame(prompt, cache.get(PromptCache.NO_ROOM));
+
+            assertNull(cache.get(PromptCache.PLEASE_WAIT));
+        }
+        finally
+        {
+            pcmu.delete();
+            dir.delete();
+        }
+    }
+
+    private static byte[] payload(RawPacket packet)
+    {
+        byte[] payload
+            = new byte[packet.getLength() - RtpUtils.FIXED_HEADER_SIZE];
+
+        System.arraycopy(
+            packet.getBuffer(), RtpUtils.FIXED_HEADER_SIZE,
+            payload, 0, payload.length);
+        return payload;
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Jitsi Videobridge, OpenSource video conferencing.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package org.jitsi.jigasi.media;
+
+import org.junit.*;
+import org.junit.runner.*;
+import org.junit.runners.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests stepping of quality levels by {@link QualityGovernor}.
+ */
+@RunWith(JUnit4.class)
+public class QualityGovernorTest
+{
+    @Test
+    public void testDegradeAndRecover()
+    {
+        QualityGovernor governor = new QualityGovernor();
+
+        LoudestSpeakersFilter filter = new LoudestSpeakersFilter(5, 1);
+        governor.addFilter(filter);
+
+        // Short spikes are ignored
+        for (int i = 0; i < QualityGovernor.DEGRADE_SAMPLES - 1; i++)
+        {
+            assertEquals(0, governor.update(0.95, 0));
+        }
+        assertEquals(0, governor.update(0.5, 0));
+
+        // Sustained overload lowers the quality one step at a time
+        for (int i = 0; i < QualityGovernor.DEGRADE_SAMPLES; i++)
+        {
+            governor.update(0.5, 500);
+        }
+        assertEquals(1, governor.getLevel());
+        assertEquals(3, filter.getLimit());
+
+        for (int i = 0; i < QualityGovernor.DEGRADE_SAMPLES * 10; i++)
+        {
+            governor.update(0.99, 0);
+        }
+        assertEquals(QualityGovernor.MAX_LEVEL, governor.getLevel());
+        assertEquals(1, filter.getLimit());
+
+        // Load between thresholds keeps current level
+        for (int i = 0; i < QualityGovernor.RECOVER_SAMPLES * 2; i++)
+        {
+            governor.update(0.7, 0);
+        }
+        assertEquals(QualityGovernor.MAX_LEVEL, governor.getLevel());
+
+        // Quality is restored gradually
+        for (int i = 0; i < QualityGovernor.RECOVER_SAMPLES; i++)
+        {
+            governor.update(0.1, 0);
+        }
+        assertEquals(QualityGovernor.MAX_LEVEL - 1, governor.getLevel());
+
+        for (int i = 0; i < QualityGovernor.RECOVER_SAMPLES * 10; i++)
+        {
+            governor.update(0.1, 0);
+        }
+        assertEquals(0, governor.getLevel());
+        assertEquals(5, filter.getLimit());
+    }
+
+    @Test
+    public void testFilterInstalledUnderLoadOnly()
+    {
+        QualityGovernor governor = new QualityGovernor();
+        RtpFilterEngine engine = new RtpFilterEngine();
+
+        // No filter while the quality is not lowered
+        governor.addEngine(engine, 1);
+        assertNull(governor.getFilter(engine));
+
+        for (int i = 0; i < QualityGovernor.DEGRADE_SAMPLES; i++)
+        {
+            governor.update(0.99, 0);
+        }
+        assertEquals(1, governor.getLevel());
+
+        LoudestSpeakersFilter filter = governor.getFilter(engine);
+        assertNotNull(filter);
+        assertEquals(3, filter.getLimit());
+
+        for (int i = 0; i < QualityGovernor.DEGRADE_SAMPLES; i++)
+        {
+            governor.update(0.99, 0);
+        }
+        assertSame(filter, governor.getFilter(engine));
+        assertEquals(2, filter.getLimit());
+
+        // Sessions started under load get the filter at once
+        RtpFilterEngine newEngine = new RtpFilterEngine();
+        governor.addEngine(newEngine, 1);
+        assertEquals(2, governor.getFilter(newEngine).getLimit());
+        governor.removeEngine(newEngine);
+        assertNull(governor.getFilter(newEngine));
+
+        // The filter is removed once the quality is restored
+        for (int i = 0; i < QualityGovernor.RECOVER_SAMPLES * 10; i++)
+        {
+            governor.update(0.1, 0);
+        }
+        assertEquals(0, governor.getLevel());
+        assertNull(governor.getFilter(engine));
+    }
+}
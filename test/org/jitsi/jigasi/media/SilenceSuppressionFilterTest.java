@@ -0,0 +1,113 @@
+/*
+ * Jitsi Videobridge, OpenSource video conferencing.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package org.jitsi.jigasi.media;
+
+import org.jitsi.impl.neomedia.*;
+import org.junit.*;
+import org.junit.runner.*;
+import org.junit.runners.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests voice activity detection and silence suppression.
+ */
+@RunWith(JUnit4.class)
+public class SilenceSuppressionFilterTest
+{
+    @Test
+    public void testG711AudioLevel()
+    {
+        byte[] silence = new byte[160];
+        java.util.Arrays.fill(silence, (byte) 0xFF);
+
+        assertEquals(0, G711.ulawToLinear((byte) 0xFF));
+        assertEquals(
+            127, G711.getAudioLevel(silence, 0, silence.length, false));
+
+        byte[] loud = new byte[160];
+        for (int i = 0; i < loud.length; i++)
+        {
+            // Full scale square wave
+            loud[i] = (byte) (i % 2 == 0 ? 0x80 : 0x00);
+        }
+        assertEquals(32124, G711.ulawToLinear((byte) 0x80));
+        assertTrue(G711.getAudioLevel(loud, 0, loud.length, false) < 2);
+
+        // A-law encodes small values close to zero
+        assertEquals(8, Math.abs(G711.alawToLinear((byte) 0xD5)));
+        assertTrue(
+            G711.getAudioLevel(new byte[] { (byte) 0xD5 }, 0, 1, true) > 70);
+    }
+
+    @Test
+    public void testSuppression()
+    {
+        SilenceSuppressionFilter filter = new SilenceSuppressionFilter(1, 60);
+
+        // First packet is sent as keep-alive, the rest is suppressed
+        assertNotNull(
+            filter.filterSent(
+                LoudestSpeakersFilterTest.createPacket(1, 0, 127)));
+        for (int i = 1; i < 10; i++)
+        {
+            assertNull(
+                filter.filterSent(
+                    LoudestSpeakersFilterTest.createPacket(1, i, 100)));
+        }
+        assertEquals(9, filter.getPacketsSuppressed());
+        assertEquals(9 * 20, filter.getBytesSuppressed());
+
+        // Voice starts new talkspurt
+        RawPacket voice = LoudestSpeakersFilterTest.createPacket(1, 10, 30);
+        assertSame(voice, filter.filterSent(voice));
+        assertTrue((voice.getBuffer()[1] & 0x80) != 0);
+
+        // Sequence numbers continue after the last packet sent
+        assertEquals(1, RtpUtils.getSequenceNumber(voice.getBuffer(), 0));
+
+        // Silence within hangover is sent
+        RawPacket silence = LoudestSpeakersFilterTest.createPacket(1, 11, 127);
+        assertSame(silence, filter.filterSent(silence));
+        assertTrue((silence.getBuffer()[1] & 0x80) == 0);
+        assertEquals(2, RtpUtils.getSequenceNumber(silence.getBuffer(), 0));
+
+        // Disabled filter sends everything, still without gaps
+        filter.setEnabled(false);
+        RawPacket disabled
+            = LoudestSpeakersFilterTest.createPacket(1, 12, 127);
+        assertSame(disabled, filter.filterSent(disabled));
+        assertEquals(9, filter.getPacketsSuppressed());
+        assertEquals(3, RtpUtils.getSequenceNumber(disabled.getBuffer(), 0));
+    }
+
+    @Test
+    public void testSequenceNumbersOfEachSsrc()
+    {
+        SilenceSuppressionFilter filter = new SilenceSuppressionFilter(1, 60);
+
+        assertNotNull(
+            filter.filterSent(
+                LoudestSpeakersFilterTest.createPacket(1, 65534, 127)));
+        assertNull(
+            filter.filterSent(
+                LoudestSpeakersFilterTest.createPacket(1, 65535, 100)));
+        assertNull(
+            filter.filterSent(
+                LoudestSpeakersFilterTest.createPacket(1, 0, 100)));
+
+        // Rewritten across the wrap around
+        RawPacket voice = LoudestSpeakersFilterTest.createPacket(1, 1, 30);
+        assertSame(voice, filter.filterSent(voice));
+        assertEquals(65535, RtpUtils.getSequenceNumber(voice.getBuffer(), 0));
+
+        // New SSRC starts without offset
+        RawPacket other = LoudestSpeakersFilterTest.createPacket(2, 100, 30);
+        assertSame(other, filter.filterSent(other));
+        assertEquals(100, RtpUtils.getSequenceNumber(other.getBuffer(), 0));
+    }
+}
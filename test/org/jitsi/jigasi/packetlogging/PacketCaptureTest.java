@@ -0,0 +1,189 @@
+/*
+ * Jitsi Videobridge, OpenSource video conferencing.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package org.jitsi.jigasi.packetlogging;
+
+import org.jitsi.jigasi.media.*;
+import org.jitsi.service.packetlogging.*;
+import org.junit.*;
+import org.junit.runner.*;
+import org.junit.runners.*;
+
+import java.io.*;
+import java.nio.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link PacketCapture}.
+ */
+@RunWith(JUnit4.class)
+public class PacketCaptureTest
+{
+    private static final byte[] LOCAL = { 10, 0, 0, 1 };
+
+    private static final byte[] REMOTE = { 10, 0, 0, 2 };
+
+    @Test
+    public void testPcapFormat()
+        throws IOException
+    {
+        PacketCapture capture
+            = new PacketCapture(4 * PacketCapture.SLOT_SIZE, false);
+
+        byte[] sip = "INVITE sip:test@example.com SIP/2.0\r\n".getBytes();
+
+        capture.logPacket(
+            PacketLoggingService.ProtocolName.SIP,
+            LOCAL, 5060, REMOTE, 5061,
+            PacketLoggingService.TransportName.UDP,
+            true, sip);
+
+        ByteBuffer pcap = write(capture, 1);
+
+        // Global header
+        assertEquals(0xa1b2c3d4, pcap.getInt(0));
+        assertEquals(101, pcap.getInt(20));
+
+        // Record header
+        assertEquals(28 + sip.length, pcap.getInt(32));
+        assertEquals(28 + sip.length, pcap.getInt(36));
+
+        // IPv4 and UDP headers
+        int ip = 40;
+        assertEquals(0x45, pcap.get(ip) & 0xFF);
+        assertEquals(28 + sip.length, pcap.getShort(ip + 2));
+        assertEquals(17, pcap.get(ip + 9));
+        assertEquals(1, pcap.get(ip + 15));
+        assertEquals(2, pcap.get(ip + 19));
+        assertEquals(5060, pcap.getShort(ip + 20));
+        assertEquals(5061, pcap.getShort(ip + 22));
+        assertEquals(8 + sip.length, pcap.getShort(ip + 24));
+
+        byte[] payload = new byte[sip.length];
+        pcap.position(ip + 28);
+        pcap.get(payload);
+        assertArrayEquals(sip, payload);
+    }
+
+    @Test
+    public void testOverwriteOldest()
+        throws IOException
+    {
+        PacketCapture capture
+            = new PacketCapture(3 * PacketCapture.SLOT_SIZE, false);
+
+        for (int i = 0; i < 5; i++)
+        {
+            capture.logPacket(
+                PacketLoggingService.ProtocolName.JABBER,
+                LOCAL, 40000, REMOTE, 5222,
+                PacketLoggingService.TransportName.TCP,
+                true, new byte[] { (byte) i });
+        }
+
+        assertEquals(3, capture.getCapacity());
+        assertEquals(5, capture.getPacketsCaptured());
+
+        ByteBuffer pcap = write(capture, 3);
+
+        // Records hold IPv4 and TCP headers followed by one byte, the oldest
+        // first
+        int recordLength = 16 + 20 + 20 + 1;
+        for (int i = 0; i < 3; i++)
+        {
+            int record = 24 + i * recordLength;
+
+            assertEquals(6, pcap.get(record + 16 + 9));
+            assertEquals(i + 2, pcap.get(record + recordLength - 1));
+        }
+    }
+
+    @Test
+    public void testTruncation()
+        throws IOException
+    {
+        PacketCapture capture
+            = new PacketCapture(4 * PacketCapture.SLOT_SIZE, false);
+
+        byte[] rtp = new byte[172];
+        rtp[0] = (byte) 0x80;
+
+        // RTP is not captured unless enabled
+        capture.logPacket(
+            PacketLoggingService.ProtocolName.RTP,
+            LOCAL, 10000, REMOTE, 10001,
+            PacketLoggingService.TransportName.UDP,
+            true, rtp);
+        assertEquals(0, capture.getPacketsCaptured());
+
+        capture = new PacketCapture(4 * PacketCapture.SLOT_SIZE, true);
+        capture.logPacket(
+            PacketLoggingService.ProtocolName.RTP,
+            LOCAL, 10000, REMOTE, 10001,
+            PacketLoggingService.TransportName.UDP,
+            true, rtp);
+
+        byte[] big = new byte[PacketCapture.SLOT_CAPACITY + 100];
+        capture.logPacket(
+            PacketLoggingService.ProtocolName.SIP,
+            LOCAL, 5060, REMOTE, 5060,
+            PacketLoggingService.TransportName.UDP,
+            false, big);
+
+        ByteBuffer pcap = write(capture, 2);
+
+        // Only the header of RTP packet is stored
+        assertEquals(28 + RtpUtils.FIXED_HEADER_SIZE, pcap.getInt(32));
+        assertEquals(28 + rtp.length, pcap.getInt(36));
+
+        int second = 24 + 16 + 28 + RtpUtils.FIXED_HEADER_SIZE;
+        assertEquals(
+            28 + PacketCapture.SLOT_CAPACITY, pcap.getInt(second + 8));
+        assertEquals(28 + big.length, pcap.getInt(second + 12));
+    }
+
+    @Test
+    public void testDumpOnRequest()
+        throws IOException
+    {
+        PacketCapture capture
+            = new PacketCapture(4 * PacketCapture.SLOT_SIZE, false);
+
+        File dir = File.createTempFile("capture", "");
+        assertTrue(dir.delete());
+        capture.setDumpDirectory(dir);
+
+        try
+        {
+            File file = capture.dumpOnRequest("admin@example.com");
+            assertNotNull(file);
+            assertEquals(dir, file.getParentFile());
+            assertTrue(
+                file.getName().endsWith("-request-admin_example.com.pcap"));
+
+            // Each requester has to wait before the next dump
+            assertNull(capture.dumpOnRequest("admin@example.com"));
+            assertNotNull(capture.dumpOnRequest("example.com"));
+        }
+        finally
+        {
+            for (File file : dir.listFiles())
+                assertTrue(file.delete());
+            assertTrue(dir.delete());
+        }
+    }
+
+    private static ByteBuffer write(PacketCapture capture, int expected)
+        throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        assertEquals(expected, capture.writePcap(out));
+
+        return ByteBuffer.wrap(out.toByteArray());
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Jitsi Videobridge, OpenSource video conferencing.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package org.jitsi.jigasi.stats;
+
+import org.json.simple.*;
+import org.json.simple.parser.*;
+import org.junit.*;
+import org.junit.runner.*;
+import org.junit.runners.*;
+
+import java.io.*;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link CdrWriter} and {@link CallDetailRecord}.
+ */
+@RunWith(JUnit4.class)
+public class CdrWriterTest
+{
+    private File dir;
+
+    @Before
+    public void setUp()
+        throws IOException
+    {
+        dir = File.createTempFile("cdr", "");
+        assertTrue(dir.delete());
+        assertTrue(dir.mkdir());
+    }
+
+    @After
+    public void tearDown()
+    {
+        for (File file : dir.listFiles())
+        {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void testRecord()
+        throws Exception
+    {
+        CallDetailRecord cdr
+            = new CallDetailRecord("abc@call", CallDetailRecord.OUTGOING);
+
+        cdr.setRoomName("room@conference");
+        cdr.setDestination("sip:123@example.com");
+        cdr.sipAnswered("opus/48000");
+        cdr.jvbJoined();
+        cdr.setEndReason(408, "No invite from conference focus");
+        // The first reason is kept
+        cdr.setEndReason(200, null);
+        cdr.ended();
+
+        JSONObject json = (JSONObject) new JSONParser().parse(cdr.toJson());
+
+        assertEquals("abc@call", json.get("call"));
+        assertEquals("out", json.get("direction"));
+        assertEquals("room@conference", json.get("room"));
+        assertEquals("opus/48000", json.get("sip_codec"));
+        assertEquals(408L, json.get("end_reason_code"));
+        assertTrue((Long) json.get("end") >= (Long) json.get("start"));
+        assertTrue((Long) json.get("sip_answered") > 0);
+    }
+
+    @Test
+    public void testBatchesAndRotation()
+        throws Exception
+    {
+        File file = new File(dir, "cdr.log");
+        CdrWriter writer = new CdrWriter(file, 600, 1000);
+
+        for (int i = 0; i < 3; i++)
+        {
+            assertTrue(
+                writer.offer(
+                    new CallDetailRecord(
+                        "call" + i, CallDetailRecord.INCOMING)));
+        }
+        assertEquals(3, writer.flush());
+        assertEquals(0, writer.flush());
+
+        List<String> lines = readLines(file);
+        assertEquals(3, lines.size());
+        assertTrue(lines.get(2).contains("\"call2\""));
+
+        // Next batch does not fit into the file
+        for (int i = 3; i < 5; i++)
+        {
+            writer.offer(
+                new CallDetailRecord("call" + i, CallDetailRecord.INCOMING));
+        }
+        assertEquals(2, writer.flush());
+
+        assertEquals(2, dir.listFiles().length);
+        lines = readLines(file);
+        assertEquals(2, lines.size());
+        assertTrue(lines.get(0).contains("\"call3\""));
+    }
+
+    private static List<String> readLines(File file)
+        throws IOException
+    {
+        List<String> lines = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try
+        {
+            String line;
+            while ((line = reader.readLine()) != null)
+                lines.add(line);
+        }
+        finally
+        {
+            reader.close();
+        }
+        return lines;
+    }
+}
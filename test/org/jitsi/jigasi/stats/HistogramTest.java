@@ -0,0 +1,89 @@
+/*
+ * Jitsi Videobridge, OpenSource video conferencing.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package org.jitsi.jigasi.stats;
+
+import org.junit.*;
+import org.junit.runner.*;
+import org.junit.runners.*;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link Histogram}.
+ */
+@RunWith(JUnit4.class)
+public class HistogramTest
+{
+    @Test
+    public void testPercentiles()
+    {
+        Histogram histogram = new Histogram(new long[] { 10, 20, 50 });
+
+        assertEquals(0, histogram.getPercentile(50));
+        assertEquals(0, histogram.getMax());
+
+        for (int i = 1; i <= 90; i++)
+        {
+            histogram.record(i % 10 + 1);
+        }
+        for (int i = 0; i < 9; i++)
+        {
+            histogram.record(30);
+        }
+        histogram.record(1000);
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(10, histogram.getPercentile(50));
+        assertEquals(10, histogram.getPercentile(90));
+        assertEquals(50, histogram.getPercentile(95));
+        assertEquals(1000, histogram.getPercentile(100));
+        assertEquals(1000, histogram.getMax());
+        assertEquals((9 * 55 + 9 * 30 + 1000) / 100, histogram.getMean());
+
+        // Percentile never exceeds the greatest value
+        Histogram small = new Histogram(new long[] { 10, 20, 50 });
+        small.record(12);
+        assertEquals(12, small.getPercentile(50));
+    }
+
+    @Test
+    public void testMerge()
+    {
+        long[] bounds = { 10, 100 };
+        Histogram session1 = new Histogram(bounds);
+        Histogram session2 = new Histogram(bounds);
+
+        session1.record(5);
+        session2.record(50);
+        session2.record(500);
+
+        Histogram total = new Histogram(bounds);
+        total.merge(session1);
+        total.merge(session2);
+
+        assertEquals(3, total.getCount());
+        assertEquals(500, total.getMax());
+        assertEquals(100, total.getPercentile(50));
+
+        Map<String, Long> stats = new HashMap<String, Long>();
+        total.addTo("rtt_ms", stats);
+        assertEquals(Long.valueOf(3), stats.get("rtt_ms_count"));
+        assertEquals(Long.valueOf(500), stats.get("rtt_ms_max"));
+
+        try
+        {
+            total.merge(new Histogram(new long[] { 1 }));
+            fail("Histograms with different buckets must not be merged");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // expected
+        }
+    }
+}
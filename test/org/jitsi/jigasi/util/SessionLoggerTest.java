@@ -0,0 +1,166 @@
+/*
+ * Jitsi Videobridge, OpenSource video conferencing.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package org.jitsi.jigasi.util;
+
+import net.java.sip.communicator.util.*;
+import org.junit.*;
+import org.junit.runner.*;
+import org.junit.runners.*;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link SessionLogger} and its queue and throttle.
+ */
+@RunWith(JUnit4.class)
+public class SessionLoggerTest
+{
+    @Test
+    public void testFormat()
+    {
+        assertEquals(
+            "a 1 b null c",
+            SessionLogger.format("a {} b {} c", new Object[] { 1, null }));
+
+        // Missing arguments and the cause are not formatted
+        assertEquals(
+            "x 2 {}",
+            SessionLogger.format(
+                "x {} {}", new Object[] { 2, new Exception() }));
+
+        assertEquals("y", SessionLogger.format("y", new Object[] { 3 }));
+    }
+
+    @Test
+    public void testContext()
+    {
+        SessionLogger log = new SessionLogger(null);
+
+        assertEquals("", log.getContext());
+
+        log.setContext("call", "abc").setContext("room", "r@muc");
+        assertEquals("[call=abc room=r@muc] ", log.getContext());
+
+        log.setContext("call", null);
+        assertEquals("[room=r@muc] ", log.getContext());
+    }
+
+    @Test
+    public void testThrottle()
+    {
+        LogThrottle throttle = new LogThrottle();
+        long now = 10000;
+
+        assertEquals(0, throttle.acquire(now, 2, 3));
+        assertEquals(0, throttle.acquire(now, 2, 3));
+        // Over the limit only every third record passes
+        assertEquals(-1, throttle.acquire(now, 2, 3));
+        assertEquals(-1, throttle.acquire(now, 2, 3));
+        assertEquals(2, throttle.acquire(now, 2, 3));
+        assertEquals(-1, throttle.acquire(now, 2, 3));
+
+        // New window
+        now += LogThrottle.WINDOW;
+        assertEquals(1, throttle.acquire(now, 2, 3));
+        assertEquals(0, throttle.acquire(now, 2, 0));
+        assertEquals(-1, throttle.acquire(now, 2, 0));
+        assertEquals(-1, throttle.acquire(now, 2, 0));
+    }
+
+    @Test
+    public void testQueue()
+        throws InterruptedException
+    {
+        final AsyncLogQueue queue = new AsyncLogQueue(64);
+        final int producers = 4;
+        final int records = 10000;
+
+        assertEquals(64, queue.getCapacity());
+
+        Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; p++)
+        {
+            final int producer = p;
+
+            threads[p] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    for (int i = 0; i < records; i++)
+                    {
+                        SessionLogger.Record record
+                            = new SessionLogger.Record(
+                                    null, SessionLogger.INFO, "",
+                                    "", new Object[] { producer, i }, 0);
+
+                        while (!queue.offer(record))
+                            Thread.yield();
+                    }
+                }
+            };
+            threads[p].start();
+        }
+
+        // Records of each producer come out in order
+        int[] next = new int[producers];
+        int polled = 0;
+        while (polled < producers * records)
+        {
+            SessionLogger.Record record = queue.poll();
+            if (record == null)
+            {
+                Thread.yield();
+                continue;
+            }
+
+            Object[] args = record.getArgs();
+            int producer = (Integer) args[0];
+
+            assertEquals(next[producer], args[1]);
+            next[producer]++;
+            polled++;
+        }
+        for (Thread thread : threads)
+            thread.join();
+
+        assertNull(queue.poll());
+        assertTrue(Arrays.equals(
+            new int[] { records, records, records, records }, next));
+    }
+
+    @Test
+    public void testQueueStop()
+    {
+        AsyncLogQueue queue = new AsyncLogQueue(16);
+        Logger logger = Logger.getLogger(SessionLoggerTest.class);
+
+        queue.start();
+        Thread thread = queue.getThread();
+        assertTrue(thread.isAlive());
+
+        for (int i = 0; i < 8; i++)
+        {
+            assertTrue(
+                queue.offer(
+                    new SessionLogger.Record(
+                            logger, SessionLogger.DEBUG, "",
+                            "record {}", new Object[] { i }, 0)));
+        }
+
+        // The writer thread exits and nothing is left in the queue
+        queue.stop();
+        assertFalse(thread.isAlive());
+        assertNull(queue.poll());
+
+        // Not started again once stopped
+        queue.start();
+        assertSame(thread, queue.getThread());
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Jitsi Videobridge, OpenSource video conferencing.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package org.jitsi.jigasi.xmpp;
+
+import org.junit.*;
+import org.junit.runner.*;
+import org.junit.runners.*;
+import org.xmpp.packet.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link AdminList}.
+ */
+@RunWith(JUnit4.class)
+public class AdminListTest
+{
+    @Test
+    public void testAdmins()
+    {
+        AdminList admins
+            = new AdminList(" Admin@Example.com, ops.example.com,, ");
+
+        assertTrue(admins.isAdmin(new JID("admin@example.com/res")));
+        assertTrue(admins.isAdmin(new JID("ADMIN@example.com")));
+        assertTrue(admins.isAdmin(new JID("anyone@ops.example.com/x")));
+        assertTrue(admins.isAdmin(new JID("ops.example.com")));
+
+        assertFalse(admins.isAdmin(new JID("other@example.com/res")));
+        assertFalse(admins.isAdmin(new JID("example.com")));
+        assertFalse(admins.isAdmin(new JID("admin@evil.com")));
+        assertFalse(admins.isAdmin(null));
+    }
+
+    @Test
+    public void testNobodyByDefault()
+    {
+        AdminList admins = new AdminList(null);
+
+        assertFalse(admins.isAdmin(new JID("admin@example.com")));
+        assertFalse(admins.isAdmin(new JID("example.com")));
+    }
+}
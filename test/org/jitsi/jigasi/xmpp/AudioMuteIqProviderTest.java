@@ -0,0 +1,64 @@
+/*
+ * Jitsi Videobridge, OpenSource video conferencing.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package org.jitsi.jigasi.xmpp;
+
+import org.jivesoftware.smack.packet.*;
+import org.junit.*;
+import org.junit.runner.*;
+import org.junit.runners.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests parsing of audio mute IQs.
+ */
+@RunWith(JUnit4.class)
+public class AudioMuteIqProviderTest
+{
+    @Test
+    public void testParseMute()
+        throws Exception
+    {
+        AudioMuteIqProvider provider = new AudioMuteIqProvider();
+
+        AudioMuteIqProvider.MuteIq muteIq = new AudioMuteIqProvider.MuteIq();
+        muteIq.setType(IQ.Type.SET);
+        muteIq.setJid("room@conference.server.net/jigasi");
+        muteIq.setMute(true);
+
+        AudioMuteIqProvider.MuteIq parsed
+            = (AudioMuteIqProvider.MuteIq) IQUtils.parse(
+                    muteIq.toXML(), provider);
+
+        assertEquals(IQ.Type.SET, parsed.getType());
+        assertEquals(muteIq.getJid(), parsed.getJid());
+        assertEquals(Boolean.TRUE, parsed.getMute());
+
+        muteIq.setMute(false);
+        parsed
+            = (AudioMuteIqProvider.MuteIq) IQUtils.parse(
+                    muteIq.toXML(), provider);
+
+        assertEquals(Boolean.FALSE, parsed.getMute());
+
+        muteIq.setMute(null);
+        parsed
+            = (AudioMuteIqProvider.MuteIq) IQUtils.parse(
+                    muteIq.toXML(), provider);
+
+        assertNull(parsed.getMute());
+    }
+
+    @Test
+    public void testAudioMutedExtension()
+    {
+        assertEquals(
+            "<audiomuted xmlns='http://jitsi.org/jitmeet/audio'>true"
+                + "</audiomuted>",
+            new AudioMuteIqProvider.AudioMutedExtension(true).toXML());
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Jitsi Videobridge, OpenSource video conferencing.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package org.jitsi.jigasi.xmpp;
+
+import org.junit.*;
+import org.junit.runner.*;
+import org.junit.runners.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link DialRequestCache}.
+ */
+@RunWith(JUnit4.class)
+public class DialRequestCacheTest
+{
+    @Test
+    public void testDuplicates()
+    {
+        DialRequestCache cache = new DialRequestCache(10);
+
+        String key = DialRequestCache.getKey("client@example.com", null, "1");
+
+        assertNull(cache.putIfAbsent(key, "call1"));
+        assertEquals("call1", cache.putIfAbsent(key, "call2"));
+
+        // Same IQ id from another requester is another request
+        assertNull(
+            cache.putIfAbsent(
+                DialRequestCache.getKey("other@example.com", null, "1"),
+                "call3"));
+
+        // Dial key identifies the request across different IQ ids
+        String dialKey
+            = DialRequestCache.getKey("client@example.com", "abc", "2");
+        assertNull(cache.putIfAbsent(dialKey, "call4"));
+        assertEquals(
+            "call4",
+            cache.putIfAbsent(
+                DialRequestCache.getKey("client@example.com", "abc", "3"),
+                "call5"));
+
+        cache.remove(key);
+        assertNull(cache.putIfAbsent(key, "call6"));
+    }
+
+    @Test
+    public void testEviction()
+    {
+        DialRequestCache cache = new DialRequestCache(10);
+
+        for (int i = 0; i < 100; i++)
+        {
+            cache.putIfAbsent("key" + i, "call" + i);
+        }
+
+        assertEquals(10, cache.size());
+        assertEquals("call99", cache.putIfAbsent("key99", "other"));
+        assertNull(cache.putIfAbsent("key0", "other"));
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Jitsi Videobridge, OpenSource video conferencing.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package org.jitsi.jigasi.xmpp;
+
+import net.java.sip.communicator.service.protocol.*;
+import org.jivesoftware.smack.*;
+import org.jivesoftware.smack.packet.*;
+import org.jivesoftware.smackx.packet.*;
+import org.junit.*;
+import org.junit.runner.*;
+import org.junit.runners.*;
+
+import java.lang.reflect.*;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link PresenceCoalescer}.
+ */
+@RunWith(JUnit4.class)
+public class PresenceCoalescerTest
+{
+    private static final String ROOM = "room@conference.example.com";
+
+    /**
+     * Presence packets sent to the room.
+     */
+    private final List<Presence> sent = new ArrayList<Presence>();
+
+    /**
+     * The presence of the room kept the same way as by the MUC
+     * implementation.
+     */
+    private final Presence presence = new Presence(Presence.Type.available);
+
+    private PresenceCoalescer coalescer;
+
+    @Before
+    public void setUp()
+    {
+        presence.setTo(ROOM + "/jigasi");
+
+        coalescer
+            = new PresenceCoalescer(
+                    new XMPPConnection("example.com"), ROOM,
+                    new MeetTools(), 100);
+    }
+
+    @After
+    public void tearDown()
+    {
+        coalescer.dispose();
+    }
+
+    private synchronized void send()
+    {
+        coalescer.interceptPacket(presence);
+        sent.add(presence);
+    }
+
+    @Test
+    public void testJoinPresence()
+    {
+        coalescer.setExtension(new Nick("+123"));
+        coalescer.setStatus("Initializing Call");
+
+        // Join presence
+        send();
+
+        assertEquals("Initializing Call", presence.getStatus());
+        Nick nick
+            = (Nick) presence.getExtension(Nick.ELEMENT_NAME, Nick.NAMESPACE);
+        assertEquals("+123", nick.getName());
+    }
+
+    @Test
+    public void testCoalescing()
+        throws InterruptedException
+    {
+        send();
+        coalescer.setChatRoom(createChatRoom());
+
+        coalescer.setStatus("Ringing");
+        coalescer.setExtension(new Nick("a"));
+        coalescer.setStatus("Connected");
+        coalescer.setExtension(new Nick("b"));
+
+        synchronized (this)
+        {
+            assertEquals(1, sent.size());
+        }
+
+        Thread.sleep(300);
+
+        synchronized (this)
+        {
+            assertEquals(2, sent.size());
+        }
+        assertEquals("Connected", presence.getStatus());
+        Nick nick
+            = (Nick) presence.getExtension(Nick.ELEMENT_NAME, Nick.NAMESPACE);
+        assertEquals("b", nick.getName());
+
+        // Other rooms and unavailable presence are not modified
+        Presence other = new Presence(Presence.Type.available);
+        other.setTo("other@conference.example.com/jigasi");
+        coalescer.setStatus("Disconnected");
+        coalescer.interceptPacket(other);
+        assertNull(other.getStatus());
+    }
+
+    private static ChatRoom createChatRoom()
+    {
+        return (ChatRoom) Proxy.newProxyInstance(
+            ChatRoom.class.getClassLoader(),
+            new Class[] { ChatRoom.class },
+            new InvocationHandler()
+            {
+                @Override
+                public Object invoke(Object proxy, Method method,
+                                     Object[] args)
+                {
+                    return null;
+                }
+            });
+    }
+
+    /**
+     * Sends presence of the room the way MUC implementation does.
+     */
+    private class MeetTools
+        implements OperationSetJitsiMeetTools
+    {
+        @Override
+        public void addSupportedFeature(String featureName)
+        {
+        }
+
+        @Override
+        public void sendPresenceExtension(ChatRoom chatRoom,
+                                          PacketExtension extension)
+        {
+            presence.addExtension(extension);
+            send();
+        }
+
+        @Override
+        public void setPresenceStatus(ChatRoom chatRoom, String statusMsg)
+        {
+            presence.setStatus(statusMsg);
+            send();
+        }
+
+        @Override
+        public void addRequestListener(JitsiMeetRequestListener listener)
+        {
+        }
+
+        @Override
+        public void removeRequestListener(JitsiMeetRequestListener listener)
+        {
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Jitsi Videobridge, OpenSource video conferencing.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package org.jitsi.jigasi.xmpp;
+
+import org.jitsi.jigasi.stats.*;
+import org.junit.*;
+import org.junit.runner.*;
+import org.junit.runners.*;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link RequestRateLimiter}.
+ */
+@RunWith(JUnit4.class)
+public class RequestRateLimiterTest
+{
+    @Test
+    public void testLimit()
+        throws InterruptedException
+    {
+        RequestRateLimiter limiter = new RequestRateLimiter(20, 3);
+
+        long rejected
+            = Statistics.get(RequestRateLimiter.TOTAL_RAYO_REQUESTS_REJECTED);
+
+        for (int i = 0; i < 3; i++)
+        {
+            assertTrue(limiter.tryAcquire("client@example.com"));
+        }
+        assertFalse(limiter.tryAcquire("client@example.com"));
+        assertFalse(limiter.tryAcquire("client@example.com"));
+
+        // Other requesters have their own buckets
+        assertTrue(limiter.tryAcquire("other@example.com"));
+
+        // Refilled at the rate
+        Thread.sleep(100);
+        assertTrue(limiter.tryAcquire("client@example.com"));
+
+        assertEquals(
+            rejected + 2,
+            Statistics.get(RequestRateLimiter.TOTAL_RAYO_REQUESTS_REJECTED));
+
+        Map<String, Long> rejections = limiter.getRejections();
+        assertEquals(1, rejections.size());
+        assertEquals(Long.valueOf(2), rejections.get("client@example.com"));
+    }
+
+    @Test
+    public void testPermits()
+    {
+        RequestRateLimiter limiter = new RequestRateLimiter(1, 10);
+
+        assertTrue(limiter.tryAcquire("client@example.com", 8));
+
+        // All or nothing
+        assertFalse(limiter.tryAcquire("client@example.com", 3));
+        assertTrue(limiter.tryAcquire("client@example.com", 2));
+        assertFalse(limiter.tryAcquire("client@example.com"));
+
+        // Never more than the burst
+        assertFalse(limiter.tryAcquire("other@example.com", 11));
+    }
+
+    @Test
+    public void testNoLimit()
+    {
+        RequestRateLimiter limiter = new RequestRateLimiter(0, 1);
+
+        for (int i = 0; i < 100; i++)
+        {
+            assertTrue(limiter.tryAcquire("client@example.com"));
+        }
+        assertTrue(limiter.getRejections().isEmpty());
+    }
+}
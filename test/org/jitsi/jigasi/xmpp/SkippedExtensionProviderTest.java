@@ -0,0 +1,55 @@
+/*
+ * Jitsi Videobridge, OpenSource video conferencing.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package org.jitsi.jigasi.xmpp;
+
+import org.jivesoftware.smack.packet.*;
+import org.junit.*;
+import org.junit.runner.*;
+import org.junit.runners.*;
+import org.xmlpull.mxp1.*;
+import org.xmlpull.v1.*;
+
+import java.io.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link SkippedExtensionProvider}.
+ */
+@RunWith(JUnit4.class)
+public class SkippedExtensionProviderTest
+{
+    @Test
+    public void testSkipNested()
+        throws Exception
+    {
+        XmlPullParser parser = new MXParser();
+        parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, true);
+        parser.setInput(
+            new StringReader(
+                "<presence><media xmlns='http://estos.de/ns/mjs'>"
+                    + "<source type='audio' ssrc='1'/>"
+                    + "<source type='video' ssrc='2'><media/></source>"
+                    + "</media><status>ok</status></presence>"));
+
+        // Move to media element
+        parser.next();
+        parser.next();
+        assertEquals("media", parser.getName());
+
+        PacketExtension extension
+            = new SkippedExtensionProvider().parseExtension(parser);
+
+        assertEquals("skipped", extension.getElementName());
+        assertEquals(XmlPullParser.END_TAG, parser.getEventType());
+        assertEquals("media", parser.getName());
+        assertEquals(2, parser.getDepth());
+
+        parser.next();
+        assertEquals("status", parser.getName());
+    }
+}